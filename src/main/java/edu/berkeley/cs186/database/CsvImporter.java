@@ -0,0 +1,621 @@
+package edu.berkeley.cs186.database;
+
+import edu.berkeley.cs186.database.databox.BoolDataBox;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.FloatDataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
+import edu.berkeley.cs186.database.table.Schema;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Imports delimited text files, one row per line, into tables. The file is memory-mapped and cut
+ * into chunks of chunkBytes, which worker threads parse into rows of DataBoxes of the table's
+ * schema, while the calling thread feeds the parsed rows, in file order, to
+ * Database.Transaction#bulkLoad. Only a few chunks per worker are parsed ahead of the load, and
+ * the load keeps a page of records and, per index, a sorted run of numMemoryPages pages of
+ * entries in memory (the other runs are spilled to temp tables), so the memory an import takes
+ * does not grow with the size of the file.
+ *
+ * A row belongs to the chunk its first byte is in and may run past the end of its chunk by at
+ * most MAX_ROW_BYTES. Fields are separated by the delimiter and trimmed of surrounding spaces;
+ * they can't be quoted, so a field can't hold the delimiter or a line break. Lines of nothing
+ * but spaces are skipped, also before the header. Options are set with chained setters:
+ *
+ *   new CsvImporter().setDelimiter('|').setHeader(true).importInto(transaction, "Students", path)
+ */
+public class CsvImporter {
+  public static final int DEFAULT_CHUNK_BYTES = 8 << 20;
+  public static final int MAX_ROW_BYTES = 1 << 20;
+  public static final int DEFAULT_SAMPLE_ROWS = 1000;
+  // The number of chunks parsed ahead of the load per worker.
+  private static final int CHUNKS_AHEAD = 2;
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private char delimiter;
+  private boolean header;
+  private int numThreads;
+  private int chunkBytes;
+  private int sampleRows;
+
+  /**
+   * Creates an importer of comma-separated files without a header line that parses with as
+   * many threads as there are processors.
+   */
+  public CsvImporter() {
+    this.delimiter = ',';
+    this.header = false;
+    this.numThreads = Runtime.getRuntime().availableProcessors();
+    this.chunkBytes = DEFAULT_CHUNK_BYTES;
+    this.sampleRows = DEFAULT_SAMPLE_ROWS;
+  }
+
+  /**
+   * @param delimiter the ASCII character fields are separated by
+   * @return this
+   */
+  public CsvImporter setDelimiter(char delimiter) {
+    this.delimiter = delimiter;
+    return this;
+  }
+
+  /**
+   * @param header whether the first line of a file that is not blank names its columns instead
+   *               of holding a row
+   * @return this
+   */
+  public CsvImporter setHeader(boolean header) {
+    this.header = header;
+    return this;
+  }
+
+  /**
+   * @param numThreads the number of threads that parse a file
+   * @return this
+   */
+  public CsvImporter setThreads(int numThreads) {
+    this.numThreads = numThreads;
+    return this;
+  }
+
+  /**
+   * @param chunkBytes the number of bytes of a file a thread parses at a time
+   * @return this
+   */
+  public CsvImporter setChunkBytes(int chunkBytes) {
+    this.chunkBytes = chunkBytes;
+    return this;
+  }
+
+  /**
+   * @param sampleRows the number of rows inferSchema looks at
+   * @return this
+   */
+  public CsvImporter setSampleRows(int sampleRows) {
+    this.sampleRows = sampleRows;
+    return this;
+  }
+
+  /**
+   * Infers the schema of a file from its first rows. A column whose values all parse as ints is
+   * an int column, else as floats a float column, else as true or false a bool column; any other
+   * column is a string column as wide as its longest value.
+   *
+   * @param path the file
+   * @param fieldNames the names of the columns; if null, the names in the header line of the file
+   *        or, without a header, column0, column1 and so on
+   * @return the schema of the file
+   * @throws DatabaseException if the file can't be read, has no rows, or its rows do not all have
+   *         as many fields as fieldNames
+   */
+  public Schema inferSchema(String path, List<String> fieldNames) throws DatabaseException {
+    checkOptions();
+    List<String[]> rows = new ArrayList<String[]>();
+    String[] headerFields = null;
+    BufferedReader reader = null;
+    try {
+      reader = Files.newBufferedReader(Paths.get(path), UTF8);
+      String line;
+      while (rows.size() < this.sampleRows && (line = reader.readLine()) != null) {
+        if (trimSpaces(line).isEmpty()) {
+          continue;
+        }
+        String[] fields = splitFields(line);
+        if (this.header && headerFields == null) {
+          headerFields = fields;
+        } else {
+          rows.add(fields);
+        }
+      }
+    } catch (IOException e) {
+      throw new DatabaseException(e);
+    } finally {
+      closeQuietly(reader);
+    }
+    if (rows.isEmpty()) {
+      throw new DatabaseException("No rows to infer the schema of " + path + " from");
+    }
+
+    int numFields = rows.get(0).length;
+    List<String> names = new ArrayList<String>();
+    if (fieldNames != null) {
+      names.addAll(fieldNames);
+    } else if (headerFields != null) {
+      Collections.addAll(names, headerFields);
+    } else {
+      for (int i = 0; i < numFields; i++) {
+        names.add("column" + i);
+      }
+    }
+
+    boolean[] ints = new boolean[numFields];
+    boolean[] floats = new boolean[numFields];
+    boolean[] bools = new boolean[numFields];
+    int[] widths = new int[numFields];
+    for (int i = 0; i < numFields; i++) {
+      ints[i] = floats[i] = bools[i] = true;
+      widths[i] = 1;
+    }
+    for (String[] fields : rows) {
+      if (fields.length != names.size()) {
+        throw new DatabaseException("Row of " + fields.length + " fields in " + path + ", expected "
+                                    + names.size());
+      }
+      for (int i = 0; i < numFields; i++) {
+        String value = fields[i];
+        ints[i] = ints[i] && isInt(value);
+        floats[i] = floats[i] && isFloat(value);
+        bools[i] = bools[i] && (value.equalsIgnoreCase("true") || value.equalsIgnoreCase("false"));
+        widths[i] = Math.max(widths[i], value.length());
+      }
+    }
+
+    List<DataBox> fieldTypes = new ArrayList<DataBox>();
+    for (int i = 0; i < numFields; i++) {
+      if (ints[i]) {
+        fieldTypes.add(new IntDataBox());
+      } else if (floats[i]) {
+        fieldTypes.add(new FloatDataBox());
+      } else if (bools[i]) {
+        fieldTypes.add(new BoolDataBox());
+      } else {
+        fieldTypes.add(new StringDataBox(widths[i]));
+      }
+    }
+    return new Schema(names, fieldTypes);
+  }
+
+  /**
+   * Imports a file into a table through Database.Transaction#bulkLoad, which takes an exclusive
+   * lock on the table. Every row is checked against the schema of the table: it must have a
+   * field per column, and each field must parse as the type of its column. Strings longer than
+   * their column are cut, as StringDataBox does.
+   *
+   * @param transaction the transaction to import in
+   * @param tableName the name of the table
+   * @param path the file
+   * @return the number of rows imported and how long that took
+   * @throws DatabaseException if the table does not exist, the file can't be read or a row does
+   *         not match the schema of the table, in which case no row is imported
+   */
+  public Result importInto(Database.Transaction transaction, String tableName, String path)
+      throws DatabaseException {
+    checkOptions();
+    long startTime = System.nanoTime();
+    final Schema schema = transaction.getSchema(tableName);
+    final FileChannel channel;
+    final long size;
+    try {
+      channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+      size = channel.size();
+    } catch (IOException e) {
+      throw new DatabaseException(e);
+    }
+
+    final ExecutorService workers = Executors.newFixedThreadPool(this.numThreads);
+    final Deque<Future<List<List<DataBox>>>> parsed = new ArrayDeque<Future<List<List<DataBox>>>>();
+    final long[] nextChunk = new long[1];
+    try {
+      nextChunk[0] = this.header ? headerEnd(channel, size) : 0;
+      while (parsed.size() < this.numThreads * CHUNKS_AHEAD && nextChunk[0] < size) {
+        parsed.add(workers.submit(new ChunkParser(channel, size, nextChunk[0], path, schema)));
+        nextChunk[0] += this.chunkBytes;
+      }
+
+      long numRows = transaction.bulkLoad(tableName, new Iterator<List<DataBox>>() {
+        private Iterator<List<DataBox>> rows = Collections.<List<DataBox>>emptyList().iterator();
+
+        public boolean hasNext() {
+          while (!rows.hasNext() && !parsed.isEmpty()) {
+            Future<List<List<DataBox>>> chunk = parsed.poll();
+            if (nextChunk[0] < size) {
+              parsed.add(workers.submit(new ChunkParser(channel, size, nextChunk[0], path, schema)));
+              nextChunk[0] += CsvImporter.this.chunkBytes;
+            }
+            rows = awaitChunk(chunk).iterator();
+          }
+          return rows.hasNext();
+        }
+
+        public List<DataBox> next() {
+          if (!hasNext()) {
+            throw new NoSuchElementException();
+          }
+          return rows.next();
+        }
+
+        public void remove() {
+          throw new UnsupportedOperationException();
+        }
+      });
+      return new Result(numRows, size, System.nanoTime() - startTime);
+    } catch (ImportException e) {
+      throw e.error;
+    } finally {
+      workers.shutdownNow();
+      closeQuietly(channel);
+    }
+  }
+
+  /**
+   * The outcome of an import.
+   */
+  public static class Result {
+    private final long numRows;
+    private final long numBytes;
+    private final long nanos;
+
+    Result(long numRows, long numBytes, long nanos) {
+      this.numRows = numRows;
+      this.numBytes = numBytes;
+      this.nanos = nanos;
+    }
+
+    /**
+     * @return the number of rows imported
+     */
+    public long getNumRows() {
+      return this.numRows;
+    }
+
+    /**
+     * @return the size of the imported file
+     */
+    public long getNumBytes() {
+      return this.numBytes;
+    }
+
+    /**
+     * @return how long the import took, in nanoseconds
+     */
+    public long getNanos() {
+      return this.nanos;
+    }
+
+    /**
+     * @return the number of rows imported per second
+     */
+    public double getRowsPerSecond() {
+      return this.nanos == 0 ? 0 : this.numRows * 1e9 / this.nanos;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d rows (%d bytes) in %.3f s, %.0f rows/s", this.numRows, this.numBytes,
+                           this.nanos / 1e9, getRowsPerSecond());
+    }
+  }
+
+  /**
+   * Parses the rows of one chunk of a file.
+   */
+  private class ChunkParser implements Callable<List<List<DataBox>>> {
+    private final FileChannel channel;
+    private final long size;
+    private final long start;
+    private final String path;
+    private final Schema schema;
+
+    ChunkParser(FileChannel channel, long size, long start, String path, Schema schema) {
+      this.channel = channel;
+      this.size = size;
+      this.start = start;
+      this.path = path;
+      this.schema = schema;
+    }
+
+    public List<List<DataBox>> call() throws DatabaseException, IOException {
+      // Map the byte before the chunk too, to tell whether a row starts at the chunk.
+      long mapStart = Math.max(0, this.start - 1);
+      long end = Math.min(this.size, this.start + CsvImporter.this.chunkBytes);
+      long mapEnd = Math.min(this.size, end + MAX_ROW_BYTES);
+      MappedByteBuffer buf = this.channel.map(FileChannel.MapMode.READ_ONLY, mapStart, mapEnd - mapStart);
+      int limit = buf.limit();
+      int chunkEnd = (int) (end - mapStart);
+
+      int pos = (int) (this.start - mapStart);
+      if (this.start > 0 && buf.get(pos - 1) != '\n') {
+        pos = nextLine(buf, pos, chunkEnd);
+      }
+
+      List<List<DataBox>> rows = new ArrayList<List<DataBox>>();
+      byte[] line = new byte[256];
+      while (pos < chunkEnd) {
+        int lineEnd = pos;
+        while (lineEnd < limit && buf.get(lineEnd) != '\n') {
+          lineEnd++;
+        }
+        if (lineEnd == limit && mapEnd < this.size) {
+          throw rowError(pos, "row longer than " + MAX_ROW_BYTES + " bytes");
+        }
+        int length = lineEnd - pos;
+        if (length > 0 && buf.get(lineEnd - 1) == '\r') {
+          length--;
+        }
+        if (length > line.length) {
+          line = new byte[Math.max(length, 2 * line.length)];
+        }
+        buf.position(pos);
+        buf.get(line, 0, length);
+        if (!isBlank(line, length)) {
+          rows.add(parseRow(line, length, mapStart + pos));
+        }
+        pos = lineEnd + 1;
+      }
+      return rows;
+    }
+
+    /**
+     * Parses a row into values of the schema.
+     *
+     * @param offset the offset of the row in the file, for error messages
+     */
+    private List<DataBox> parseRow(byte[] line, int length, long offset) throws DatabaseException {
+      List<DataBox> fieldTypes = this.schema.getFieldTypes();
+      List<DataBox> values = new ArrayList<DataBox>(fieldTypes.size());
+      int fieldStart = 0;
+      for (int i = 0; i < fieldTypes.size(); i++) {
+        int fieldEnd = fieldStart;
+        while (fieldEnd < length && line[fieldEnd] != CsvImporter.this.delimiter) {
+          fieldEnd++;
+        }
+        if (fieldEnd == length && i < fieldTypes.size() - 1) {
+          throw rowError(offset, "row has fewer than " + fieldTypes.size() + " fields");
+        }
+        values.add(parseField(fieldTypes.get(i), line, fieldStart, fieldEnd, offset));
+        fieldStart = fieldEnd + 1;
+      }
+      if (fieldStart <= length) {
+        throw rowError(offset, "row has more than " + fieldTypes.size() + " fields");
+      }
+      return values;
+    }
+
+    private DataBox parseField(DataBox type, byte[] line, int from, int to, long offset) throws DatabaseException {
+      while (from < to && line[from] == ' ') {
+        from++;
+      }
+      while (to > from && line[to - 1] == ' ') {
+        to--;
+      }
+      String value = new String(line, from, to - from, UTF8);
+      try {
+        switch (type.type()) {
+          case INT:
+            return new IntDataBox(Integer.parseInt(value));
+          case FLOAT:
+            return new FloatDataBox(Float.parseFloat(value));
+          case BOOL:
+            if (value.equalsIgnoreCase("true") || value.equalsIgnoreCase("false")) {
+              return new BoolDataBox(Boolean.parseBoolean(value));
+            }
+            break;
+          case STRING:
+            return new StringDataBox(value, type.getSize());
+          default:
+            break;
+        }
+      } catch (NumberFormatException e) {
+        // reported below
+      }
+      throw rowError(offset, "\"" + value + "\" is not a " + type.type());
+    }
+
+    private DatabaseException rowError(long offset, String problem) {
+      return new DatabaseException("Malformed row at byte " + offset + " of " + this.path + ": " + problem);
+    }
+  }
+
+  /**
+   * Finds the header of a file: its first line that is not blank, as inferSchema and ChunkParser
+   * see blank lines.
+   *
+   * @return the offset of the byte after the header, where the rows start
+   */
+  private static long headerEnd(FileChannel channel, long size) throws DatabaseException {
+    ByteBuffer buf = ByteBuffer.allocate(8192);
+    long offset = 0;
+    boolean content = false;
+    boolean pendingCR = false;
+    try {
+      while (offset < size) {
+        buf.clear();
+        int n = channel.read(buf, offset);
+        if (n < 0) {
+          break;
+        }
+        for (int i = 0; i < n; i++) {
+          byte b = buf.get(i);
+          if (b == '\n') {
+            if (content) {
+              return offset + i + 1;
+            }
+            pendingCR = false;
+          } else if (b == '\r') {
+            // Only a \r that ends a line is dropped from it.
+            content |= pendingCR;
+            pendingCR = true;
+          } else {
+            content |= pendingCR || b != ' ';
+            pendingCR = false;
+          }
+        }
+        offset += n;
+      }
+    } catch (IOException e) {
+      throw new DatabaseException(e);
+    }
+    return size;
+  }
+
+  /**
+   * @return the position after the next line break at or after pos, or end if there is none
+   *         before end
+   */
+  private static int nextLine(MappedByteBuffer buf, int pos, int end) {
+    while (pos < end && buf.get(pos) != '\n') {
+      pos++;
+    }
+    return Math.min(pos + 1, end);
+  }
+
+  private static boolean isBlank(byte[] line, int length) {
+    for (int i = 0; i < length; i++) {
+      if (line[i] != ' ') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isInt(String value) {
+    try {
+      Integer.parseInt(value);
+      return true;
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  private static boolean isFloat(String value) {
+    try {
+      Float.parseFloat(value);
+      return true;
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Splits a line of a file into its trimmed fields.
+   */
+  private String[] splitFields(String line) {
+    List<String> fields = new ArrayList<String>();
+    int fieldStart = 0;
+    for (int i = 0; i <= line.length(); i++) {
+      if (i == line.length() || line.charAt(i) == this.delimiter) {
+        fields.add(trimSpaces(line.substring(fieldStart, i)));
+        fieldStart = i + 1;
+      }
+    }
+    return fields.toArray(new String[fields.size()]);
+  }
+
+  /**
+   * Trims a field of surrounding spaces, as ChunkParser does; other whitespace, like a tab, is
+   * part of the field.
+   */
+  private static String trimSpaces(String value) {
+    int from = 0;
+    int to = value.length();
+    while (from < to && value.charAt(from) == ' ') {
+      from++;
+    }
+    while (to > from && value.charAt(to - 1) == ' ') {
+      to--;
+    }
+    return value.substring(from, to);
+  }
+
+  /**
+   * Waits for a chunk to be parsed.
+   *
+   * @throws ImportException if the chunk could not be parsed
+   */
+  private static List<List<DataBox>> awaitChunk(Future<List<List<DataBox>>> chunk) {
+    try {
+      return chunk.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ImportException(new DatabaseException("Import interrupted"));
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof DatabaseException) {
+        throw new ImportException((DatabaseException) cause);
+      }
+      throw new ImportException(new DatabaseException("Could not import: " + cause.getMessage()));
+    }
+  }
+
+  private void checkOptions() throws DatabaseException {
+    if (this.delimiter > 127 || this.delimiter == '\n' || this.delimiter == '\r' || this.delimiter == ' ') {
+      throw new DatabaseException("invalid delimiter " + (int) this.delimiter
+                                  + " -- must be an ASCII character other than a space or line break");
+    }
+    if (this.numThreads < 1) {
+      throw new DatabaseException("an import needs at least one thread");
+    }
+    if (this.chunkBytes < 1) {
+      throw new DatabaseException("chunk size must be positive");
+    }
+    if (this.sampleRows < 1) {
+      throw new DatabaseException("sample size must be positive");
+    }
+  }
+
+  private static void closeQuietly(java.io.Closeable c) {
+    if (c == null) {
+      return;
+    }
+    try {
+      c.close();
+    } catch (IOException e) {
+      // nothing to do on a file that was only read
+    }
+  }
+
+  /**
+   * Carries a DatabaseException out of the row iterator handed to Table#bulkLoad, which makes the
+   * load undo itself.
+   */
+  private static class ImportException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final DatabaseException error;
+
+    ImportException(DatabaseException error) {
+      super(error.getMessage());
+      this.error = error;
+    }
+  }
+}
@@ -1,16 +1,32 @@
 package edu.berkeley.cs186.database;
 
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
 import edu.berkeley.cs186.database.query.QueryPlan;
 import edu.berkeley.cs186.database.table.*;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 import edu.berkeley.cs186.database.concurrency.*;
 import edu.berkeley.cs186.database.index.BPlusTree;
+import edu.berkeley.cs186.database.index.LeafEntry;
+import edu.berkeley.cs186.database.io.BufferPool;
+import edu.berkeley.cs186.database.io.IOStats;
 import edu.berkeley.cs186.database.io.Page;
+import edu.berkeley.cs186.database.io.StorageConfig;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.List;
 import java.util.Iterator;
 
@@ -26,6 +42,8 @@ public class Database {
   private String fileDir;
   private LockManager lockMan;
   private int numMemoryPages;
+  private StorageConfig storageConfig;
+  private boolean startedWriter;
 
   /**
    * Creates a new database.
@@ -47,8 +65,39 @@ public class Database {
    * @throws DatabaseException
    */
   public Database(String fileDir, int numMemoryPages) throws DatabaseException {
+    this(fileDir, numMemoryPages, BufferPool.getDefault());
+  }
+
+  /**
+   * Creates a new database whose tables and indices cache their pages in the given BufferPool.
+   * The pool decides how many pages are cached and which ReplacementPolicy evicts them.
+   *
+   * @param fileDir the directory to put the table files in
+   * @param numMemoryPages the number of pages of memory Database Operations should use when executing Queries
+   * @param bufferPool the BufferPool for this database's pages
+   * @throws DatabaseException
+   */
+  public Database(String fileDir, int numMemoryPages, BufferPool bufferPool) throws DatabaseException {
+    this(fileDir, numMemoryPages, new StorageConfig().setBufferPool(bufferPool));
+  }
+
+  /**
+   * Creates a new database with the given storage options. The buffer pool of storageConfig
+   * caches the pages of every table and index, and its page size is used for every table and
+   * index this database creates. Existing files are opened with the page size they were
+   * created with. If storageConfig asks for a background writer, the database starts one on the
+   * buffer pool, unless the pool already runs one, and stops it again on close.
+   *
+   * @param fileDir the directory to put the table files in
+   * @param numMemoryPages the number of pages of memory Database Operations should use when executing Queries
+   * @param storageConfig the storage options for this database's files
+   * @throws DatabaseException
+   */
+  public Database(String fileDir, int numMemoryPages, StorageConfig storageConfig) throws DatabaseException {
     this.numMemoryPages = numMemoryPages;
+    this.storageConfig = storageConfig;
     this.fileDir = fileDir;
+    this.startedWriter = false;
     numTransactions = 0;
     tableLookup = new ConcurrentHashMap<String, Table>();
     indexLookup = new ConcurrentHashMap<String, BPlusTree>();
@@ -67,13 +116,18 @@ public class Database {
       if (fName.endsWith(Table.FILENAME_EXTENSION)) {
         int lastIndex = fName.lastIndexOf(Table.FILENAME_EXTENSION);
         String tableName = fName.substring(0, lastIndex);
-        tableLookup.put(tableName, new Table(tableName, this.fileDir));
+        tableLookup.put(tableName, new Table(tableName, this.fileDir, this.storageConfig));
       } else if (fName.endsWith(BPlusTree.FILENAME_EXTENSION)) {
         int lastIndex = fName.lastIndexOf(BPlusTree.FILENAME_EXTENSION);
         String indexName = fName.substring(0, lastIndex);
-        indexLookup.put(indexName, new BPlusTree(indexName, this.fileDir));
+        indexLookup.put(indexName, new BPlusTree(indexName, this.fileDir, this.storageConfig));
       }
     }
+
+    if (storageConfig.getBackgroundWriterInterval() > 0) {
+      this.startedWriter = storageConfig.getBufferPool().startBackgroundWriter(
+          storageConfig.getBackgroundWriterInterval());
+    }
   }
 
 
@@ -89,7 +143,7 @@ public class Database {
       throw new DatabaseException("Table name already exists");
     }
 
-    this.tableLookup.put(tableName, new Table(s, tableName, this.fileDir));
+    this.tableLookup.put(tableName, new Table(s, tableName, this.fileDir, this.storageConfig));
   }
 
   /**
@@ -122,12 +176,12 @@ public class Database {
       schemaColIndex.add(schemaColNames.indexOf(col));
     }
 
-    this.tableLookup.put(tableName, new Table(s, tableName, this.fileDir));
+    this.tableLookup.put(tableName, new Table(s, tableName, this.fileDir, this.storageConfig));
     for (int i : schemaColIndex) {
       String colName = schemaColNames.get(i);
       DataBox colType = schemaColType.get(i);
       String indexName = tableName + "," + colName;
-      this.indexLookup.put(indexName, new BPlusTree(colType, indexName, this.fileDir));
+      this.indexLookup.put(indexName, new BPlusTree(colType, indexName, this.fileDir, this.storageConfig));
     }
   }
 
@@ -142,11 +196,7 @@ public class Database {
       return false;
     }
 
-    this.tableLookup.get(tableName).close();
-    this.tableLookup.remove(tableName);
-
-    File f = new File(fileDir + tableName + Table.FILENAME_EXTENSION);
-    f.delete();
+    this.tableLookup.remove(tableName).delete();
 
     return true;
   }
@@ -163,7 +213,91 @@ public class Database {
   }
 
   /**
-   * Close this database.
+   * Forces the allocation metadata of every table and index to disk. With a non-zero metadata
+   * sync interval (see StorageConfig) this is the point up to which allocations are durable.
+   */
+  public synchronized void sync() {
+    for (Table t : this.tableLookup.values()) {
+      t.sync();
+    }
+    for (BPlusTree index : this.indexLookup.values()) {
+      index.sync();
+    }
+  }
+
+  /**
+   * Takes a snapshot of the I/O counters of every table and index file, keyed by table or index
+   * name. Two snapshots can be subtracted (see IOStats#minus) to find the I/O done in between.
+   *
+   * @return a map from table and index names to their I/O counters
+   */
+  public synchronized Map<String, IOStats> getIOStats() {
+    Map<String, IOStats> stats = new HashMap<String, IOStats>();
+    for (Map.Entry<String, Table> e : this.tableLookup.entrySet()) {
+      stats.put(e.getKey(), e.getValue().getIOStats());
+    }
+    for (Map.Entry<String, BPlusTree> e : this.indexLookup.entrySet()) {
+      stats.put(e.getKey(), e.getValue().getIOStats());
+    }
+    return stats;
+  }
+
+  /**
+   * Verifies every table and index file of this database in parallel. See PageAllocator#scrub.
+   *
+   * @return a map from the names of the tables and indices with problems to the problems found;
+   * empty if every file is intact
+   * @throws DatabaseException if a file could not be read
+   */
+  public synchronized Map<String, List<String>> scrub() throws DatabaseException {
+    Map<String, Callable<List<String>>> tasks = new HashMap<String, Callable<List<String>>>();
+    for (Map.Entry<String, Table> e : this.tableLookup.entrySet()) {
+      final Table table = e.getValue();
+      tasks.put(e.getKey(), new Callable<List<String>>() {
+        public List<String> call() {
+          return table.scrub();
+        }
+      });
+    }
+    for (Map.Entry<String, BPlusTree> e : this.indexLookup.entrySet()) {
+      final BPlusTree index = e.getValue();
+      tasks.put(e.getKey(), new Callable<List<String>>() {
+        public List<String> call() {
+          return index.scrub();
+        }
+      });
+    }
+
+    Map<String, List<String>> problems = new HashMap<String, List<String>>();
+    if (tasks.isEmpty()) {
+      return problems;
+    }
+    int numThreads = Math.min(tasks.size(), Runtime.getRuntime().availableProcessors());
+    ExecutorService workers = Executors.newFixedThreadPool(numThreads);
+    try {
+      Map<String, Future<List<String>>> results = new HashMap<String, Future<List<String>>>();
+      for (Map.Entry<String, Callable<List<String>>> e : tasks.entrySet()) {
+        results.put(e.getKey(), workers.submit(e.getValue()));
+      }
+      for (Map.Entry<String, Future<List<String>>> e : results.entrySet()) {
+        List<String> found = e.getValue().get();
+        if (!found.isEmpty()) {
+          problems.put(e.getKey(), found);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DatabaseException("Scrub interrupted");
+    } catch (ExecutionException e) {
+      throw new DatabaseException("Could not scrub: " + e.getCause().getMessage());
+    } finally {
+      workers.shutdown();
+    }
+    return problems;
+  }
+
+  /**
+   * Close this database, and stop the background writer it started, if any.
    */
   public synchronized void close() {
     for (Table t : this.tableLookup.values()) {
@@ -171,6 +305,25 @@ public class Database {
     }
 
     this.tableLookup.clear();
+
+    if (this.startedWriter) {
+      this.storageConfig.getBufferPool().stopBackgroundWriter();
+      this.startedWriter = false;
+    }
+  }
+
+  /**
+   * @return the BufferPool caching this database's pages
+   */
+  public BufferPool getBufferPool() {
+    return this.storageConfig.getBufferPool();
+  }
+
+  /**
+   * @return the storage options of this database
+   */
+  public StorageConfig getStorageConfig() {
+    return this.storageConfig;
   }
 
   /**
@@ -191,6 +344,7 @@ public class Database {
     HashMap<String, LockManager.LockType> locksHeld;
     HashMap<String, Table> tempTables;
     HashMap<String, String> aliasMaps;
+    int numIndexRuns;
 
     private Transaction(long tNum) {
       this.transNum = tNum;
@@ -207,6 +361,7 @@ public class Database {
     public void end() {
       assert(this.active);
 
+      Database.this.sync();
       releaseAllLocks();
       deleteAllTempTables();
       this.active = false;
@@ -270,7 +425,8 @@ public class Database {
         f.mkdirs();
       }
 
-      this.tempTables.put(tempTableName, new Table(schema, tempTableName, Database.this.fileDir + "temp/"));
+      this.tempTables.put(tempTableName, new Table(schema, tempTableName, Database.this.fileDir + "temp/",
+                                                   Database.this.storageConfig));
       this.locksHeld.put(tempTableName, LockManager.LockType.EXCLUSIVE);
     }
 
@@ -333,6 +489,235 @@ public class Database {
       return rid;
     }
 
+    /**
+     * Adds many records to a table at once (see Table#bulkLoad), then adds their keys to each
+     * index of the table in a single BPlusTree#bulkLoad. The entries of each index are gathered
+     * in sorted runs of numMemoryPages pages, spilled to temp tables when there is more than one,
+     * so that the memory the load takes does not grow with the number of rows. Takes an exclusive
+     * lock on the table.
+     *
+     * @param tableName the name of the table
+     * @param rows the values of the records to add
+     * @return the number of records added
+     * @throws DatabaseException if the table does not exist, a row does not match its schema or
+     *         an index can't be loaded, in which case no row is added and the indices hold no
+     *         entry of the load
+     */
+    public long bulkLoad(String tableName, Iterator<List<DataBox>> rows) throws DatabaseException {
+      assert(this.active);
+
+      checkAndGrabExclusiveLock(tableName);
+      Table tab = getTable(tableName);
+      Schema s = tab.getSchema();
+      List<String> colNames = s.getFieldNames();
+
+      final List<Integer> indexColumns = new ArrayList<Integer>();
+      final List<BPlusTree> indices = new ArrayList<BPlusTree>();
+      final List<IndexRuns> runs = new ArrayList<IndexRuns>();
+      for (int i = 0; i < colNames.size(); i++) {
+        if (indexExists(tableName, colNames.get(i))) {
+          indexColumns.add(i);
+          indices.add(resolveIndexFromName(tableName, colNames.get(i)));
+          runs.add(new IndexRuns(tableName + "." + colNames.get(i), s.getFieldTypes().get(i), tab.getPageSize()));
+        }
+      }
+
+      // The number of indices that may hold entries of the load, and the pages of a failed load.
+      final int[] numIndexed = new int[] {0};
+      final Set<Integer> failedPages = new TreeSet<Integer>();
+      try {
+        return tab.bulkLoad(rows, new Table.BulkLoadListener() {
+          public void added(RecordID rid, Record record) throws DatabaseException {
+            for (int i = 0; i < indexColumns.size(); i++) {
+              runs.get(i).add(new LeafEntry(record.getValues().get(indexColumns.get(i)), rid));
+            }
+          }
+
+          public void finished() throws DatabaseException {
+            for (int i = 0; i < runs.size(); i++) {
+              Iterator<LeafEntry> sorted = runs.get(i).sorted();
+              numIndexed[0]++;
+              indices.get(i).bulkLoad(sorted);
+            }
+          }
+
+          public void removed(RecordID rid, Record record) {
+            failedPages.add(rid.getPageNum());
+          }
+        });
+      } catch (DatabaseException | RuntimeException e) {
+        // BPlusTree has no deleteKey, so an index that got entries of the load is rebuilt without
+        // the entries on the pages of the load, which held no other records.
+        for (int i = 0; i < numIndexed[0]; i++) {
+          indices.get(i).rebuild(Collections.<RecordID, RecordID>emptyMap(), failedPages);
+        }
+        throw e;
+      } finally {
+        for (IndexRuns run : runs) {
+          run.delete();
+        }
+      }
+    }
+
+    /**
+     * The entries of an index gathered by bulkLoad. They are kept in a run of at most
+     * numMemoryPages pages of entries, which is sorted and written to a temp table when it is
+     * full. The runs are merged numMemoryPages - 1 at a time, and the merged ones deleted, until
+     * they can be merged into one stream of entries in key order.
+     */
+    private class IndexRuns {
+      private final String name;
+      private final Schema schema;
+      private final int runSize;
+      private final int fanIn;
+      private List<LeafEntry> run;
+      private List<String> runTables;
+
+      /**
+       * @param name the name of the index, which the names of its temp tables start with
+       * @param keyType the type of the keys of the index
+       * @param pageSize the page size of the indexed table, which its temp tables share
+       */
+      IndexRuns(String name, DataBox keyType, int pageSize) {
+        this.name = name;
+        this.schema = new Schema(Arrays.asList("key", "pageNum", "entryNum"),
+                                 Arrays.asList(keyType, new IntDataBox(), new IntDataBox()));
+        this.runSize = Math.max(1, Database.this.numMemoryPages * pageSize / this.schema.getEntrySize());
+        this.fanIn = Math.max(2, Database.this.numMemoryPages - 1);
+        this.run = new ArrayList<LeafEntry>();
+        this.runTables = new ArrayList<String>();
+      }
+
+      void add(LeafEntry entry) throws DatabaseException {
+        this.run.add(entry);
+        if (this.run.size() == this.runSize) {
+          Collections.sort(this.run, LeafEntry.ORDER);
+          this.runTables.add(this.writeRun(this.run.iterator()));
+          this.run.clear();
+        }
+      }
+
+      /**
+       * @return every entry added, in key order
+       */
+      Iterator<LeafEntry> sorted() throws DatabaseException {
+        if (this.runTables.isEmpty()) {
+          Collections.sort(this.run, LeafEntry.ORDER);
+          return this.run.iterator();
+        }
+        if (!this.run.isEmpty()) {
+          Collections.sort(this.run, LeafEntry.ORDER);
+          this.runTables.add(this.writeRun(this.run.iterator()));
+          this.run.clear();
+        }
+        while (this.runTables.size() > this.fanIn) {
+          List<String> merged = new ArrayList<String>();
+          for (int i = 0; i < this.runTables.size(); i += this.fanIn) {
+            List<String> group = this.runTables.subList(i, Math.min(i + this.fanIn, this.runTables.size()));
+            if (group.size() == 1) {
+              merged.add(group.get(0));
+              continue;
+            }
+            merged.add(this.writeRun(this.merge(group)));
+            for (String tableName : group) {
+              deleteTempTable(tableName);
+            }
+          }
+          this.runTables = merged;
+        }
+        return this.merge(this.runTables);
+      }
+
+      /**
+       * Deletes the temp tables of the runs that are left.
+       */
+      void delete() {
+        for (String tableName : this.runTables) {
+          deleteTempTable(tableName);
+        }
+        this.runTables.clear();
+        this.run.clear();
+      }
+
+      /**
+       * Writes sorted entries to a new temp table.
+       *
+       * @return the name of the temp table
+       */
+      private String writeRun(final Iterator<LeafEntry> entries) throws DatabaseException {
+        String tableName = this.name + ".run" + Transaction.this.numIndexRuns++;
+        createTempTable(this.schema, tableName);
+        getTable(tableName).bulkLoad(new Iterator<List<DataBox>>() {
+          public boolean hasNext() {
+            return entries.hasNext();
+          }
+
+          public List<DataBox> next() {
+            LeafEntry entry = entries.next();
+            RecordID rid = entry.getRecordID();
+            return Arrays.asList(entry.getKey(), new IntDataBox(rid.getPageNum()),
+                                 new IntDataBox(rid.getEntryNumber()));
+          }
+
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        });
+        return tableName;
+      }
+
+      /**
+       * @param tableNames temp tables written by writeRun
+       * @return the entries of the temp tables, in key order
+       */
+      private Iterator<LeafEntry> merge(List<String> tableNames) throws DatabaseException {
+        final List<Iterator<Record>> sources = new ArrayList<Iterator<Record>>();
+        // The next entry of each source, and the sources that have one, smallest entry first.
+        final List<LeafEntry> heads = new ArrayList<LeafEntry>();
+        final PriorityQueue<Integer> order = new PriorityQueue<Integer>(tableNames.size(), new Comparator<Integer>() {
+          public int compare(Integer a, Integer b) {
+            return heads.get(a).compareTo(heads.get(b));
+          }
+        });
+        for (String tableName : tableNames) {
+          Iterator<Record> source = getTable(tableName).iterator();
+          sources.add(source);
+          heads.add(source.hasNext() ? toEntry(source.next()) : null);
+          if (heads.get(heads.size() - 1) != null) {
+            order.add(heads.size() - 1);
+          }
+        }
+
+        return new Iterator<LeafEntry>() {
+          public boolean hasNext() {
+            return !order.isEmpty();
+          }
+
+          public LeafEntry next() {
+            if (order.isEmpty()) {
+              throw new NoSuchElementException();
+            }
+            int i = order.poll();
+            LeafEntry entry = heads.get(i);
+            if (sources.get(i).hasNext()) {
+              heads.set(i, toEntry(sources.get(i).next()));
+              order.add(i);
+            }
+            return entry;
+          }
+
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+
+      private LeafEntry toEntry(Record record) {
+        List<DataBox> values = record.getValues();
+        return new LeafEntry(values.get(0), new RecordID(values.get(1).getInt(), values.get(2).getInt()));
+      }
+    }
+
     public int getNumMemoryPages() throws DatabaseException {
       assert(this.active);
 
@@ -372,6 +757,21 @@ public class Database {
       return getTable(tableName).iterator();
     }
 
+    /**
+     * Returns an iterator over the records of a table that yields RecordViews, which decode a
+     * column only when it is read. See Table#viewIterator for how long a view may be used.
+     *
+     * @param tableName the name of the table
+     * @return an iterator of RecordViews over the table
+     * @throws DatabaseException if the table does not exist
+     */
+    public Iterator<Record> getRecordViewIterator(String tableName) throws DatabaseException {
+      assert(this.active);
+
+      checkAndGrabSharedLock(tableName);
+      return getTable(tableName).viewIterator();
+    }
+
     public Iterator<Page> getPageIterator(String tableName) throws DatabaseException {
       assert(this.active);
 
@@ -400,6 +800,27 @@ public class Database {
       }
     }
 
+    /**
+     * Compacts a table (see Table#compact) and rebuilds its indices with the RecordIDs of the
+     * records that moved. Takes an exclusive lock on the table. RecordIDs of the table obtained
+     * before the call may no longer be valid after it.
+     *
+     * @param tableName the name of the table to compact
+     * @throws DatabaseException if the table does not exist
+     */
+    public void compactTable(String tableName) throws DatabaseException {
+      assert(this.active);
+      checkAndGrabExclusiveLock(tableName);
+      Table tab = getTable(tableName);
+      Map<RecordID, RecordID> moved = tab.compact();
+
+      for (String col : tab.getSchema().getFieldNames()) {
+        if (indexExists(tableName, col)) {
+          resolveIndexFromName(tableName, col).rebuild(moved);
+        }
+      }
+    }
+
     public TableStats getStats(String tableName) throws DatabaseException {
       assert(this.active);
 
@@ -421,6 +842,20 @@ public class Database {
       return getTable(tableName).getNumEntriesPerPage();
     }
 
+    public int getNumEntries(String tableName, Page p) throws DatabaseException {
+      assert(this.active);
+
+      checkAndGrabSharedLock(tableName);
+      return getTable(tableName).getNumEntries(p);
+    }
+
+    public Record getEntry(String tableName, Page p, int entryNum) throws DatabaseException {
+      assert(this.active);
+
+      checkAndGrabSharedLock(tableName);
+      return getTable(tableName).getEntry(p, entryNum);
+    }
+
     public byte[] readPageHeader(String tableName, Page p) throws DatabaseException {
       assert(this.active);
 
@@ -574,7 +1009,8 @@ public class Database {
         return;
       }
 
-      this.tempTables.get(tempTableName).close();
+      this.tempTables.remove(tempTableName).close();
+      this.locksHeld.remove(tempTableName);
       Database.this.tableLookup.remove(tempTableName);
 
       File f = new File(Database.this.fileDir + "temp/" + tempTableName + Table.FILENAME_EXTENSION);
@@ -582,7 +1018,7 @@ public class Database {
     }
 
     private void deleteAllTempTables() {
-      Set<String> keys = tempTables.keySet();
+      List<String> keys = new ArrayList<String>(tempTables.keySet());
 
       for (String tableName : keys) {
         deleteTempTable(tableName);
@@ -52,7 +52,7 @@ public abstract class BPlusNode {
             this.entrySize = keySchema.getSize() + 4;
         }
 
-        this.bitMapSize = (8 * (Page.pageSize - 5) / (1 + 8 * this.entrySize)) / 8;
+        this.bitMapSize = (8 * (tree.allocator.getUsablePageSize() - 5) / (1 + 8 * this.entrySize)) / 8;
         this.numEntries = bitMapSize * 8;
     }
 
@@ -75,7 +75,7 @@ public abstract class BPlusNode {
      * @return BPlusNode object that exists on this Page
      */
     public static BPlusNode getBPlusNode(BPlusTree tree, int pageNum) {
-        if (tree.allocator.fetchPage(pageNum).readByte(0) == (byte) 0) {
+        if (tree.allocator.fetchPage(pageNum).getByte(0) == (byte) 0) {
             return new InnerNode(tree, pageNum);
         }
         return new LeafNode(tree, pageNum);
@@ -118,12 +118,14 @@ public abstract class BPlusNode {
         throw new BPlusTreeException("Not Implemented");
     }
 
-    private byte[] getBitMap() {
-        return getPage().readBytes(headerSize, bitMapSize);
-    }
-
-    private void setBitMap(byte[] bitMap) {
-        getPage().writeBytes(headerSize, bitMapSize, bitMap);
+    /**
+     * @param page the Page of this node
+     * @param entryNum position of bit on bitmap
+     * @return whether the entry indicated by entryNum is valid
+     */
+    private boolean isValidEntry(Page page, int entryNum) {
+        byte mask = (byte) (1 << (7 - (entryNum % 8)));
+        return (page.getByte(headerSize + entryNum/8) & mask) != 0;
     }
 
     /**
@@ -142,15 +144,17 @@ public abstract class BPlusNode {
      * @param ent the BEntry to write
      */
     private void writeEntry(int entryNum, BEntry ent) {
-        int byteOffset = entryNum/8;
+        writeEntry(getPage(), entryNum, ent);
+    }
+
+    private void writeEntry(Page page, int entryNum, BEntry ent) {
+        int byteOffset = headerSize + entryNum/8;
         int bitOffset = 7 - (entryNum % 8);
         byte mask = (byte) (1 << bitOffset);
 
-        byte[] bitMap = getBitMap();
-        bitMap[byteOffset] = (byte) (bitMap[byteOffset] | mask);
-        setBitMap(bitMap);
+        page.putByte(byteOffset, (byte) (page.getByte(byteOffset) | mask));
         int entryOffset = getOffset(entryNum);
-        getPage().writeBytes(entryOffset, entrySize, ent.toBytes());
+        page.writeBytes(entryOffset, entrySize, ent.toBytes());
     }
 
     /**
@@ -160,10 +164,14 @@ public abstract class BPlusNode {
      * @return the BEntry corresponding to the entryNum
      */
     private BEntry readEntry(int entryNum) {
+        return readEntry(getPage(), entryNum);
+    }
+
+    private BEntry readEntry(Page page, int entryNum) {
         if (isLeaf()) {
-            return new LeafEntry(this.keySchema, getPage().readBytes(getOffset(entryNum), entrySize));
+            return new LeafEntry(this.keySchema, page.readBytes(getOffset(entryNum), entrySize));
         } else {
-            return new InnerEntry(this.keySchema, getPage().readBytes(getOffset(entryNum), entrySize));
+            return new InnerEntry(this.keySchema, page.readBytes(getOffset(entryNum), entrySize));
         }
     }
 
@@ -173,15 +181,13 @@ public abstract class BPlusNode {
      * @return the first free entry number, otherwise -1 if none exists
      */
     private int findFreeEntry() {
-        byte[] bitMap = this.getBitMap();
+        Page page = getPage();
 
-        for (int i = 0; i < this.numEntries; i++) {
-            int byteOffset = i/8;
-            int bitOffset = 7 - (i % 8);
-            byte mask = (byte) (1 << bitOffset);
-            byte value = (byte) (bitMap[byteOffset] & mask);
-            if (value == 0) {
-                return i;
+        for (int i = 0; i < this.bitMapSize; i++) {
+            int b = page.getByte(headerSize + i) & 0xFF;
+            if (b != 0xFF) {
+                // The first 0 bit, counting from the most significant one.
+                return i*8 + Integer.numberOfLeadingZeros(~b & 0xFF) - 24;
             }
         }
         return -1;
@@ -193,17 +199,11 @@ public abstract class BPlusNode {
      * @return a list of entries that have the valid bit set
      */
     protected List<BEntry> getAllValidEntries() {
-        byte[] bitMap = this.getBitMap();
+        Page page = getPage();
         List<BEntry> entries = new ArrayList<BEntry>();
         for (int i = 0; i < this.numEntries; i++) {
-            int byteOffset = i/8;
-            int bitOffset = 7 - (i % 8);
-            byte mask = (byte) (1 << bitOffset);
-
-            byte value = (byte) (bitMap[byteOffset] & mask);
-
-            if (value != 0) {
-                entries.add(readEntry(i));
+            if (isValidEntry(page, i)) {
+                entries.add(readEntry(page, i));
             }
         }
         return entries;
@@ -216,14 +216,16 @@ public abstract class BPlusNode {
      * @param entries the list of entries to write
      */
     protected void overwriteBNodeEntries(List<BEntry> entries) {
-        byte[] zeros = new byte[bitMapSize];
-        setBitMap(zeros);
+        Page page = getPage();
+        for (int i = 0; i < bitMapSize; i++) {
+            page.putByte(headerSize + i, (byte) 0);
+        }
         if (entries.size() > numEntries) {
             throw new BPlusTreeException("too many BEntry given to fit on page");
         }
 
         for (int i = 0; i < entries.size(); i++) {
-            writeEntry(i, entries.get(i));
+            writeEntry(page, i, entries.get(i));
         }
     }
 
@@ -1,12 +1,18 @@
 package edu.berkeley.cs186.database.index;
 
 import edu.berkeley.cs186.database.io.Page;
+import edu.berkeley.cs186.database.io.IOStats;
 import edu.berkeley.cs186.database.io.PageAllocator;
+import edu.berkeley.cs186.database.io.StorageBackend;
+import edu.berkeley.cs186.database.io.StorageConfig;
 import edu.berkeley.cs186.database.table.RecordID;
 import edu.berkeley.cs186.database.databox.*;
 
 import java.util.*;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 
 /**
  * A B+ tree. Allows the user to add, delete, search, and scan for keys in an
@@ -26,12 +32,16 @@ import java.nio.file.Paths;
 public class BPlusTree {
     public static final String FILENAME_PREFIX = "db";
     public static final String FILENAME_EXTENSION = ".index";
+    // Suffix of the file an index is rebuilt into before it replaces the index file.
+    private static final String REBUILD_SUFFIX = ".rebuild";
 
     protected PageAllocator allocator;
     protected DataBox keySchema;
     private int rootPageNum;
     private int firstLeafPageNum;
     private int numNodes;
+    private String pathname;
+    private StorageConfig config;
 
     /**
      * This constructor is used for creating an empty BPlusTree.
@@ -44,8 +54,30 @@ public class BPlusTree {
     }
 
     public BPlusTree(DataBox keySchema, String fName, String filePrefix) {
-        String pathname = Paths.get(filePrefix, fName + FILENAME_EXTENSION).toString();
-        this.allocator = new PageAllocator(pathname, true);
+        this(keySchema, fName, filePrefix, new StorageConfig());
+    }
+
+    /**
+     * This constructor is used for creating an empty BPlusTree with the given
+     * storage options. Node capacities follow the page size of config.
+     *
+     * @param keySchema the schema of the index key
+     * @param fName the filename of select the index will be built
+     * @param filePrefix the directory the index file is created in
+     * @param config the storage options (buffer pool and page size) for this index
+     */
+    public BPlusTree(DataBox keySchema, String fName, String filePrefix, StorageConfig config) {
+        this(keySchema, Paths.get(filePrefix, fName + FILENAME_EXTENSION).toString(), config);
+    }
+
+    /**
+     * Creates an empty BPlusTree in the file at pathname.
+     */
+    private BPlusTree(DataBox keySchema, String pathname, StorageConfig config) {
+        this.pathname = pathname;
+        // Index nodes are small and hot; only table pages are compressed.
+        this.config = config.copy().setCompression(false);
+        this.allocator = new PageAllocator(pathname, true, true, this.config);
         this.keySchema = keySchema;
         int headerPageNum = this.allocator.allocPage();
         assert(headerPageNum == 0);
@@ -66,8 +98,21 @@ public class BPlusTree {
     }
 
     public BPlusTree(String fName, String filePrefix) {
-        String pathname = Paths.get(filePrefix, fName + FILENAME_EXTENSION).toString();
-        this.allocator = new PageAllocator(pathname, false);
+        this(fName, filePrefix, new StorageConfig());
+    }
+
+    /**
+     * This constructor is used for loading a BPlusTree from a file with the
+     * given storage options. The index keeps the page size it was created with.
+     *
+     * @param fName the filename of a preexisting BPlusTree
+     * @param filePrefix the directory the index file lives in
+     * @param config the storage options for this index
+     */
+    public BPlusTree(String fName, String filePrefix, StorageConfig config) {
+        this.pathname = Paths.get(filePrefix, fName + FILENAME_EXTENSION).toString();
+        this.config = config;
+        this.allocator = new PageAllocator(this.pathname, false, true, config);
         this.readHeader();
     }
 
@@ -174,6 +219,180 @@ public class BPlusTree {
         return this.allocator.getNumPages();
     }
 
+    /**
+     * Return a snapshot of the I/O done on this index's file. See PageAllocator#getIOStats.
+     *
+     * @return the I/O counters of this index
+     */
+    public IOStats getIOStats() {
+        return this.allocator.getIOStats();
+    }
+
+    /**
+     * Verifies this index's file. See PageAllocator#scrub.
+     *
+     * @return a description of every problem found; empty if the file is intact
+     */
+    public List<String> scrub() {
+        return this.allocator.scrub();
+    }
+
+    /**
+     * Forces this index's allocation metadata to disk. See PageAllocator#sync.
+     */
+    public void sync() {
+        this.allocator.sync();
+    }
+
+    /**
+     * Adds many (Key, RecordID) tuples at once. See bulkLoad(Iterator).
+     *
+     * @param entries the entries to add, in any order; sorted in place
+     */
+    public void bulkLoad(List<LeafEntry> entries) {
+        Collections.sort(entries, LeafEntry.ORDER);
+        bulkLoad(entries.iterator());
+    }
+
+    /**
+     * Adds many (Key, RecordID) tuples at once. An empty index is built bottom-up: the entries
+     * fill one leaf after the other, and the first key and page of every node but the first one
+     * of a level go to the node being filled on the level above, so that every node is written
+     * once and only the node being filled on each level is held in memory. Entries are inserted
+     * one by one into an index that is not empty.
+     *
+     * @param sorted the entries to add, in key order
+     */
+    public void bulkLoad(Iterator<LeafEntry> sorted) {
+        BPlusNode root = BPlusNode.getBPlusNode(this, rootPageNum);
+        if (!root.isLeaf() || !root.getAllValidEntries().isEmpty()) {
+            while (sorted.hasNext()) {
+                LeafEntry entry = sorted.next();
+                insertKey(entry.getKey(), entry.getRecordID());
+            }
+            return;
+        }
+
+        // The node being filled on each level, leaves first, and the entries it has so far.
+        List<BPlusNode> nodes = new ArrayList<BPlusNode>();
+        List<List<BEntry>> nodeEntries = new ArrayList<List<BEntry>>();
+        nodes.add(root);
+        nodeEntries.add(new ArrayList<BEntry>());
+        while (sorted.hasNext()) {
+            LeafEntry entry = sorted.next();
+            if (nodeEntries.get(0).size() == root.numEntries) {
+                LeafNode leaf = new LeafNode(this);
+                pushUp(nodes, nodeEntries, 1, new InnerEntry(entry.getKey(), leaf.getPageNum()));
+                startNode(nodes, nodeEntries, 0, leaf);
+            }
+            nodeEntries.get(0).add(entry);
+        }
+
+        for (int i = 0; i < nodes.size(); i++) {
+            nodes.get(i).overwriteBNodeEntries(nodeEntries.get(i));
+        }
+        if (nodes.size() > 1) {
+            updateRoot(nodes.get(nodes.size() - 1).getPageNum());
+        }
+    }
+
+    /**
+     * Adds the entry of a new node of the level below to the node being filled on a level of a
+     * bottom-up build. A level that does not exist yet gets a node whose first child is the node
+     * being filled below; a full node is replaced by one whose first child is the new node.
+     *
+     * @param nodes the node being filled on each level
+     * @param nodeEntries the entries of the node being filled on each level
+     * @param level the level to add to, above the leaves
+     * @param child the first key and page of the new node
+     */
+    private void pushUp(List<BPlusNode> nodes, List<List<BEntry>> nodeEntries, int level, BEntry child) {
+        if (level == nodes.size()) {
+            InnerNode inner = new InnerNode(this);
+            inner.setFirstChild(nodes.get(level - 1).getPageNum());
+            nodes.add(inner);
+            nodeEntries.add(new ArrayList<BEntry>());
+        } else if (nodeEntries.get(level).size() == nodes.get(level).numEntries) {
+            InnerNode inner = new InnerNode(this);
+            inner.setFirstChild(child.getPageNum());
+            pushUp(nodes, nodeEntries, level + 1, new InnerEntry(child.getKey(), inner.getPageNum()));
+            startNode(nodes, nodeEntries, level, inner);
+            return;
+        }
+        nodeEntries.get(level).add(child);
+    }
+
+    /**
+     * Writes the node being filled on a level of a bottom-up build and starts filling another.
+     */
+    private void startNode(List<BPlusNode> nodes, List<List<BEntry>> nodeEntries, int level, BPlusNode node) {
+        nodes.get(level).overwriteBNodeEntries(nodeEntries.get(level));
+        nodes.set(level, node);
+        nodeEntries.set(level, new ArrayList<BEntry>());
+    }
+
+    /**
+     * Rebuilds this index into a new file that replaces the current one, remapping RecordIDs on
+     * the way. Entries whose RecordID is a key of relocated point to the mapped RecordID in the
+     * rebuilt index; all others are kept as they are. The rebuilt file holds no pages that are not
+     * part of the tree. Used after Table#compact moved records of the indexed table.
+     *
+     * @param relocated a map from old to new RecordIDs; may be empty
+     */
+    public void rebuild(Map<RecordID, RecordID> relocated) {
+        rebuild(relocated, Collections.<Integer>emptySet());
+    }
+
+    /**
+     * Rebuilds this index like rebuild(Map), leaving out the entries whose RecordID is on one of
+     * droppedPages. Used to take the entries of a failed bulk load of the indexed table out again.
+     *
+     * @param relocated a map from old to new RecordIDs; may be empty
+     * @param droppedPages the pages of the indexed table whose entries to leave out
+     */
+    public void rebuild(Map<RecordID, RecordID> relocated, Set<Integer> droppedPages) {
+        // Keep the page size and checksums of this index, whatever the config says for new files.
+        StorageConfig rebuildConfig = this.config.copy().setPageSize(this.allocator.getPageSize())
+            .setBackend(this.allocator.hasChecksums() ? StorageBackend.Type.PREAD : this.config.getBackend())
+            .setChecksums(this.allocator.hasChecksums());
+        String rebuildPathname = this.pathname + REBUILD_SUFFIX;
+        BPlusTree rebuilt = new BPlusTree(this.keySchema, rebuildPathname, rebuildConfig);
+        copyEntries(BPlusNode.getBPlusNode(this, this.rootPageNum), rebuilt, relocated, droppedPages);
+        rebuilt.allocator.close();
+        this.allocator.close();
+
+        try {
+            Files.move(Paths.get(rebuildPathname), Paths.get(this.pathname),
+                       StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new BPlusTreeException(e);
+        }
+        this.allocator = new PageAllocator(this.pathname, false, true, this.config);
+        this.readHeader();
+        this.numNodes = rebuilt.getNumNodes();
+    }
+
+    /**
+     * Inserts every entry of the subtree rooted at node into target, in key order.
+     */
+    private void copyEntries(BPlusNode node, BPlusTree target, Map<RecordID, RecordID> relocated,
+                             Set<Integer> droppedPages) {
+        if (node.isLeaf()) {
+            for (BEntry entry : node.getAllValidEntries()) {
+                if (droppedPages.contains(entry.getRecordID().getPageNum())) {
+                    continue;
+                }
+                RecordID rid = relocated.get(entry.getRecordID());
+                target.insertKey(entry.getKey(), rid == null ? entry.getRecordID() : rid);
+            }
+            return;
+        }
+        copyEntries(BPlusNode.getBPlusNode(this, ((InnerNode) node).getFirstChild()), target, relocated, droppedPages);
+        for (BEntry entry : node.getAllValidEntries()) {
+            copyEntries(BPlusNode.getBPlusNode(this, entry.getPageNum()), target, relocated, droppedPages);
+        }
+    }
+
     /**
      * Update the root page.
      *
@@ -4,6 +4,7 @@ import edu.berkeley.cs186.database.databox.*;
 import edu.berkeley.cs186.database.table.RecordID;
 
 import java.util.Arrays;
+import java.util.Comparator;
 import java.nio.ByteBuffer;
 
 /**
@@ -14,8 +15,17 @@ import java.nio.ByteBuffer;
  * `rid`: RecordID of a record containing the search key
  */
 public class LeafEntry extends BEntry {
-    private RecordID rid;
+    /**
+     * Orders LeafEntries as compareTo does. BEntry is a raw Comparable, so lists of LeafEntries
+     * are sorted with this rather than by their natural order, which is an unchecked call.
+     */
+    public static final Comparator<LeafEntry> ORDER = new Comparator<LeafEntry>() {
+        public int compare(LeafEntry a, LeafEntry b) {
+            return a.compareTo(b);
+        }
+    };
 
+    private RecordID rid;
 
     public LeafEntry(DataBox key, RecordID rid) {
         super(key);
@@ -0,0 +1,113 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.function.LongPredicate;
+
+/**
+ * Adaptive Replacement Cache (Megiddo and Modha). Resident pages are split between T1 (seen once
+ * recently) and T2 (seen at least twice). Page numbers evicted from each list are remembered in
+ * the ghost lists B1 and B2. A miss that hits a ghost list shows which side was evicted too
+ * eagerly and moves the target size p of T1 accordingly, so the cache continuously balances
+ * recency against frequency and resists pollution by large scans.
+ */
+public class ARCPolicy implements ReplacementPolicy {
+  private LinkedHashSet<Long> t1 = new LinkedHashSet<Long>();
+  private LinkedHashSet<Long> t2 = new LinkedHashSet<Long>();
+  private LinkedHashSet<Long> b1 = new LinkedHashSet<Long>();
+  private LinkedHashSet<Long> b2 = new LinkedHashSet<Long>();
+
+  private int capacity;
+  private int p;
+  // The incoming page p was last adapted for; adaptation must happen once per miss, before the
+  // first replacement decision.
+  private long adaptedFor;
+
+  /**
+   * @param capacity the number of resident pages
+   */
+  public ARCPolicy(int capacity) {
+    this.capacity = Math.max(1, capacity);
+    this.p = 0;
+    this.adaptedFor = NO_VICTIM;
+  }
+
+  public void recordAccess(long vPageNum) {
+    if (this.t1.remove(vPageNum) || this.t2.remove(vPageNum)) {
+      this.t2.add(vPageNum);
+    }
+  }
+
+  public void recordInsert(long vPageNum) {
+    adapt(vPageNum);
+    this.adaptedFor = NO_VICTIM;
+
+    if (this.b1.remove(vPageNum) || this.b2.remove(vPageNum)) {
+      this.t2.add(vPageNum);
+      return;
+    }
+
+    // A brand new page: keep the directory (resident plus ghost pages) within 2c entries.
+    if (this.t1.size() + this.b1.size() >= this.capacity && !this.b1.isEmpty()) {
+      removeFirst(this.b1);
+    } else if (this.t1.size() + this.t2.size() + this.b1.size() + this.b2.size() >= 2 * this.capacity
+               && !this.b2.isEmpty()) {
+      removeFirst(this.b2);
+    }
+    this.t1.add(vPageNum);
+  }
+
+  public void recordRemove(long vPageNum) {
+    this.t1.remove(vPageNum);
+    this.t2.remove(vPageNum);
+    this.b1.remove(vPageNum);
+    this.b2.remove(vPageNum);
+  }
+
+  public long selectVictim(long incoming, LongPredicate evictable) {
+    adapt(incoming);
+
+    boolean fromT1 = !this.t1.isEmpty()
+        && (this.t1.size() > this.p || (this.b2.contains(incoming) && this.t1.size() == this.p));
+
+    long victim = fromT1 ? evictFrom(this.t1, this.b1, evictable) : evictFrom(this.t2, this.b2, evictable);
+    if (victim == NO_VICTIM) {
+      victim = fromT1 ? evictFrom(this.t2, this.b2, evictable) : evictFrom(this.t1, this.b1, evictable);
+    }
+    return victim;
+  }
+
+  private void adapt(long incoming) {
+    if (this.adaptedFor == incoming) {
+      return;
+    }
+    this.adaptedFor = incoming;
+
+    if (this.b1.contains(incoming)) {
+      int delta = Math.max(1, this.b2.size() / this.b1.size());
+      this.p = Math.min(this.capacity, this.p + delta);
+    } else if (this.b2.contains(incoming)) {
+      int delta = Math.max(1, this.b1.size() / this.b2.size());
+      this.p = Math.max(0, this.p - delta);
+    }
+  }
+
+  private static long evictFrom(LinkedHashSet<Long> list, LinkedHashSet<Long> ghost, LongPredicate evictable) {
+    Iterator<Long> iter = list.iterator();
+    while (iter.hasNext()) {
+      long candidate = iter.next();
+      if (evictable.test(candidate)) {
+        iter.remove();
+        ghost.add(candidate);
+        return candidate;
+      }
+    }
+    return NO_VICTIM;
+  }
+
+  private static void removeFirst(LinkedHashSet<Long> list) {
+    Iterator<Long> iter = list.iterator();
+    iter.next();
+    iter.remove();
+  }
+}
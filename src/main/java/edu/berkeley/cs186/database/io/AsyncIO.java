@@ -0,0 +1,149 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Supplier;
+
+/**
+ * The I/O thread pool behind PageAllocator#fetchPageAsync and ReadAhead. A worker reads a page (or
+ * maps it and touches every OS page of it, which faults it in) so that the thread that asked for
+ * it can go on with other work, or ask for more pages, in the meantime. The pool is larger than
+ * the number of cores since its threads spend most of their time waiting for the disk.
+ *
+ * The workers are daemon threads shared by all PageAllocators.
+ */
+class AsyncIO {
+  // The granularity at which touching a mapped page faults it in.
+  private static final int OS_PAGE_SIZE = 4096;
+
+  private static final int NUM_THREADS =
+      Math.max(4, Math.min(16, 2 * Runtime.getRuntime().availableProcessors()));
+
+  private static final ExecutorService workers = Executors.newFixedThreadPool(NUM_THREADS,
+      new ThreadFactory() {
+        private int count = 0;
+
+        public synchronized Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "page-io-" + (this.count++));
+          t.setDaemon(true);
+          return t;
+        }
+      });
+
+  // Keeps the JIT from eliding the reads done by touch.
+  private static volatile int sink;
+
+  private AsyncIO() {
+  }
+
+  /**
+   * Runs loader on the I/O pool and faults in the page it returns. The I/O is counted towards the
+   * current IOCounters of the calling thread.
+   *
+   * @param loader loads the page
+   * @param loads the pending loads of the owner, where this load has begun; ended once the page
+   *              has been loaded
+   * @return a future of the loaded page
+   */
+  static CompletableFuture<Page> load(final Supplier<Page> loader, final PendingLoads loads) {
+    final IOCounters counters = IOCounters.current();
+    return CompletableFuture.supplyAsync(new Supplier<Page>() {
+      public Page get() {
+        IOCounters previous = IOCounters.setCurrent(counters);
+        try {
+          Page page = loader.get();
+          sink = touch(page);
+          return page;
+        } finally {
+          IOCounters.setCurrent(previous);
+          loads.end();
+        }
+      }
+    }, workers);
+  }
+
+  /**
+   * Runs task on the I/O pool. The I/O is counted towards the current IOCounters of the calling
+   * thread.
+   *
+   * @param task the task to run
+   * @param loads the pending loads of the owner, where this task has begun; ended once the task
+   *              has run, or right away if the pool does not accept it
+   * @throws RejectedExecutionException if the pool does not accept the task
+   */
+  static void execute(final Runnable task, final PendingLoads loads) {
+    final IOCounters counters = IOCounters.current();
+    try {
+      workers.execute(new Runnable() {
+        public void run() {
+          IOCounters previous = IOCounters.setCurrent(counters);
+          try {
+            task.run();
+          } finally {
+            IOCounters.setCurrent(previous);
+            loads.end();
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      loads.end();
+      throw e;
+    }
+  }
+
+  /**
+   * Faults in the given pages, in order.
+   *
+   * @param pages the pages to touch
+   */
+  static void touchAll(List<Page> pages) {
+    int sum = 0;
+    for (Page p : pages) {
+      sum += touch(p);
+    }
+    sink = sum;
+  }
+
+  /**
+   * Reads one byte of every OS page of p, which faults it in.
+   *
+   * @param p the page to touch
+   * @return a value depending on the bytes read, so the reads can't be optimized away
+   */
+  private static int touch(Page p) {
+    int sum = 0;
+    for (int i = 0; i < p.getPageSize(); i += OS_PAGE_SIZE) {
+      sum += p.getByte(i);
+    }
+    return sum;
+  }
+
+  /**
+   * Waits for the pages of a batch fetch.
+   *
+   * @param pageNums the virtual page numbers of the batch
+   * @param futures a future of the page for each distinct page number of pageNums
+   * @return the Pages, in the order of pageNums
+   * @throws PageException if any of the pages can't be fetched
+   */
+  static Page[] join(int[] pageNums, Map<Integer, CompletableFuture<Page>> futures) {
+    Page[] pages = new Page[pageNums.length];
+    for (int i = 0; i < pageNums.length; i++) {
+      try {
+        pages[i] = futures.get(pageNums[i]).join();
+      } catch (CompletionException e) {
+        if (e.getCause() instanceof PageException) {
+          throw (PageException) e.getCause();
+        }
+        throw new PageException("Could not fetch page " + pageNums[i] + ": " + e.getCause());
+      }
+    }
+    return pages;
+  }
+}
@@ -0,0 +1,604 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongPredicate;
+
+/**
+ * A buffer pool of cached Pages that can be shared by any number of PageAllocators. Frames are
+ * hash-partitioned over a fixed number of stripes. Each stripe owns its own frame table, its own
+ * ReplacementPolicy and its own lock, so readers of different files (or of different pages of the
+ * same file) do not serialize on a single monitor. The policy is chosen per pool (see
+ * ReplacementPolicy.Type) and defaults to LRU.
+ *
+ * Lookups never take a lock: the frame table of a stripe is a ConcurrentHashMap. A hit is only
+ * reported to the policy if the stripe lock is free at that moment, which keeps the policy's view
+ * of recency accurate enough without making every hit a contended structural mutation. Misses and
+ * evictions lock the owning stripe.
+ *
+ * A Page may be pinned (see PageAllocator#pinPage) to keep it resident. Pinned pages are never
+ * chosen for eviction; if every page in a stripe is pinned the stripe temporarily grows past its
+ * capacity.
+ *
+ * Capacity is accounted in bytes, so one pool can be shared by files with different page sizes: a
+ * 16K page takes up as much of the pool as four 4K pages. Pools can be sized in pages of the
+ * default 4K size with the constructors, or in bytes with ofCapacity. A stripe always admits at
+ * least one page, so a pool should be sized for several of its largest pages per stripe.
+ *
+ * Evicted pages are flushed only if they are dirty. By default that happens on the thread whose
+ * miss caused the eviction. Once a background writer is started (see startBackgroundWriter and
+ * StorageConfig#setBackgroundWriterInterval; no pool has one unless asked to) dirty victims are
+ * handed to the writer instead, and the writer also cleans dirty resident pages ahead of
+ * eviction, so a miss never waits for a force. The pages a round cleans are written back
+ * together (see ForceSet), so it forces each mapped extent, and each file read with pread, once
+ * however many of its pages it cleans.
+ *
+ * Files using the PREAD StorageBackend read their pages into frames of the pool's FrameArena, an
+ * off-heap arena that recycles the frames of pages that are no longer used.
+ *
+ * Keys are virtual page numbers: the id of the owning PageAllocator in the upper 32 bits and the
+ * page number within that allocator in the lower 32 bits.
+ */
+public class BufferPool {
+  public static final int DEFAULT_NUM_FRAMES = 1024;
+  public static final int DEFAULT_NUM_STRIPES = 16;
+  public static final long DEFAULT_WRITER_INTERVAL_MILLIS = 200;
+  public static final int WRITER_BATCH_PAGES = 64;
+
+  private static final BufferPool defaultPool = new BufferPool(DEFAULT_NUM_FRAMES);
+
+  private final ConcurrentHashMap<Long, Page> pendingWrites = new ConcurrentHashMap<Long, Page>();
+  // Held by the background writer for the whole of each round; see drain.
+  private final ReentrantLock writerRound = new ReentrantLock();
+  private volatile PageWriter writer;
+  private final FrameArena arena;
+
+  private Stripe[] stripes;
+  private long capacityBytes;
+  private ReplacementPolicy.Type policyType;
+
+  /**
+   * Create a new BufferPool holding up to numFrames 4K pages, using the default number of stripes.
+   *
+   * @param numFrames the number of 4K pages this pool can cache
+   */
+  public BufferPool(int numFrames) {
+    this(numFrames, ReplacementPolicy.Type.LRU);
+  }
+
+  /**
+   * Create a new BufferPool holding up to numFrames 4K pages, using the given replacement policy and
+   * the default number of stripes.
+   *
+   * @param numFrames the number of 4K pages this pool can cache
+   * @param policyType the replacement policy used by every stripe
+   */
+  public BufferPool(int numFrames, ReplacementPolicy.Type policyType) {
+    this(numFrames, DEFAULT_NUM_STRIPES, policyType);
+  }
+
+  /**
+   * Create a new LRU BufferPool holding up to numFrames 4K pages split over numStripes stripes.
+   *
+   * @param numFrames the number of 4K pages this pool can cache
+   * @param numStripes the number of stripes; rounded up to a power of two
+   */
+  public BufferPool(int numFrames, int numStripes) {
+    this(numFrames, numStripes, ReplacementPolicy.Type.LRU);
+  }
+
+  /**
+   * Create a new BufferPool holding up to numFrames 4K pages split over numStripes stripes.
+   *
+   * @param numFrames the number of 4K pages this pool can cache
+   * @param numStripes the number of stripes; rounded up to a power of two
+   * @param policyType the replacement policy used by every stripe
+   */
+  public BufferPool(int numFrames, int numStripes, ReplacementPolicy.Type policyType) {
+    this(((long) numFrames) * Page.pageSize, numStripes, policyType);
+  }
+
+  private BufferPool(long capacityBytes, int numStripes, ReplacementPolicy.Type policyType) {
+    long numFrames = capacityBytes / Page.pageSize;
+    if (numFrames < 1 || numStripes < 1) {
+      throw new PageException("buffer pool needs at least one frame and one stripe");
+    }
+
+    int n = 1;
+    while (n < numStripes && n < numFrames) {
+      n <<= 1;
+    }
+
+    this.capacityBytes = capacityBytes;
+    this.policyType = policyType;
+    // Room for the pool's own pages, as many again held by callers or waiting to be collected,
+    // and a slab to carve them from.
+    this.arena = new FrameArena(2 * capacityBytes + FrameArena.SLAB_SIZE);
+    this.stripes = new Stripe[n];
+    for (int i = 0; i < n; i++) {
+      // Spread the remainder so the stripe capacities add up to capacityBytes.
+      long capacity = capacityBytes / n + (i < capacityBytes % n ? 1 : 0);
+      int frames = (int) Math.min(Integer.MAX_VALUE, Math.max(1, capacity / Page.pageSize));
+      this.stripes[i] = new Stripe(capacity, policyType.create(frames));
+    }
+  }
+
+  /**
+   * Create a new LRU BufferPool that caches up to capacityBytes worth of pages.
+   *
+   * @param capacityBytes the number of bytes of pages this pool can cache
+   * @return a new BufferPool
+   */
+  public static BufferPool ofCapacity(long capacityBytes) {
+    return ofCapacity(capacityBytes, ReplacementPolicy.Type.LRU);
+  }
+
+  /**
+   * Create a new BufferPool that caches up to capacityBytes worth of pages, using the given
+   * replacement policy and the default number of stripes.
+   *
+   * @param capacityBytes the number of bytes of pages this pool can cache; at least one 4K page
+   * @param policyType the replacement policy used by every stripe
+   * @return a new BufferPool
+   */
+  public static BufferPool ofCapacity(long capacityBytes, ReplacementPolicy.Type policyType) {
+    return new BufferPool(capacityBytes, DEFAULT_NUM_STRIPES, policyType);
+  }
+
+  /**
+   * @return the BufferPool used by PageAllocators that are not given one explicitly
+   */
+  public static BufferPool getDefault() {
+    return BufferPool.defaultPool;
+  }
+
+  /**
+   * Looks up a cached page without locking.
+   *
+   * @param vPageNum the virtual page number
+   * @return the cached Page, or null if it is not resident
+   */
+  Page get(long vPageNum) {
+    return stripeFor(vPageNum).get(vPageNum);
+  }
+
+  /**
+   * Caches page under vPageNum unless another thread cached the same page first, evicting
+   * unpinned pages from the owning stripe as needed.
+   *
+   * @param vPageNum the virtual page number
+   * @param page the freshly loaded page
+   * @return the page that is resident after the call; either page or the one cached first
+   */
+  Page putIfAbsent(long vPageNum, Page page) {
+    return stripeFor(vPageNum).putIfAbsent(vPageNum, page);
+  }
+
+  /**
+   * Drops a page from the pool without flushing it.
+   *
+   * @param vPageNum the virtual page number
+   * @return the page that was removed, or null if it was not resident
+   */
+  Page remove(long vPageNum) {
+    return stripeFor(vPageNum).remove(vPageNum);
+  }
+
+  /**
+   * Drops every page belonging to the given allocator from the pool without flushing them.
+   *
+   * @param allocID the id of the PageAllocator
+   * @return the pages that were removed
+   */
+  List<Page> removeAll(int allocID) {
+    List<Page> removed = new ArrayList<Page>();
+    for (Stripe s : this.stripes) {
+      s.removeAll(allocID, removed);
+    }
+    return removed;
+  }
+
+  /**
+   * Starts a daemon thread that writes back the dirty pages evicted from this pool and, every
+   * intervalMillis, cleans up to WRITER_BATCH_PAGES dirty unpinned resident pages. Does nothing if
+   * a writer is already running. The writer runs until stopBackgroundWriter is called.
+   *
+   * @param intervalMillis the time between two cleaning rounds
+   * @return whether this call started the writer, i.e. whether none was running yet
+   */
+  public synchronized boolean startBackgroundWriter(long intervalMillis) {
+    if (intervalMillis < 1) {
+      throw new PageException("background writer interval must be positive");
+    }
+    if (this.writer != null) {
+      return false;
+    }
+    this.writer = new PageWriter(intervalMillis);
+    this.writer.start();
+    return true;
+  }
+
+  /**
+   * Stops the background writer, if any, and writes back every page it still had pending. Evicted
+   * pages are flushed synchronously again afterwards.
+   */
+  public synchronized void stopBackgroundWriter() {
+    PageWriter w = this.writer;
+    if (w == null) {
+      return;
+    }
+    this.writer = null;
+    w.running = false;
+    LockSupport.unpark(w);
+    try {
+      w.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    this.flushPending();
+  }
+
+  /**
+   * @return whether a background writer is running for this pool
+   */
+  public boolean hasBackgroundWriter() {
+    return this.writer != null;
+  }
+
+  /**
+   * @return the number of evicted dirty pages waiting for the background writer
+   */
+  public int getNumPendingWrites() {
+    return this.pendingWrites.size();
+  }
+
+  /**
+   * Writes back every dirty page of the given allocator, resident or waiting for the background
+   * writer, leaving the resident pages cached.
+   *
+   * @param allocID the id of the PageAllocator
+   */
+  void flushAll(int allocID) {
+    ForceSet toForce = new ForceSet();
+    for (Stripe s : this.stripes) {
+      for (Map.Entry<Long, Page> e : s.frames.entrySet()) {
+        if (allocatorOf(e.getKey()) == allocID) {
+          e.getValue().writeBack(toForce);
+        }
+      }
+    }
+    this.flushPending(allocID, toForce);
+    toForce.force();
+  }
+
+  /**
+   * Writes back the evicted pages of the given allocator that are waiting for the background
+   * writer. Called when the allocator is closed, so that closing remains a durability point.
+   *
+   * @param allocID the id of the PageAllocator
+   */
+  void flushPending(int allocID) {
+    ForceSet toForce = new ForceSet();
+    this.flushPending(allocID, toForce);
+    toForce.force();
+  }
+
+  /**
+   * Waits for a round of the background writer that is under way to finish, then writes back the
+   * evicted pages of the given allocator that are waiting for the writer. Once the pages of the
+   * allocator are no longer resident (see removeAll), no later round touches them, so the
+   * allocator may then change its file underneath them, e.g. truncate it.
+   *
+   * @param allocID the id of the PageAllocator
+   */
+  void drain(int allocID) {
+    this.writerRound.lock();
+    try {
+      this.flushPending(allocID);
+    } finally {
+      this.writerRound.unlock();
+    }
+  }
+
+  private void flushPending(int allocID, ForceSet toForce) {
+    for (Long vPageNum : this.pendingWrites.keySet()) {
+      if (allocatorOf(vPageNum) == allocID) {
+        Page p = this.pendingWrites.remove(vPageNum);
+        if (p != null) {
+          p.writeBack(toForce);
+        }
+      }
+    }
+  }
+
+  private void flushPending() {
+    ForceSet toForce = new ForceSet();
+    this.flushPending(toForce);
+    toForce.force();
+  }
+
+  private void flushPending(ForceSet toForce) {
+    for (Long vPageNum : this.pendingWrites.keySet()) {
+      Page p = this.pendingWrites.remove(vPageNum);
+      if (p != null) {
+        p.writeBack(toForce);
+      }
+    }
+  }
+
+  /**
+   * Called for every page evicted from a stripe, after the stripe lock has been released.
+   */
+  private void evicted(long vPageNum, Page page) {
+    IOCounters counters = page.getCounters();
+    if (counters != null) {
+      counters.eviction();
+    }
+    if (!page.isDirty()) {
+      return;
+    }
+    PageWriter w = this.writer;
+    if (w == null) {
+      page.flush();
+      return;
+    }
+    Page previous = this.pendingWrites.put(vPageNum, page);
+    if (previous != null && previous != page) {
+      // Both map the same bytes of the file; forcing one of them is enough for the other.
+      previous.flush();
+    }
+    LockSupport.unpark(w);
+  }
+
+  /**
+   * Writes back up to max dirty, unpinned resident pages, starting at stripe start, and adds the
+   * extents and files that still have to be forced to toForce.
+   *
+   * @return the number of pages written back
+   */
+  private int cleanResident(int start, int max, ForceSet toForce) {
+    int cleaned = 0;
+    for (int i = 0; i < this.stripes.length && cleaned < max; i++) {
+      Stripe s = this.stripes[(start + i) & (this.stripes.length - 1)];
+      for (Page p : s.frames.values()) {
+        if (cleaned >= max) {
+          break;
+        }
+        if (p.isDirty() && !p.isPinned()) {
+          p.writeBack(toForce);
+          cleaned++;
+        }
+      }
+    }
+    return cleaned;
+  }
+
+  /**
+   * @return the number of pages currently cached
+   */
+  public int size() {
+    int size = 0;
+    for (Stripe s : this.stripes) {
+      size += s.frames.size();
+    }
+    return size;
+  }
+
+  /**
+   * @return the number of bytes currently taken up by cached pages
+   */
+  public long getUsedBytes() {
+    long used = 0;
+    for (Stripe s : this.stripes) {
+      used += s.usedBytes;
+    }
+    return used;
+  }
+
+  /**
+   * @return the number of bytes of direct memory allocated for the frames of PREAD pages
+   */
+  public long getArenaBytes() {
+    return this.arena.getReservedBytes();
+  }
+
+  /**
+   * @return the arena PREAD pages of files using this pool are read into
+   */
+  FrameArena getArena() {
+    return this.arena;
+  }
+
+  /**
+   * @return the number of 4K pages this pool is sized for
+   */
+  public int getNumFrames() {
+    return (int) Math.min(Integer.MAX_VALUE, this.capacityBytes / Page.pageSize);
+  }
+
+  /**
+   * @return the number of bytes of pages this pool is sized for
+   */
+  public long getCapacityBytes() {
+    return this.capacityBytes;
+  }
+
+  /**
+   * @return the replacement policy used by this pool
+   */
+  public ReplacementPolicy.Type getPolicyType() {
+    return this.policyType;
+  }
+
+  /**
+   * @return the number of lock stripes in this pool
+   */
+  public int getNumStripes() {
+    return this.stripes.length;
+  }
+
+  static int allocatorOf(long vPageNum) {
+    return (int) ((vPageNum & 0xFFFFFFFF00000000L) >> 32);
+  }
+
+  private Stripe stripeFor(long vPageNum) {
+    // Mix the allocator id into the low bits so consecutive pages of different files spread out.
+    long h = vPageNum * 0x9E3779B97F4A7C15L;
+    return this.stripes[(int) (h >>> 32) & (this.stripes.length - 1)];
+  }
+
+  /**
+   * The background writer thread: writes back pending evictions as soon as it is woken and cleans
+   * a batch of resident pages every interval. Each wake-up forces every extent it wrote to once.
+   */
+  private class PageWriter extends Thread {
+    private final long intervalNanos;
+    private volatile boolean running = true;
+    private int nextStripe = 0;
+
+    PageWriter(long intervalMillis) {
+      super("BufferPool-writer");
+      this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+      this.setDaemon(true);
+    }
+
+    public void run() {
+      long nextRound = System.nanoTime();
+      while (this.running) {
+        BufferPool.this.writerRound.lock();
+        try {
+          ForceSet toForce = new ForceSet();
+          BufferPool.this.flushPending(toForce);
+          if (System.nanoTime() - nextRound >= 0) {
+            BufferPool.this.cleanResident(this.nextStripe++, WRITER_BATCH_PAGES, toForce);
+            nextRound = System.nanoTime() + this.intervalNanos;
+          }
+          toForce.force();
+        } catch (RuntimeException e) {
+          // A failed force must not stop the writer thread.
+        } finally {
+          BufferPool.this.writerRound.unlock();
+        }
+        LockSupport.parkNanos(this, Math.max(0, nextRound - System.nanoTime()));
+      }
+    }
+  }
+
+  /**
+   * One partition of the pool. frames is the lock-free lookup table; policy tracks the same pages
+   * and is only touched under lock.
+   */
+  private class Stripe implements LongPredicate {
+    private final ConcurrentHashMap<Long, Page> frames = new ConcurrentHashMap<Long, Page>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ReplacementPolicy policy;
+    private final long capacity;
+    private volatile long usedBytes = 0;
+
+    Stripe(long capacity, ReplacementPolicy policy) {
+      this.capacity = capacity;
+      this.policy = policy;
+    }
+
+    /**
+     * Whether the resident page vPageNum may be evicted; used as the policy's victim filter.
+     */
+    public boolean test(long vPageNum) {
+      Page p = this.frames.get(vPageNum);
+      return p != null && !p.isPinned();
+    }
+
+    Page get(long vPageNum) {
+      Page p = this.frames.get(vPageNum);
+      if (p != null && this.lock.tryLock()) {
+        try {
+          this.policy.recordAccess(vPageNum);
+        } finally {
+          this.lock.unlock();
+        }
+      }
+      return p;
+    }
+
+    Page putIfAbsent(long vPageNum, Page page) {
+      List<Long> evictedKeys = null;
+      List<Page> evicted = null;
+      this.lock.lock();
+      try {
+        Page existing = this.frames.get(vPageNum);
+        if (existing != null) {
+          this.policy.recordAccess(vPageNum);
+          return existing;
+        }
+
+        while (!this.frames.isEmpty() && this.usedBytes + page.getPageSize() > this.capacity) {
+          long victim = this.policy.selectVictim(vPageNum, this);
+          if (victim == ReplacementPolicy.NO_VICTIM) {
+            break;
+          }
+          if (evicted == null) {
+            evictedKeys = new ArrayList<Long>();
+            evicted = new ArrayList<Page>();
+          }
+          Page p = this.frames.remove(victim);
+          this.usedBytes -= p.getPageSize();
+          evictedKeys.add(victim);
+          evicted.add(p);
+        }
+
+        this.frames.put(vPageNum, page);
+        this.usedBytes += page.getPageSize();
+        this.policy.recordInsert(vPageNum);
+      } finally {
+        this.lock.unlock();
+      }
+
+      // Flush outside the lock so other threads can keep using this stripe meanwhile.
+      if (evicted != null) {
+        for (int i = 0; i < evicted.size(); i++) {
+          BufferPool.this.evicted(evictedKeys.get(i), evicted.get(i));
+        }
+      }
+      return page;
+    }
+
+    Page remove(long vPageNum) {
+      this.lock.lock();
+      try {
+        this.policy.recordRemove(vPageNum);
+        Page p = this.frames.remove(vPageNum);
+        if (p != null) {
+          this.usedBytes -= p.getPageSize();
+        }
+        return p;
+      } finally {
+        this.lock.unlock();
+      }
+    }
+
+    void removeAll(int allocID, List<Page> removed) {
+      this.lock.lock();
+      try {
+        List<Long> keys = new ArrayList<Long>();
+        for (Long vPageNum : this.frames.keySet()) {
+          if (allocatorOf(vPageNum) == allocID) {
+            keys.add(vPageNum);
+          }
+        }
+        for (Long vPageNum : keys) {
+          this.policy.recordRemove(vPageNum);
+          Page p = this.frames.remove(vPageNum);
+          this.usedBytes -= p.getPageSize();
+          removed.add(p);
+        }
+      } finally {
+        this.lock.unlock();
+      }
+    }
+  }
+}
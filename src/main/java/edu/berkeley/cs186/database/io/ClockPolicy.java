@@ -0,0 +1,51 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongPredicate;
+
+/**
+ * CLOCK (second chance) replacement. Resident pages sit on a circular list with a reference bit
+ * that is set on every access. The clock hand clears set bits as it sweeps and evicts the first
+ * page whose bit is already clear, so a hit never reorders the list.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+  // Iteration order is the position of the clock hand: the head is the next page it inspects.
+  private LinkedHashMap<Long, Boolean> clock = new LinkedHashMap<Long, Boolean>();
+
+  public void recordAccess(long vPageNum) {
+    if (this.clock.containsKey(vPageNum)) {
+      this.clock.put(vPageNum, true);
+    }
+  }
+
+  public void recordInsert(long vPageNum) {
+    this.clock.remove(vPageNum);
+    this.clock.put(vPageNum, false);
+  }
+
+  public void recordRemove(long vPageNum) {
+    this.clock.remove(vPageNum);
+  }
+
+  public long selectVictim(long incoming, LongPredicate evictable) {
+    // Two sweeps are enough: the first one clears every reference bit it passes.
+    int remaining = 2 * this.clock.size();
+    while (remaining > 0 && !this.clock.isEmpty()) {
+      Iterator<Map.Entry<Long, Boolean>> iter = this.clock.entrySet().iterator();
+      Map.Entry<Long, Boolean> head = iter.next();
+      long candidate = head.getKey();
+      boolean referenced = head.getValue();
+      iter.remove();
+      remaining--;
+
+      if (!referenced && evictable.test(candidate)) {
+        return candidate;
+      }
+      // Advance the hand past this page, giving it a second chance.
+      this.clock.put(candidate, false);
+    }
+    return NO_VICTIM;
+  }
+}
@@ -0,0 +1,141 @@
+package edu.berkeley.cs186.database.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The MMAP StorageBackend. Maps a file in large fixed-size extents and hands out Pages as slices of them, so that a page
+ * miss costs a slice instead of an mmap call, and a big file needs one mapping per extent instead
+ * of one per page.
+ *
+ * Extent i covers the bytes [i * extentSize, (i + 1) * extentSize) of the file. Mapping a region
+ * read-write grows the file to cover it, so an extent is only ever mapped up to the current end
+ * of the file; the last, partial extent is remapped to the new end of file when a page past its
+ * mapped length is requested. Pages that lie beyond the end of the file (i.e. pages that are
+ * being appended) get a mapping of their own, exactly like a Page built from a FileChannel.
+ *
+ * extentSize must be a multiple of every page size requested, so that no page straddles two
+ * extents.
+ */
+class ExtentMap implements StorageBackend {
+  private final FileChannel fc;
+  private final int extentSize;
+  private final IOCounters counters;
+  private final ConcurrentHashMap<Integer, MappedByteBuffer> extents;
+
+  /**
+   * @param fc the file channel to map
+   * @param extentSize the size in bytes of each extent
+   * @param counters the counters to count mapped pages and bytes in
+   */
+  ExtentMap(FileChannel fc, int extentSize, IOCounters counters) {
+    this.fc = fc;
+    this.extentSize = extentSize;
+    this.counters = counters;
+    this.extents = new ConcurrentHashMap<Integer, MappedByteBuffer>();
+  }
+
+  /**
+   * Returns a Page over the size bytes at offset in the file.
+   *
+   * @param offset the offset of the page in the file
+   * @param size the size of the page
+   * @param pageNum the virtual page number of the page
+   * @param durable whether flushing the page forces it to disk
+   * @return a Page over the requested bytes
+   */
+  public Page page(long offset, int size, int pageNum, boolean durable) {
+    int index = (int) (offset / this.extentSize);
+    int position = (int) (offset - ((long) index) * this.extentSize);
+
+    this.counters.physicalRead();
+    MappedByteBuffer extent = this.extents.get(index);
+    if (extent == null || extent.capacity() < position + size) {
+      extent = this.remap(index, position + size);
+    }
+
+    if (extent == null) {
+      // Past the end of the file: map just this page, which extends the file.
+      MappedByteBuffer mapping = this.map(offset, size);
+      return new Page(mapping, mapping, pageNum, durable, this.counters);
+    }
+
+    ByteBuffer view = extent.duplicate();
+    view.position(position);
+    view.limit(position + size);
+    return new Page(view.slice(), extent, pageNum, durable, this.counters);
+  }
+
+  /**
+   * Drops every extent. The mappings themselves are released once no Page refers to them.
+   */
+  void clear() {
+    this.extents.clear();
+  }
+
+  public void sync() {
+    // Mapped pages are written back by the kernel, or by Page#flush.
+  }
+
+  public void truncated() {
+    // Mappings may extend past the new end of the file, and touching those bytes would fault.
+    this.clear();
+  }
+
+  public void close() {
+    this.clear();
+  }
+
+  /**
+   * @return the size in bytes of each extent
+   */
+  int getExtentSize() {
+    return this.extentSize;
+  }
+
+  /**
+   * @return the number of extents currently mapped
+   */
+  int getNumExtents() {
+    return this.extents.size();
+  }
+
+  /**
+   * Maps extent index up to the current end of the file, if that covers at least needed bytes.
+   */
+  private synchronized MappedByteBuffer remap(int index, int needed) {
+    MappedByteBuffer extent = this.extents.get(index);
+    if (extent != null && extent.capacity() >= needed) {
+      return extent;
+    }
+
+    long start = ((long) index) * this.extentSize;
+    long fileSize;
+    try {
+      fileSize = this.fc.size();
+    } catch (IOException e) {
+      throw new PageException("Can't stat file for extent " + index + " ; " + e.getMessage());
+    }
+    long length = Math.min(this.extentSize, fileSize - start);
+    if (length < needed) {
+      return null;
+    }
+
+    extent = this.map(start, (int) length);
+    this.extents.put(index, extent);
+    return extent;
+  }
+
+  private MappedByteBuffer map(long offset, int length) {
+    try {
+      MappedByteBuffer mapping = this.fc.map(FileChannel.MapMode.READ_WRITE, offset, length);
+      this.counters.mapped(length);
+      return mapping;
+    } catch (IOException e) {
+      throw new PageException("Can't mmap " + length + " bytes at offset " + offset + " ; " + e.getMessage());
+    }
+  }
+}
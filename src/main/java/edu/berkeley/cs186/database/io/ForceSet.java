@@ -0,0 +1,55 @@
+package edu.berkeley.cs186.database.io;
+
+import java.nio.MappedByteBuffer;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * What a round of write-backs (see Page#writeBack) still has to force to disk: the extents that
+ * durable mapped pages were written to, and the files that durable PreadBackend pages were
+ * written to. Each is forced once, however many of its pages were written back, and counted as
+ * one force in the IOCounters of its file. Extents and backends are compared by identity, since
+ * the equals of a buffer compares contents.
+ */
+class ForceSet {
+  private final Map<MappedByteBuffer, IOCounters> mappings = new IdentityHashMap<MappedByteBuffer, IOCounters>();
+  private final Map<PreadBackend, IOCounters> backends = new IdentityHashMap<PreadBackend, IOCounters>();
+
+  /**
+   * @param mapping an extent a durable page was written to
+   * @param counters the counters of the extent's file; may be null
+   */
+  void add(MappedByteBuffer mapping, IOCounters counters) {
+    this.mappings.put(mapping, counters);
+  }
+
+  /**
+   * @param backend the backend a durable page was written with
+   * @param counters the counters of the backend's file; may be null
+   */
+  void add(PreadBackend backend, IOCounters counters) {
+    this.backends.put(backend, counters);
+  }
+
+  /**
+   * Forces everything added, and empties this set.
+   */
+  void force() {
+    for (Map.Entry<MappedByteBuffer, IOCounters> e : this.mappings.entrySet()) {
+      e.getKey().force();
+      countForce(e.getValue());
+    }
+    this.mappings.clear();
+    for (Map.Entry<PreadBackend, IOCounters> e : this.backends.entrySet()) {
+      e.getKey().force();
+      countForce(e.getValue());
+    }
+    this.backends.clear();
+  }
+
+  private static void countForce(IOCounters counters) {
+    if (counters != null) {
+      counters.force();
+    }
+  }
+}
@@ -0,0 +1,183 @@
+package edu.berkeley.cs186.database.io;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An off-heap arena of page frames, shared by the files of a BufferPool. Frames are fixed-size
+ * slices of large direct slabs; a freed frame goes onto a free list for its size and is handed out
+ * again before any new slab is allocated. Once the working set of a workload has been reached the
+ * arena stops growing, and reading a page allocates no new buffer.
+ *
+ * A frame belongs to the Page it was read into for as long as that Page is reachable: callers may
+ * hold a Page past its eviction, so a frame can only be reused once its Page has been collected.
+ * Backends register each Page with a FrameRef, which returns the frame to the arena when the Page
+ * is collected.
+ *
+ * Pages that nobody uses any more still hold their frames until the garbage collector gets to
+ * them, so the arena caps its slabs at maxBytes: a frame that would need a slab past the cap is
+ * taken from a collected Page instead, for which take asks for a collection and waits up to
+ * CAP_WAIT_MILLIS. Only if callers still hold all those Pages does the arena grow past the cap.
+ */
+class FrameArena {
+  // Frames are carved out of slabs of this size, or of one frame if frames are larger.
+  static final int SLAB_SIZE = 1 << 20;
+  // How long take waits for a collected Page once the arena is at its cap.
+  static final long CAP_WAIT_MILLIS = 100;
+  private static final long CAP_WAIT_STEP_MILLIS = 10;
+
+  private final ReferenceQueue<Page> collected = new ReferenceQueue<Page>();
+  // A reference is only enqueued while it is reachable itself, whatever became of its backend.
+  private final Set<FrameRef> registered = ConcurrentHashMap.<FrameRef>newKeySet();
+  private final ConcurrentHashMap<Integer, ConcurrentLinkedDeque<ByteBuffer>> free =
+      new ConcurrentHashMap<Integer, ConcurrentLinkedDeque<ByteBuffer>>();
+  private final Map<Integer, ByteBuffer> slabs = new HashMap<Integer, ByteBuffer>();
+  private final AtomicLong reservedBytes = new AtomicLong(0);
+  private final long maxBytes;
+
+  /**
+   * @param maxBytes the direct memory the slabs of this arena may take before it waits for the
+   *                 frames of collected Pages
+   */
+  FrameArena(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * A weak reference from a frame to the Page using it, which hands the frame back to the arena
+   * once the Page has been collected.
+   */
+  abstract static class FrameRef extends WeakReference<Page> {
+    private final ByteBuffer frame;
+
+    FrameRef(Page page, ByteBuffer frame, FrameArena arena) {
+      super(page, arena.collected);
+      this.frame = frame;
+      arena.registered.add(this);
+    }
+
+    /**
+     * Called once the Page has been collected, before its frame is reused.
+     */
+    abstract void collected();
+  }
+
+  /**
+   * Returns a frame of size bytes, reusing a free one if possible. Its contents are undefined.
+   *
+   * @param size the size of the frame in bytes
+   * @return a direct buffer of capacity size
+   */
+  ByteBuffer take(int size) {
+    ByteBuffer frame = this.takeFree(size);
+    if (frame == null && this.atCap(size)) {
+      frame = this.awaitFree(size);
+    }
+    return (frame == null) ? this.carve(size) : frame;
+  }
+
+  /**
+   * Returns a frame that is no longer used by any Page.
+   *
+   * @param frame a frame obtained from take
+   */
+  void give(ByteBuffer frame) {
+    frame.clear();
+    ConcurrentLinkedDeque<ByteBuffer> frames = this.free.get(frame.capacity());
+    if (frames == null) {
+      this.free.putIfAbsent(frame.capacity(), new ConcurrentLinkedDeque<ByteBuffer>());
+      frames = this.free.get(frame.capacity());
+    }
+    frames.addFirst(frame);
+  }
+
+  /**
+   * @return the number of bytes of direct memory allocated by this arena
+   */
+  long getReservedBytes() {
+    return this.reservedBytes.get();
+  }
+
+  /**
+   * Takes back the frames of collected Pages.
+   */
+  private void reclaim() {
+    FrameRef ref;
+    while ((ref = (FrameRef) this.collected.poll()) != null) {
+      this.release(ref);
+    }
+  }
+
+  private void release(FrameRef ref) {
+    this.registered.remove(ref);
+    ref.collected();
+    this.give(ref.frame);
+  }
+
+  /**
+   * @return a free frame of size bytes, after taking back the frames of collected Pages, or null
+   *         if there is none
+   */
+  private ByteBuffer takeFree(int size) {
+    this.reclaim();
+    ConcurrentLinkedDeque<ByteBuffer> frames = this.free.get(size);
+    return (frames == null) ? null : frames.pollFirst();
+  }
+
+  /**
+   * @return whether carving a frame of size bytes would take a new slab past maxBytes
+   */
+  private synchronized boolean atCap(int size) {
+    ByteBuffer slab = this.slabs.get(size);
+    if (slab != null && slab.remaining() >= size) {
+      return false;
+    }
+    return this.reservedBytes.get() + Math.max(SLAB_SIZE, size) > this.maxBytes;
+  }
+
+  /**
+   * Asks for a collection and waits up to CAP_WAIT_MILLIS for a frame of size bytes to be taken
+   * back from a collected Page.
+   *
+   * @return the frame, or null if none came back in time
+   */
+  private ByteBuffer awaitFree(int size) {
+    System.gc();
+    for (long waited = 0; waited < CAP_WAIT_MILLIS; waited += CAP_WAIT_STEP_MILLIS) {
+      try {
+        FrameRef ref = (FrameRef) this.collected.remove(CAP_WAIT_STEP_MILLIS);
+        if (ref != null) {
+          this.release(ref);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return null;
+      }
+      ByteBuffer frame = this.takeFree(size);
+      if (frame != null) {
+        return frame;
+      }
+    }
+    return null;
+  }
+
+  private synchronized ByteBuffer carve(int size) {
+    ByteBuffer slab = this.slabs.get(size);
+    if (slab == null || slab.remaining() < size) {
+      slab = ByteBuffer.allocateDirect(Math.max(SLAB_SIZE, size));
+      this.reservedBytes.addAndGet(slab.capacity());
+      this.slabs.put(size, slab);
+    }
+    ByteBuffer view = slab.duplicate();
+    view.limit(view.position() + size);
+    slab.position(slab.position() + size);
+    return view.slice();
+  }
+}
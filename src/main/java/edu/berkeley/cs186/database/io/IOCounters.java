@@ -0,0 +1,95 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live I/O counters. Every PageAllocator counts the I/O on its file in an IOCounters of its own.
+ * In addition, a thread may set an IOCounters as its current one (see setCurrent): while it is
+ * set, all I/O the thread causes on any file is also counted there. Query operators use this to
+ * attribute I/O to the operator that caused it.
+ */
+public class IOCounters {
+  private static final ThreadLocal<IOCounters> current = new ThreadLocal<IOCounters>();
+
+  private final LongAdder logicalReads = new LongAdder();
+  private final LongAdder physicalReads = new LongAdder();
+  private final LongAdder writes = new LongAdder();
+  private final LongAdder forces = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final LongAdder bytesMapped = new LongAdder();
+
+  /**
+   * Makes counters the current IOCounters of the calling thread.
+   *
+   * @param counters the counters to attribute this thread's I/O to, or null for none
+   * @return the previous current IOCounters, to be restored with another call to setCurrent
+   */
+  public static IOCounters setCurrent(IOCounters counters) {
+    IOCounters previous = current.get();
+    current.set(counters);
+    return previous;
+  }
+
+  /**
+   * @return the current IOCounters of the calling thread, or null if none is set
+   */
+  static IOCounters current() {
+    return current.get();
+  }
+
+  /**
+   * @return a snapshot of these counters
+   */
+  public IOStats snapshot() {
+    return new IOStats(this.logicalReads.sum(), this.physicalReads.sum(), this.writes.sum(),
+                       this.forces.sum(), this.evictions.sum(), this.bytesMapped.sum());
+  }
+
+  void logicalRead() {
+    this.logicalReads.increment();
+    IOCounters c = current.get();
+    if (c != null) {
+      c.logicalReads.increment();
+    }
+  }
+
+  void physicalRead() {
+    this.physicalReads.increment();
+    IOCounters c = current.get();
+    if (c != null) {
+      c.physicalReads.increment();
+    }
+  }
+
+  void write() {
+    this.writes.increment();
+    IOCounters c = current.get();
+    if (c != null) {
+      c.writes.increment();
+    }
+  }
+
+  void force() {
+    this.forces.increment();
+    IOCounters c = current.get();
+    if (c != null) {
+      c.forces.increment();
+    }
+  }
+
+  void eviction() {
+    this.evictions.increment();
+    IOCounters c = current.get();
+    if (c != null) {
+      c.evictions.increment();
+    }
+  }
+
+  void mapped(long bytes) {
+    this.bytesMapped.add(bytes);
+    IOCounters c = current.get();
+    if (c != null) {
+      c.bytesMapped.add(bytes);
+    }
+  }
+}
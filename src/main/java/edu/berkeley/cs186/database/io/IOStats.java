@@ -0,0 +1,82 @@
+package edu.berkeley.cs186.database.io;
+
+/**
+ * An immutable snapshot of I/O counters, for one file (see PageAllocator#getIOStats) or for the
+ * work done by one query operator.
+ *
+ * logicalReads counts page fetches, hits or not; physicalReads the fetches that had to read or map
+ * the page; writes the dirty pages written back; forces the times the file was forced to disk,
+ * which happens once for all the durable pages of a file written back together (see ForceSet);
+ * evictions the pages dropped from the BufferPool to make room; bytesMapped the bytes of the file
+ * that were mapped into memory.
+ */
+public final class IOStats {
+  public static final IOStats ZERO = new IOStats(0, 0, 0, 0, 0, 0);
+
+  private final long logicalReads;
+  private final long physicalReads;
+  private final long writes;
+  private final long forces;
+  private final long evictions;
+  private final long bytesMapped;
+
+  public IOStats(long logicalReads, long physicalReads, long writes, long forces, long evictions,
+                 long bytesMapped) {
+    this.logicalReads = logicalReads;
+    this.physicalReads = physicalReads;
+    this.writes = writes;
+    this.forces = forces;
+    this.evictions = evictions;
+    this.bytesMapped = bytesMapped;
+  }
+
+  public long getLogicalReads() {
+    return this.logicalReads;
+  }
+
+  public long getPhysicalReads() {
+    return this.physicalReads;
+  }
+
+  public long getWrites() {
+    return this.writes;
+  }
+
+  public long getForces() {
+    return this.forces;
+  }
+
+  public long getEvictions() {
+    return this.evictions;
+  }
+
+  public long getBytesMapped() {
+    return this.bytesMapped;
+  }
+
+  /**
+   * @param other the stats to add
+   * @return the sum of this and other
+   */
+  public IOStats plus(IOStats other) {
+    return new IOStats(this.logicalReads + other.logicalReads, this.physicalReads + other.physicalReads,
+                       this.writes + other.writes, this.forces + other.forces,
+                       this.evictions + other.evictions, this.bytesMapped + other.bytesMapped);
+  }
+
+  /**
+   * @param earlier an earlier snapshot of the same counters
+   * @return what happened between earlier and this snapshot
+   */
+  public IOStats minus(IOStats earlier) {
+    return new IOStats(this.logicalReads - earlier.logicalReads, this.physicalReads - earlier.physicalReads,
+                       this.writes - earlier.writes, this.forces - earlier.forces,
+                       this.evictions - earlier.evictions, this.bytesMapped - earlier.bytesMapped);
+  }
+
+  public String toString() {
+    return "IOStats(logicalReads=" + this.logicalReads + ", physicalReads=" + this.physicalReads
+        + ", writes=" + this.writes + ", forces=" + this.forces + ", evictions=" + this.evictions
+        + ", bytesMapped=" + this.bytesMapped + ")";
+  }
+}
@@ -0,0 +1,94 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongPredicate;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum) with K = 2. Every page keeps the times of its
+ * last two references and the victim is the page whose second most recent reference is oldest.
+ * Pages referenced only once have no second reference and are evicted first, oldest first, so
+ * pages touched by a single sequential scan make way before pages that are used repeatedly.
+ *
+ * Reference history is retained for a bounded number of evicted pages, so a page that is
+ * re-fetched shortly after eviction is still recognised as frequently used.
+ */
+public class LRUKPolicy implements ReplacementPolicy {
+  private static final int K = 2;
+
+  private Map<Long, long[]> resident = new HashMap<Long, long[]>();
+  private LinkedHashMap<Long, long[]> retained = new LinkedHashMap<Long, long[]>();
+  private int retainedCapacity;
+  private long clock;
+
+  /**
+   * @param capacity the number of resident pages; history is retained for as many evicted pages
+   */
+  public LRUKPolicy(int capacity) {
+    this.retainedCapacity = Math.max(1, capacity);
+    this.clock = 0;
+  }
+
+  public void recordAccess(long vPageNum) {
+    long[] history = this.resident.get(vPageNum);
+    if (history != null) {
+      reference(history);
+    }
+  }
+
+  public void recordInsert(long vPageNum) {
+    long[] history = this.retained.remove(vPageNum);
+    if (history == null) {
+      history = new long[K];
+    }
+    reference(history);
+    this.resident.put(vPageNum, history);
+  }
+
+  public void recordRemove(long vPageNum) {
+    this.resident.remove(vPageNum);
+    this.retained.remove(vPageNum);
+  }
+
+  public long selectVictim(long incoming, LongPredicate evictable) {
+    long victim = NO_VICTIM;
+    long[] victimHistory = null;
+
+    for (Map.Entry<Long, long[]> e : this.resident.entrySet()) {
+      long[] history = e.getValue();
+      if (victimHistory != null && !olderThan(history, victimHistory)) {
+        continue;
+      }
+      if (evictable.test(e.getKey())) {
+        victim = e.getKey();
+        victimHistory = history;
+      }
+    }
+
+    if (victim != NO_VICTIM) {
+      this.resident.remove(victim);
+      this.retained.put(victim, victimHistory);
+      if (this.retained.size() > this.retainedCapacity) {
+        Iterator<Long> iter = this.retained.keySet().iterator();
+        iter.next();
+        iter.remove();
+      }
+    }
+    return victim;
+  }
+
+  private void reference(long[] history) {
+    // history[0] is the most recent reference time, history[K - 1] the K-th most recent.
+    System.arraycopy(history, 0, history, 1, K - 1);
+    history[0] = ++this.clock;
+  }
+
+  private static boolean olderThan(long[] a, long[] b) {
+    if (a[K - 1] != b[K - 1]) {
+      return a[K - 1] < b[K - 1];
+    }
+    return a[0] < b[0];
+  }
+}
@@ -0,0 +1,39 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.function.LongPredicate;
+
+/**
+ * Least-recently used replacement. Evicts the resident page whose last access is oldest.
+ */
+public class LRUPolicy implements ReplacementPolicy {
+  private LinkedHashSet<Long> order = new LinkedHashSet<Long>();
+
+  public void recordAccess(long vPageNum) {
+    if (this.order.remove(vPageNum)) {
+      this.order.add(vPageNum);
+    }
+  }
+
+  public void recordInsert(long vPageNum) {
+    this.order.remove(vPageNum);
+    this.order.add(vPageNum);
+  }
+
+  public void recordRemove(long vPageNum) {
+    this.order.remove(vPageNum);
+  }
+
+  public long selectVictim(long incoming, LongPredicate evictable) {
+    Iterator<Long> iter = this.order.iterator();
+    while (iter.hasNext()) {
+      long candidate = iter.next();
+      if (evictable.test(candidate)) {
+        iter.remove();
+        return candidate;
+      }
+    }
+    return NO_VICTIM;
+  }
+}
@@ -0,0 +1,184 @@
+package edu.berkeley.cs186.database.io;
+
+/**
+ * A pure Java compressor and decompressor for the LZ4 block format: a sequence of tokens, each
+ * followed by literals copied as is and a match copied from up to 64K bytes back in the output.
+ * Compression is greedy over a single-probe hash table of 4-byte sequences, which is fast and
+ * does well on the long runs of padding in table pages.
+ *
+ * The decompressor checks every length and offset against its input and output, so a corrupt
+ * block raises a PageException instead of reading or writing out of bounds.
+ */
+final class Lz4 {
+  private static final int MIN_MATCH = 4;
+  // The last LAST_LITERALS bytes are always literals, and no match starts in the last MF_LIMIT.
+  private static final int LAST_LITERALS = 5;
+  private static final int MF_LIMIT = 12;
+  private static final int MAX_OFFSET = 65535;
+  private static final int HASH_LOG = 12;
+  private static final int RUN_MASK = 15;
+
+  private Lz4() {
+  }
+
+  /**
+   * @param length the number of bytes to compress
+   * @return the largest number of bytes compress can produce for length bytes
+   */
+  static int maxCompressedLength(int length) {
+    return length + length / 255 + 16;
+  }
+
+  /**
+   * Compresses src[0, length) into dst starting at dstOff, which must have room for
+   * maxCompressedLength(length) bytes.
+   *
+   * @return the number of bytes written to dst
+   */
+  static int compress(byte[] src, int length, byte[] dst, int dstOff) {
+    int op = dstOff;
+    int anchor = 0;
+    if (length > MF_LIMIT) {
+      int[] table = new int[1 << HASH_LOG];
+      int matchLimit = length - LAST_LITERALS;
+      int ip = 0;
+      while (ip < length - MF_LIMIT) {
+        int sequence = readInt(src, ip);
+        int h = (sequence * -1640531535) >>> (32 - HASH_LOG);
+        // Positions are stored plus one, so that 0 means an empty slot.
+        int ref = table[h] - 1;
+        table[h] = ip + 1;
+        if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+          ip++;
+          continue;
+        }
+        int matchLength = MIN_MATCH;
+        while (ip + matchLength < matchLimit && src[ref + matchLength] == src[ip + matchLength]) {
+          matchLength++;
+        }
+        op = writeSequence(src, anchor, ip - anchor, ip - ref, matchLength, dst, op);
+        ip += matchLength;
+        anchor = ip;
+      }
+    }
+    return writeSequence(src, anchor, length - anchor, 0, 0, dst, op) - dstOff;
+  }
+
+  /**
+   * Decompresses the block src[srcOff, srcOff + srcLength) into dst.
+   *
+   * @param maxLength the most bytes that may be written to dst
+   * @return the number of bytes written to dst
+   * @throws PageException if the block is malformed
+   */
+  static int decompress(byte[] src, int srcOff, int srcLength, byte[] dst, int maxLength) {
+    int ip = srcOff;
+    int end = srcOff + srcLength;
+    int op = 0;
+    while (ip < end) {
+      int token = src[ip++] & 0xff;
+
+      int literals = token >>> 4;
+      if (literals == RUN_MASK) {
+        int b;
+        do {
+          if (ip >= end) {
+            throw malformed();
+          }
+          b = src[ip++] & 0xff;
+          literals += b;
+        } while (b == 255);
+      }
+      if (literals > end - ip || literals > maxLength - op) {
+        throw malformed();
+      }
+      System.arraycopy(src, ip, dst, op, literals);
+      ip += literals;
+      op += literals;
+      if (ip == end) {
+        // The last sequence has no match.
+        break;
+      }
+
+      if (end - ip < 2) {
+        throw malformed();
+      }
+      int offset = (src[ip] & 0xff) | ((src[ip + 1] & 0xff) << 8);
+      ip += 2;
+      if (offset == 0 || offset > op) {
+        throw malformed();
+      }
+      int matchLength = token & RUN_MASK;
+      if (matchLength == RUN_MASK) {
+        int b;
+        do {
+          if (ip >= end) {
+            throw malformed();
+          }
+          b = src[ip++] & 0xff;
+          matchLength += b;
+        } while (b == 255);
+      }
+      matchLength += MIN_MATCH;
+      if (matchLength > maxLength - op) {
+        throw malformed();
+      }
+      int ref = op - offset;
+      if (offset >= matchLength) {
+        System.arraycopy(dst, ref, dst, op, matchLength);
+        op += matchLength;
+      } else {
+        // The match overlaps the bytes it produces, e.g. a run of one repeated byte.
+        for (int i = 0; i < matchLength; i++) {
+          dst[op++] = dst[ref++];
+        }
+      }
+    }
+    return op;
+  }
+
+  /**
+   * Writes a token, literals src[literalStart, literalStart + literals) and, unless matchLength is
+   * 0, a match of matchLength bytes at offset.
+   *
+   * @return the position in dst after the sequence
+   */
+  private static int writeSequence(byte[] src, int literalStart, int literals, int offset,
+                                   int matchLength, byte[] dst, int op) {
+    int tokenPos = op++;
+    int token = Math.min(literals, RUN_MASK) << 4;
+    if (literals >= RUN_MASK) {
+      op = writeLength(literals - RUN_MASK, dst, op);
+    }
+    System.arraycopy(src, literalStart, dst, op, literals);
+    op += literals;
+    if (matchLength > 0) {
+      dst[op++] = (byte) offset;
+      dst[op++] = (byte) (offset >>> 8);
+      int extra = matchLength - MIN_MATCH;
+      token |= Math.min(extra, RUN_MASK);
+      if (extra >= RUN_MASK) {
+        op = writeLength(extra - RUN_MASK, dst, op);
+      }
+    }
+    dst[tokenPos] = (byte) token;
+    return op;
+  }
+
+  private static int writeLength(int length, byte[] dst, int op) {
+    while (length >= 255) {
+      dst[op++] = (byte) 255;
+      length -= 255;
+    }
+    dst[op++] = (byte) length;
+    return op;
+  }
+
+  private static int readInt(byte[] b, int i) {
+    return (b[i] & 0xff) | ((b[i + 1] & 0xff) << 8) | ((b[i + 2] & 0xff) << 16) | (b[i + 3] << 24);
+  }
+
+  private static PageException malformed() {
+    return new PageException("malformed compressed page");
+  }
+}
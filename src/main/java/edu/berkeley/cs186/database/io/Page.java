@@ -4,18 +4,47 @@ import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * General-purpose wrapper for interacting with the memory-mapped bytes on a page.
  *
+ * The BufferPool hands the same Page object to every caller that fetches the page, so no access
+ * method touches the position of the underlying buffer: concurrent reads of one Page are always
+ * safe. Readers that must not observe a concurrent write (e.g. parallel operators scanning pages
+ * that may be updated) can additionally take the page's shared latch, and writers its exclusive
+ * latch. Latches are optional and advisory; the accessors never take them themselves.
+ *
+ * The data pages of a file with checksums (see StorageConfig#setChecksums) end in a trailer of
+ * CHECKSUM_BYTES holding the CRC32 of the rest of the page, which flush brings up to date. Such
+ * pages are always read by a PreadBackend, so flush is the only way their bytes reach the file.
+ * The trailer is not reserved by the accessors; users of such pages stay within
+ * PageAllocator#getUsablePageSize.
+ *
  * YOU SHOULD NOT NEED TO CHANGE ANY OF THE CODE IN THIS PACKAGE.
  */
 public class Page {
   public static final int pageSize = 4096;
+  public static final int CHECKSUM_BYTES = 4;
+
+  // Bulk copies up to this many bytes are done with absolute single-byte accesses; longer ones go
+  // through a private duplicate of the buffer, whose allocation is amortized over the copy.
+  private static final int SMALL_COPY_BYTES = 256;
 
-  private MappedByteBuffer pageData;
+  private ByteBuffer pageData;
+  private MappedByteBuffer mapping;
+  private PreadBackend backend;
+  private IOCounters counters;
+  private long offset;
+  private int size;
   private int pageNum;
   private boolean durable;
+  private volatile boolean dirty;
+  private volatile boolean checksummed;
+  private AtomicInteger pinCount = new AtomicInteger(0);
+  private volatile ReentrantReadWriteLock latch;
 
   /**
    * Create a new page using fc with at offset blockNum with virtual page number pageNum
@@ -29,16 +58,76 @@ public class Page {
   }
 
   public Page(FileChannel fc, int blockNum, int pageNum, boolean durable) {
+    this(fc, blockNum, pageNum, durable, Page.pageSize);
+  }
+
+  /**
+   * Create a new page of size bytes using fc at offset blockNum with virtual page number pageNum.
+   * Blocks are size bytes long, so blockNum is counted in pages of this size.
+   *
+   * @param fc the file channel for this Page
+   * @param blockNum the block in the file for this page
+   * @param pageNum the virtual page number
+   * @param durable whether flush forces the page to disk
+   * @param size the size of the page in bytes
+   */
+  public Page(FileChannel fc, int blockNum, int pageNum, boolean durable, int size) {
     this.pageNum = pageNum;
     this.durable = durable;
+    this.size = size;
     PageAllocator.incrementCacheMisses();
     try {
-      this.pageData = fc.map(FileChannel.MapMode.READ_WRITE, blockNum*Page.pageSize, Page.pageSize);
+      this.mapping = fc.map(FileChannel.MapMode.READ_WRITE, ((long) blockNum) * size, size);
+      this.pageData = this.mapping;
     } catch (IOException e) {
       throw new PageException("Can't mmap page: " + pageNum + "at block: " + blockNum + " ; " + e.getMessage());
     }
   }
 
+  /**
+   * Create a new page over bytes that are already mapped, e.g. a slice of a larger mapped extent.
+   * Flushing the page forces mapping, the region pageData was sliced from.
+   *
+   * @param pageData the bytes of this page; its capacity is the page size
+   * @param mapping the mapped region containing pageData
+   * @param pageNum the virtual page number
+   * @param durable whether flush forces the page to disk
+   * @param counters the counters of the file the page belongs to
+   */
+  Page(ByteBuffer pageData, MappedByteBuffer mapping, int pageNum, boolean durable,
+       IOCounters counters) {
+    this.pageNum = pageNum;
+    this.durable = durable;
+    this.size = pageData.capacity();
+    this.pageData = pageData;
+    this.mapping = mapping;
+    this.counters = counters;
+    PageAllocator.incrementCacheMisses();
+  }
+
+  /**
+   * Create a new page over a buffer read from the file by a PreadBackend. Flushing the page
+   * writes the buffer back to offset.
+   *
+   * @param pageData the bytes of this page; its capacity is the page size
+   * @param backend the backend the page was read by
+   * @param offset the offset of the page in the file
+   * @param pageNum the virtual page number
+   * @param durable whether flush forces the page to disk
+   * @param counters the counters of the file the page belongs to
+   */
+  Page(ByteBuffer pageData, PreadBackend backend, long offset, int pageNum, boolean durable,
+       IOCounters counters) {
+    this.pageNum = pageNum;
+    this.durable = durable;
+    this.size = pageData.capacity();
+    this.pageData = pageData;
+    this.backend = backend;
+    this.offset = offset;
+    this.counters = counters;
+    PageAllocator.incrementCacheMisses();
+  }
+
   /**
    * Reads num bytes from offset position into buf.
    *
@@ -47,14 +136,13 @@ public class Page {
    * @param buf the buffer to put the bytes into
    */
   public void readBytes(int position, int num, byte[] buf) {
-    if (Page.pageSize < position + num) {
+    if (this.size < position + num) {
       throw new PageException("readBytes is out of bounds");
     }
     if (buf.length < num) {
       throw new PageException("num bytes to read is longer than buffer");
     }
-    pageData.position(position);
-    pageData.get(buf, 0, num);
+    this.getBytes(position, num, buf, 0);
   }
 
   /**
@@ -65,7 +153,7 @@ public class Page {
    * @return a new byte array with the bytes read
    */
   public byte[] readBytes(int position, int num) {
-    if (Page.pageSize < position + num) {
+    if (this.size < position + num) {
       throw new PageException("readBytes is out of bounds");
     }
     byte[] data = new byte[num];
@@ -79,7 +167,7 @@ public class Page {
    * @return a new byte array with all the bytes in the file
    */
   public byte[] readBytes() {
-    return readBytes(0, Page.pageSize);
+    return readBytes(0, this.size);
   }
 
   /**
@@ -89,7 +177,7 @@ public class Page {
    * @return the byte at offset position
    */
   public byte readByte(int position) {
-    if (position < 0 || position >= Page.pageSize) {
+    if (position < 0 || position >= this.size) {
       throw new PageException("readByte is out of bounds of page");
     }
     return pageData.get(position);
@@ -111,12 +199,12 @@ public class Page {
       throw new PageException("position or num can't be negative");
     }
 
-    if (Page.pageSize < num + position) {
+    if (this.size < num + position) {
       throw new PageException("writeBytes would go out of bounds");
     }
 
-    pageData.position(position);
-    pageData.put(buf, 0, num);
+    this.markDirty();
+    this.putBytes(position, num, buf, 0);
   }
 
   /**
@@ -126,9 +214,10 @@ public class Page {
    * @param b the byte to write
    */
   public void writeByte(int position, byte b) {
-    if (position < 0 || position >= Page.pageSize) {
+    if (position < 0 || position >= this.size) {
       throw new PageException("readByte is out of bounds of page");
     }
+    this.markDirty();
     pageData.put(position, b);
   }
 
@@ -139,7 +228,7 @@ public class Page {
    * @param value the value to write
    */
   public void writeInt(int startPos, int value) {
-    this.writeBytes(startPos, 4, ByteBuffer.allocate(4).putInt(value).array());
+    this.putInt(startPos, value);
   }
 
   /**
@@ -149,25 +238,282 @@ public class Page {
    * @return the 4-byte integer at startPos
    */
   public int readInt(int startPos) {
-    return ByteBuffer.wrap(this.readBytes(startPos, 4)).getInt();
+    return this.getInt(startPos);
+  }
+
+  /*
+   * Absolute accessors. These read and write the mapped bytes directly: they allocate nothing and
+   * do not touch the position of the underlying buffer. Multi-byte values are big-endian, like the
+   * DataBox encodings.
+   */
+
+  /**
+   * @param position the offset in the page to read from
+   * @return the byte at position
+   */
+  public byte getByte(int position) {
+    this.checkBounds(position, 1);
+    return this.pageData.get(position);
+  }
+
+  /**
+   * @param position the offset in the page to write to
+   * @param value the byte to write
+   */
+  public void putByte(int position, byte value) {
+    this.checkBounds(position, 1);
+    this.markDirty();
+    this.pageData.put(position, value);
+  }
+
+  /**
+   * @param position the offset in the page to read from
+   * @return the 4-byte integer at position
+   */
+  public int getInt(int position) {
+    this.checkBounds(position, 4);
+    return this.pageData.getInt(position);
+  }
+
+  /**
+   * @param position the offset in the page to write to
+   * @param value the 4-byte integer to write
+   */
+  public void putInt(int position, int value) {
+    this.checkBounds(position, 4);
+    this.markDirty();
+    this.pageData.putInt(position, value);
+  }
+
+  /**
+   * @param position the offset in the page to read from
+   * @return the 8-byte integer at position
+   */
+  public long getLong(int position) {
+    this.checkBounds(position, 8);
+    return this.pageData.getLong(position);
+  }
+
+  /**
+   * @param position the offset in the page to write to
+   * @param value the 8-byte integer to write
+   */
+  public void putLong(int position, long value) {
+    this.checkBounds(position, 8);
+    this.markDirty();
+    this.pageData.putLong(position, value);
+  }
+
+  /**
+   * @param position the offset in the page to read from
+   * @return the 4-byte float at position
+   */
+  public float getFloat(int position) {
+    this.checkBounds(position, 4);
+    return this.pageData.getFloat(position);
+  }
+
+  /**
+   * @param position the offset in the page to write to
+   * @param value the 4-byte float to write
+   */
+  public void putFloat(int position, float value) {
+    this.checkBounds(position, 4);
+    this.markDirty();
+    this.pageData.putFloat(position, value);
+  }
+
+  /**
+   * Copies the whole page into dst, starting at dstOff.
+   *
+   * @param dst the array to copy into
+   * @param dstOff the offset in dst to copy to
+   */
+  public void copyTo(byte[] dst, int dstOff) {
+    this.copyTo(0, this.size, dst, dstOff);
+  }
+
+  /**
+   * Copies num bytes starting at position into dst, starting at dstOff.
+   *
+   * @param position the offset in the page to copy from
+   * @param num the number of bytes to copy
+   * @param dst the array to copy into
+   * @param dstOff the offset in dst to copy to
+   */
+  public void copyTo(int position, int num, byte[] dst, int dstOff) {
+    this.checkBounds(position, num);
+    if (dstOff < 0 || dst.length - dstOff < num) {
+      throw new PageException("copyTo would go out of bounds of the destination");
+    }
+    this.getBytes(position, num, dst, dstOff);
+  }
+
+  private void getBytes(int position, int num, byte[] dst, int dstOff) {
+    if (num <= SMALL_COPY_BYTES) {
+      for (int i = 0; i < num; i++) {
+        dst[dstOff + i] = this.pageData.get(position + i);
+      }
+      return;
+    }
+    ByteBuffer view = this.pageData.duplicate();
+    view.position(position);
+    view.get(dst, dstOff, num);
+  }
+
+  private void putBytes(int position, int num, byte[] src, int srcOff) {
+    if (num <= SMALL_COPY_BYTES) {
+      for (int i = 0; i < num; i++) {
+        this.pageData.put(position + i, src[srcOff + i]);
+      }
+      return;
+    }
+    ByteBuffer view = this.pageData.duplicate();
+    view.position(position);
+    view.put(src, srcOff, num);
+  }
+
+  private void markDirty() {
+    if (!this.dirty) {
+      this.dirty = true;
+      if (this.backend != null) {
+        this.backend.dirtied(this);
+      }
+    }
+  }
+
+  private void checkBounds(int position, int num) {
+    if (position < 0 || num < 0 || position > this.size - num) {
+      throw new PageException("access of " + num + " bytes at " + position + " is out of bounds of page");
+    }
   }
 
   /**
    * Completely wipe (zero out) the page.
    */
   public void wipe() {
-    byte[] zeros = new byte[Page.pageSize];
-    this.writeBytes(0, Page.pageSize, zeros);
+    byte[] zeros = new byte[this.size];
+    this.writeBytes(0, this.size, zeros);
   }
 
   /**
-   * Force the page to disk.
+   * Force the page to disk if it was written since it was last flushed. A page sliced from an
+   * extent forces the whole extent, which only writes back the pages of the extent that are
+   * actually dirty. A page read by a PreadBackend is written back even if it is not durable, since
+   * its bytes live nowhere else.
    */
   public void flush() {
-    if (this.durable) {
-      PageAllocator.incrementCacheMisses();
-      this.pageData.force();
+    ForceSet toForce = new ForceSet();
+    this.writeBack(toForce);
+    toForce.force();
+  }
+
+  /**
+   * Writes back the page like flush, except that a durable page is not forced: its extent, or the
+   * file of its PreadBackend, is added to toForce instead, so a caller cleaning several pages can
+   * force each extent or file once for all of them.
+   *
+   * @param toForce the set to add what still has to be forced to
+   */
+  void writeBack(ForceSet toForce) {
+    if (!this.dirty) {
+      return;
+    }
+    if (this.backend != null) {
+      this.backend.cleaned(this);
+    }
+    // Clear the bit before writing back, so a write racing with it leaves the page dirty.
+    this.dirty = false;
+    if (this.checksummed) {
+      this.pageData.putInt(this.size - CHECKSUM_BYTES, checksum(this.pageData, this.size));
+    }
+    if (this.backend != null) {
+      this.backend.write(this.pageData, this.offset, this.pageNum);
+      this.countWrite();
+      if (this.durable) {
+        toForce.add(this.backend, this.counters);
+      }
+    } else if (this.durable) {
+      this.countWrite();
+      toForce.add(this.mapping, this.counters);
+    }
+  }
+
+  private void countWrite() {
+    if (this.counters != null) {
+      this.counters.write();
+    }
+  }
+
+  /**
+   * Makes flush keep the checksum trailer of this page up to date.
+   */
+  void setChecksummed() {
+    this.checksummed = true;
+  }
+
+  /**
+   * @return whether the checksum trailer of this page matches its contents
+   */
+  boolean verifyChecksum() {
+    return checksumMatches(this.pageData, this.size);
+  }
+
+  /**
+   * @param data the bytes of a page, starting at index 0
+   * @param size the size of the page
+   * @return the CRC32 of the page up to its checksum trailer
+   */
+  static int checksum(ByteBuffer data, int size) {
+    ByteBuffer view = data.duplicate();
+    view.limit(size - CHECKSUM_BYTES);
+    view.position(0);
+    CRC32 crc = new CRC32();
+    crc.update(view);
+    return (int) crc.getValue();
+  }
+
+  /**
+   * @param data the bytes of a page, starting at index 0
+   * @param size the size of the page
+   * @return whether the checksum trailer of the page matches its contents
+   */
+  static boolean checksumMatches(ByteBuffer data, int size) {
+    int stored = data.getInt(size - CHECKSUM_BYTES);
+    if (stored == checksum(data, size)) {
+      return true;
+    }
+    // An allocated page that was never written back is all zeros, trailer included.
+    if (stored != 0) {
+      return false;
+    }
+    for (int i = 0; i < size; i++) {
+      if (data.get(i) != 0) {
+        return false;
+      }
     }
+    return true;
+  }
+
+  /**
+   * @return the counters of the file this page belongs to, or null for a standalone page
+   */
+  IOCounters getCounters() {
+    return this.counters;
+  }
+
+  /**
+   * @return whether this page was written since it was last flushed
+   */
+  public boolean isDirty() {
+    return this.dirty;
+  }
+
+  /**
+   * @return the size of this page in bytes
+   */
+  public int getPageSize() {
+    return this.size;
   }
 
   /**
@@ -176,4 +522,73 @@ public class Page {
  public int getPageNum() {
     return this.pageNum;
   }
+
+  /**
+   * Pin this page so the BufferPool holding it will not evict it.
+   */
+  void pin() {
+    this.pinCount.incrementAndGet();
+  }
+
+  /**
+   * Release one pin on this page.
+   */
+  void unpin() {
+    if (this.pinCount.decrementAndGet() < 0) {
+      this.pinCount.incrementAndGet();
+      throw new PageException("unpin of page " + this.pageNum + " that is not pinned");
+    }
+  }
+
+  /**
+   * @return whether this page is currently pinned
+   */
+  public boolean isPinned() {
+    return this.pinCount.get() > 0;
+  }
+
+  /**
+   * Acquire this page's shared latch, blocking while another thread holds it exclusively.
+   */
+  public void latchShared() {
+    this.getLatch().readLock().lock();
+  }
+
+  /**
+   * Release a shared latch acquired with latchShared.
+   */
+  public void unlatchShared() {
+    this.getLatch().readLock().unlock();
+  }
+
+  /**
+   * Acquire this page's exclusive latch, blocking while any other thread holds it.
+   */
+  public void latchExclusive() {
+    this.getLatch().writeLock().lock();
+  }
+
+  /**
+   * Release an exclusive latch acquired with latchExclusive.
+   */
+  public void unlatchExclusive() {
+    this.getLatch().writeLock().unlock();
+  }
+
+  /**
+   * The latch is created on first use, so pages that are never latched don't pay for one.
+   */
+  private ReentrantReadWriteLock getLatch() {
+    ReentrantReadWriteLock l = this.latch;
+    if (l == null) {
+      synchronized (this) {
+        l = this.latch;
+        if (l == null) {
+          l = new ReentrantReadWriteLock();
+          this.latch = l;
+        }
+      }
+    }
+    return l;
+  }
 }
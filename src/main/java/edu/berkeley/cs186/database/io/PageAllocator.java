@@ -3,42 +3,104 @@ package edu.berkeley.cs186.database.io;
 import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
 import java.nio.ByteBuffer;
-import java.nio.IntBuffer;
 import java.nio.ByteOrder;
-import java.util.LinkedHashMap;
 import java.lang.IllegalArgumentException;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.io.IOException;
-import java.util.Collection;
 import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Set;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.io.Closeable;
 /**
  * A PageAllocation system for an OS paging system. Provides memory-mapped paging from the OS, an
- * interface to individual pages with the Page objects, an LRU cache for pages, 16GB worth of paging,
- * and virtual page translation.
+ * interface to individual pages with the Page objects, a striped buffer pool for caching pages,
+ * extent-based mapping (pages are slices of large mapped regions of the file, see ExtentMap) or
+ * positional reads into buffers of their own (see StorageBackend),
+ * 16GB worth of paging (with the default 4K pages), and virtual page translation.
+ *
+ * The page size is chosen per file when the file is created (see StorageConfig) and recorded in
+ * the master page, whose last two ints are reserved for a format descriptor: format flags at
+ * FORMAT_FLAGS_OFFSET and the page size at PAGE_SIZE_OFFSET. A page size of 0 there denotes a file
+ * written before the descriptor existed or with the default 4K pages; those files are left
+ * byte-for-byte unchanged. The descriptor lives in the first 4K of the file, so it can be read
+ * before the page size is known. With FLAG_CHECKSUMS the data pages of the file end in a checksum
+ * trailer (see Page), which is verified the first time each page is fetched after the file is
+ * opened. Master and header pages have no room for a trailer; scrub instead checks that they agree
+ * with each other. With FLAG_COMPRESSED the data pages are stored compressed (see PageCompression);
+ * master and header pages never are. A file with either flag is always accessed through a
+ * PreadBackend, which writes a page back only when it is flushed, trailer and all.
+ *
+ * A Tablespace spreads pages that outgrow one file over several PageAllocators.
  *
  * YOU SHOULD NOT NEED TO CHANGE ANY OF THE CODE IN THIS PACKAGE.
  */
 public class PageAllocator implements Iterable<Page>, Closeable {
-  private static final int numHeaderPages = 1024;
-  private static final int cacheSize = 1024;
+  private static final int numHeaderPages = 1022;
+  private static final int FORMAT_FLAGS_OFFSET = 4 * numHeaderPages;
+  private static final int PAGE_SIZE_OFFSET = FORMAT_FLAGS_OFFSET + 4;
+  private static final int FLAG_CHECKSUMS = 1;
+  private static final int FLAG_COMPRESSED = 2;
+  // The bytes grow writes with at most one call.
+  private static final ByteBuffer ZEROS = ByteBuffer.allocateDirect(1 << 20).asReadOnlyBuffer();
 
   private static AtomicInteger pACounter = new AtomicInteger(0);
-  private static LRUCache<Long, Page> pageLRU = new LRUCache<Long, Page>(cacheSize);
   private static AtomicLong numIOs = new AtomicLong(0);
   private static AtomicLong cacheMisses = new AtomicLong(0);
 
   private Page masterPage;
   private FileChannel fc;
   private int numPages;
+  private int firstPageNum;
   private int allocID;
   private boolean durable;
+  private BufferPool bufferPool;
+  private int pageSize;
+  private int extentSize;
+  private StorageBackend.Type backendType;
+  private StorageBackend backend;
+  private int readAheadPages;
+  private int growthPages;
+  private final AtomicLong numReadAheadPages = new AtomicLong(0);
+  // Pending loads by read-ahead and I/O pool workers; see truncate.
+  private final PendingLoads pendingLoads = new PendingLoads();
+  private IOCounters ioCounters = new IOCounters();
+  private boolean checksums;
+  private boolean compressed;
+  // The data pages whose checksum has been verified (or that were allocated) since opening.
+  private BitSet verifiedPages = new BitSet();
+
+  // In-memory free-space map, written through to the master and header pages. headerCounts mirrors
+  // the counts in the master page; headerBitmaps[i] mirrors header page i and is loaded on first
+  // use. nextFreeHeader is a lower bound on the first header page with a free slot and
+  // nextFreeSlot[i] a lower bound on the first free slot of header page i.
+  // fetchPage and page iteration read the map under the read lock of mapLock; everything that
+  // changes it, including loading a bitmap on first use and growing the arrays, holds the write
+  // lock.
+  private final ReentrantReadWriteLock mapLock = new ReentrantReadWriteLock();
+  private int[] headerCounts;
+  private BitSet[] headerBitmaps;
+  private Page[] headerPages;
+  private int nextFreeHeader;
+  private int[] nextFreeSlot;
+
+  // Group commit of allocation metadata; see sync.
+  private long syncIntervalMillis;
+  private long lastSyncMillis;
+  private BitSet dirtyHeaders;
+  private long numMetadataSyncs;
+  private long numGrowths;
+
   /**
    * Create a new PageAllocator that writes its bytes into a file named fName. If wipe is true, the
    * data in the page is completely removed.
@@ -51,44 +113,139 @@ public class PageAllocator implements Iterable<Page>, Closeable {
   }
 
   public PageAllocator(String fName, boolean wipe, boolean durable) {
+    this(fName, wipe, durable, BufferPool.getDefault());
+  }
+
+  /**
+   * Create a new PageAllocator that caches its pages in the given BufferPool.
+   *
+   * @param fName the name of the file for this PageAllocator
+   * @param wipe a boolean specifying whether to wipe the file
+   * @param durable whether pages are forced to disk when flushed
+   * @param bufferPool the BufferPool to cache pages in
+   */
+  public PageAllocator(String fName, boolean wipe, boolean durable, BufferPool bufferPool) {
+    this(fName, wipe, durable, new StorageConfig().setBufferPool(bufferPool));
+  }
+
+  /**
+   * Create a new PageAllocator using the buffer pool and page size of config. The page size of
+   * config is only used if the file is new or wiped; otherwise the file's recorded page size is.
+   *
+   * @param fName the name of the file for this PageAllocator
+   * @param wipe a boolean specifying whether to wipe the file
+   * @param durable whether pages are forced to disk when flushed
+   * @param config the storage options for this file
+   */
+  public PageAllocator(String fName, boolean wipe, boolean durable, StorageConfig config) {
+    this(fName, wipe, durable, config, 0);
+  }
+
+  /**
+   * Create a new PageAllocator whose virtual page numbers start at firstPageNum rather than 0, so
+   * that the files of a Tablespace number their pages one after the other. Numbers are only
+   * offset at this class's interface; the file itself is the same either way.
+   *
+   * @param fName the name of the file for this PageAllocator
+   * @param wipe a boolean specifying whether to wipe the file
+   * @param durable whether pages are forced to disk when flushed
+   * @param config the storage options for this file
+   * @param firstPageNum the virtual page number of the first page of the file
+   */
+  PageAllocator(String fName, boolean wipe, boolean durable, StorageConfig config, int firstPageNum) {
     this.durable = durable;
+    this.firstPageNum = firstPageNum;
+    this.bufferPool = config.getBufferPool();
+    this.syncIntervalMillis = config.getMetadataSyncInterval();
+    this.lastSyncMillis = System.currentTimeMillis();
+    this.dirtyHeaders = new BitSet();
     try {
       this.fc = new RandomAccessFile(fName, "rw").getChannel();
     } catch (IOException e) {
       throw new PageException("Could not open File: " + e.getMessage());
     }
 
-    this.masterPage = new Page(this.fc, 0, -1);
+    int recordedSize = readRecordedPageSize();
+    if (recordedSize == 0) {
+      recordedSize = Page.pageSize;
+    }
+    StorageConfig.checkPageSize(recordedSize);
+    this.pageSize = recordedSize;
+    this.extentSize = config.getExtentSize();
+    this.readAheadPages = config.getReadAheadPages();
+    this.growthPages = Math.max(1, config.getGrowthPages());
+    this.backendType = config.getBackend();
+    this.backend = this.createBackend();
+
+    this.masterPage = this.getPage(0, -1, true);
     this.allocID = pACounter.getAndIncrement();
 
     if (wipe) {
       // Nukes masterPage and headerPages
-      byte[] masterBytes = this.masterPage.readBytes();
-      IntBuffer ib = ByteBuffer.wrap(masterBytes).asIntBuffer();
-
-      int[] pageCounts = new int[ib.capacity()];
-      ib.get(pageCounts);
-
       this.numPages = 0;
 
       for (int i = 0; i < numHeaderPages; i++) {
-        if (pageCounts[i] > 0) {
+        if (this.masterPage.getInt(i*4) > 0) {
           getHeadPage(i).wipe();
         }
       }
 
       this.masterPage.wipe();
+
+      if (this.pageSize != config.getPageSize()) {
+        this.pageSize = config.getPageSize();
+        this.backend.close();
+        this.backend = this.createBackend();
+        this.masterPage = this.getPage(0, -1, true);
+        this.masterPage.wipe();
+      }
     }
 
-    byte[] masterBytes = masterPage.readBytes();
-    IntBuffer ib = ByteBuffer.wrap(masterBytes).asIntBuffer();
-    int[] pageCounts = new int[ib.capacity()];
-    ib.get(pageCounts);
+    if (this.pageSize != Page.pageSize && this.readRecordedPageSize() == 0) {
+      this.masterPage.putInt(PAGE_SIZE_OFFSET, this.pageSize);
+      if (this.durable) {
+        this.masterPage.flush();
+      }
+    }
+
+    int flags = (config.getChecksums() ? FLAG_CHECKSUMS : 0) | (config.getCompression() ? FLAG_COMPRESSED : 0);
+    if (wipe && flags != 0) {
+      this.masterPage.putInt(FORMAT_FLAGS_OFFSET, flags);
+      if (this.durable) {
+        this.masterPage.flush();
+      }
+    }
+    flags = this.masterPage.getInt(FORMAT_FLAGS_OFFSET);
+    this.checksums = (flags & FLAG_CHECKSUMS) != 0;
+    this.compressed = (flags & FLAG_COMPRESSED) != 0;
+    if (this.compressed || this.checksums) {
+      // Master and header pages are stored as is, so the backend may be switched under them.
+      this.masterPage.flush();
+      this.backend.close();
+      this.backend = this.createBackend();
+      this.masterPage = this.getPage(0, -1, true);
+    }
+
+    int[] pageCounts = new int[numHeaderPages];
+    for (int i = 0; i < numHeaderPages; i++) {
+      pageCounts[i] = this.masterPage.getInt(i*4);
+    }
 
     this.numPages = 0;
+    int numUsedHeaders = 0;
     for (int i = 0; i < numHeaderPages; i++) {
       this.numPages += pageCounts[i];
+      if (pageCounts[i] > 0) {
+        numUsedHeaders = i + 1;
+      }
     }
+
+    // Only track the header pages in use; the arrays grow as allocPage reaches new header pages.
+    this.headerCounts = Arrays.copyOf(pageCounts, Math.max(1, numUsedHeaders));
+    this.headerPages = new Page[this.headerCounts.length];
+    this.headerBitmaps = new BitSet[this.headerCounts.length];
+    this.nextFreeSlot = new int[this.headerCounts.length];
+    this.nextFreeHeader = 0;
   }
 
   /**
@@ -97,54 +254,90 @@ public class PageAllocator implements Iterable<Page>, Closeable {
    * @return the virtual page number of the page
    */
   public int allocPage() {
-    byte[] masterBytes = this.masterPage.readBytes();
-    IntBuffer ib = ByteBuffer.wrap(masterBytes).asIntBuffer();
-    int[] pageCounts = new int[ib.capacity()];
-    ib.get(pageCounts);
+    this.mapLock.writeLock().lock();
+    try {
+      return this.allocPageLocked();
+    } finally {
+      this.mapLock.writeLock().unlock();
+    }
+  }
 
-    Page headerPage = null;
-    int headerIndex = -1;
-    for (int i = 0; i < numHeaderPages; i++) {
-      if (pageCounts[i] < Page.pageSize) {
-        // Found header page with space
-        headerPage = getHeadPage(i);
-        headerIndex = i;
-        break;
-      }
+  private int allocPageLocked() {
+    int headerIndex = this.nextFreeHeader;
+    while (headerIndex < numHeaderPages && getHeadCount(headerIndex) >= this.pageSize) {
+      headerIndex++;
     }
+    this.nextFreeHeader = headerIndex;
 
-    if (headerPage == null) {
+    if (headerIndex == numHeaderPages) {
       throw new PageException("No free Pages Available");
     }
+    if (headerIndex >= this.headerCounts.length) {
+      growHeaders(headerIndex + 1);
+    }
 
-    byte[] headerBytes = headerPage.readBytes();
-    int pageIndex = -1;
-
-    for (int i = 0; i < Page.pageSize; i++) {
-      if (headerBytes[i] == 0) {
-        pageIndex = i;
-        break;
-      }
+    if (this.headerCounts[headerIndex] == 0) {
+      // A header page that was never used may hold stale bytes of a file that was wiped and
+      // re-created with a different page size.
+      getHeadPage(headerIndex).wipe();
+      this.headerBitmaps[headerIndex] = new BitSet(this.pageSize);
+      this.nextFreeSlot[headerIndex] = 0;
     }
 
-    if (pageIndex == -1) {
+    BitSet bitmap = getHeadBitmap(headerIndex);
+    int pageIndex = bitmap.nextClearBit(this.nextFreeSlot[headerIndex]);
+    if (pageIndex >= this.pageSize) {
      throw new PageException("Header page should have free page but doesnt");
     }
 
-    int newCount = pageCounts[headerIndex] + 1;
-    byte[] newCountBytes = ByteBuffer.allocate(4).putInt(newCount).array();
-    this.masterPage.writeBytes(headerIndex*4, 4, newCountBytes);
-    headerPage.writeByte(pageIndex, (byte) 1);
-
-    if (this.durable) {
-      this.masterPage.flush();
-      headerPage.flush();
+    Page headerPage = getHeadPage(headerIndex);
+    bitmap.set(pageIndex);
+    this.nextFreeSlot[headerIndex] = pageIndex + 1;
+    this.headerCounts[headerIndex] += 1;
+    this.masterPage.putInt(headerIndex*4, this.headerCounts[headerIndex]);
+    headerPage.putByte(pageIndex, (byte) 1);
+    metadataChanged(headerIndex);
+    if (this.growthPages > 1 && !this.compressed) {
+      this.grow(headerIndex, pageIndex);
     }
 
-    int pageNum = headerIndex * Page.pageSize + pageIndex;
-    fetchPage(pageNum).wipe();
+    int pageNum = headerIndex * this.pageSize + pageIndex;
+    // The page is wiped right away, so whatever it held need not be verified.
+    this.markVerified(pageNum);
+    fetchPage(this.firstPageNum + pageNum).wipe();
     this.numPages += 1;
-    return pageNum;
+    return this.firstPageNum + pageNum;
+  }
+
+  /**
+   * Extends the file with zeros through the new page pageIndex of header page headerIndex and the
+   * free pages after it, up to growthPages pages in all, if the new page lies past the end of the
+   * file. Pages that are allocated, and so may be written back concurrently, are never
+   * overwritten: the zeros start at the new page (or the end of the file) and stop at the next
+   * allocated page or the end of the header page's range.
+   */
+  private void grow(int headerIndex, int pageIndex) {
+    long firstBlock = 2 + ((long) headerIndex)*(this.pageSize + 1) + pageIndex;
+    int next = getHeadBitmap(headerIndex).nextSetBit(pageIndex + 1);
+    int limit = Math.min(pageIndex + this.growthPages, (next < 0) ? this.pageSize : next);
+    long end = (firstBlock + limit - pageIndex) * this.pageSize;
+    try {
+      long position = Math.max(this.fc.size(), firstBlock * this.pageSize);
+      if (position >= (firstBlock + 1) * this.pageSize) {
+        return;
+      }
+      while (position < end) {
+        ByteBuffer zeros = ZEROS.duplicate();
+        zeros.limit((int) Math.min(zeros.capacity(), end - position));
+        while (zeros.hasRemaining()) {
+          position += this.fc.write(zeros, position);
+        }
+      }
+    } catch (IOException e) {
+      throw new PageException("Could not extend file: " + e.getMessage());
+    }
+    this.ioCounters.write();
+    this.numGrowths++;
   }
 
   /**
@@ -154,49 +347,205 @@ public class PageAllocator implements Iterable<Page>, Closeable {
    * @return a Page object wrapping the page corresponding to pageNum
    */
   public Page fetchPage(int pageNum) {
+    pageNum -= this.firstPageNum;
     if (pageNum < 0) {
       throw new PageException("invalid page number -- out of bounds");
     }
 
     numIOs.getAndIncrement();
+    this.ioCounters.logicalRead();
 
-    synchronized(PageAllocator.class) {
-      if (pageLRU.containsKey(translatePageNum(pageNum))) {
-        return pageLRU.get(translatePageNum(pageNum));
-      }
+    long vPageNum = translatePageNum(pageNum);
+    Page cached = this.bufferPool.get(vPageNum);
+    if (cached != null) {
+      return cached;
     }
 
-    int headPageIndex = pageNum/Page.pageSize;
+    int dataBlockID = this.dataBlockOf(pageNum);
+    Page dataPage = this.getDataPage(dataBlockID, pageNum);
 
-    if (headPageIndex >= numHeaderPages) {
-      throw new PageException("invalid page number -- out of bounds");
+    return this.bufferPool.putIfAbsent(vPageNum, dataPage);
+  }
+
+  /**
+   * Fetches the page corresponding to virtual page number pageNum without waiting for it to be
+   * read. Whether the page is allocated is checked right away, in the calling thread; if it is
+   * not resident, it is then read (and faulted in, if mapped) by a thread of the I/O pool (see
+   * AsyncIO). The I/O is counted towards the calling thread's IOCounters, if any.
+   *
+   * @param pageNum the virtual page number
+   * @return a future of the Page, which fails with a PageException if the page can't be fetched
+   */
+  public CompletableFuture<Page> fetchPageAsync(int pageNum) {
+    final int localPageNum = pageNum - this.firstPageNum;
+    final long vPageNum;
+    final int dataBlockID;
+    this.pendingLoads.begin();
+    try {
+      if (localPageNum < 0) {
+        throw new PageException("invalid page number -- out of bounds");
+      }
+
+      numIOs.getAndIncrement();
+      this.ioCounters.logicalRead();
+
+      vPageNum = translatePageNum(localPageNum);
+      Page cached = this.bufferPool.get(vPageNum);
+      if (cached != null) {
+        this.pendingLoads.end();
+        return CompletableFuture.completedFuture(cached);
+      }
+      dataBlockID = this.dataBlockOf(localPageNum);
+    } catch (PageException e) {
+      this.pendingLoads.end();
+      CompletableFuture<Page> failed = new CompletableFuture<Page>();
+      failed.completeExceptionally(e);
+      return failed;
     }
 
-    byte[] headCountBytes = this.masterPage.readBytes(headPageIndex*4, 4);
-    int headCount = ByteBuffer.wrap(headCountBytes).getInt();
+    return AsyncIO.load(new Supplier<Page>() {
+      public Page get() {
+        return bufferPool.putIfAbsent(vPageNum, getDataPage(dataBlockID, localPageNum));
+      }
+    }, this.pendingLoads);
+  }
 
-    if (headCount < 1) {
-      throw new PageException("invalid page number -- page not allocated");
+  /**
+   * Fetches a batch of pages, reading all of those that are not resident at once on the I/O pool
+   * (see fetchPageAsync) and waiting for them. Each distinct page is fetched once.
+   *
+   * @param pageNums the virtual page numbers; may contain duplicates
+   * @return the Pages, in the order of pageNums
+   * @throws PageException if any of the pages can't be fetched
+   */
+  public Page[] fetchPages(int[] pageNums) {
+    Map<Integer, CompletableFuture<Page>> futures = new HashMap<Integer, CompletableFuture<Page>>();
+    for (int pageNum : pageNums) {
+      if (!futures.containsKey(pageNum)) {
+        futures.put(pageNum, this.fetchPageAsync(pageNum));
+      }
     }
+    return AsyncIO.join(pageNums, futures);
+  }
 
-    Page headPage = getHeadPage(headPageIndex);
+  /**
+   * Checks that pageNum is allocated.
+   *
+   * @param pageNum the page number within this file
+   * @return the block of the file that holds page pageNum
+   * @throws PageException if pageNum is not allocated
+   */
+  private int dataBlockOf(int pageNum) {
+    int headPageIndex = pageNum/this.pageSize;
 
-    int dataPageIndex = pageNum % Page.pageSize;
+    if (headPageIndex >= numHeaderPages) {
+      throw new PageException("invalid page number -- out of bounds");
+    }
 
-    byte validByte = headPage.readByte(dataPageIndex);
+    int dataPageIndex = pageNum % this.pageSize;
 
-    if (validByte == 0) {
-      throw new PageException("invalid page number -- page not allocated");
+    while (true) {
+      this.mapLock.readLock().lock();
+      try {
+        if (getHeadCount(headPageIndex) < 1) {
+          throw new PageException("invalid page number -- page not allocated");
+        }
+        BitSet bitmap = this.headerBitmaps[headPageIndex];
+        if (bitmap != null) {
+          if (!bitmap.get(dataPageIndex)) {
+            throw new PageException("invalid page number -- page not allocated");
+          }
+          return 2 + headPageIndex*(this.pageSize + 1) + dataPageIndex;
+        }
+      } finally {
+        this.mapLock.readLock().unlock();
+      }
+      loadHeadBitmap(headPageIndex);
     }
+  }
 
-    int dataBlockID = 2 + headPageIndex*(Page.pageSize + 1) + dataPageIndex;
-    Page dataPage = new Page(this.fc, dataBlockID, pageNum, this.durable);
+  /**
+   * Makes the allocated page pageNum resident without counting an IO for it, so that a later
+   * fetchPage hits the buffer pool. Called by the I/O pool workers of ReadAhead.
+   *
+   * @param pageNum the virtual page number of an allocated page
+   * @return the resident Page
+   */
+  private Page readAhead(int pageNum) {
+    long vPageNum = translatePageNum(pageNum);
+    Page cached = this.bufferPool.get(vPageNum);
+    if (cached != null) {
+      return cached;
+    }
+    int headPageIndex = pageNum/this.pageSize;
+    int dataBlockID = 2 + headPageIndex*(this.pageSize + 1) + pageNum % this.pageSize;
+    return this.bufferPool.putIfAbsent(vPageNum, this.getDataPage(dataBlockID, pageNum));
+  }
 
-    synchronized(PageAllocator.class) {
-      pageLRU.put(translatePageNum(pageNum), dataPage);
+  /**
+   * Finds the first allocated page at or after pageNum, skipping header pages with no allocated
+   * pages and scanning the bitmaps of the others a word at a time.
+   *
+   * @return the virtual page number of the next allocated page, or -1 if there is none
+   */
+  private int nextAllocated(int pageNum) {
+    while (true) {
+      int unloaded = -1;
+      this.mapLock.readLock().lock();
+      try {
+        int headPageIndex = Math.max(pageNum, 0)/this.pageSize;
+        int dataPageIndex = Math.max(pageNum, 0) % this.pageSize;
+        for (; headPageIndex < this.headerCounts.length; headPageIndex++, dataPageIndex = 0) {
+          if (this.headerCounts[headPageIndex] < 1) {
+            continue;
+          }
+          BitSet bitmap = this.headerBitmaps[headPageIndex];
+          if (bitmap == null) {
+            unloaded = headPageIndex;
+            break;
+          }
+          int next = bitmap.nextSetBit(dataPageIndex);
+          if (next >= 0) {
+            return headPageIndex * this.pageSize + next;
+          }
+        }
+        if (unloaded < 0) {
+          return -1;
+        }
+      } finally {
+        this.mapLock.readLock().unlock();
+      }
+      loadHeadBitmap(unloaded);
     }
+  }
 
-    return dataPage;
+  /**
+   * Fetches the page corresponding to virtual page number pageNum and pins it in the buffer pool,
+   * so that it stays resident until unpinPage is called.
+   *
+   * @param pageNum the virtual page number
+   * @return the pinned Page
+   */
+  public Page pinPage(int pageNum) {
+    while (true) {
+      Page p = fetchPage(pageNum);
+      p.pin();
+      // The page may have been evicted between the lookup and the pin; only a page that is
+      // still the resident copy is protected by the pin.
+      if (this.bufferPool.get(translatePageNum(pageNum - this.firstPageNum)) == p) {
+        return p;
+      }
+      p.unpin();
+    }
+  }
+
+  /**
+   * Releases a pin taken by pinPage.
+   *
+   * @param p the pinned page
+   */
+  public void unpinPage(Page p) {
+    p.unpin();
   }
 
   /**
@@ -210,38 +559,40 @@ public class PageAllocator implements Iterable<Page>, Closeable {
     if (this.durable) {
       p.flush();
     }
-    int pageNum = p.getPageNum();
-    int headPageIndex = pageNum/Page.pageSize;
-    int dataPageIndex = pageNum % Page.pageSize;
-
-    Page headPage = getHeadPage(headPageIndex);
-
-    if (headPage.readByte(dataPageIndex) == 0) {
+    int pageNum = p.getPageNum() - this.firstPageNum;
+    if (pageNum < 0) {
       return false;
     }
+    int headPageIndex = pageNum/this.pageSize;
+    int dataPageIndex = pageNum % this.pageSize;
 
-    headPage.writeByte(dataPageIndex, (byte) 0);
-    if (this.durable) {
-      headPage.flush();
-    }
-    byte[] countBytes = masterPage.readBytes(4*headPageIndex,4);
-    int oldCount = ByteBuffer.wrap(countBytes).getInt();
-
-    int newCount = oldCount - 1;
-    byte[] newCountBytes = ByteBuffer.allocate(4).putInt(newCount).array();
-    masterPage.writeBytes(headPageIndex*4, 4, newCountBytes);
-    if (this.durable) {
-      masterPage.flush();
-    }
+    this.mapLock.writeLock().lock();
+    try {
+      if (getHeadCount(headPageIndex) < 1) {
+        return false;
+      }
+      BitSet bitmap = getHeadBitmap(headPageIndex);
 
-    synchronized(PageAllocator.class) {
-      if (pageLRU.containsKey(translatePageNum(pageNum))) {
-        pageLRU.remove(translatePageNum(pageNum));
+      if (!bitmap.get(dataPageIndex)) {
+        return false;
       }
-    }
 
-    this.numPages -= 1;
-    return true;
+      Page headPage = getHeadPage(headPageIndex);
+      bitmap.clear(dataPageIndex);
+      headPage.putByte(dataPageIndex, (byte) 0);
+      this.headerCounts[headPageIndex] -= 1;
+      masterPage.putInt(headPageIndex*4, this.headerCounts[headPageIndex]);
+      metadataChanged(headPageIndex);
+      this.nextFreeSlot[headPageIndex] = Math.min(this.nextFreeSlot[headPageIndex], dataPageIndex);
+      this.nextFreeHeader = Math.min(this.nextFreeHeader, headPageIndex);
+
+      this.bufferPool.remove(translatePageNum(pageNum));
+
+      this.numPages -= 1;
+      return true;
+    } finally {
+      this.mapLock.writeLock().unlock();
+    }
   }
 
   /**
@@ -261,60 +612,465 @@ public class PageAllocator implements Iterable<Page>, Closeable {
     return freePage(p);
   }
 
+  /**
+   * Forces all allocation metadata changed since the last sync (the master page and the header
+   * pages of pages allocated or freed since then) to disk. This is the durability point for
+   * allocations and frees when the metadata sync interval is not 0: until it returns, a crash may
+   * lose them. Does nothing for a non-durable PageAllocator or when no metadata has changed.
+   */
+  public void sync() {
+    this.mapLock.writeLock().lock();
+    try {
+      if (!this.durable || this.masterPage == null || this.dirtyHeaders.isEmpty()) {
+        return;
+      }
+      // Header pages first, so a durable count never covers a page whose bit is not durable.
+      ForceSet toForce = new ForceSet();
+      for (int i = this.dirtyHeaders.nextSetBit(0); i >= 0; i = this.dirtyHeaders.nextSetBit(i + 1)) {
+        getHeadPage(i).writeBack(toForce);
+      }
+      toForce.force();
+      this.masterPage.flush();
+      this.dirtyHeaders.clear();
+      this.lastSyncMillis = System.currentTimeMillis();
+      this.numMetadataSyncs++;
+    } finally {
+      this.mapLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Shrinks the file to end right after its last allocated page, returning the space of the free
+   * pages (and unused header pages) at its tail to the file system. Free pages in the middle of
+   * the file are not affected; move live pages into them first (see Table#compact) to make them
+   * part of the tail.
+   *
+   * Truncating is also a checkpoint: allocation metadata is synced, every cached page of this file
+   * is flushed and dropped from the buffer pool, and all mappings of the file are released. Page
+   * objects obtained before the call stay valid for allocated pages, but must not be used for
+   * pages that were freed. The file is only shrunk once no asynchronous load or read-ahead of it
+   * and no round of the buffer pool's background writer is under way; new ones wait until the
+   * file has been shrunk.
+   *
+   * @return the number of bytes the file shrank by
+   */
+  public long truncate() {
+    this.pendingLoads.quiesce();
+    try {
+      this.mapLock.writeLock().lock();
+      try {
+        return this.truncateLocked();
+      } finally {
+        this.mapLock.writeLock().unlock();
+      }
+    } finally {
+      this.pendingLoads.resume();
+    }
+  }
+
+  private long truncateLocked() {
+    int last = -1;
+    for (int i = this.headerCounts.length - 1; i >= 0 && last < 0; i--) {
+      if (this.headerCounts[i] > 0) {
+        last = i * this.pageSize + getHeadBitmap(i).previousSetBit(this.pageSize - 1);
+      }
+    }
+    // The master page, and for a non-empty file everything up to the last allocated page.
+    long end = ((long) this.pageSize);
+    if (last >= 0) {
+      long lastBlock = 2 + ((long) last/this.pageSize)*(this.pageSize + 1) + last % this.pageSize;
+      end = (lastBlock + 1) * this.pageSize;
+    }
+
+    sync();
+    List<Page> cached = this.bufferPool.removeAll(this.allocID);
+    ForceSet toForce = new ForceSet();
+    for (Page p : cached) {
+      p.writeBack(toForce);
+    }
+    toForce.force();
+    // The background writer may still be writing back a page it took before removeAll.
+    this.bufferPool.drain(this.allocID);
+    this.backend.sync();
+
+    long size;
+    try {
+      size = this.fc.size();
+      if (size <= end) {
+        return 0;
+      }
+      this.fc.truncate(end);
+    } catch (IOException e) {
+      throw new PageException("Could not truncate file: " + e.getMessage());
+    }
+
+    this.backend.truncated();
+    this.masterPage = this.getPage(0, -1, true);
+    Arrays.fill(this.headerPages, null);
+    for (int i = (last < 0) ? 0 : last/this.pageSize + 1; i < this.headerBitmaps.length; i++) {
+      this.headerBitmaps[i] = null;
+    }
+    return size - end;
+  }
+
+  /**
+   * Records a change to the master page and header page headIndex, syncing right away unless
+   * the group commit interval has not yet elapsed since the last sync.
+   */
+  private void metadataChanged(int headIndex) {
+    if (!this.durable) {
+      return;
+    }
+    this.dirtyHeaders.set(headIndex);
+    if (this.syncIntervalMillis == 0
+        || System.currentTimeMillis() - this.lastSyncMillis >= this.syncIntervalMillis) {
+      sync();
+    }
+  }
+
   /**
    * Close this PageAllocator.
    */
   public void close() {
+    this.mapLock.writeLock().lock();
+    try {
+      this.closeLocked();
+    } finally {
+      this.mapLock.writeLock().unlock();
+    }
+  }
+
+  private void closeLocked() {
     if (this.masterPage == null) {
       return;
     }
+    sync();
     if (this.durable) {
       this.masterPage.flush();
     }
-    List<Long> toRemove = new ArrayList<Long>();
-    Set<Long> vPageNums = null;
-    List<Page> toFlush = new ArrayList<Page>();
+    // Flushing a page that isn't durable only writes it back if the backend has to.
+    List<Page> toFlush = this.bufferPool.removeAll(this.allocID);
+    ForceSet toForce = new ForceSet();
+    for (Page p : toFlush) {
+      p.writeBack(toForce);
+    }
+    toForce.force();
+    this.bufferPool.drain(this.allocID);
+    this.masterPage = null;
+    this.headerPages = null;
+    this.backend.close();
+    try {
+      this.fc.close();
+    } catch (IOException e) {
+      throw new PageException("Could not close Page Alloc " + e.getMessage());
+    }
+  }
 
-    synchronized(PageAllocator.class) {
-      vPageNums = pageLRU.keySet();
+  private Page getHeadPage(int headIndex) {
+    if (this.headerPages == null) {
+      // Still opening the file: the in-memory free-space map does not exist yet.
+      return this.getPage(1 + headIndex*(this.pageSize + 1), -1, true);
     }
+    Page headPage = this.headerPages[headIndex];
+    if (headPage == null) {
+      int headBlockID = 1 + headIndex*(this.pageSize + 1);
+      headPage = this.getPage(headBlockID, -1, true);
+      this.headerPages[headIndex] = headPage;
+    }
+    return headPage;
+  }
 
-    for (Long l : vPageNums) {
-      if (translateAllocator(l) == this.allocID) {
-        toRemove.add(l);
+  /**
+   * @return the number of allocated pages of header page headIndex
+   */
+  private int getHeadCount(int headIndex) {
+    return headIndex < this.headerCounts.length ? this.headerCounts[headIndex] : 0;
+  }
+
+  /**
+   * Grows the in-memory free-space map to track numHeaders header pages.
+   */
+  private void growHeaders(int numHeaders) {
+    int length = Math.min(numHeaderPages, Math.max(numHeaders, 2 * this.headerCounts.length));
+    this.headerCounts = Arrays.copyOf(this.headerCounts, length);
+    this.headerPages = Arrays.copyOf(this.headerPages, length);
+    this.headerBitmaps = Arrays.copyOf(this.headerBitmaps, length);
+    this.nextFreeSlot = Arrays.copyOf(this.nextFreeSlot, length);
+  }
+
+  /**
+   * Loads the in-memory copy of the allocation bitmap of a header page for readers of the map,
+   * which may not load it themselves. Must not be called with the read lock held.
+   */
+  private void loadHeadBitmap(int headIndex) {
+    this.mapLock.writeLock().lock();
+    try {
+      getHeadBitmap(headIndex);
+    } finally {
+      this.mapLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the in-memory copy of the allocation bitmap of a header page, reading it from disk the
+   * first time the header page is used. The copy is kept in sync with the header page by allocPage
+   * and freePage. Callers hold the write lock of mapLock.
+   */
+  private BitSet getHeadBitmap(int headIndex) {
+    BitSet bitmap = this.headerBitmaps[headIndex];
+    if (bitmap == null) {
+      bitmap = new BitSet(this.pageSize);
+      if (this.headerCounts[headIndex] > 0) {
+        Page headPage = getHeadPage(headIndex);
+        for (int i = 0; i < this.pageSize; i++) {
+          if (headPage.getByte(i) != 0) {
+            bitmap.set(i);
+          }
+        }
       }
+      this.headerBitmaps[headIndex] = bitmap;
     }
+    return bitmap;
+  }
+
+  private Page getPage(int blockNum, int pageNum, boolean durable) {
+    return this.backend.page(((long) blockNum) * this.pageSize, this.pageSize, pageNum, durable);
+  }
 
-    synchronized(PageAllocator.class) {
-      for (Long vPageNum : toRemove) {
-        if (pageLRU.containsKey(vPageNum)) {
-          toFlush.add(pageLRU.get(vPageNum));
-          pageLRU.remove(vPageNum);
+  /**
+   * Loads data page pageNum and, if this file has checksums, verifies it unless it was verified
+   * since the file was opened.
+   */
+  private Page getDataPage(int blockNum, int pageNum) {
+    Page page = this.getPage(blockNum, this.firstPageNum + pageNum, this.durable);
+    if (this.checksums) {
+      page.setChecksummed();
+      synchronized (this.verifiedPages) {
+        if (this.verifiedPages.get(pageNum)) {
+          return page;
         }
       }
+      if (!page.verifyChecksum()) {
+        throw new PageException("checksum mismatch on page " + (this.firstPageNum + pageNum) + " -- page is corrupt");
+      }
+      this.markVerified(pageNum);
     }
-    if (this.durable) {
-      for (Page p : toFlush) {
-        p.flush();
+    return page;
+  }
+
+  private void markVerified(int pageNum) {
+    if (this.checksums) {
+      synchronized (this.verifiedPages) {
+        this.verifiedPages.set(pageNum);
       }
     }
-    this.masterPage = null;
+  }
+
+  /**
+   * Verifies this file as it is on disk, after writing back its dirty pages: that the page counts
+   * in the master page match the header pages, that header pages only hold 0s and 1s, that every
+   * allocated page of a compressed file decompresses and, if the file has checksums, that the
+   * checksum of every allocated page matches. Pages are read directly from the file, bypassing the
+   * BufferPool.
+   *
+   * @return a description of every problem found; empty if the file is intact
+   */
+  public List<String> scrub() {
+    sync();
+    this.bufferPool.flushAll(this.allocID);
+    this.backend.sync();
+
+    List<String> problems = new ArrayList<String>();
+    ByteBuffer master = ByteBuffer.allocate(this.pageSize);
+    ByteBuffer header = ByteBuffer.allocate(this.pageSize);
+    ByteBuffer data = ByteBuffer.allocate(this.pageSize);
+    ByteBuffer block = ByteBuffer.allocate(this.pageSize);
+    int padOffset = PageCompression.padOffset(this.pageSize, this.checksums ? Page.CHECKSUM_BYTES : 0);
+    this.readBlock(0, master);
+    for (int i = 0; i < numHeaderPages; i++) {
+      int count = master.getInt(i*4);
+      if (count == 0) {
+        // A header page without pages may hold stale bytes; it is wiped before it is used.
+        continue;
+      }
+      this.readBlock(1 + ((long) i)*(this.pageSize + 1), header);
+      int marked = 0;
+      for (int j = 0; j < this.pageSize; j++) {
+        byte b = header.get(j);
+        if (b == 0) {
+          continue;
+        }
+        if (b != 1) {
+          problems.add("header page " + i + ": invalid allocation byte " + b + " for page " + (this.firstPageNum + i*this.pageSize + j));
+          continue;
+        }
+        marked++;
+        if (!this.checksums && !this.compressed) {
+          continue;
+        }
+        long blockNum = 2 + ((long) i)*(this.pageSize + 1) + j;
+        if (this.compressed) {
+          this.readBlock(blockNum, block);
+          try {
+            PageCompression.decode(block.array(), data, padOffset);
+          } catch (PageException e) {
+            problems.add("page " + (this.firstPageNum + i*this.pageSize + j) + ": " + e.getMessage());
+            continue;
+          }
+        } else {
+          this.readBlock(blockNum, data);
+        }
+        if (this.checksums && !Page.checksumMatches(data, this.pageSize)) {
+          problems.add("page " + (this.firstPageNum + i*this.pageSize + j) + ": checksum mismatch");
+        }
+      }
+      if (marked != count) {
+        problems.add("header page " + i + ": master page counts " + count + " pages, header page marks " + marked);
+      }
+    }
+    return problems;
+  }
+
+  /**
+   * Reads block blockNum of the file into buf; the part of it past the end of the file reads as
+   * zeros.
+   */
+  private void readBlock(long blockNum, ByteBuffer buf) {
+    long offset = blockNum * this.pageSize;
+    buf.clear();
     try {
-      this.fc.close();
+      while (buf.hasRemaining()) {
+        if (this.fc.read(buf, offset + buf.position()) < 0) {
+          break;
+        }
+      }
     } catch (IOException e) {
-      throw new PageException("Could not close Page Alloc " + e.getMessage());
+      throw new PageException("Could not read block " + blockNum + ": " + e.getMessage());
+    }
+    while (buf.hasRemaining()) {
+      buf.put((byte) 0);
     }
+    buf.clear();
   }
 
-  private Page getHeadPage(int headIndex) {
-    int headBlockID = 1 + headIndex*(Page.pageSize + 1);
-    return new Page(this.fc, headBlockID, -1);
+  private StorageBackend createBackend() {
+    if (this.backendType == StorageBackend.Type.PREAD || this.compressed || this.checksums) {
+      return new PreadBackend(this.fc, this.bufferPool.getArena(), this.ioCounters, this.compressed,
+                              this.checksums ? Page.CHECKSUM_BYTES : 0);
+    }
+    return new ExtentMap(this.fc, Math.max(this.extentSize, this.pageSize), this.ioCounters);
+  }
+
+  /**
+   * Reads the page size recorded in the master page without mapping it.
+   *
+   * @return the recorded page size, or 0 if the file is empty or predates the format descriptor
+   */
+  private int readRecordedPageSize() {
+    ByteBuffer buf = ByteBuffer.allocate(4);
+    try {
+      while (buf.hasRemaining()) {
+        if (this.fc.read(buf, PAGE_SIZE_OFFSET + buf.position()) < 0) {
+          return 0;
+        }
+      }
+    } catch (IOException e) {
+      throw new PageException("Could not read master page: " + e.getMessage());
+    }
+    buf.flip();
+    return buf.getInt();
   }
 
   public int getNumPages() {
     return this.numPages;
   }
 
+  /**
+   * @return the most pages this file can hold: one per byte of each header page
+   */
+  public int getMaxPages() {
+    return numHeaderPages * this.pageSize;
+  }
+
+  /**
+   * @return the size in bytes of the pages of this file
+   */
+  public int getPageSize() {
+    return this.pageSize;
+  }
+
+  /**
+   * @return the number of bytes of each data page available to users of this file: the page size
+   * less the checksum trailer if the file has checksums and the compression pad if it is
+   * compressed
+   */
+  public int getUsablePageSize() {
+    int usable = this.pageSize;
+    if (this.checksums) {
+      usable -= Page.CHECKSUM_BYTES;
+    }
+    if (this.compressed) {
+      usable -= PageCompression.HEADER_BYTES;
+    }
+    return usable;
+  }
+
+  /**
+   * @return whether the data pages of this file are stored compressed
+   */
+  public boolean hasCompression() {
+    return this.compressed;
+  }
+
+  /**
+   * @return whether the data pages of this file carry checksums
+   */
+  public boolean hasChecksums() {
+    return this.checksums;
+  }
+
+  /**
+   * @return the number of times allocation metadata was forced to disk
+   */
+  long getNumMetadataSyncs() {
+    return this.numMetadataSyncs;
+  }
+
+  /**
+   * @return the number of times allocPage extended the file by a growth step
+   */
+  long getNumGrowths() {
+    return this.numGrowths;
+  }
+
+  /**
+   * @return the number of pages handed to read-ahead that were not resident yet
+   */
+  long getNumReadAheadPages() {
+    return this.numReadAheadPages.get();
+  }
+
+  /**
+   * @return the number of extents of this file that are currently mapped
+   */
+  int getNumMappedExtents() {
+    return (this.backend instanceof ExtentMap) ? ((ExtentMap) this.backend).getNumExtents() : 0;
+  }
+
+  /**
+   * @return a snapshot of the I/O done on this file since it was opened
+   */
+  public IOStats getIOStats() {
+    return this.ioCounters.snapshot();
+  }
+
+  /**
+   * @return the BufferPool this PageAllocator caches its pages in
+   */
+  public BufferPool getBufferPool() {
+    return this.bufferPool;
+  }
+
   public static long getNumIOs() {
     return PageAllocator.numIOs.get();
   }
@@ -335,8 +1091,15 @@ public class PageAllocator implements Iterable<Page>, Closeable {
     return (((long) this.allocID) << 32) | (((long) pageNum) & 0xFFFFFFFFL);
   }
 
-  static private int translateAllocator(long vPageNum) {
-    return (int) ((vPageNum & 0xFFFFFFFF00000000L) >> 32);
+  /**
+   * Returns the virtual page numbers of the allocated pages in ascending order without fetching
+   * the pages. The cost of a full iteration is proportional to the number of allocated pages (plus
+   * one bitmap word per 64 free slots), however fragmented the file is.
+   *
+   * @return an iterator over the allocated page numbers
+   */
+  public PrimitiveIterator.OfInt pageNumbers() {
+    return new PageNumberIterator();
   }
 
   /**
@@ -346,38 +1109,126 @@ public class PageAllocator implements Iterable<Page>, Closeable {
       return new PageIterator();
   }
 
+  private class PageNumberIterator implements PrimitiveIterator.OfInt {
+    private int next;
+
+    public PageNumberIterator() {
+      this.next = nextAllocated(0);
+    }
+
+    public boolean hasNext() {
+      return this.next >= 0;
+    }
+
+    public int nextInt() {
+      if (this.next < 0) {
+        throw new NoSuchElementException();
+      }
+      int pageNum = this.next;
+      this.next = nextAllocated(pageNum + 1);
+      return PageAllocator.this.firstPageNum + pageNum;
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   * Iterates over the allocated pages in page number order, finding them through the header
+   * bitmaps. Once it has returned READ_AHEAD_TRIGGER pages in a row it starts reading ahead: it
+   * finds the next allocated pages that are not resident and has ReadAhead read (or map and fault
+   * in) them on the I/O pool, so that the scan finds them resident and warm. The window starts at READ_AHEAD_INITIAL pages and doubles every
+   * time the scan gets within half a window of the pages read so far, up to the configured maximum
+   * (and a quarter of the buffer pool). A page that was read ahead but evicted before the scan
+   * reached it halves the window.
+   */
   private class PageIterator implements Iterator<Page> {
-    private int pageNum;
+    private static final int READ_AHEAD_TRIGGER = 2;
+    private static final int READ_AHEAD_INITIAL = 4;
+
+    private int numReturned;
     private int cursor;
+    private int maxWindow;
+    private int window;
+    // The page numbers up to readAheadEnd have been read ahead; readAheadCount of them lie at or
+    // after cursor.
+    private int readAheadEnd;
+    private int readAheadCount;
 
     public PageIterator() {
-      this.pageNum = 0;
+      this.numReturned = 0;
       this.cursor = 0;
+      long poolPages = PageAllocator.this.bufferPool.getCapacityBytes() / PageAllocator.this.pageSize;
+      this.maxWindow = (int) Math.min(PageAllocator.this.readAheadPages, poolPages / 4);
+      this.window = 0;
+      this.readAheadEnd = 0;
+      this.readAheadCount = 0;
     }
 
     public boolean hasNext() {
-      return this.pageNum < PageAllocator.this.numPages;
+      return nextAllocated(this.cursor) >= 0;
     }
 
     public Page next() {
-      if (this.hasNext()) {
-        while (true) {
-          Page p;
-          try {
-            p = PageAllocator.this.fetchPage(cursor);
-            cursor++;
-            pageNum++;
-            return p;
-          } catch (PageException e) {
-            cursor++;
-          }
+      int pageNum = nextAllocated(this.cursor);
+      if (pageNum < 0) {
+        throw new NoSuchElementException();
+      }
+      if (pageNum < this.readAheadEnd) {
+        this.readAheadCount = Math.max(0, this.readAheadCount - 1);
+        if (this.window > READ_AHEAD_INITIAL
+            && PageAllocator.this.bufferPool.get(translatePageNum(pageNum)) == null) {
+          this.window /= 2;
         }
       }
-      throw new NoSuchElementException();
+      Page p = PageAllocator.this.fetchPage(PageAllocator.this.firstPageNum + pageNum);
+      this.cursor = pageNum + 1;
+      this.numReturned++;
+      this.readAhead();
+      return p;
     }
 
     public void remove() {
       throw new UnsupportedOperationException();
     }
+
+    private void readAhead() {
+      if (this.maxWindow < READ_AHEAD_INITIAL || this.numReturned < READ_AHEAD_TRIGGER) {
+        return;
+      }
+      if (this.readAheadCount > this.window / 2) {
+        return;
+      }
+      this.window = Math.min(Math.max(READ_AHEAD_INITIAL, this.window * 2), this.maxWindow);
+
+      // Counted from before the pages are found, so truncate can't free them under the workers.
+      PageAllocator.this.pendingLoads.begin();
+      List<Integer> pageNums = new ArrayList<Integer>();
+      try {
+        int next = nextAllocated(Math.max(this.cursor, this.readAheadEnd));
+        while (next >= 0 && this.readAheadCount < this.window) {
+          if (PageAllocator.this.bufferPool.get(translatePageNum(next)) == null) {
+            pageNums.add(next);
+          }
+          this.readAheadCount++;
+          this.readAheadEnd = next + 1;
+          next = nextAllocated(next + 1);
+        }
+      } catch (RuntimeException e) {
+        PageAllocator.this.pendingLoads.end();
+        throw e;
+      }
+      if (pageNums.isEmpty()) {
+        PageAllocator.this.pendingLoads.end();
+      } else {
+        PageAllocator.this.numReadAheadPages.addAndGet(pageNums.size());
+        ReadAhead.load(new IntFunction<Page>() {
+          public Page apply(int pageNum) {
+            return PageAllocator.this.readAhead(pageNum);
+          }
+        }, pageNums, PageAllocator.this.pendingLoads);
+      }
+    }
   }
 }
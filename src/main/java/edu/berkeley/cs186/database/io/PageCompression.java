@@ -0,0 +1,145 @@
+package edu.berkeley.cs186.database.io;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The on-disk format of the data pages of a compressed file (see StorageConfig#setCompression).
+ * A page still owns its fixed-size block of the file, but only a prefix of the block is written:
+ * an int header followed by the page compressed with Lz4. The rest of the block is never written
+ * (so a new file stays sparse there) and never read. The header is the compressed length, or RAW
+ * for a page that does not compress, or 0 for a block that was never written: an all-zero page.
+ *
+ * A page that does not compress is stored as is after the header. To make room for the header,
+ * users of a compressed file leave the HEADER_BYTES at padOffset of every page zero (see
+ * PageAllocator#getUsablePageSize); a raw block skips them.
+ */
+final class PageCompression {
+  static final int HEADER_BYTES = 4;
+  private static final int RAW = -1;
+
+  // Per-thread buffers for a page and its encoded block; pages are encoded by their owner and the
+  // background writer alike.
+  private static final ThreadLocal<byte[][]> scratch = new ThreadLocal<byte[][]>();
+
+  private PageCompression() {
+  }
+
+  /**
+   * @param size the page size
+   * @param trailerBytes the bytes at the end of each page that follow the pad (the checksum)
+   * @return the offset of the HEADER_BYTES every page leaves zero
+   */
+  static int padOffset(int size, int trailerBytes) {
+    return size - trailerBytes - HEADER_BYTES;
+  }
+
+  /**
+   * Encodes a page into the per-thread block buffer.
+   *
+   * @param page the bytes of the page; its capacity is the page size
+   * @param padOffset the offset of the pad of the page
+   * @return the block buffer, positioned at 0 and limited to the bytes to write
+   */
+  static ByteBuffer encode(ByteBuffer page, int padOffset) {
+    int size = page.capacity();
+    byte[][] buffers = buffers(size);
+    byte[] raw = buffers[0];
+    byte[] block = buffers[1];
+    ByteBuffer view = page.duplicate();
+    view.clear();
+    view.get(raw, 0, size);
+
+    int length = Lz4.compress(raw, size, block, HEADER_BYTES);
+    if (HEADER_BYTES + length < size) {
+      putInt(block, 0, length);
+      return ByteBuffer.wrap(block, 0, HEADER_BYTES + length);
+    }
+    putInt(block, 0, RAW);
+    System.arraycopy(raw, 0, block, HEADER_BYTES, padOffset);
+    int afterPad = padOffset + HEADER_BYTES;
+    System.arraycopy(raw, afterPad, block, afterPad, size - afterPad);
+    return ByteBuffer.wrap(block, 0, size);
+  }
+
+  /**
+   * @param header the header of a block
+   * @param size the page size
+   * @return the number of bytes of the block, header included, that hold the page
+   * @throws PageException if the header is invalid
+   */
+  static int blockLength(int header, int size) {
+    if (header == RAW) {
+      return size;
+    }
+    if (header < 0 || header > size - HEADER_BYTES) {
+      throw new PageException("malformed compressed page header " + header);
+    }
+    return HEADER_BYTES + header;
+  }
+
+  /**
+   * @param size the page size
+   * @return the per-thread buffer to read a block of a page of size bytes into
+   */
+  static byte[] blockBuffer(int size) {
+    return buffers(size)[1];
+  }
+
+  /**
+   * @param block a block
+   * @return the header of the block
+   */
+  static int header(byte[] block) {
+    return ((block[0] & 0xff) << 24) | ((block[1] & 0xff) << 16) | ((block[2] & 0xff) << 8)
+        | (block[3] & 0xff);
+  }
+
+  /**
+   * Decodes a block into a page.
+   *
+   * @param encoded the block, holding at least blockLength bytes
+   * @param page the page to decode into; its capacity is the page size
+   * @param padOffset the offset of the pad of the page
+   * @throws PageException if the block is malformed
+   */
+  static void decode(byte[] encoded, ByteBuffer page, int padOffset) {
+    int size = page.capacity();
+    int header = header(encoded);
+    blockLength(header, size);
+    byte[] raw = buffers(size)[0];
+
+    if (header == RAW) {
+      System.arraycopy(encoded, HEADER_BYTES, raw, 0, padOffset);
+      for (int i = padOffset; i < padOffset + HEADER_BYTES; i++) {
+        raw[i] = 0;
+      }
+      int afterPad = padOffset + HEADER_BYTES;
+      System.arraycopy(encoded, afterPad, raw, afterPad, size - afterPad);
+    } else if (header == 0) {
+      Arrays.fill(raw, 0, size, (byte) 0);
+    } else if (Lz4.decompress(encoded, HEADER_BYTES, header, raw, size) != size) {
+      throw new PageException("malformed compressed page");
+    }
+
+    ByteBuffer out = page.duplicate();
+    out.clear();
+    out.put(raw, 0, size);
+  }
+
+  private static byte[][] buffers(int size) {
+    byte[][] buffers = scratch.get();
+    if (buffers == null || buffers[0].length < size) {
+      buffers = new byte[][] {new byte[size], new byte[Lz4.maxCompressedLength(size) + HEADER_BYTES]};
+      scratch.set(buffers);
+    }
+    return buffers;
+  }
+
+  private static void putInt(byte[] b, int i, int value) {
+    b[i] = (byte) (value >>> 24);
+    b[i + 1] = (byte) (value >>> 16);
+    b[i + 2] = (byte) (value >>> 8);
+    b[i + 3] = (byte) value;
+  }
+}
@@ -0,0 +1,82 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Counts the asynchronous loads of one PageAllocator (see fetchPageAsync and ReadAhead) that have
+ * not completed yet, so that the allocator can wait for them before it changes its file
+ * underneath them. A load is counted from before it looks up its page in the free-space map until
+ * the I/O worker is done with the page.
+ *
+ * While the allocator is quiesced no new load begins: begin blocks until resume is called. The
+ * owner of a load must not hold any lock that quiesce's caller takes afterwards.
+ */
+class PendingLoads {
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition drained = this.lock.newCondition();
+  private final Condition resumed = this.lock.newCondition();
+  private int numLoads = 0;
+  private int numQuiescers = 0;
+
+  /**
+   * Counts a new load, waiting while the allocator is quiesced.
+   */
+  void begin() {
+    this.lock.lock();
+    try {
+      while (this.numQuiescers > 0) {
+        this.resumed.awaitUninterruptibly();
+      }
+      this.numLoads++;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Marks a load counted by begin as completed.
+   */
+  void end() {
+    this.lock.lock();
+    try {
+      this.numLoads--;
+      if (this.numLoads == 0) {
+        this.drained.signalAll();
+      }
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Keeps new loads from beginning and waits for every load under way to complete. Must be
+   * followed by a call to resume.
+   */
+  void quiesce() {
+    this.lock.lock();
+    try {
+      this.numQuiescers++;
+      while (this.numLoads > 0) {
+        this.drained.awaitUninterruptibly();
+      }
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Lets loads begin again after a call to quiesce.
+   */
+  void resume() {
+    this.lock.lock();
+    try {
+      this.numQuiescers--;
+      if (this.numQuiescers == 0) {
+        this.resumed.signalAll();
+      }
+    } finally {
+      this.lock.unlock();
+    }
+  }
+}
@@ -0,0 +1,211 @@
+package edu.berkeley.cs186.database.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A StorageBackend that reads pages with positional reads into direct buffers and writes them
+ * back with positional writes, instead of mapping the file.
+ *
+ * A page exists at most once in memory: as long as a Page for an offset is reachable, by the
+ * BufferPool or by a caller still holding it, asking for that offset again returns the same Page,
+ * so writes through one reference are seen through every other. A dirty Page is strongly held by
+ * the backend until it is flushed, so a page that was evicted and then written again is never
+ * dropped with unsaved changes; sync writes those pages back. Pages are read into frames of the
+ * BufferPool's FrameArena, which takes a frame back once its Page is no longer reachable.
+ *
+ * For a compressed file (see PageCompression) the data pages are decompressed into their frames
+ * when read and compressed when written back, so the BufferPool only ever holds plain pages. Only
+ * the first FIRST_READ_BYTES of a block are read up front; the rest only if the compressed page
+ * is longer.
+ */
+class PreadBackend implements StorageBackend {
+  private static final int FIRST_READ_BYTES = 4096;
+
+  private final FileChannel fc;
+  private final FrameArena arena;
+  private final IOCounters counters;
+  private final boolean compressed;
+  private final int trailerBytes;
+  private final ConcurrentHashMap<Long, PageRef> live;
+  private final Set<Page> dirty;
+
+  /**
+   * The reference from the frame of a live Page to the Page, which also forgets the Page once it
+   * has been collected.
+   */
+  private class PageRef extends FrameArena.FrameRef {
+    private final long offset;
+
+    PageRef(Page page, long offset, ByteBuffer frame) {
+      super(page, frame, PreadBackend.this.arena);
+      this.offset = offset;
+    }
+
+    void collected() {
+      PreadBackend.this.live.remove(this.offset, this);
+    }
+  }
+
+  /**
+   * @param fc the file channel to read and write
+   * @param arena the arena to take page frames from
+   * @param counters the counters to count reads and writes in
+   * @param compressed whether data pages are compressed on disk
+   * @param trailerBytes the bytes after the compression pad of every data page
+   */
+  PreadBackend(FileChannel fc, FrameArena arena, IOCounters counters, boolean compressed,
+               int trailerBytes) {
+    this.fc = fc;
+    this.arena = arena;
+    this.counters = counters;
+    this.compressed = compressed;
+    this.trailerBytes = trailerBytes;
+    this.live = new ConcurrentHashMap<Long, PageRef>();
+    this.dirty = ConcurrentHashMap.<Page>newKeySet();
+  }
+
+  public Page page(long offset, int size, int pageNum, boolean durable) {
+    Page page = this.livePage(offset);
+    if (page != null) {
+      return page;
+    }
+
+    ByteBuffer buffer = this.arena.take(size);
+    if (this.compressed && pageNum >= 0) {
+      this.readCompressed(buffer, offset);
+    } else {
+      this.read(buffer, offset);
+    }
+    synchronized (this) {
+      // Another thread may have read the same page meanwhile; only one copy may be live.
+      page = this.livePage(offset);
+      if (page != null) {
+        this.arena.give(buffer);
+        return page;
+      }
+      page = new Page(buffer, this, offset, pageNum, durable, this.counters);
+      this.live.put(offset, new PageRef(page, offset, buffer));
+      return page;
+    }
+  }
+
+  public void sync() {
+    ForceSet toForce = new ForceSet();
+    for (Page p : this.dirty) {
+      p.writeBack(toForce);
+    }
+    toForce.force();
+  }
+
+  public void truncated() {
+    // Pages past the new end are freed pages; they're only ever written again if reallocated.
+  }
+
+  public void close() {
+    // Pages still held by callers keep their frames until they are collected.
+    this.sync();
+  }
+
+  /**
+   * Called by a Page of this backend when it turns dirty.
+   */
+  void dirtied(Page page) {
+    this.dirty.add(page);
+  }
+
+  /**
+   * Called by a Page of this backend when it is about to be written back.
+   */
+  void cleaned(Page page) {
+    this.dirty.remove(page);
+  }
+
+  /**
+   * Writes the bytes of page pageNum back to offset. Data pages of a compressed file are
+   * compressed first. The write is not forced to disk; see force.
+   */
+  void write(ByteBuffer data, long offset, int pageNum) {
+    ByteBuffer view;
+    if (this.compressed && pageNum >= 0) {
+      view = PageCompression.encode(data, PageCompression.padOffset(data.capacity(), this.trailerBytes));
+    } else {
+      view = data.duplicate();
+      view.clear();
+    }
+    try {
+      while (view.hasRemaining()) {
+        this.fc.write(view, offset + view.position());
+      }
+    } catch (IOException e) {
+      throw new PageException("Can't write page at offset " + offset + " ; " + e.getMessage());
+    }
+  }
+
+  /**
+   * Forces the pages written so far to disk. Called once for all the durable pages of a round of
+   * write-backs (see ForceSet).
+   */
+  void force() {
+    try {
+      this.fc.force(false);
+    } catch (IOException e) {
+      throw new PageException("Can't force file ; " + e.getMessage());
+    }
+  }
+
+  private Page livePage(long offset) {
+    PageRef ref = this.live.get(offset);
+    return (ref == null) ? null : ref.get();
+  }
+
+  /**
+   * Reads the page at offset into buffer; the part of the page past the end of the file reads as
+   * zeros.
+   */
+  private void read(ByteBuffer buffer, long offset) {
+    this.counters.physicalRead();
+    buffer.clear();
+    this.readFully(buffer, offset);
+    buffer.clear();
+  }
+
+  /**
+   * Reads the compressed page at offset and decompresses it into buffer.
+   */
+  private void readCompressed(ByteBuffer buffer, long offset) {
+    this.counters.physicalRead();
+    int size = buffer.capacity();
+    byte[] block = PageCompression.blockBuffer(size);
+    ByteBuffer view = ByteBuffer.wrap(block, 0, Math.min(size, FIRST_READ_BYTES));
+    this.readFully(view, offset);
+    int length = PageCompression.blockLength(PageCompression.header(block), size);
+    if (length > view.limit()) {
+      view.limit(length);
+      this.readFully(view, offset);
+    }
+    PageCompression.decode(block, buffer, PageCompression.padOffset(size, this.trailerBytes));
+  }
+
+  /**
+   * Reads the bytes of the file at offset into buffer from its position to its limit; the part
+   * past the end of the file reads as zeros.
+   */
+  private void readFully(ByteBuffer buffer, long offset) {
+    try {
+      while (buffer.hasRemaining()) {
+        if (this.fc.read(buffer, offset + buffer.position()) < 0) {
+          break;
+        }
+      }
+    } catch (IOException e) {
+      throw new PageException("Can't read page at offset " + offset + " ; " + e.getMessage());
+    }
+    while (buffer.hasRemaining()) {
+      buffer.put((byte) 0);
+    }
+  }
+}
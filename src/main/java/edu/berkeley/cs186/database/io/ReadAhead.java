@@ -0,0 +1,45 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.IntFunction;
+
+/**
+ * Reads pages ahead of a sequential scan. A PageIterator in read-ahead mode finds the next pages
+ * itself (so the free-space map is only ever touched by its owner) and hands their numbers to
+ * load, which has an AsyncIO worker read them into the buffer pool, or map them and touch every
+ * OS page of them, while the scan is still busy with earlier pages.
+ */
+class ReadAhead {
+  private ReadAhead() {
+  }
+
+  /**
+   * Asynchronously loads the given pages, in order. The load must have begun in loads, the
+   * pending loads of the owning PageAllocator, which waits for them before it truncates its file.
+   *
+   * @param loader makes a page resident, given its number
+   * @param pageNums the numbers of the pages to load
+   * @param loads the pending loads of the owner; ended once the pages have been loaded
+   */
+  static void load(final IntFunction<Page> loader, final List<Integer> pageNums, PendingLoads loads) {
+    try {
+      AsyncIO.execute(new Runnable() {
+        public void run() {
+          List<Page> pages = new ArrayList<Page>(pageNums.size());
+          try {
+            for (int pageNum : pageNums) {
+              pages.add(loader.apply(pageNum));
+            }
+          } catch (PageException e) {
+            // Read-ahead is only a hint; the scan will report the page if it reaches it.
+          }
+          AsyncIO.touchAll(pages);
+        }
+      }, loads);
+    } catch (RejectedExecutionException e) {
+      // Read-ahead is only a hint; the scan will read the pages itself.
+    }
+  }
+}
@@ -0,0 +1,83 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.function.LongPredicate;
+
+/**
+ * A page replacement policy for one stripe of a BufferPool. A policy only tracks virtual page
+ * numbers; the BufferPool owns the pages themselves. Implementations are not thread-safe: the
+ * BufferPool calls them while holding the lock of the stripe they belong to.
+ *
+ * The BufferPool drives a policy as follows. On a hit it calls recordAccess. On a miss it calls
+ * selectVictim (repeatedly, while the stripe is full) and then recordInsert for the new page.
+ * When a page leaves the pool for any other reason (freed, allocator closed) it calls
+ * recordRemove.
+ */
+public interface ReplacementPolicy {
+  /**
+   * Returned by selectVictim when no resident page may be evicted.
+   */
+  long NO_VICTIM = -1L;
+
+  /**
+   * The replacement policies a BufferPool can be built with.
+   */
+  enum Type {
+    LRU,
+    CLOCK,
+    TWO_QUEUE,
+    LRU_K,
+    ARC;
+
+    /**
+     * Creates a new policy of this type for a stripe holding capacity pages.
+     *
+     * @param capacity the number of pages the stripe holds
+     * @return a new ReplacementPolicy
+     */
+    public ReplacementPolicy create(int capacity) {
+      switch (this) {
+        case CLOCK:
+          return new ClockPolicy();
+        case TWO_QUEUE:
+          return new TwoQueuePolicy(capacity);
+        case LRU_K:
+          return new LRUKPolicy(capacity);
+        case ARC:
+          return new ARCPolicy(capacity);
+        default:
+          return new LRUPolicy();
+      }
+    }
+  }
+
+  /**
+   * Records a hit on a resident page.
+   *
+   * @param vPageNum the virtual page number that was accessed
+   */
+  void recordAccess(long vPageNum);
+
+  /**
+   * Records that a page was loaded into the stripe after a miss.
+   *
+   * @param vPageNum the virtual page number that became resident
+   */
+  void recordInsert(long vPageNum);
+
+  /**
+   * Forgets a page that left the stripe without being chosen as a victim.
+   *
+   * @param vPageNum the virtual page number that was removed
+   */
+  void recordRemove(long vPageNum);
+
+  /**
+   * Chooses a resident page to evict to make room for incoming and stops tracking it as
+   * resident. Only pages accepted by evictable may be chosen.
+   *
+   * @param incoming the virtual page number about to be inserted
+   * @param evictable accepts the virtual page numbers that may be evicted
+   * @return the evicted virtual page number, or NO_VICTIM if none can be evicted
+   */
+  long selectVictim(long incoming, LongPredicate evictable);
+}
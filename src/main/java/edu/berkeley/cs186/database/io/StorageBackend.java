@@ -0,0 +1,48 @@
+package edu.berkeley.cs186.database.io;
+
+/**
+ * How a PageAllocator gets at the bytes of its file. A backend hands out a Page for a range of
+ * the file; the BufferPool decides which of those Pages stay cached.
+ *
+ * MMAP (the default, see ExtentMap) maps the file, so pages live in the OS page cache and the
+ * kernel decides when they are read and written back. PREAD (see PreadBackend) reads each page
+ * into a frame of the BufferPool's FrameArena with a positional read and writes it back when it
+ * is flushed, so the pages of a file take up no memory beyond the BufferPool's capacity, the
+ * pages callers still hold, and the arena's free frames.
+ */
+public interface StorageBackend {
+  /**
+   * The storage backends a PageAllocator can be built with.
+   */
+  enum Type {
+    MMAP,
+    PREAD
+  }
+
+  /**
+   * Returns a Page over the size bytes at offset in the file.
+   *
+   * @param offset the offset of the page in the file
+   * @param size the size of the page
+   * @param pageNum the virtual page number of the page
+   * @param durable whether flushing the page forces it to disk
+   * @return a Page over the requested bytes
+   */
+  Page page(long offset, int size, int pageNum, boolean durable);
+
+  /**
+   * Writes back the dirty pages this backend knows of that are no longer in the BufferPool.
+   */
+  void sync();
+
+  /**
+   * Called after the file was truncated. Drops everything that may cover bytes past the new end.
+   */
+  void truncated();
+
+  /**
+   * Writes back what sync writes back and releases all resources of this backend. Called when
+   * the PageAllocator is closed.
+   */
+  void close();
+}
@@ -0,0 +1,398 @@
+package edu.berkeley.cs186.database.io;
+
+/**
+ * Storage options for the files of a Database: the BufferPool pages are cached in and whether it
+ * runs a background writer, the page size
+ * used for newly created files, the size of the extents files are mapped in, how often
+ * allocation metadata is forced to disk, how far sequential scans read ahead, the
+ * StorageBackend files are accessed through, whether pages carry checksums or are compressed, the
+ * layout of table records, how far files grow at a time and how the pages of a table are spread
+ * over the files of its Tablespace. Setters return this so options can be chained:
+ *
+ *   new StorageConfig().setBufferPool(BufferPool.ofCapacity(1L << 30)).setPageSize(16384)
+ *
+ * The page size, checksums, compression and record layout only apply to files that are created (or
+ * wiped) with this config. An existing file always keeps the page size and format recorded in its
+ * master page, and an existing table the record layout recorded in its header page.
+ */
+public class StorageConfig {
+  public static final int MIN_PAGE_SIZE = 4096;
+  public static final int MAX_PAGE_SIZE = 1 << 20;
+  public static final int DEFAULT_EXTENT_SIZE = 64 << 20;
+  public static final int MAX_EXTENT_SIZE = 1 << 30;
+  public static final int DEFAULT_READ_AHEAD_PAGES = 32;
+
+  private BufferPool bufferPool;
+  private long backgroundWriterInterval;
+  private int pageSize;
+  private int extentSize;
+  private long metadataSyncInterval;
+  private int readAheadPages;
+  private StorageBackend.Type backend;
+  private boolean checksums;
+  private boolean compression;
+  private boolean slottedPages;
+  private int growthPages;
+  private int segmentPages;
+  private String[] segmentDirectories;
+
+  /**
+   * Create a StorageConfig that uses the default BufferPool and 4K pages.
+   */
+  public StorageConfig() {
+    this.bufferPool = BufferPool.getDefault();
+    this.backgroundWriterInterval = 0;
+    this.pageSize = Page.pageSize;
+    this.extentSize = DEFAULT_EXTENT_SIZE;
+    this.metadataSyncInterval = 0;
+    this.readAheadPages = DEFAULT_READ_AHEAD_PAGES;
+    this.backend = StorageBackend.Type.MMAP;
+    this.checksums = false;
+    this.compression = false;
+    this.slottedPages = false;
+    this.growthPages = 0;
+    this.segmentPages = 0;
+    this.segmentDirectories = new String[0];
+  }
+
+  /**
+   * @return the BufferPool pages are cached in
+   */
+  public BufferPool getBufferPool() {
+    return this.bufferPool;
+  }
+
+  /**
+   * @param bufferPool the BufferPool to cache pages in
+   * @return this StorageConfig
+   */
+  public StorageConfig setBufferPool(BufferPool bufferPool) {
+    if (bufferPool == null) {
+      throw new PageException("buffer pool must not be null");
+    }
+    this.bufferPool = bufferPool;
+    return this;
+  }
+
+  /**
+   * @return the interval of the background writer a Database starts; 0 for none
+   */
+  public long getBackgroundWriterInterval() {
+    return this.backgroundWriterInterval;
+  }
+
+  /**
+   * Sets whether a Database opened with this config starts a background writer on its BufferPool
+   * (see BufferPool#startBackgroundWriter), and how often the writer cleans resident pages. The
+   * Database stops the writer it started when it is closed; a writer that was already running on
+   * the pool is left alone. With 0 (the default) no writer is started and evicted pages are written
+   * back by the thread that evicts them. BufferPool.DEFAULT_WRITER_INTERVAL_MILLIS is a reasonable
+   * interval.
+   *
+   * @param millis the time between two cleaning rounds in milliseconds; 0 for no writer
+   * @return this StorageConfig
+   */
+  public StorageConfig setBackgroundWriterInterval(long millis) {
+    if (millis < 0) {
+      throw new PageException("background writer interval can't be negative");
+    }
+    this.backgroundWriterInterval = millis;
+    return this;
+  }
+
+  /**
+   * @return the page size in bytes for newly created files
+   */
+  public int getPageSize() {
+    return this.pageSize;
+  }
+
+  /**
+   * @param pageSize the page size in bytes for newly created files; a power of two between
+   *                 MIN_PAGE_SIZE and MAX_PAGE_SIZE
+   * @return this StorageConfig
+   */
+  public StorageConfig setPageSize(int pageSize) {
+    checkPageSize(pageSize);
+    this.pageSize = pageSize;
+    return this;
+  }
+
+  /**
+   * @return the size in bytes of the regions files are mapped in
+   */
+  public int getExtentSize() {
+    return this.extentSize;
+  }
+
+  /**
+   * Sets the size of the regions files are mapped in. A file whose pages are larger than this is
+   * mapped in extents of one page.
+   *
+   * @param extentSize the extent size in bytes; a power of two between MIN_PAGE_SIZE and
+   *                   MAX_EXTENT_SIZE
+   * @return this StorageConfig
+   */
+  public StorageConfig setExtentSize(int extentSize) {
+    if (extentSize < MIN_PAGE_SIZE || extentSize > MAX_EXTENT_SIZE || Integer.bitCount(extentSize) != 1) {
+      throw new PageException("invalid extent size " + extentSize + " -- must be a power of two between "
+          + MIN_PAGE_SIZE + " and " + MAX_EXTENT_SIZE);
+    }
+    this.extentSize = extentSize;
+    return this;
+  }
+
+  /**
+   * @return the group commit interval for allocation metadata in milliseconds
+   */
+  public long getMetadataSyncInterval() {
+    return this.metadataSyncInterval;
+  }
+
+  /**
+   * Sets how often a durable PageAllocator forces its master and header pages to disk. With an
+   * interval of 0 (the default) they are forced on every allocPage and freePage. Otherwise changes
+   * are batched and forced by the first change after the interval has elapsed, by
+   * PageAllocator#sync, by Database#sync (called at the end of every transaction), and on close.
+   * Long.MAX_VALUE leaves only the explicit durability points.
+   *
+   * @param millis the interval in milliseconds; not negative
+   * @return this StorageConfig
+   */
+  public StorageConfig setMetadataSyncInterval(long millis) {
+    if (millis < 0) {
+      throw new PageException("metadata sync interval can't be negative");
+    }
+    this.metadataSyncInterval = millis;
+    return this;
+  }
+
+  /**
+   * @return the largest number of pages a sequential scan reads ahead
+   */
+  public int getReadAheadPages() {
+    return this.readAheadPages;
+  }
+
+  /**
+   * Sets how far the page iterator of a PageAllocator may read ahead. A scan starts reading ahead
+   * once it has fetched a few pages in a row, then doubles its window up to this many pages (and
+   * at most a quarter of the buffer pool). 0 disables read-ahead.
+   *
+   * @param pages the largest read-ahead window in pages; not negative
+   * @return this StorageConfig
+   */
+  public StorageConfig setReadAheadPages(int pages) {
+    if (pages < 0) {
+      throw new PageException("read-ahead window can't be negative");
+    }
+    this.readAheadPages = pages;
+    return this;
+  }
+
+  /**
+   * @return the kind of StorageBackend files are accessed through
+   */
+  public StorageBackend.Type getBackend() {
+    return this.backend;
+  }
+
+  /**
+   * Sets how files are accessed: MMAP (the default) maps them, PREAD reads pages into buffers of
+   * their own. See StorageBackend. MMAP can't be combined with checksums (see setChecksums).
+   *
+   * @param backend the kind of StorageBackend to use
+   * @return this StorageConfig
+   */
+  public StorageConfig setBackend(StorageBackend.Type backend) {
+    if (backend == null) {
+      throw new PageException("storage backend must not be null");
+    }
+    if (backend == StorageBackend.Type.MMAP && this.checksums) {
+      throw new PageException("checksums need the PREAD backend");
+    }
+    this.backend = backend;
+    return this;
+  }
+
+  /**
+   * @return whether newly created files keep a checksum in every data page
+   */
+  public boolean getChecksums() {
+    return this.checksums;
+  }
+
+  /**
+   * Sets whether newly created files keep a CRC32 of every data page in a trailer at the end of
+   * the page. The checksum is updated when the page is flushed and verified the first time the
+   * page is fetched after the file is opened; see PageAllocator#scrub to verify a whole file.
+   * The trailer takes Page.CHECKSUM_BYTES of every data page.
+   *
+   * Checksums need the PREAD backend, so set it first: the kernel writes back a mapped page
+   * whenever it sees fit, which would leave the trailer on disk out of step with the page. Files
+   * with checksums are always accessed through the PREAD backend, whatever config opens them.
+   *
+   * @param checksums whether to checksum data pages
+   * @return this StorageConfig
+   */
+  public StorageConfig setChecksums(boolean checksums) {
+    if (checksums && this.backend == StorageBackend.Type.MMAP) {
+      throw new PageException("checksums need the PREAD backend");
+    }
+    this.checksums = checksums;
+    return this;
+  }
+
+  /**
+   * @return whether newly created table files compress their data pages
+   */
+  public boolean getCompression() {
+    return this.compression;
+  }
+
+  /**
+   * Sets whether newly created table files store their data pages compressed (see
+   * PageCompression). Pages are decompressed when read, so the BufferPool holds plain pages, and
+   * compressed when written back; files with compressed pages are always accessed through the
+   * PREAD backend. A page keeps its fixed-size block of the file and only the compressed prefix of
+   * it is written and read, so compression saves disk space and I/O when pages are larger than a
+   * filesystem block (see setPageSize). Compression takes PageCompression.HEADER_BYTES of every
+   * data page. Indices are never compressed.
+   *
+   * @param compression whether to compress data pages
+   * @return this StorageConfig
+   */
+  public StorageConfig setCompression(boolean compression) {
+    this.compression = compression;
+    return this;
+  }
+
+  /**
+   * @return whether newly created tables store variable-length records in slotted pages
+   */
+  public boolean getSlottedPages() {
+    return this.slottedPages;
+  }
+
+  /**
+   * Sets whether newly created tables store their records in slotted pages (see Table) rather than
+   * in fixed-size slots of Schema#getEntrySize bytes. In a slotted page a string only takes the
+   * bytes of its value without the padding to the length of its column, plus a 2-byte length, and
+   * every record a slot of 8 bytes; tables with mostly short strings in wide columns fit
+   * proportionally more records per page. Tables of fixed-size columns only are best left in fixed
+   * slots, which cost a bit per record.
+   *
+   * @param slottedPages whether to use slotted pages
+   * @return this StorageConfig
+   */
+  public StorageConfig setSlottedPages(boolean slottedPages) {
+    this.slottedPages = slottedPages;
+    return this;
+  }
+
+  /**
+   * @return the number of pages a file grows by at a time; 0 for the default of the file
+   */
+  public int getGrowthPages() {
+    return this.growthPages;
+  }
+
+  /**
+   * Sets how many pages a file is extended by when a page is allocated past its end. The file is
+   * extended through the free pages that follow the new one, up to this many pages in all, with
+   * one write of zeros, so that the file system places them together on disk and the MMAP backend
+   * maps them with the new page. Compressed files stay sparse and always grow a page at a time.
+   * With 0 (the default) the tables of a Tablespace grow Tablespace.DEFAULT_GROWTH_PAGES at a time
+   * and other files, such as indices, one page at a time.
+   *
+   * @param pages the growth step in pages; 0 for the default
+   * @return this StorageConfig
+   */
+  public StorageConfig setGrowthPages(int pages) {
+    if (pages < 0) {
+      throw new PageException("growth step can't be negative");
+    }
+    this.growthPages = pages;
+    return this;
+  }
+
+  /**
+   * @return the most pages allocated in each file of a Tablespace; 0 for as many as a file holds
+   */
+  public int getSegmentPages() {
+    return this.segmentPages;
+  }
+
+  /**
+   * Sets how many pages a Tablespace allocates in each of its files before it starts using the
+   * next one. By default (0) a file is only left for the next one when it is full, which with 4K
+   * pages is at 16GB. A smaller limit spreads a table over more files, and so over more of the
+   * segment directories. Unlike the page size, this is not recorded in the files: a Tablespace
+   * opened with a different limit leaves existing pages where they are.
+   *
+   * @param pages the most pages per file; 0 for no limit
+   * @return this StorageConfig
+   */
+  public StorageConfig setSegmentPages(int pages) {
+    if (pages < 0) {
+      throw new PageException("segment size can't be negative");
+    }
+    this.segmentPages = pages;
+    return this;
+  }
+
+  /**
+   * @return the directories the files of a Tablespace after the first are placed in
+   */
+  public String[] getSegmentDirectories() {
+    return this.segmentDirectories.clone();
+  }
+
+  /**
+   * Sets where a Tablespace places its files after the first, which always stays where the table
+   * was created: file n goes into directory (n - 1) % directories.length, so consecutive files
+   * land on different directories (or disks) in turn. With no directories (the default) all files
+   * go next to the first. A Tablespace finds its files in the same places when it is reopened, so
+   * the directories must not change over the life of a table.
+   *
+   * @param directories the directories to place files in
+   * @return this StorageConfig
+   */
+  public StorageConfig setSegmentDirectories(String... directories) {
+    for (String directory : directories) {
+      if (directory == null) {
+        throw new PageException("segment directory must not be null");
+      }
+    }
+    this.segmentDirectories = directories.clone();
+    return this;
+  }
+
+  /**
+   * @return a new StorageConfig with the same options as this one
+   */
+  public StorageConfig copy() {
+    StorageConfig copy = new StorageConfig();
+    copy.bufferPool = this.bufferPool;
+    copy.backgroundWriterInterval = this.backgroundWriterInterval;
+    copy.pageSize = this.pageSize;
+    copy.extentSize = this.extentSize;
+    copy.metadataSyncInterval = this.metadataSyncInterval;
+    copy.readAheadPages = this.readAheadPages;
+    copy.backend = this.backend;
+    copy.checksums = this.checksums;
+    copy.compression = this.compression;
+    copy.slottedPages = this.slottedPages;
+    copy.growthPages = this.growthPages;
+    copy.segmentPages = this.segmentPages;
+    copy.segmentDirectories = this.segmentDirectories;
+    return copy;
+  }
+
+  static void checkPageSize(int pageSize) {
+    if (pageSize < MIN_PAGE_SIZE || pageSize > MAX_PAGE_SIZE || Integer.bitCount(pageSize) != 1) {
+      throw new PageException("invalid page size " + pageSize + " -- must be a power of two between "
+          + MIN_PAGE_SIZE + " and " + MAX_PAGE_SIZE);
+    }
+  }
+}
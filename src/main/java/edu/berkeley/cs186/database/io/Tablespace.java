@@ -0,0 +1,417 @@
+package edu.berkeley.cs186.database.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The pages of one table, spread over a sequence of files (segments) that are each managed by a
+ * PageAllocator. A PageAllocator holds at most getMaxPages pages (16GB with 4K pages); a
+ * Tablespace adds segments as its table grows, up to as many as the virtual page numbers can
+ * address (2^31 pages, which is 8TB with 4K pages).
+ *
+ * Segment 0 is the file the Tablespace was created with, so a table that fits in one file is
+ * stored exactly as a single PageAllocator would store it. Segment n is named after it with the
+ * suffix "." + n and placed in one of the segment directories of the StorageConfig (see
+ * StorageConfig#setSegmentDirectories), so that a large table's I/O is spread over several
+ * devices. When a Tablespace is opened, it picks up segments 1, 2, ... for as long as they exist.
+ *
+ * Every segment owns a fixed range of getMaxPages virtual page numbers: page p lives in segment
+ * p / getMaxPages. The numbers of a page never change, so pages can be referred to from other
+ * files (e.g. by RecordIDs in an index) whatever the segment size. Pages are allocated in the
+ * first segment that has fewer than StorageConfig#getSegmentPages pages, creating it if need be.
+ * Unless configured otherwise, segments grow DEFAULT_GROWTH_PAGES at a time (see
+ * StorageConfig#setGrowthPages), so that the pages of a table that grows a page at a time still
+ * lie together on disk.
+ */
+public class Tablespace implements Iterable<Page>, Closeable {
+  public static final int DEFAULT_GROWTH_PAGES = 64;
+
+  private String fName;
+  private boolean durable;
+  private StorageConfig config;
+  private List<PageAllocator> segments;
+  // The page number range of a segment, and the most pages allocPage puts into one.
+  private int segmentRange;
+  private int segmentLimit;
+  private int maxSegments;
+  // A lower bound on the first segment with fewer than segmentLimit pages.
+  private int nextFreeSegment;
+
+  /**
+   * Opens the Tablespace whose first segment is the file named fName, or creates it.
+   *
+   * @param fName the name of the file of segment 0
+   * @param wipe whether to wipe the Tablespace; its segments after the first are deleted
+   * @param durable whether pages are forced to disk when flushed
+   * @param config the storage options for the segments
+   */
+  public Tablespace(String fName, boolean wipe, boolean durable, StorageConfig config) {
+    this.fName = fName;
+    this.durable = durable;
+    this.segments = new ArrayList<PageAllocator>();
+    if (config.getGrowthPages() == 0) {
+      config = config.copy().setGrowthPages(DEFAULT_GROWTH_PAGES);
+    }
+    PageAllocator first = new PageAllocator(fName, wipe, durable, config);
+    this.segments.add(first);
+
+    // Later segments take their format from the first, whatever config says.
+    this.config = config.copy().setPageSize(first.getPageSize())
+                        .setBackend(first.hasChecksums() ? StorageBackend.Type.PREAD : config.getBackend())
+                        .setChecksums(first.hasChecksums()).setCompression(first.hasCompression());
+    this.segmentRange = first.getMaxPages();
+    this.maxSegments = Integer.MAX_VALUE / this.segmentRange;
+    this.segmentLimit = config.getSegmentPages() == 0
+        ? this.segmentRange : Math.min(config.getSegmentPages(), this.segmentRange);
+    this.nextFreeSegment = 0;
+
+    for (int n = 1; n < this.maxSegments && this.segmentFile(n).exists(); n++) {
+      if (wipe) {
+        if (!this.segmentFile(n).delete()) {
+          throw new PageException("Could not delete segment " + this.segmentFile(n));
+        }
+      } else {
+        this.segments.add(this.openSegment(n, false));
+      }
+    }
+  }
+
+  /**
+   * Allocates a new page in the first segment with room for it.
+   *
+   * @return the virtual page number of the page
+   */
+  public int allocPage() {
+    int n = this.nextFreeSegment;
+    while (n < this.segments.size() && this.segments.get(n).getNumPages() >= this.segmentLimit) {
+      n++;
+    }
+    if (n == this.segments.size()) {
+      if (n == this.maxSegments) {
+        throw new PageException("No free Pages Available");
+      }
+      this.segments.add(this.openSegment(n, true));
+    }
+    this.nextFreeSegment = n;
+    return this.segments.get(n).allocPage();
+  }
+
+  /**
+   * Fetches the page corresponding to virtual page number pageNum.
+   *
+   * @param pageNum the virtual page number
+   * @return a Page object wrapping the page corresponding to pageNum
+   */
+  public Page fetchPage(int pageNum) {
+    return this.segmentOf(pageNum).fetchPage(pageNum);
+  }
+
+  /**
+   * Fetches a page without waiting for it to be read. See PageAllocator#fetchPageAsync.
+   *
+   * @param pageNum the virtual page number
+   * @return a future of the Page, which fails with a PageException if the page can't be fetched
+   */
+  public CompletableFuture<Page> fetchPageAsync(int pageNum) {
+    PageAllocator segment;
+    try {
+      segment = this.segmentOf(pageNum);
+    } catch (PageException e) {
+      CompletableFuture<Page> failed = new CompletableFuture<Page>();
+      failed.completeExceptionally(e);
+      return failed;
+    }
+    return segment.fetchPageAsync(pageNum);
+  }
+
+  /**
+   * Fetches a batch of pages, reading those of all segments at once. See
+   * PageAllocator#fetchPages.
+   *
+   * @param pageNums the virtual page numbers; may contain duplicates
+   * @return the Pages, in the order of pageNums
+   * @throws PageException if any of the pages can't be fetched
+   */
+  public Page[] fetchPages(int[] pageNums) {
+    Map<Integer, CompletableFuture<Page>> futures = new HashMap<Integer, CompletableFuture<Page>>();
+    for (int pageNum : pageNums) {
+      if (!futures.containsKey(pageNum)) {
+        futures.put(pageNum, this.fetchPageAsync(pageNum));
+      }
+    }
+    return AsyncIO.join(pageNums, futures);
+  }
+
+  /**
+   * Frees a page. See PageAllocator#freePage.
+   *
+   * @param p the page to free
+   * @return whether or not the page was freed
+   */
+  public boolean freePage(Page p) {
+    int n = p.getPageNum() / this.segmentRange;
+    if (p.getPageNum() < 0 || n >= this.segments.size() || !this.segments.get(n).freePage(p)) {
+      return false;
+    }
+    this.nextFreeSegment = Math.min(this.nextFreeSegment, n);
+    return true;
+  }
+
+  /**
+   * Frees a page. See PageAllocator#freePage.
+   *
+   * @param pageNum the virtual page number of the page to free
+   * @return whether or not the page was freed
+   */
+  public boolean freePage(int pageNum) {
+    int n = pageNum / this.segmentRange;
+    if (pageNum < 0 || n >= this.segments.size() || !this.segments.get(n).freePage(pageNum)) {
+      return false;
+    }
+    this.nextFreeSegment = Math.min(this.nextFreeSegment, n);
+    return true;
+  }
+
+  /**
+   * Forces the allocation metadata of every segment to disk. See PageAllocator#sync.
+   */
+  public void sync() {
+    for (PageAllocator segment : this.segments) {
+      segment.sync();
+    }
+  }
+
+  /**
+   * Deletes the segments at the end that hold no pages (other than segment 0) and truncates the
+   * others. See PageAllocator#truncate.
+   *
+   * @return the number of bytes the Tablespace shrank by
+   */
+  public long truncate() {
+    long shrunk = 0;
+    for (int n = this.segments.size() - 1; n > 0 && this.segments.get(n).getNumPages() == 0; n--) {
+      this.segments.remove(n).close();
+      File file = this.segmentFile(n);
+      long size = file.length();
+      if (!file.delete()) {
+        throw new PageException("Could not delete segment " + file);
+      }
+      shrunk += size;
+    }
+    for (PageAllocator segment : this.segments) {
+      shrunk += segment.truncate();
+    }
+    this.nextFreeSegment = Math.min(this.nextFreeSegment, this.segments.size() - 1);
+    return shrunk;
+  }
+
+  /**
+   * Close every segment of this Tablespace.
+   */
+  public void close() {
+    for (PageAllocator segment : this.segments) {
+      segment.close();
+    }
+  }
+
+  /**
+   * Close this Tablespace and delete the files of all its segments.
+   */
+  public void delete() {
+    this.close();
+    for (int n = 0; n < this.segments.size(); n++) {
+      File file = (n == 0) ? new File(this.fName) : this.segmentFile(n);
+      if (!file.delete()) {
+        throw new PageException("Could not delete segment " + file);
+      }
+    }
+  }
+
+  /**
+   * Verifies every segment. See PageAllocator#scrub.
+   *
+   * @return a description of every problem found, prefixed by its segment unless it is in
+   * segment 0; empty if the Tablespace is intact
+   */
+  public List<String> scrub() {
+    List<String> problems = new ArrayList<String>();
+    for (int n = 0; n < this.segments.size(); n++) {
+      for (String problem : this.segments.get(n).scrub()) {
+        problems.add(n == 0 ? problem : "segment " + n + ": " + problem);
+      }
+    }
+    return problems;
+  }
+
+  /**
+   * @return the number of allocated pages in all segments
+   */
+  public int getNumPages() {
+    int numPages = 0;
+    for (PageAllocator segment : this.segments) {
+      numPages += segment.getNumPages();
+    }
+    return numPages;
+  }
+
+  /**
+   * @return the number of segments, i.e. files, of this Tablespace
+   */
+  public int getNumSegments() {
+    return this.segments.size();
+  }
+
+  /**
+   * @return the size in bytes of the pages of this Tablespace
+   */
+  public int getPageSize() {
+    return this.segments.get(0).getPageSize();
+  }
+
+  /**
+   * @return the number of bytes of each data page available to users. See
+   * PageAllocator#getUsablePageSize.
+   */
+  public int getUsablePageSize() {
+    return this.segments.get(0).getUsablePageSize();
+  }
+
+  /**
+   * @return whether the data pages of this Tablespace carry checksums
+   */
+  public boolean hasChecksums() {
+    return this.segments.get(0).hasChecksums();
+  }
+
+  /**
+   * @return whether the data pages of this Tablespace are stored compressed
+   */
+  public boolean hasCompression() {
+    return this.segments.get(0).hasCompression();
+  }
+
+  /**
+   * @return a snapshot of the I/O done on all segments since they were opened
+   */
+  public IOStats getIOStats() {
+    IOStats stats = IOStats.ZERO;
+    for (PageAllocator segment : this.segments) {
+      stats = stats.plus(segment.getIOStats());
+    }
+    return stats;
+  }
+
+  /**
+   * Returns the virtual page numbers of the allocated pages in ascending order without fetching
+   * the pages. See PageAllocator#pageNumbers.
+   *
+   * @return an iterator over the allocated page numbers
+   */
+  public PrimitiveIterator.OfInt pageNumbers() {
+    return new PageNumberIterator();
+  }
+
+  /**
+   * @return an iterator of the valid pages of all segments, in page number order. Each segment is
+   * scanned by its own PageAllocator#iterator, which reads ahead.
+   */
+  public Iterator<Page> iterator() {
+    return new PageIterator();
+  }
+
+  /**
+   * @return the segment that owns the page number range of pageNum
+   * @throws PageException if pageNum is in no segment's range
+   */
+  private PageAllocator segmentOf(int pageNum) {
+    int n = pageNum / this.segmentRange;
+    if (pageNum < 0 || n >= this.segments.size()) {
+      throw new PageException("invalid page number -- out of bounds");
+    }
+    return this.segments.get(n);
+  }
+
+  private PageAllocator openSegment(int n, boolean wipe) {
+    return new PageAllocator(this.segmentFile(n).getPath(), wipe, this.durable, this.config,
+                             n * this.segmentRange);
+  }
+
+  /**
+   * @return the file of segment n, n > 0
+   */
+  private File segmentFile(int n) {
+    File first = new File(this.fName);
+    String[] directories = this.config.getSegmentDirectories();
+    String name = first.getName() + "." + n;
+    if (directories.length == 0) {
+      return new File(first.getAbsoluteFile().getParentFile(), name);
+    }
+    return new File(directories[(n - 1) % directories.length], name);
+  }
+
+  private class PageNumberIterator implements PrimitiveIterator.OfInt {
+    private int segment;
+    private PrimitiveIterator.OfInt current;
+
+    public PageNumberIterator() {
+      this.segment = 0;
+      this.current = Tablespace.this.segments.get(0).pageNumbers();
+    }
+
+    public boolean hasNext() {
+      while (!this.current.hasNext() && this.segment + 1 < Tablespace.this.segments.size()) {
+        this.segment++;
+        this.current = Tablespace.this.segments.get(this.segment).pageNumbers();
+      }
+      return this.current.hasNext();
+    }
+
+    public int nextInt() {
+      if (!this.hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return this.current.nextInt();
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  private class PageIterator implements Iterator<Page> {
+    private int segment;
+    private Iterator<Page> current;
+
+    public PageIterator() {
+      this.segment = 0;
+      this.current = Tablespace.this.segments.get(0).iterator();
+    }
+
+    public boolean hasNext() {
+      while (!this.current.hasNext() && this.segment + 1 < Tablespace.this.segments.size()) {
+        this.segment++;
+        this.current = Tablespace.this.segments.get(this.segment).iterator();
+      }
+      return this.current.hasNext();
+    }
+
+    public Page next() {
+      if (!this.hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return this.current.next();
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
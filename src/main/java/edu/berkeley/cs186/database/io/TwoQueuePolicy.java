@@ -0,0 +1,92 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.function.LongPredicate;
+
+/**
+ * 2Q replacement (Johnson and Shasha). Pages seen for the first time enter a small FIFO queue
+ * (A1in). When they are evicted from it only their page number is remembered in a ghost queue
+ * (A1out). A page that misses while it is in A1out has been re-referenced after a short delay and
+ * goes to the main LRU queue (Am). A single large scan therefore only cycles through A1in and
+ * cannot flush the frequently used pages held in Am.
+ */
+public class TwoQueuePolicy implements ReplacementPolicy {
+  private LinkedHashSet<Long> a1in = new LinkedHashSet<Long>();
+  private LinkedHashSet<Long> a1out = new LinkedHashSet<Long>();
+  private LinkedHashSet<Long> am = new LinkedHashSet<Long>();
+
+  private int kin;
+  private int kout;
+
+  /**
+   * @param capacity the number of resident pages; A1in is sized to a quarter of it and A1out
+   *                 remembers half as many page numbers
+   */
+  public TwoQueuePolicy(int capacity) {
+    this.kin = Math.max(1, capacity / 4);
+    this.kout = Math.max(1, capacity / 2);
+  }
+
+  public void recordAccess(long vPageNum) {
+    if (this.am.remove(vPageNum)) {
+      this.am.add(vPageNum);
+    }
+    // Hits in A1in are deliberately ignored; correlated references do not promote a page.
+  }
+
+  public void recordInsert(long vPageNum) {
+    if (this.a1out.remove(vPageNum)) {
+      this.am.add(vPageNum);
+    } else {
+      this.a1in.add(vPageNum);
+    }
+  }
+
+  public void recordRemove(long vPageNum) {
+    this.a1in.remove(vPageNum);
+    this.a1out.remove(vPageNum);
+    this.am.remove(vPageNum);
+  }
+
+  public long selectVictim(long incoming, LongPredicate evictable) {
+    long victim = NO_VICTIM;
+    if (this.a1in.size() > this.kin || this.am.isEmpty()) {
+      victim = removeFirst(this.a1in, evictable);
+      if (victim != NO_VICTIM) {
+        rememberGhost(victim);
+        return victim;
+      }
+    }
+
+    victim = removeFirst(this.am, evictable);
+    if (victim == NO_VICTIM) {
+      victim = removeFirst(this.a1in, evictable);
+      if (victim != NO_VICTIM) {
+        rememberGhost(victim);
+      }
+    }
+    return victim;
+  }
+
+  private void rememberGhost(long vPageNum) {
+    this.a1out.add(vPageNum);
+    if (this.a1out.size() > this.kout) {
+      Iterator<Long> iter = this.a1out.iterator();
+      iter.next();
+      iter.remove();
+    }
+  }
+
+  private static long removeFirst(LinkedHashSet<Long> queue, LongPredicate evictable) {
+    Iterator<Long> iter = queue.iterator();
+    while (iter.hasNext()) {
+      long candidate = iter.next();
+      if (evictable.test(candidate)) {
+        iter.remove();
+        return candidate;
+      }
+    }
+    return NO_VICTIM;
+  }
+}
@@ -51,8 +51,6 @@ public class BNLJOperator extends JoinOperator {
     private Record rightRecord;
     private Page leftPage;
     private Page rightPage;
-    private byte[] leftHeader;
-    private byte[] rightHeader;
     private int leftEntryNum;
     private int rightEntryNum;
     private Page[] block;
@@ -65,7 +63,7 @@ public class BNLJOperator extends JoinOperator {
       } else {
         this.leftTableName = "Temp" + BNLJOperator.this.getJoinType().toString() + "Operator" + BNLJOperator.this.getLeftColumnName() + "Left";
         BNLJOperator.this.createTempTable(BNLJOperator.this.getLeftSource().getOutputSchema(), leftTableName);
-        Iterator<Record> leftIter = BNLJOperator.this.getLeftSource().iterator();
+        Iterator<Record> leftIter = BNLJOperator.this.getLeftSource().execute();
         while (leftIter.hasNext()) {
           BNLJOperator.this.addRecord(leftTableName, leftIter.next().getValues());
         }
@@ -75,7 +73,7 @@ public class BNLJOperator extends JoinOperator {
       } else {
         this.rightTableName = "Temp" + BNLJOperator.this.getJoinType().toString() + "Operator" + BNLJOperator.this.getRightColumnName() + "Right";
         BNLJOperator.this.createTempTable(BNLJOperator.this.getRightSource().getOutputSchema(), rightTableName);
-        Iterator<Record> rightIter = BNLJOperator.this.getRightSource().iterator();
+        Iterator<Record> rightIter = BNLJOperator.this.getRightSource().execute();
         while (rightIter.hasNext()) {
           BNLJOperator.this.addRecord(rightTableName, rightIter.next().getValues());
         }
@@ -98,7 +96,6 @@ public class BNLJOperator extends JoinOperator {
         }
         if (this.block[this.pageInBlock] != null) {
           this.leftPage = this.block[this.pageInBlock];
-          this.leftHeader = BNLJOperator.this.getPageHeader(this.leftTableName, this.leftPage);
           this.leftRecord = getNextLeftRecordInBlock();
         }
       }
@@ -106,7 +103,6 @@ public class BNLJOperator extends JoinOperator {
         assert(this.rightIterator.next().getPageNum() == 0);
         if (this.rightIterator.hasNext()) {
           this.rightPage = this.rightIterator.next();
-          this.rightHeader = BNLJOperator.this.getPageHeader(this.rightTableName, this.rightPage);
           this.rightRecord = getNextRightRecordInPage();
         }
       }
@@ -134,12 +130,6 @@ public class BNLJOperator extends JoinOperator {
               this.leftEntryNum = 0;
               this.pageInBlock = 0;
               this.leftPage = this.block[this.pageInBlock];
-              try {
-                this.leftHeader = BNLJOperator.this.getPageHeader(this.leftTableName, this.leftPage);
-                this.rightHeader = BNLJOperator.this.getPageHeader(this.rightTableName, this.rightPage);
-              } catch (DatabaseException d) {
-                return false;
-              }
 
               this.leftRecord = getNextLeftRecordInBlock();
               this.rightRecord = getNextRightRecordInPage();
@@ -158,8 +148,6 @@ public class BNLJOperator extends JoinOperator {
                   this.rightIterator.next();
                   this.rightPage = this.rightIterator.next();
                   this.leftPage = this.block[this.pageInBlock];
-                  this.leftHeader = BNLJOperator.this.getPageHeader(this.leftTableName, this.leftPage);
-                  this.rightHeader = BNLJOperator.this.getPageHeader(this.rightTableName, this.rightPage);
                 } catch (DatabaseException d) {
                   return false;
                 }
@@ -193,26 +181,17 @@ public class BNLJOperator extends JoinOperator {
     private Record getNextLeftRecordInBlock() {
       try {
         while (this.pageInBlock < this.numPagesInBlock) {
-          while (this.leftEntryNum < BNLJOperator.this.getNumEntriesPerPage(this.leftTableName)) {
-            byte b = leftHeader[this.leftEntryNum / 8];
-            int bitOffset = 7 - (this.leftEntryNum % 8);
-            byte mask = (byte) (1 << bitOffset);
-            byte value = (byte) (b & mask);
-            if (value != 0) {
-              int entrySize = BNLJOperator.this.getEntrySize(this.rightTableName);
-              int offset = BNLJOperator.this.getHeaderSize(this.leftTableName) + (entrySize * this.leftEntryNum);
-              byte[] bytes = this.leftPage.readBytes(offset, entrySize);
-              Record toRtn = BNLJOperator.this.getLeftSource().getOutputSchema().decode(bytes);
-              this.leftEntryNum++;
+          while (this.leftEntryNum < BNLJOperator.this.getNumEntries(this.leftTableName, this.leftPage)) {
+            Record toRtn = BNLJOperator.this.getEntry(this.leftTableName, this.leftPage, this.leftEntryNum);
+            this.leftEntryNum++;
+            if (toRtn != null) {
               return toRtn;
             }
-            this.leftEntryNum++;
           }
           this.pageInBlock++;
           this.leftEntryNum = 0;
           if (this.pageInBlock < this.numPagesInBlock) {
             this.leftPage = this.block[this.pageInBlock];
-            this.leftHeader = BNLJOperator.this.getPageHeader(this.leftTableName, this.leftPage);
           }
         }
       } catch (DatabaseException d)  {
@@ -223,20 +202,12 @@ public class BNLJOperator extends JoinOperator {
 
     private Record getNextRightRecordInPage() {
       try {
-        while (this.rightEntryNum < BNLJOperator.this.getNumEntriesPerPage(this.rightTableName)) {
-          byte b = rightHeader[this.rightEntryNum / 8];
-          int bitOffset = 7 - (this.rightEntryNum % 8);
-          byte mask = (byte) (1 << bitOffset);
-          byte value = (byte) (b & mask);
-          if (value != 0) {
-            int entrySize = BNLJOperator.this.getEntrySize(this.rightTableName);
-            int offset = BNLJOperator.this.getHeaderSize(this.rightTableName) + (entrySize * rightEntryNum);
-            byte[] bytes = this.rightPage.readBytes(offset, entrySize);
-            Record toRtn = BNLJOperator.this.getRightSource().getOutputSchema().decode(bytes);
-            this.rightEntryNum++;
+        while (this.rightEntryNum < BNLJOperator.this.getNumEntries(this.rightTableName, this.rightPage)) {
+          Record toRtn = BNLJOperator.this.getEntry(this.rightTableName, this.rightPage, this.rightEntryNum);
+          this.rightEntryNum++;
+          if (toRtn != null) {
             return toRtn;
           }
-          this.rightEntryNum++;
         }
       } catch (DatabaseException d) {
         return null;
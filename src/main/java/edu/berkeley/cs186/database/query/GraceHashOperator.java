@@ -55,8 +55,8 @@ public class GraceHashOperator extends JoinOperator {
     private List<DataBox> rightRecordVals;
 
     public GraceHashIterator() throws QueryPlanException, DatabaseException {
-      this.leftIterator = getLeftSource().iterator();
-      this.rightIterator = getRightSource().iterator();
+      this.leftIterator = getLeftSource().execute();
+      this.rightIterator = getRightSource().execute();
       leftPartitions = new String[numBuffers - 1];
       rightPartitions = new String[numBuffers - 1];
       this.inMemoryHashTable = new HashMap<DataBox, ArrayList<Record>>();
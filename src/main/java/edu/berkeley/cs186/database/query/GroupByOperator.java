@@ -77,7 +77,7 @@ public class GroupByOperator extends QueryOperator {
     private Iterator<Record> rIter;
 
     public GroupByIterator() throws QueryPlanException, DatabaseException {
-      this.sourceIterator = GroupByOperator.this.getSource().iterator();
+      this.sourceIterator = GroupByOperator.this.getSource().execute();
       this.markerRecord = MarkerRecord.getMarker();
       this.hashGroupTempTables = new HashMap<String, String>();
       this.currCount = 0;
@@ -148,6 +148,14 @@ public abstract class JoinOperator extends QueryOperator {
     return this.transaction.getPageIterator(tableName);
   }
 
+  public int getNumEntries(String tableName, Page p) throws DatabaseException {
+    return this.transaction.getNumEntries(tableName, p);
+  }
+
+  public Record getEntry(String tableName, Page p, int entryNum) throws DatabaseException {
+    return this.transaction.getEntry(tableName, p, entryNum);
+  }
+
   public byte[] getPageHeader(String tableName, Page p) throws DatabaseException {
     return this.transaction.readPageHeader(tableName, p);
   }
@@ -50,8 +50,6 @@ public class PNLJOperator extends JoinOperator {
     private Record rightRecord;
     private Page leftPage;
     private Page rightPage;
-    private byte[] leftHeader;
-    private byte[] rightHeader;
     private int leftEntryNum;
     private int rightEntryNum;
 
@@ -61,7 +59,7 @@ public class PNLJOperator extends JoinOperator {
       } else {
         this.leftTableName = "Temp" + PNLJOperator.this.getJoinType().toString() + "Operator" + PNLJOperator.this.getLeftColumnName() + "Left";
         PNLJOperator.this.createTempTable(PNLJOperator.this.getLeftSource().getOutputSchema(), leftTableName);
-        Iterator<Record> leftIter = PNLJOperator.this.getLeftSource().iterator();
+        Iterator<Record> leftIter = PNLJOperator.this.getLeftSource().execute();
         while (leftIter.hasNext()) {
           PNLJOperator.this.addRecord(leftTableName, leftIter.next().getValues());
         }
@@ -71,7 +69,7 @@ public class PNLJOperator extends JoinOperator {
       } else {
         this.rightTableName = "Temp" + PNLJOperator.this.getJoinType().toString() + "Operator" + PNLJOperator.this.getRightColumnName() + "Right";
         PNLJOperator.this.createTempTable(PNLJOperator.this.getRightSource().getOutputSchema(), rightTableName);
-        Iterator<Record> rightIter = PNLJOperator.this.getRightSource().iterator();
+        Iterator<Record> rightIter = PNLJOperator.this.getRightSource().execute();
         while (rightIter.hasNext()) {
           PNLJOperator.this.addRecord(rightTableName, rightIter.next().getValues());
         }
@@ -85,7 +83,6 @@ public class PNLJOperator extends JoinOperator {
         assert (this.leftIterator.next().getPageNum() == 0);
         if (this.leftIterator.hasNext()) {
           this.leftPage = this.leftIterator.next();
-          this.leftHeader = PNLJOperator.this.getPageHeader(this.leftTableName, this.leftPage);
           this.leftRecord = getNextLeftRecordInPage();
         }
       }
@@ -93,7 +90,6 @@ public class PNLJOperator extends JoinOperator {
         assert(this.rightIterator.next().getPageNum() == 0);
         if (this.rightIterator.hasNext()) {
           this.rightPage = this.rightIterator.next();
-          this.rightHeader = PNLJOperator.this.getPageHeader(this.rightTableName, this.rightPage);
           this.rightRecord = getNextRightRecordInPage();
         }
       }
@@ -114,11 +110,6 @@ public class PNLJOperator extends JoinOperator {
               this.rightPage = this.rightIterator.next();
               this.rightEntryNum = 0;
               this.leftEntryNum = 0;
-              try {
-                this.rightHeader = PNLJOperator.this.getPageHeader(this.rightTableName, this.rightPage);
-              } catch (DatabaseException d) {
-                return false;
-              }
               this.leftRecord = getNextLeftRecordInPage();
               this.rightRecord = getNextRightRecordInPage();
             } else {
@@ -128,8 +119,6 @@ public class PNLJOperator extends JoinOperator {
                   this.rightIterator = PNLJOperator.this.getPageIterator(this.rightTableName);
                   this.rightIterator.next();
                   this.rightPage = this.rightIterator.next();
-                  this.leftHeader = PNLJOperator.this.getPageHeader(this.leftTableName, this.leftPage);
-                  this.rightHeader = PNLJOperator.this.getPageHeader(this.leftTableName, this.rightPage);
                 } catch (DatabaseException d) {
                   return false;
                 }
@@ -162,20 +151,12 @@ public class PNLJOperator extends JoinOperator {
 
     private Record getNextLeftRecordInPage() {
       try {
-        while (this.leftEntryNum < PNLJOperator.this.getNumEntriesPerPage(this.leftTableName)) {
-          byte b = leftHeader[this.leftEntryNum / 8];
-          int bitOffset = 7 - (this.leftEntryNum % 8);
-          byte mask = (byte) (1 << bitOffset);
-          byte value = (byte) (b & mask);
-          if (value != 0) {
-            int entrySize = PNLJOperator.this.getEntrySize(this.leftTableName);
-            int offset = PNLJOperator.this.getHeaderSize(this.leftTableName) + (entrySize * this.leftEntryNum);
-            byte[] bytes = this.leftPage.readBytes(offset, entrySize);
-            Record toRtn = PNLJOperator.this.getLeftSource().getOutputSchema().decode(bytes);
-            this.leftEntryNum++;
+        while (this.leftEntryNum < PNLJOperator.this.getNumEntries(this.leftTableName, this.leftPage)) {
+          Record toRtn = PNLJOperator.this.getEntry(this.leftTableName, this.leftPage, this.leftEntryNum);
+          this.leftEntryNum++;
+          if (toRtn != null) {
             return toRtn;
           }
-          this.leftEntryNum++;
         }
       } catch (DatabaseException d)  {
         return null;
@@ -185,20 +166,12 @@ public class PNLJOperator extends JoinOperator {
 
     private Record getNextRightRecordInPage() {
       try {
-        while (this.rightEntryNum < PNLJOperator.this.getNumEntriesPerPage(this.rightTableName)) {
-          byte b = rightHeader[this.rightEntryNum / 8];
-          int bitOffset = 7 - (this.rightEntryNum % 8);
-          byte mask = (byte) (1 << bitOffset);
-          byte value = (byte) (b & mask);
-          if (value != 0) {
-            int entrySize = PNLJOperator.this.getEntrySize(this.rightTableName);
-            int offset = PNLJOperator.this.getHeaderSize(this.rightTableName) + (entrySize * rightEntryNum);
-            byte[] bytes = this.rightPage.readBytes(offset, entrySize);
-            Record toRtn = PNLJOperator.this.getRightSource().getOutputSchema().decode(bytes);
-            this.rightEntryNum++;
+        while (this.rightEntryNum < PNLJOperator.this.getNumEntries(this.rightTableName, this.rightPage)) {
+          Record toRtn = PNLJOperator.this.getEntry(this.rightTableName, this.rightPage, this.rightEntryNum);
+          this.rightEntryNum++;
+          if (toRtn != null) {
             return toRtn;
           }
-          this.rightEntryNum++;
         }
       } catch (DatabaseException d) {
         return null;
@@ -135,9 +135,9 @@ public class ProjectOperator extends QueryOperator {
 
   private void addToSum(Record record) {
     if (this.sumIsFloat) {
-      this.sumValue += record.getValues().get(this.sumColumnIndex).getFloat();
+      this.sumValue += record.getValue(this.sumColumnIndex).getFloat();
     } else {
-      this.sumValue += record.getValues().get(this.sumColumnIndex).getInt();
+      this.sumValue += record.getValue(this.sumColumnIndex).getInt();
     }
   }
 
@@ -149,7 +149,7 @@ public class ProjectOperator extends QueryOperator {
 
   private void addToAverage(Record record) {
     this.averageCountValue++;
-    this.averageSumValue += record.getValues().get(this.averageColumnIndex).getInt();
+    this.averageSumValue += record.getValue(this.averageColumnIndex).getInt();
   }
 
   private double getAndResetAverage() {
@@ -193,7 +193,8 @@ public class ProjectOperator extends QueryOperator {
     private List<DataBox> baseValues;
 
     public ProjectIterator() throws QueryPlanException, DatabaseException {
-      this.sourceIterator = ProjectOperator.this.getSource().iterator();
+      // Only the values of each record are kept, so the source may yield views.
+      this.sourceIterator = ProjectOperator.this.getSource().executeViews();
       this.markerRecord = MarkerRecord.getMarker();
       this.nextRecord = null;
       this.prevWasMarker = true;
@@ -220,7 +221,6 @@ public class ProjectOperator extends QueryOperator {
         if (ProjectOperator.this.hasAggregate) {
           while (this.sourceIterator.hasNext()) {
             Record r = this.sourceIterator.next();
-            List<DataBox> recordValues = r.getValues();
 
             // if the record is a MarkerRecord, that means we reached the end of a group... we reset
             // the aggregates and add the appropriate new record to the new Records
@@ -251,7 +251,7 @@ public class ProjectOperator extends QueryOperator {
               if (this.prevWasMarker) {
                 this.baseValues = new ArrayList<DataBox>();
                 for (int index : ProjectOperator.this.indices) {
-                  this.baseValues.add(recordValues.get(index));
+                  this.baseValues.add(r.getValue(index));
                 }
                 this.prevWasMarker = false;
               }
@@ -289,7 +289,6 @@ public class ProjectOperator extends QueryOperator {
           return new Record(this.baseValues);
         } else {
           Record r = this.sourceIterator.next();
-          List<DataBox> recordValues = r.getValues();
           List<DataBox> newValues = new ArrayList<DataBox>();
 
           // if there is a marker record (in the case we're projecting from a group by), we simply
@@ -298,7 +297,7 @@ public class ProjectOperator extends QueryOperator {
             return markerRecord;
           } else {
             for (int index : ProjectOperator.this.indices) {
-              newValues.add(recordValues.get(index));
+              newValues.add(r.getValue(index));
             }
             return new Record(newValues);
           }
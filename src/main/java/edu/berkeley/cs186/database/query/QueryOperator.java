@@ -4,6 +4,8 @@ import java.util.Iterator;
 import java.util.List;
 
 import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.io.IOCounters;
+import edu.berkeley.cs186.database.io.IOStats;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.stats.TableStats;
@@ -14,6 +16,7 @@ public abstract class QueryOperator {
   private Schema operatorSchema;
   protected TableStats stats;
   protected int cost;
+  private IOCounters ioCounters = new IOCounters();
 
   public enum OperatorType {
     JOIN,
@@ -95,12 +98,51 @@ public abstract class QueryOperator {
 
   protected abstract Schema computeSchema() throws QueryPlanException;
 
+  /**
+   * Returns an iterator over the output of this operator that counts the I/O done while building
+   * and draining it towards this operator (see getIOStats). Operators pull records from their
+   * sources through execute, so the I/O of each source is counted towards that source instead.
+   *
+   * @return an iterator over the output of this operator
+   */
   public Iterator<Record> execute() throws QueryPlanException, DatabaseException {
-    return iterator();
+    IOCounters previous = IOCounters.setCurrent(this.ioCounters);
+    try {
+      return new CountingIterator(iterator());
+    } finally {
+      IOCounters.setCurrent(previous);
+    }
   }
 
   public abstract Iterator<Record> iterator() throws QueryPlanException, DatabaseException;
 
+  /**
+   * Like execute, except that the iterator may yield records that are only valid until its next
+   * call to next, such as the RecordViews of a table scan (see Table#viewIterator). Only an
+   * operator that is done with each record before it asks for the next one, and that never passes
+   * such a record on, may use it.
+   *
+   * @return an iterator over the output of this operator
+   */
+  public Iterator<Record> executeViews() throws QueryPlanException, DatabaseException {
+    IOCounters previous = IOCounters.setCurrent(this.ioCounters);
+    try {
+      return new CountingIterator(viewIterator());
+    } finally {
+      IOCounters.setCurrent(previous);
+    }
+  }
+
+  /**
+   * The iterator behind executeViews. Operators that can yield views override it; by default it
+   * is iterator.
+   *
+   * @return an iterator over the output of this operator
+   */
+  protected Iterator<Record> viewIterator() throws QueryPlanException, DatabaseException {
+    return iterator();
+  }
+
   /**
    * Utility method that checks to see if a column is found in a schema using dot notation.
    *
@@ -184,4 +226,47 @@ public abstract class QueryOperator {
   public int getIOCost() {
     return this.cost;
   }
+
+  /**
+   * Returns the I/O this operator has done itself, through iterators returned by execute. The I/O
+   * of its sources is not included.
+   *
+   * @return a snapshot of the I/O counters of this operator
+   */
+  public IOStats getIOStats() {
+    return this.ioCounters.snapshot();
+  }
+
+  /**
+   * Counts the I/O done by the wrapped iterator towards this operator.
+   */
+  private class CountingIterator implements Iterator<Record> {
+    private Iterator<Record> iterator;
+
+    CountingIterator(Iterator<Record> iterator) {
+      this.iterator = iterator;
+    }
+
+    public boolean hasNext() {
+      IOCounters previous = IOCounters.setCurrent(QueryOperator.this.ioCounters);
+      try {
+        return this.iterator.hasNext();
+      } finally {
+        IOCounters.setCurrent(previous);
+      }
+    }
+
+    public Record next() {
+      IOCounters previous = IOCounters.setCurrent(QueryOperator.this.ioCounters);
+      try {
+        return this.iterator.next();
+      } finally {
+        IOCounters.setCurrent(previous);
+      }
+    }
+
+    public void remove() {
+      this.iterator.remove();
+    }
+  }
 }
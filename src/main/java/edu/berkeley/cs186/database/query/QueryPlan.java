@@ -222,7 +222,7 @@ public class QueryPlan {
     this.finalOperator = this.minCostOperator(map);
     this.addGroupBy();
     this.addProjects();
-    return this.finalOperator.iterator();
+    return this.finalOperator.execute();
   }
 
   /**
@@ -82,7 +82,9 @@ public class SelectOperator extends QueryOperator {
     private Record nextRecord;
 
     public SelectIterator() throws QueryPlanException, DatabaseException {
-      this.sourceIterator = SelectOperator.this.getSource().iterator();
+      // The predicate is done with each record before the next is pulled, and records that
+      // pass it are copied below, so the source may yield views.
+      this.sourceIterator = SelectOperator.this.getSource().executeViews();
       this.markerRecord = MarkerRecord.getMarker();
       this.nextRecord = null;
     }
@@ -104,44 +106,44 @@ public class SelectOperator extends QueryOperator {
         }
         switch (SelectOperator.this.operator) {
           case EQUALS:
-            if (r.getValues().get(SelectOperator.this.columnIndex).equals(value)) {
-              this.nextRecord = r;
+            if (r.getValue(SelectOperator.this.columnIndex).equals(value)) {
+              this.nextRecord = new Record(r.getValues());
               return true;
             }
             break;
           case NOT_EQUALS:
-            if (!r.getValues().get(SelectOperator.this.columnIndex).equals(value)) {
-              this.nextRecord = r;
+            if (!r.getValue(SelectOperator.this.columnIndex).equals(value)) {
+              this.nextRecord = new Record(r.getValues());
               return true;
             }
             break;
           case LESS_THAN:
-            if (r.getValues().get(SelectOperator.this.columnIndex).compareTo(value) == -1) {
-              this.nextRecord = r;
+            if (r.getValue(SelectOperator.this.columnIndex).compareTo(value) == -1) {
+              this.nextRecord = new Record(r.getValues());
               return true;
             }
             break;
           case LESS_THAN_EQUALS:
-            if (r.getValues().get(SelectOperator.this.columnIndex).compareTo(value) == -1) {
-              this.nextRecord = r;
+            if (r.getValue(SelectOperator.this.columnIndex).compareTo(value) == -1) {
+              this.nextRecord = new Record(r.getValues());
               return true;
-            } else if (r.getValues().get(SelectOperator.this.columnIndex).compareTo(value) == 0) {
-              this.nextRecord = r;
+            } else if (r.getValue(SelectOperator.this.columnIndex).compareTo(value) == 0) {
+              this.nextRecord = new Record(r.getValues());
               return true;
             }
             break;
           case GREATER_THAN:
-            if (r.getValues().get(SelectOperator.this.columnIndex).compareTo(value) == 1) {
-              this.nextRecord = r;
+            if (r.getValue(SelectOperator.this.columnIndex).compareTo(value) == 1) {
+              this.nextRecord = new Record(r.getValues());
               return true;
             }
             break;
           case GREATER_THAN_EQUALS:
-            if (r.getValues().get(SelectOperator.this.columnIndex).compareTo(value) == 1) {
-              this.nextRecord = r;
+            if (r.getValue(SelectOperator.this.columnIndex).compareTo(value) == 1) {
+              this.nextRecord = new Record(r.getValues());
               return true;
-            } else if (r.getValues().get(SelectOperator.this.columnIndex).compareTo(value) == 0) {
-              this.nextRecord = r;
+            } else if (r.getValue(SelectOperator.this.columnIndex).compareTo(value) == 0) {
+              this.nextRecord = new Record(r.getValues());
               return true;
             }
             break;
@@ -41,6 +41,10 @@ public class SequentialScanOperator extends QueryOperator {
     return this.transaction.getRecordIterator(tableName);
   }
 
+  protected Iterator<Record> viewIterator() throws DatabaseException {
+    return this.transaction.getRecordViewIterator(tableName);
+  }
+
   public Schema computeSchema() throws QueryPlanException {
     try {
       return this.transaction.getFullyQualifiedSchema(this.tableName);
@@ -46,8 +46,6 @@ public class SortMergeOperator extends JoinOperator {
     private Record rightRecord;
     private Page leftPage;
     private Page rightPage;
-    private byte[] leftHeader;
-    private byte[] rightHeader;
     private int leftEntryNum;
     private int rightEntryNum;
     private Page[] block;
@@ -60,7 +58,7 @@ public class SortMergeOperator extends JoinOperator {
       } else {
         this.leftTableName = "Temp" + SortMergeOperator.this.getJoinType().toString() + "Operator" + SortMergeOperator.this.getLeftColumnName() + "Left";
         SortMergeOperator.this.createTempTable(SortMergeOperator.this.getLeftSource().getOutputSchema(), leftTableName);
-        Iterator<Record> leftIter = SortMergeOperator.this.getLeftSource().iterator();
+        Iterator<Record> leftIter = SortMergeOperator.this.getLeftSource().execute();
         while (leftIter.hasNext()) {
           SortMergeOperator.this.addRecord(leftTableName, leftIter.next().getValues());
         }
@@ -70,7 +68,7 @@ public class SortMergeOperator extends JoinOperator {
       } else {
         this.rightTableName = "Temp" + SortMergeOperator.this.getJoinType().toString() + "Operator" + SortMergeOperator.this.getRightColumnName() + "Right";
         SortMergeOperator.this.createTempTable(SortMergeOperator.this.getRightSource().getOutputSchema(), rightTableName);
-        Iterator<Record> rightIter = SortMergeOperator.this.getRightSource().iterator();
+        Iterator<Record> rightIter = SortMergeOperator.this.getRightSource().execute();
         while (rightIter.hasNext()) {
           SortMergeOperator.this.addRecord(rightTableName, rightIter.next().getValues());
         }
@@ -88,7 +86,6 @@ public class SortMergeOperator extends JoinOperator {
         assert (this.leftIterator.next().getPageNum() == 0);
         if (this.leftIterator.hasNext()) {
           this.leftPage = this.leftIterator.next();
-          this.leftHeader = SortMergeOperator.this.getPageHeader(this.leftTableName, this.leftPage);
           advanceLeftTable();
         }
       }
@@ -96,7 +93,6 @@ public class SortMergeOperator extends JoinOperator {
         assert(this.rightIterator.next().getPageNum() == 0);
         if (this.rightIterator.hasNext()) {
           this.rightPage = this.rightIterator.next();
-          this.rightHeader = SortMergeOperator.this.getPageHeader(this.rightTableName, this.rightPage);
           advanceRightTable();
         }
       }
@@ -187,16 +183,11 @@ public class SortMergeOperator extends JoinOperator {
       this.leftRecord = getNextLeftRecordInPage();
       if (this.leftRecord == null) {
         while (this.leftIterator.hasNext()) {
-          try {
-            this.leftPage = this.leftIterator.next();
-            this.leftHeader = SortMergeOperator.this.getPageHeader(this.leftTableName, this.leftPage);
-            this.leftEntryNum = 0;
-            this.leftRecord = getNextLeftRecordInPage();
-            if (this.leftRecord != null) {
-              return true;
-            }
-          } catch (DatabaseException e) {
-            return false;
+          this.leftPage = this.leftIterator.next();
+          this.leftEntryNum = 0;
+          this.leftRecord = getNextLeftRecordInPage();
+          if (this.leftRecord != null) {
+            return true;
           }
         }
         return false;
@@ -209,16 +200,11 @@ public class SortMergeOperator extends JoinOperator {
       this.rightRecord = getNextRightRecordInPage();
       if (this.rightRecord == null) {
         while (this.rightIterator.hasNext()) {
-          try {
-            this.rightPage = this.rightIterator.next();
-            this.rightHeader = SortMergeOperator.this.getPageHeader(this.rightTableName, this.rightPage);
-            this.rightEntryNum = 0;
-            this.rightRecord = getNextRightRecordInPage();
-            if (this.rightRecord != null) {
-              return true;
-            }
-          } catch (DatabaseException e) {
-            return false;
+          this.rightPage = this.rightIterator.next();
+          this.rightEntryNum = 0;
+          this.rightRecord = getNextRightRecordInPage();
+          if (this.rightRecord != null) {
+            return true;
           }
         }
         return false;
@@ -229,20 +215,12 @@ public class SortMergeOperator extends JoinOperator {
 
     private Record getNextLeftRecordInPage() {
       try {
-        while (this.leftEntryNum < SortMergeOperator.this.getNumEntriesPerPage(this.leftTableName)) {
-          byte b = leftHeader[this.leftEntryNum / 8];
-          int bitOffset = 7 - (this.leftEntryNum % 8);
-          byte mask = (byte) (1 << bitOffset);
-          byte value = (byte) (b & mask);
-          if (value != 0) {
-            int entrySize = SortMergeOperator.this .getEntrySize(this.leftTableName);
-            int offset = SortMergeOperator.this.getHeaderSize(this.leftTableName) + (entrySize * this.leftEntryNum);
-            byte[] bytes = this.leftPage.readBytes(offset, entrySize);
-            Record toRtn = SortMergeOperator.this.getLeftSource().getOutputSchema().decode(bytes);
-            this.leftEntryNum++;
+        while (this.leftEntryNum < SortMergeOperator.this.getNumEntries(this.leftTableName, this.leftPage)) {
+          Record toRtn = SortMergeOperator.this.getEntry(this.leftTableName, this.leftPage, this.leftEntryNum);
+          this.leftEntryNum++;
+          if (toRtn != null) {
             return toRtn;
           }
-          this.leftEntryNum++;
         }
       } catch (DatabaseException d)  {
         return null;
@@ -252,20 +230,12 @@ public class SortMergeOperator extends JoinOperator {
 
     private Record getNextRightRecordInPage() {
       try {
-        while (this.rightEntryNum < SortMergeOperator.this.getNumEntriesPerPage(this.rightTableName)) {
-          byte b = rightHeader[this.rightEntryNum / 8];
-          int bitOffset = 7 - (this.rightEntryNum % 8);
-          byte mask = (byte) (1 << bitOffset);
-          byte value = (byte) (b & mask);
-          if (value != 0) {
-            int entrySize = SortMergeOperator.this.getEntrySize(this.rightTableName);
-            int offset = SortMergeOperator.this.getHeaderSize(this.rightTableName) + (entrySize * rightEntryNum);
-            byte[] bytes = this.rightPage.readBytes(offset, entrySize);
-            Record toRtn = SortMergeOperator.this.getRightSource().getOutputSchema().decode(bytes);
-            this.rightEntryNum++;
+        while (this.rightEntryNum < SortMergeOperator.this.getNumEntries(this.rightTableName, this.rightPage)) {
+          Record toRtn = SortMergeOperator.this.getEntry(this.rightTableName, this.rightPage, this.rightEntryNum);
+          this.rightEntryNum++;
+          if (toRtn != null) {
             return toRtn;
           }
-          this.rightEntryNum++;
         }
       } catch (DatabaseException d) {
         return null;
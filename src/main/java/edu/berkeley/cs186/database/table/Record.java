@@ -19,6 +19,14 @@ public class Record {
     return this.values;
   }
 
+  /**
+   * @param i the index of a column
+   * @return the value of column i; the same as getValues().get(i)
+   */
+  public DataBox getValue(int i) {
+    return this.getValues().get(i);
+  }
+
   @Override
   public boolean equals(Object other) {
     if (!(other instanceof Record)) {
@@ -26,13 +34,15 @@ public class Record {
     }
 
     Record otherRecord = (Record) other;
+    List<DataBox> values = this.getValues();
+    List<DataBox> otherValues = otherRecord.getValues();
 
-    if (values.size() != otherRecord.values.size()) {
+    if (values.size() != otherValues.size()) {
       return false;
     }
 
     for (int i = 0; i < values.size(); i++) {
-      if (!(values.get(i).equals(otherRecord.values.get(i)))) {
+      if (!(values.get(i).equals(otherValues.get(i)))) {
         return false;
       }
     }
@@ -43,7 +53,7 @@ public class Record {
   @Override
   public String toString() {
     StringBuilder s = new StringBuilder();
-    for (DataBox d : values) {
+    for (DataBox d : this.getValues()) {
       s.append(d.toString().trim());
       s.append(", ");
     }
@@ -2,39 +2,58 @@ package edu.berkeley.cs186.database.table;
 
 import edu.berkeley.cs186.database.DatabaseException;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
  * An implementation of Iterator that takes in a RecordID iterator provides iteration over Records
  *
+ * RecordIDs are taken BATCH_SIZE at a time and the pages of a batch are read from disk at once
+ * (see Table#prefetch) rather than one after another. Each record is still only read from its
+ * page when next returns it, so a record changed since its batch was started is returned as it is
+ * now, and an invalid RecordID fails only the call to next that reaches it.
  */
 public class RecordIterator implements Iterator<Record> {
+  private static final int BATCH_SIZE = 32;
+
   private Iterator<RecordID> recordIDIter;
   private Table table;
+  private List<RecordID> batch;
+  private int batchIndex;
 
   public RecordIterator(Table table, Iterator<RecordID> recIDIter) {
     this.recordIDIter = recIDIter;
     this.table = table;
+    this.batch = new ArrayList<RecordID>(BATCH_SIZE);
+    this.batchIndex = 0;
   }
 
   public boolean hasNext() {
-    return recordIDIter.hasNext();
+    return batchIndex < batch.size() || recordIDIter.hasNext();
   }
 
   public Record next() {
-    if (hasNext()) {
-      try {
-        return table.getRecord(recordIDIter.next());
-      } catch (DatabaseException e) {
+    if (batchIndex == batch.size()) {
+      batch.clear();
+      batchIndex = 0;
+      while (batch.size() < BATCH_SIZE && recordIDIter.hasNext()) {
+        batch.add(recordIDIter.next());
+      }
+      if (batch.isEmpty()) {
         throw new NoSuchElementException();
       }
+      table.prefetch(batch);
+    }
+    try {
+      return table.getRecord(batch.get(batchIndex++));
+    } catch (DatabaseException e) {
+      throw new NoSuchElementException();
     }
-    throw new NoSuchElementException();
   }
 
   public void remove() {
     throw new UnsupportedOperationException();
   }
 }
-
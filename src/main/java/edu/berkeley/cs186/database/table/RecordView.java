@@ -0,0 +1,118 @@
+package edu.berkeley.cs186.database.table;
+
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
+import edu.berkeley.cs186.database.io.Page;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A Record that reads its values straight from the page it is stored on, decoding each column
+ * the first time it is asked for (see getValue). Table#viewIterator yields RecordViews, so
+ * operators that look at a few columns of a row, like a SelectOperator evaluating its predicate,
+ * never decode the rest of a row they reject. getValues decodes the whole record once and returns
+ * it from then on.
+ *
+ * A view reads the page when a value is first asked for, and sees the record as it is then. Views
+ * are only handed to callers that are done with each record before they ask for the next one;
+ * a caller that passes a record on copies its values into a plain Record first.
+ */
+public class RecordView extends Record {
+  private Schema schema;
+  private Page page;
+  private int offset;
+  private boolean variable;
+  // The decoded columns, and for a variable-length record the positions of the columns.
+  private DataBox[] columns;
+  private int[] positions;
+  private List<DataBox> values;
+
+  /**
+   * @param schema the schema of the record
+   * @param page the page the record is stored on
+   * @param offset the offset of the record in page
+   * @param variable whether the record is encoded by Schema#encodeVariable rather than
+   *        Schema#encode
+   */
+  RecordView(Schema schema, Page page, int offset, boolean variable) {
+    super(null);
+    this.schema = schema;
+    this.page = page;
+    this.offset = offset;
+    this.variable = variable;
+    this.columns = new DataBox[schema.getFieldTypes().size()];
+  }
+
+  @Override
+  public DataBox getValue(int i) {
+    if (this.values != null) {
+      return this.values.get(i);
+    }
+    if (this.columns[i] == null) {
+      this.columns[i] = this.decode(i);
+    }
+    return this.columns[i];
+  }
+
+  @Override
+  public List<DataBox> getValues() {
+    if (this.values == null) {
+      List<DataBox> values = new ArrayList<DataBox>(this.columns.length);
+      for (int i = 0; i < this.columns.length; i++) {
+        values.add(this.getValue(i));
+      }
+      this.values = values;
+      this.columns = null;
+    }
+    return this.values;
+  }
+
+  private DataBox decode(int i) {
+    DataBox field = this.schema.getFieldTypes().get(i);
+    int position = this.position(i);
+    if (!this.variable || field.type() != DataBox.Types.STRING) {
+      return this.schema.decodeColumn(this.page, position, i);
+    }
+    int lengthBytes = Schema.lengthBytes(field);
+    int length = this.readLength(position, lengthBytes);
+    byte[] bytes = new byte[Math.max(length, field.getSize())];
+    this.page.copyTo(position + lengthBytes, length, bytes, 0);
+    Arrays.fill(bytes, length, bytes.length, (byte) ' ');
+    return new StringDataBox(bytes);
+  }
+
+  /**
+   * @return the offset in the page of column i
+   */
+  private int position(int i) {
+    List<DataBox> fieldTypes = this.schema.getFieldTypes();
+    if (!this.variable) {
+      return this.offset + this.schema.getColumnOffset(i);
+    }
+
+    if (this.positions == null) {
+      this.positions = new int[fieldTypes.size()];
+      int position = this.offset;
+      for (int j = 0; j < this.positions.length; j++) {
+        this.positions[j] = position;
+        DataBox field = fieldTypes.get(j);
+        if (field.type() == DataBox.Types.STRING) {
+          int lengthBytes = Schema.lengthBytes(field);
+          position += lengthBytes + this.readLength(position, lengthBytes);
+        } else {
+          position += field.getSize();
+        }
+      }
+    }
+    return this.positions[i];
+  }
+
+  private int readLength(int position, int lengthBytes) {
+    if (lengthBytes == 4) {
+      return this.page.getInt(position);
+    }
+    return ((this.page.getByte(position) & 0xff) << 8) | (this.page.getByte(position + 1) & 0xff);
+  }
+}
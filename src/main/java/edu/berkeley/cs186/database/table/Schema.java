@@ -1,6 +1,7 @@
 package edu.berkeley.cs186.database.table;
 
 import edu.berkeley.cs186.database.databox.*;
+import edu.berkeley.cs186.database.io.Page;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
@@ -14,11 +15,15 @@ import java.util.List;
  * `fields`: an ordered list of column names
  * `fieldTypes`: an ordered list of data types corresponding to the columns
  * `size`: physical size (in bytes) of a record conforming to this schema
+ * `offsets`: the offset of each column in an encoded record
+ * `codecs`: the ColumnCodec of each column, which reads and writes its values
  */
 public class Schema {
   private List<String> fields;
   private List<DataBox> fieldTypes;
   private int size;
+  private int[] offsets;
+  private ColumnCodec[] codecs;
 
   public Schema(List<String> fields, List<DataBox> fieldTypes) {
     assert(fields.size() == fieldTypes.size());
@@ -26,8 +31,13 @@ public class Schema {
     this.fields = fields;
     this.fieldTypes = fieldTypes;
     this.size = 0;
+    this.offsets = new int[fieldTypes.size()];
+    this.codecs = new ColumnCodec[fieldTypes.size()];
 
-    for (DataBox dt : fieldTypes) {
+    for (int i = 0; i < fieldTypes.size(); i++) {
+      DataBox dt = fieldTypes.get(i);
+      this.offsets[i] = this.size;
+      this.codecs[i] = ColumnCodec.of(dt);
       this.size += dt.getSize();
     }
   }
@@ -82,6 +92,21 @@ public class Schema {
     return byteBuffer.array();
   }
 
+  /**
+   * Serializes the provided record straight into a page, in the same format as encode, without
+   * an intermediate byte[]. This method assumes that the input record corresponds to this schema.
+   *
+   * @param record the record to encode
+   * @param page the page to write to
+   * @param offset the offset in page of the getEntrySize bytes to write
+   */
+  public void encodeInto(Record record, Page page, int offset) {
+    List<DataBox> values = record.getValues();
+    for (int i = 0; i < this.codecs.length; i++) {
+      this.codecs[i].write(values.get(i), page, offset + this.offsets[i]);
+    }
+  }
+
   /**
    * Takes a byte[] and decodes it into a Record. This method assumes that the
    * input byte[] represents a record that corresponds to this schema.
@@ -90,12 +115,121 @@ public class Schema {
    * @return the decoded Record
    */
   public Record decode(byte[] input) {
-    int offset = 0;
+    ByteBuffer byteBuffer = ByteBuffer.wrap(input);
+
+    List<DataBox> values = new ArrayList<DataBox>(this.codecs.length);
+    for (int i = 0; i < this.codecs.length; i++) {
+      values.add(this.codecs[i].read(byteBuffer, this.offsets[i]));
+    }
+
+    return new Record(values);
+  }
+
+  /**
+   * Decodes a record encoded by encode or encodeInto straight from a page, without an
+   * intermediate byte[].
+   *
+   * @param page the page to read from
+   * @param offset the offset in page of the record
+   * @return the decoded Record
+   */
+  public Record decodeFrom(Page page, int offset) {
+    List<DataBox> values = new ArrayList<DataBox>(this.codecs.length);
+    for (int i = 0; i < this.codecs.length; i++) {
+      values.add(this.codecs[i].read(page, offset + this.offsets[i]));
+    }
+
+    return new Record(values);
+  }
+
+  /**
+   * Decodes column i of a record encoded by encode or encodeInto straight from a page.
+   *
+   * @param page the page to read from
+   * @param position the offset in page of the column, that is the offset of the record plus
+   *        getColumnOffset(i)
+   * @param i the index of the column
+   * @return the value of the column
+   */
+  DataBox decodeColumn(Page page, int position, int i) {
+    return this.codecs[i].read(page, position);
+  }
+
+  /**
+   * @param i the index of a column
+   * @return the offset of column i in a record encoded by encode
+   */
+  public int getColumnOffset(int i) {
+    return this.offsets[i];
+  }
+
+  /**
+   * Serializes the provided record into the variable-length format of tables with slotted pages.
+   * Values are laid out as in encode, except that a string is stored as its length in bytes
+   * followed by its UTF-8 bytes without the spaces that pad it to the size of its column. The
+   * length takes 2 bytes, or 4 for columns wider than 65535 bytes. This method assumes that the
+   * input record corresponds to this schema.
+   *
+   * @param record the record to encode
+   * @return the encoded record as a byte[]
+   */
+  public byte[] encodeVariable(Record record) {
+    List<DataBox> values = record.getValues();
+    byte[][] fieldBytes = new byte[values.size()][];
+    int[] lengths = new int[values.size()];
+    int size = 0;
+    for (int i = 0; i < values.size(); i++) {
+      DataBox field = this.fieldTypes.get(i);
+      fieldBytes[i] = values.get(i).getBytes();
+      lengths[i] = fieldBytes[i].length;
+      if (field.type() == DataBox.Types.STRING) {
+        while (lengths[i] > 0 && fieldBytes[i][lengths[i] - 1] == ' ') {
+          lengths[i]--;
+        }
+        size += lengthBytes(field);
+      }
+      size += lengths[i];
+    }
+
+    ByteBuffer byteBuffer = ByteBuffer.allocate(size);
+    for (int i = 0; i < values.size(); i++) {
+      DataBox field = this.fieldTypes.get(i);
+      if (field.type() == DataBox.Types.STRING) {
+        if (lengthBytes(field) == 2) {
+          byteBuffer.putShort((short) lengths[i]);
+        } else {
+          byteBuffer.putInt(lengths[i]);
+        }
+      }
+      byteBuffer.put(fieldBytes[i], 0, lengths[i]);
+    }
+
+    return byteBuffer.array();
+  }
+
+  /**
+   * Decodes a record encoded by encodeVariable. Strings are padded back to the size of their
+   * column, so the record equals the one that was encoded. Bytes after the encoded record are
+   * ignored.
+   *
+   * @param input the byte array to decode
+   * @return the decoded Record
+   */
+  public Record decodeVariable(byte[] input) {
+    ByteBuffer byteBuffer = ByteBuffer.wrap(input);
 
     List<DataBox> values = new ArrayList<DataBox>();
     for (DataBox field : fieldTypes) {
-      byte[] fieldBytes = Arrays.copyOfRange(input, offset, offset + field.getSize());
-      offset += field.getSize();
+      byte[] fieldBytes;
+      if (field.type() == DataBox.Types.STRING) {
+        int length = (lengthBytes(field) == 2) ? (byteBuffer.getShort() & 0xffff) : byteBuffer.getInt();
+        fieldBytes = new byte[Math.max(length, field.getSize())];
+        byteBuffer.get(fieldBytes, 0, length);
+        Arrays.fill(fieldBytes, length, fieldBytes.length, (byte) ' ');
+      } else {
+        fieldBytes = new byte[field.getSize()];
+        byteBuffer.get(fieldBytes);
+      }
 
       switch (field.type()) {
         case STRING:
@@ -116,6 +250,13 @@ public class Schema {
     return new Record(values);
   }
 
+  /**
+   * @return the number of bytes encodeVariable stores the length of a value of stringField in
+   */
+  static int lengthBytes(DataBox stringField) {
+    return (stringField.getSize() <= 0xffff) ? 2 : 4;
+  }
+
   public int getEntrySize() {
     return this.size;
   }
@@ -155,4 +296,93 @@ public class Schema {
 
     return true;
   }
+
+  /**
+   * Reads and writes the values of one column of fixed size, straight from and to a page or a
+   * buffer with their absolute accessors. The codec of a column is picked once when its Schema is
+   * built, so encoding and decoding a record does not switch on the type of every value.
+   */
+  private abstract static class ColumnCodec {
+    static ColumnCodec of(DataBox field) {
+      switch (field.type()) {
+        case INT:
+          return new IntCodec();
+        case FLOAT:
+          return new FloatCodec();
+        case BOOL:
+          return new BoolCodec();
+        default:
+          return new StringCodec(field.getSize());
+      }
+    }
+
+    abstract DataBox read(Page page, int position);
+
+    abstract DataBox read(ByteBuffer buffer, int position);
+
+    abstract void write(DataBox value, Page page, int position);
+  }
+
+  private static class IntCodec extends ColumnCodec {
+    DataBox read(Page page, int position) {
+      return new IntDataBox(page.getInt(position));
+    }
+
+    DataBox read(ByteBuffer buffer, int position) {
+      return new IntDataBox(buffer.getInt(position));
+    }
+
+    void write(DataBox value, Page page, int position) {
+      page.putInt(position, value.getInt());
+    }
+  }
+
+  private static class FloatCodec extends ColumnCodec {
+    DataBox read(Page page, int position) {
+      return new FloatDataBox(page.getFloat(position));
+    }
+
+    DataBox read(ByteBuffer buffer, int position) {
+      return new FloatDataBox(buffer.getFloat(position));
+    }
+
+    void write(DataBox value, Page page, int position) {
+      page.putFloat(position, value.getFloat());
+    }
+  }
+
+  private static class BoolCodec extends ColumnCodec {
+    DataBox read(Page page, int position) {
+      return new BoolDataBox(page.getByte(position) != 0);
+    }
+
+    DataBox read(ByteBuffer buffer, int position) {
+      return new BoolDataBox(buffer.get(position) != 0);
+    }
+
+    void write(DataBox value, Page page, int position) {
+      page.putByte(position, (byte) (value.getBool() ? 1 : 0));
+    }
+  }
+
+  private static class StringCodec extends ColumnCodec {
+    private final int size;
+
+    StringCodec(int size) {
+      this.size = size;
+    }
+
+    DataBox read(Page page, int position) {
+      return new StringDataBox(page.readBytes(position, this.size));
+    }
+
+    DataBox read(ByteBuffer buffer, int position) {
+      return new StringDataBox(Arrays.copyOfRange(buffer.array(), position, position + this.size));
+    }
+
+    void write(DataBox value, Page page, int position) {
+      byte[] bytes = value.getBytes();
+      page.writeBytes(position, this.size, bytes);
+    }
+  }
 }
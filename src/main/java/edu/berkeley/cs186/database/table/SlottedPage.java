@@ -0,0 +1,219 @@
+package edu.berkeley.cs186.database.table;
+
+import edu.berkeley.cs186.database.io.Page;
+
+/**
+ * The layout of the data pages of a table with variable-length records (see
+ * StorageConfig#setSlottedPages). A page starts with a header of two ints, the number of slots
+ * and the offset of the record bytes, followed by the slot directory, which grows towards the end
+ * of the page. Records are stored back to front from the end of the usable part of the page
+ * towards the directory. A fresh (all-zero) page is an empty slotted page.
+ *
+ * Each slot is two ints: the offset of its record, 0 if the slot is free, and its length, whose
+ * top bits flag a STUB or a MOVED record. A record that grows too large for its page is moved to
+ * another page, where it is flagged MOVED, and its slot becomes a STUB holding the RecordID it was
+ * moved to, so that the RecordID of a record never changes. Records take at least as many bytes as
+ * a RecordID, so that any slot can turn into a stub in place.
+ *
+ * Deleting a record only frees its slot; its bytes are reclaimed when a record that would fit in
+ * the page's free space does not fit in the gap between the directory and the records, at which
+ * point the records are packed together again.
+ */
+final class SlottedPage {
+  static final int HEADER_BYTES = 8;
+  static final int SLOT_BYTES = 8;
+  static final int STUB = 1 << 31;
+  static final int MOVED = 1 << 30;
+  // The largest entry number a RecordID can hold.
+  static final int MAX_SLOTS = Short.MAX_VALUE + 1;
+  private static final int LENGTH_MASK = MOVED - 1;
+
+  private SlottedPage() {
+  }
+
+  /**
+   * @return the number of slots of p, free ones included
+   */
+  static int numSlots(Page p) {
+    return p.getInt(0);
+  }
+
+  /**
+   * @return the offset of the record of slot entryNum, or 0 if the slot is free
+   */
+  static int offset(Page p, int entryNum) {
+    return p.getInt(HEADER_BYTES + SLOT_BYTES * entryNum);
+  }
+
+  /**
+   * @return the length of the record of slot entryNum
+   */
+  static int length(Page p, int entryNum) {
+    return p.getInt(HEADER_BYTES + SLOT_BYTES * entryNum + 4) & LENGTH_MASK;
+  }
+
+  /**
+   * @return the STUB and MOVED flags of slot entryNum
+   */
+  static int flags(Page p, int entryNum) {
+    return p.getInt(HEADER_BYTES + SLOT_BYTES * entryNum + 4) & (STUB | MOVED);
+  }
+
+  /**
+   * @return the record bytes of slot entryNum
+   */
+  static byte[] read(Page p, int entryNum) {
+    return p.readBytes(offset(p, entryNum), length(p, entryNum));
+  }
+
+  /**
+   * @param usable the usable size of the page
+   * @return the number of bytes of p not taken by the header, the directory and live records
+   */
+  static int freeSpace(Page p, int usable) {
+    int free = usable - HEADER_BYTES - SLOT_BYTES * numSlots(p);
+    for (int i = 0; i < numSlots(p); i++) {
+      if (offset(p, i) != 0) {
+        free -= length(p, i);
+      }
+    }
+    return free;
+  }
+
+  /**
+   * @return the number of records of p, stubs included
+   */
+  static int numRecords(Page p) {
+    int count = 0;
+    for (int i = 0; i < numSlots(p); i++) {
+      if (offset(p, i) != 0) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Stores a record in the first free slot of p, or in a new slot.
+   *
+   * @param usable the usable size of the page
+   * @param bytes the record
+   * @param flags the flags of the new slot
+   * @return the slot of the record, or -1 if it does not fit in p
+   */
+  static int insert(Page p, int usable, byte[] bytes, int flags) {
+    int numSlots = numSlots(p);
+    int entryNum = 0;
+    while (entryNum < numSlots && offset(p, entryNum) != 0) {
+      entryNum++;
+    }
+    if (entryNum == MAX_SLOTS) {
+      return -1;
+    }
+    int length = Math.max(bytes.length, RecordID.getSize());
+    int needed = length + ((entryNum == numSlots) ? SLOT_BYTES : 0);
+    if (freeSpace(p, usable) < needed) {
+      return -1;
+    }
+    if (entryNum == numSlots) {
+      p.putInt(0, numSlots + 1);
+      setSlot(p, entryNum, 0, 0);
+    }
+    place(p, usable, entryNum, bytes, length, flags);
+    return entryNum;
+  }
+
+  /**
+   * Replaces the record of slot entryNum, keeping the slot. The record stays in place if it does
+   * not grow.
+   *
+   * @param usable the usable size of the page
+   * @param bytes the new record
+   * @param flags the new flags of the slot
+   * @return whether the record fits in p; if not, p is unchanged
+   */
+  static boolean update(Page p, int usable, int entryNum, byte[] bytes, int flags) {
+    int length = Math.max(bytes.length, RecordID.getSize());
+    int oldLength = length(p, entryNum);
+    if (length <= oldLength) {
+      int offset = offset(p, entryNum);
+      p.writeBytes(offset, bytes.length, bytes);
+      setSlot(p, entryNum, offset, length | flags);
+      return true;
+    }
+    if (freeSpace(p, usable) + oldLength < length) {
+      return false;
+    }
+    setSlot(p, entryNum, 0, 0);
+    place(p, usable, entryNum, bytes, length, flags);
+    return true;
+  }
+
+  /**
+   * Frees slot entryNum, and the free slots at the end of the directory.
+   */
+  static void remove(Page p, int entryNum) {
+    setSlot(p, entryNum, 0, 0);
+    int numSlots = numSlots(p);
+    while (numSlots > 0 && offset(p, numSlots - 1) == 0) {
+      numSlots--;
+    }
+    p.putInt(0, numSlots);
+    if (numSlots == 0) {
+      p.putInt(4, 0);
+    }
+  }
+
+  /**
+   * Packs the records of p together at the end of the page, leaving all free space between the
+   * directory and the records.
+   *
+   * @param usable the usable size of the page
+   */
+  static void compact(Page p, int usable) {
+    int numSlots = numSlots(p);
+    byte[][] records = new byte[numSlots][];
+    for (int i = 0; i < numSlots; i++) {
+      if (offset(p, i) != 0) {
+        records[i] = read(p, i);
+      }
+    }
+    int dataStart = usable;
+    for (int i = 0; i < numSlots; i++) {
+      if (records[i] != null) {
+        dataStart -= records[i].length;
+        p.writeBytes(dataStart, records[i].length, records[i]);
+        setSlot(p, i, dataStart, records[i].length | flags(p, i));
+      }
+    }
+    p.putInt(4, dataStart);
+  }
+
+  /**
+   * @return the RecordID the stub in slot entryNum points to
+   */
+  static RecordID stubTarget(Page p, int entryNum) {
+    return new RecordID(p.readBytes(offset(p, entryNum), RecordID.getSize()));
+  }
+
+  /**
+   * Writes a record of length bytes (at least bytes.length) into free slot entryNum, packing the
+   * page first if the gap between the directory and the records is too small.
+   */
+  private static void place(Page p, int usable, int entryNum, byte[] bytes, int length, int flags) {
+    int dataStart = p.getInt(4) == 0 ? usable : p.getInt(4);
+    if (dataStart - length < HEADER_BYTES + SLOT_BYTES * numSlots(p)) {
+      compact(p, usable);
+      dataStart = p.getInt(4);
+    }
+    dataStart -= length;
+    p.writeBytes(dataStart, bytes.length, bytes);
+    setSlot(p, entryNum, dataStart, length | flags);
+    p.putInt(4, dataStart);
+  }
+
+  private static void setSlot(Page p, int entryNum, int offset, int lengthAndFlags) {
+    p.putInt(HEADER_BYTES + SLOT_BYTES * entryNum, offset);
+    p.putInt(HEADER_BYTES + SLOT_BYTES * entryNum + 4, lengthAndFlags);
+  }
+}
@@ -3,16 +3,20 @@ package edu.berkeley.cs186.database.table;
 import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.databox.*;
 import edu.berkeley.cs186.database.databox.DataBox;
-import edu.berkeley.cs186.database.io.PageAllocator;
+import edu.berkeley.cs186.database.io.StorageConfig;
+import edu.berkeley.cs186.database.io.Tablespace;
 import edu.berkeley.cs186.database.io.Page;
 import edu.berkeley.cs186.database.io.PageException;
+import edu.berkeley.cs186.database.io.IOStats;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
-import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.PrimitiveIterator;
 import java.util.TreeSet;
 
 import java.util.NoSuchElementException;
@@ -21,19 +25,27 @@ import java.io.Closeable;
 
 /**
  * A database table. Allows the user to add, delete, update, and get records.
- * A table has an associated schema, stats, and page allocator. The first page
- * in the page allocator is a header page that serializes the schema, and each
+ * A table has an associated schema, stats, and tablespace. The first page
+ * in the tablespace is a header page that serializes the schema, and each
  * subsequent page is a data page containing the table records.
  *
+ * By default a data page starts with a bitmap of its slots followed by the slots themselves, each
+ * holding a record of Schema#getEntrySize bytes. A table created with StorageConfig#setSlottedPages
+ * instead stores records of variable length (see Schema#encodeVariable) in slotted pages (see
+ * SlottedPage). A record that outgrows its page on an update moves to another page and leaves a
+ * stub behind, so RecordIDs stay valid either way. The layout is recorded in the header page after
+ * the schema.
+ *
  * Properties:
  * `schema`: the Schema (column names and column types) for this table
  * `freePages`: a set of page numbers that correspond to allocated pages with free space
  * `stats`: the TableStats for this table
- * `allocator`: the PageAllocator for this table
+ * `allocator`: the Tablespace holding this table's pages
  * `tableName`: name of this table
  * `numEntriesPerPage`: number of records a data page of this table can hold
  * `pageHeaderSize`: physical size (in bytes) of a page header slot bitmap
  * `numRecords`: number of records currently contained in this table
+ * `slotted`: whether data pages are slotted pages of variable-length records
  */
 public class Table implements Iterable<Record>, Closeable {
   public static final String FILENAME_PREFIX = "db";
@@ -44,25 +56,38 @@ public class Table implements Iterable<Record>, Closeable {
 
   private TableStats stats;
 
-  private PageAllocator allocator;
+  private Tablespace allocator;
   private String tableName;
 
   private int numEntriesPerPage;
   private int pageHeaderSize;
   private long numRecords;
+  private boolean slotted;
 
   public Table(String tableName) {
     this(tableName, FILENAME_PREFIX);
   }
 
   public Table(String tableName, String filenamePrefix) {
+    this(tableName, filenamePrefix, new StorageConfig());
+  }
+
+  /**
+   * This constructor is used for opening an existing table with the given storage options. The
+   * table keeps the page size it was created with.
+   *
+   * @param tableName the name of the table
+   * @param filenamePrefix the directory the table's files live in
+   * @param config the storage options for this table's file
+   */
+  public Table(String tableName, String filenamePrefix, StorageConfig config) {
     this.tableName = tableName;
 
     String pathname = Paths.get(filenamePrefix, tableName + FILENAME_EXTENSION).toString();
-    this.allocator = new PageAllocator(pathname, false);
+    this.allocator = new Tablespace(pathname, false, true, config);
     this.readHeaderPage();
 
-    this.stats = new TableStats(this.schema);
+    this.stats = new TableStats(this.schema, this.allocator.getPageSize());
 
     this.freePages = new TreeSet<Integer>();
     this.setEntryCounts();
@@ -76,20 +101,10 @@ public class Table implements Iterable<Record>, Closeable {
 
       // add all records in this page to TableStats
       int entryNum = 0;
-      byte[] header = this.readPageHeader(p);
-      while (entryNum < this.getNumEntriesPerPage()) {
-        byte b = header[entryNum/8];
-        int bitOffset = 7 - (entryNum % 8);
-        byte mask = (byte) (1 << bitOffset);
-
-        byte value = (byte) (b & mask);
-        if (value != 0) {
-          int entrySize = this.schema.getEntrySize();
-
-          int offset = this.pageHeaderSize + (entrySize * entryNum);
-          byte[] bytes = p.readBytes(offset, entrySize);
-
-          Record record = this.schema.decode(bytes);
+      int numEntries = this.getNumEntries(p);
+      while (entryNum < numEntries) {
+        if (this.isEntry(p, entryNum)) {
+          Record record = this.readEntry(p, entryNum);
           this.stats.addRecord(record);
         }
 
@@ -118,13 +133,27 @@ public class Table implements Iterable<Record>, Closeable {
    * @param filenamePrefix the prefix select the table's files will be created
    */
   public Table(Schema schema, String tableName, String filenamePrefix) {
+    this(schema, tableName, filenamePrefix, new StorageConfig());
+  }
+
+  /**
+   * This constructor is used for creating a table in some specified directory with the given
+   * storage options.
+   *
+   * @param schema the schema for this table
+   * @param tableName the name of the table
+   * @param filenamePrefix the prefix select the table's files will be created
+   * @param config the storage options (buffer pool and page size) for this table's file
+   */
+  public Table(Schema schema, String tableName, String filenamePrefix, StorageConfig config) {
     this.schema = schema;
     this.tableName = tableName;
-    this.stats = new TableStats(this.schema);
 
     this.freePages = new TreeSet<Integer>();
     String pathname = Paths.get(filenamePrefix, tableName + FILENAME_EXTENSION).toString();
-    this.allocator = new PageAllocator(pathname, true);
+    this.allocator = new Tablespace(pathname, true, true, config);
+    this.stats = new TableStats(this.schema, this.allocator.getPageSize());
+    this.slotted = config.getSlottedPages();
 
     this.setEntryCounts();
 
@@ -135,8 +164,43 @@ public class Table implements Iterable<Record>, Closeable {
     allocator.close();
   }
 
+  /**
+   * Closes this table and deletes its files.
+   */
+  public void delete() {
+    allocator.delete();
+  }
+
+  /**
+   * Verifies this table's files. See Tablespace#scrub.
+   *
+   * @return a description of every problem found; empty if the files are intact
+   */
+  public List<String> scrub() {
+    return allocator.scrub();
+  }
+
+  /**
+   * Forces this table's allocation metadata to disk. See Tablespace#sync.
+   */
+  public void sync() {
+    allocator.sync();
+  }
+
   public Iterator<Record> iterator() {
-      return new TableIterator();
+      return new TableIterator(false);
+  }
+
+  /**
+   * Returns an iterator over the records of this table that yields them as RecordViews, which
+   * decode a column only when it is read. A view reads its page lazily, so it must be used up
+   * before the table is changed or the view is kept past the next call to next; callers that need
+   * the record longer copy its values first.
+   *
+   * @return an iterator of RecordViews over the records of this table
+   */
+  public Iterator<Record> viewIterator() {
+      return new TableIterator(true);
   }
 
   public Iterator<Page> pageIterator() {
@@ -164,6 +228,13 @@ public class Table implements Iterable<Record>, Closeable {
       throw new DatabaseException(se.getMessage());
     }
 
+    if (this.slotted) {
+      RecordID rid = this.insertSlotted(this.encodeSlotted(record), 0);
+      this.numRecords++;
+      this.stats.addRecord(record);
+      return rid;
+    }
+
     boolean found = false;
     Page page = null;
     int entryNum = 0;
@@ -177,9 +248,9 @@ public class Table implements Iterable<Record>, Closeable {
         this.freePages.add(page.getPageNum());
       }
       entryNum = 0;
-      byte[] header = this.readPageHeader(page);
 
-      for (byte b : header) {
+      for (int i = 0; i < this.pageHeaderSize; i++) {
+        byte b = page.getByte(i);
         if (b != (byte) 0xFF) {
           for (int j = 7; j >= 0; j--) {
             byte mask = (byte) (1 << j);
@@ -206,15 +277,199 @@ public class Table implements Iterable<Record>, Closeable {
     this.writeBitToHeader(page, entryNum, (byte) 1);
 
     int offset = this.pageHeaderSize + (entryNum * this.schema.getEntrySize());
-    byte[] bytes = this.schema.encode(record);
+    this.schema.encodeInto(record, page, offset);
 
-    page.writeBytes(offset, bytes.length, bytes);
     this.numRecords++;
     this.stats.addRecord(record);
 
     return new RecordID(page.getPageNum(), entryNum);
   }
 
+  /**
+   * Receives the records added by Table#bulkLoad, as they are added, and the records a failed
+   * load takes out again.
+   */
+  public interface BulkLoadListener {
+    /**
+     * @param rid the RecordID of the added record
+     * @param record the added record
+     * @throws DatabaseException to stop the load, which then undoes itself
+     */
+    void added(RecordID rid, Record record) throws DatabaseException;
+
+    /**
+     * Called once every row is added, before the load is done.
+     *
+     * @throws DatabaseException to fail the load, which then undoes itself
+     */
+    void finished() throws DatabaseException;
+
+    /**
+     * @param rid the RecordID of a record that a failed load takes out again
+     * @param record the record
+     */
+    void removed(RecordID rid, Record record);
+  }
+
+  /**
+   * Adds many records to this table at once. Unlike addRecord, the records go to fresh pages
+   * only, which are filled one after the other: the slot bitmap of each page is written once,
+   * when the page is done, and the stats are updated a page of records at a time. The last page
+   * is left to addRecord to fill up.
+   *
+   * Either every row is added, or, if a row does not match the schema of this table, rows throws
+   * or listener throws, none is: the records of the load are taken out again, and told to
+   * listener, and its pages, which it keeps track of as ranges of consecutive page numbers, are
+   * freed.
+   *
+   * @param rows the values of the records to add
+   * @param listener told of every added record, in the order of rows; may be null
+   * @return the number of records added
+   * @throws DatabaseException if a row does not correspond to the schema of this table, or
+   *         listener throws
+   */
+  public long bulkLoad(Iterator<List<DataBox>> rows, BulkLoadListener listener) throws DatabaseException {
+    long count = 0;
+    // The pages of the load, as {first, last} page numbers.
+    List<int[]> pageRanges = new ArrayList<int[]>();
+    // The records on the page being filled.
+    List<Record> pageRecords = new ArrayList<Record>();
+    Page page = null;
+    int usable = this.allocator.getUsablePageSize();
+
+    try {
+      while (rows.hasNext()) {
+        Record record;
+        try {
+          record = this.schema.verify(rows.next());
+        } catch (SchemaException se) {
+          throw new DatabaseException(se.getMessage());
+        }
+
+        int entryNum;
+        if (this.slotted) {
+          byte[] bytes = this.encodeSlotted(record);
+          entryNum = (page == null) ? -1 : SlottedPage.insert(page, usable, bytes, 0);
+          if (entryNum < 0) {
+            this.finishBulkLoadPage(page, pageRecords);
+            page = this.allocBulkLoadPage(pageRanges);
+            entryNum = SlottedPage.insert(page, usable, bytes, 0);
+          }
+        } else {
+          if (page == null || pageRecords.size() == this.numEntriesPerPage) {
+            this.finishBulkLoadPage(page, pageRecords);
+            page = this.allocBulkLoadPage(pageRanges);
+          }
+          entryNum = pageRecords.size();
+          this.schema.encodeInto(record, page, this.pageHeaderSize + entryNum * this.schema.getEntrySize());
+        }
+        pageRecords.add(record);
+        count++;
+        if (listener != null) {
+          listener.added(new RecordID(page.getPageNum(), entryNum), record);
+        }
+      }
+      this.finishBulkLoadPage(page, pageRecords);
+      page = null;
+      if (listener != null) {
+        listener.finished();
+      }
+    } catch (DatabaseException | RuntimeException e) {
+      this.finishBulkLoadPage(page, pageRecords);
+      this.undoBulkLoad(pageRanges, listener);
+      throw e;
+    }
+
+    return count;
+  }
+
+  /**
+   * Adds many records to this table at once. See bulkLoad(Iterator, BulkLoadListener).
+   *
+   * @param rows the values of the records to add
+   * @return the number of records added
+   * @throws DatabaseException if a row does not correspond to the schema of this table
+   */
+  public long bulkLoad(Iterator<List<DataBox>> rows) throws DatabaseException {
+    return this.bulkLoad(rows, null);
+  }
+
+  /**
+   * Allocates a page for bulkLoad and adds it to the page ranges of the load.
+   *
+   * @param pageRanges the {first, last} page numbers of the pages of the load so far
+   * @return the new page
+   */
+  private Page allocBulkLoadPage(List<int[]> pageRanges) {
+    int pageNum = this.allocator.allocPage();
+    int[] last = pageRanges.isEmpty() ? null : pageRanges.get(pageRanges.size() - 1);
+    if (last != null && last[1] + 1 == pageNum) {
+      last[1] = pageNum;
+    } else {
+      pageRanges.add(new int[] {pageNum, pageNum});
+    }
+    return this.allocator.fetchPage(pageNum);
+  }
+
+  /**
+   * Takes the records of a failed bulkLoad out of this table again: the pages of the load hold
+   * no other records, so they are taken out of the stats and freed whole.
+   *
+   * @param pageRanges the {first, last} page numbers of the pages of the load
+   * @param listener told of every record taken out; may be null
+   */
+  private void undoBulkLoad(List<int[]> pageRanges, BulkLoadListener listener) {
+    for (int[] range : pageRanges) {
+      for (int pageNum = range[0]; pageNum <= range[1]; pageNum++) {
+        Page page = this.allocator.fetchPage(pageNum);
+        int numEntries = this.getNumEntries(page);
+        for (int entryNum = 0; entryNum < numEntries; entryNum++) {
+          Record record = this.getEntry(page, entryNum);
+          if (record != null) {
+            this.numRecords--;
+            this.stats.removeRecord(record);
+            if (listener != null) {
+              listener.removed(new RecordID(pageNum, entryNum), record);
+            }
+          }
+        }
+        this.freePages.remove(pageNum);
+        this.allocator.freePage(pageNum);
+      }
+    }
+  }
+
+  /**
+   * Completes a page filled by bulkLoad: writes the slot bitmap of a page of fixed slots, whose
+   * records take its first slots, and accounts for the records of the page.
+   *
+   * @param page the page, or null if there is none yet
+   * @param pageRecords the records on the page; cleared
+   */
+  private void finishBulkLoadPage(Page page, List<Record> pageRecords) {
+    if (page == null) {
+      return;
+    }
+    if (!this.slotted) {
+      byte[] header = new byte[this.pageHeaderSize];
+      int count = pageRecords.size();
+      for (int i = 0; i < count / 8; i++) {
+        header[i] = (byte) 0xFF;
+      }
+      if (count % 8 != 0) {
+        header[count / 8] = (byte) (0xFF << (8 - count % 8));
+      }
+      page.writeBytes(0, this.pageHeaderSize, header);
+    }
+    if (this.spaceOnPage(page)) {
+      this.freePages.add(page.getPageNum());
+    }
+
+    this.numRecords += pageRecords.size();
+    this.stats.addRecords(pageRecords);
+    pageRecords.clear();
+  }
+
   /**
    * Deletes the record specified by rid from the table. Make sure to update
    * this.stats, this.freePages, and this.numRecords as necessary.
@@ -232,11 +487,21 @@ public class Table implements Iterable<Record>, Closeable {
     int entrySize = this.schema.getEntrySize();
     int entryNum = rid.getEntryNumber();
 
-    int offset = this.pageHeaderSize + (entrySize * entryNum);
-    Record oldRecord = this.schema.decode(page.readBytes(offset, entrySize));
+    Record oldRecord;
+    if (this.slotted) {
+      oldRecord = this.readSlotted(page, entryNum);
+      if (SlottedPage.flags(page, entryNum) == SlottedPage.STUB) {
+        RecordID target = SlottedPage.stubTarget(page, entryNum);
+        this.removeSlotted(this.allocator.fetchPage(target.getPageNum()), target.getEntryNumber());
+      }
+      this.removeSlotted(page, entryNum);
+    } else {
+      int offset = this.pageHeaderSize + (entrySize * entryNum);
+      oldRecord = this.schema.decodeFrom(page, offset);
 
-    this.writeBitToHeader(page, entryNum, (byte) 0);
-    this.freePages.add(page.getPageNum());
+      this.writeBitToHeader(page, entryNum, (byte) 0);
+      this.freePages.add(page.getPageNum());
+    }
     this.numRecords--;
 
     this.stats.removeRecord(oldRecord);
@@ -257,12 +522,76 @@ public class Table implements Iterable<Record>, Closeable {
     }
 
     Page page = this.allocator.fetchPage(rid.getPageNum());
+    if (this.slotted) {
+      return this.readSlotted(page, rid.getEntryNumber());
+    }
     int entrySize = this.schema.getEntrySize();
 
     int offset = this.pageHeaderSize + (entrySize * rid.getEntryNumber());
-    byte[] bytes = page.readBytes(offset, entrySize);
 
-    return this.schema.decode(bytes);
+    return this.schema.decodeFrom(page, offset);
+  }
+
+  /**
+   * Retrieves a batch of records from the table. The pages they are on are fetched all at once
+   * (see Tablespace#fetchPages), so that reading them from disk overlaps.
+   *
+   * @param rids the RecordIDs of the records to retrieve
+   * @return the Records referenced by rids, in the same order
+   * @throws DatabaseException if any of rids does not correspond to a valid record
+   */
+  public List<Record> getRecords(List<RecordID> rids) throws DatabaseException {
+    int[] pageNums = new int[rids.size()];
+    for (int i = 0; i < pageNums.length; i++) {
+      pageNums[i] = rids.get(i).getPageNum();
+      if (pageNums[i] == 0) {
+        throw new DatabaseException("Page 0 is reserved for the header of table " + this.tableName + ".");
+      }
+    }
+
+    Page[] pages;
+    try {
+      pages = this.allocator.fetchPages(pageNums);
+    } catch (PageException pe) {
+      throw new DatabaseException("Invalid RecordID in Table " + this.tableName + ": " + pe.getMessage());
+    }
+
+    int entrySize = this.schema.getEntrySize();
+    List<Record> records = new ArrayList<Record>(rids.size());
+    for (int i = 0; i < pages.length; i++) {
+      int entryNum = rids.get(i).getEntryNumber();
+      if (entryNum < 0 || entryNum >= this.getNumEntriesPerPage() || !this.isRecordID(pages[i], entryNum)) {
+        throw new DatabaseException("Invalid RecordID " + rids.get(i) + ".");
+      }
+      if (this.slotted) {
+        records.add(this.readSlotted(pages[i], entryNum));
+        continue;
+      }
+      records.add(this.schema.decodeFrom(pages[i], this.pageHeaderSize + entrySize * entryNum));
+    }
+    return records;
+  }
+
+  /**
+   * Reads the pages of a batch of records into the buffer pool all at once (see
+   * Tablespace#fetchPages), so that getRecord of each of them in turn finds its page resident.
+   * Nothing is decoded, and RecordIDs that are not valid are left for getRecord to report.
+   *
+   * @param rids the RecordIDs of the records about to be retrieved
+   */
+  public void prefetch(List<RecordID> rids) {
+    int[] pageNums = new int[rids.size()];
+    for (int i = 0; i < pageNums.length; i++) {
+      pageNums[i] = rids.get(i).getPageNum();
+      if (pageNums[i] == 0) {
+        return;
+      }
+    }
+    try {
+      this.allocator.fetchPages(pageNums);
+    } catch (PageException pe) {
+      // The pages are fetched again, one at a time, by getRecord.
+    }
   }
 
   /**
@@ -288,14 +617,20 @@ public class Table implements Iterable<Record>, Closeable {
     }
 
     Page page = this.allocator.fetchPage(rid.getPageNum());
+    if (this.slotted) {
+      Record oldRecord = this.readSlotted(page, rid.getEntryNumber());
+      this.updateSlotted(page, rid.getEntryNumber(), this.encodeSlotted(record));
+      this.stats.removeRecord(oldRecord);
+      this.stats.addRecord(record);
+      return oldRecord;
+    }
     int entrySize = this.schema.getEntrySize();
 
     int offset = this.pageHeaderSize + (entrySize * rid.getEntryNumber());
 
-    Record oldRecord = this.schema.decode(page.readBytes(offset, entrySize));
+    Record oldRecord = this.schema.decodeFrom(page, offset);
 
-    byte[] bytes = this.schema.encode(record);
-    page.writeBytes(offset, bytes.length, bytes);
+    this.schema.encodeInto(record, page, offset);
 
     this.stats.removeRecord(oldRecord);
     this.stats.addRecord(record);
@@ -303,10 +638,309 @@ public class Table implements Iterable<Record>, Closeable {
     return oldRecord;
   }
 
+  /**
+   * Encodes a record for a slotted page.
+   *
+   * @throws DatabaseException if the record does not fit in an empty page
+   */
+  private byte[] encodeSlotted(Record record) throws DatabaseException {
+    byte[] bytes = this.schema.encodeVariable(record);
+    int capacity = this.allocator.getUsablePageSize() - SlottedPage.HEADER_BYTES - SlottedPage.SLOT_BYTES;
+    if (bytes.length > capacity) {
+      throw new DatabaseException("Record of " + bytes.length + " bytes does not fit in a page of Table "
+                                  + this.tableName + ".");
+    }
+    return bytes;
+  }
+
+  /**
+   * Stores an encoded record in the first free page it fits in, or in a new page. Free pages it
+   * does not fit in are taken off this.freePages, as addRecord does with full pages.
+   *
+   * @param bytes the encoded record
+   * @param flags the flags of its slot
+   * @return the RecordID the record is stored at
+   */
+  private RecordID insertSlotted(byte[] bytes, int flags) {
+    int usable = this.allocator.getUsablePageSize();
+    while (true) {
+      Page page;
+      if (!this.freePages.isEmpty()) {
+        page = this.allocator.fetchPage(this.freePages.first());
+      } else {
+        page = this.allocator.fetchPage(this.allocator.allocPage());
+        this.freePages.add(page.getPageNum());
+      }
+
+      int entryNum = SlottedPage.insert(page, usable, bytes, flags);
+      if (entryNum >= 0) {
+        if (!this.spaceOnPage(page)) {
+          this.freePages.remove(page.getPageNum());
+        }
+        return new RecordID(page.getPageNum(), entryNum);
+      }
+      this.freePages.remove(page.getPageNum());
+    }
+  }
+
+  /**
+   * Replaces the record in slot entryNum of a slotted page, which may be a stub. The record is
+   * written, in order of preference, into its own slot, into the slot a stub points to, or
+   * anywhere else, in which case its slot becomes a stub pointing there.
+   */
+  private void updateSlotted(Page page, int entryNum, byte[] bytes) {
+    int usable = this.allocator.getUsablePageSize();
+    if (SlottedPage.flags(page, entryNum) == SlottedPage.STUB) {
+      RecordID target = SlottedPage.stubTarget(page, entryNum);
+      Page targetPage = this.allocator.fetchPage(target.getPageNum());
+      if (SlottedPage.update(page, usable, entryNum, bytes, 0)) {
+        this.removeSlotted(targetPage, target.getEntryNumber());
+        return;
+      }
+      if (SlottedPage.update(targetPage, usable, target.getEntryNumber(), bytes, SlottedPage.MOVED)) {
+        return;
+      }
+      this.removeSlotted(targetPage, target.getEntryNumber());
+    } else if (SlottedPage.update(page, usable, entryNum, bytes, 0)) {
+      if (this.spaceOnPage(page)) {
+        this.freePages.add(page.getPageNum());
+      }
+      return;
+    }
+
+    RecordID target = this.insertSlotted(bytes, SlottedPage.MOVED);
+    byte[] stub = target.getBytes();
+    SlottedPage.update(page, usable, entryNum, stub, SlottedPage.STUB);
+  }
+
+  /**
+   * Frees slot entryNum of a slotted page, which then has free space.
+   */
+  private void removeSlotted(Page page, int entryNum) {
+    SlottedPage.remove(page, entryNum);
+    this.freePages.add(page.getPageNum());
+  }
+
+  /**
+   * Reads the record in slot entryNum of a slotted page, following a stub to where the record
+   * moved.
+   */
+  private Record readSlotted(Page page, int entryNum) {
+    if (SlottedPage.flags(page, entryNum) == SlottedPage.STUB) {
+      RecordID target = SlottedPage.stubTarget(page, entryNum);
+      page = this.allocator.fetchPage(target.getPageNum());
+      entryNum = target.getEntryNumber();
+    }
+    return this.schema.decodeVariable(SlottedPage.read(page, entryNum));
+  }
+
+  /**
+   * Compacts this table so that its file holds no more pages than its records need. Empty data
+   * pages are freed, records from the last data pages are moved into free slots of the first ones,
+   * the remaining pages are moved into the lowest free page numbers, and the file is truncated
+   * after the last of them.
+   *
+   * Moving a record changes its RecordID: RecordIDs held by the caller, open iterators over this
+   * table and indices on it are invalidated by the moves listed in the returned map, and must be
+   * remapped (see BPlusTree#rebuild) or discarded. Stats and the number of records are unchanged.
+   *
+   * The records of a table of slotted pages never move: empty pages are freed, the free space of
+   * every other page is gathered between its slot directory and its records, and the file is
+   * truncated after the last page in use.
+   *
+   * @return a map from the old RecordID of every record that moved to its new RecordID
+   */
+  public Map<RecordID, RecordID> compact() {
+    if (this.slotted) {
+      return this.compactSlotted();
+    }
+    Map<RecordID, RecordID> moved = new HashMap<RecordID, RecordID>();
+    Map<RecordID, RecordID> original = new HashMap<RecordID, RecordID>();
+
+    TreeSet<Integer> dataPages = new TreeSet<Integer>();
+    PrimitiveIterator.OfInt pageNums = this.allocator.pageNumbers();
+    while (pageNums.hasNext()) {
+      int pageNum = pageNums.nextInt();
+      if (pageNum == 0) {
+        continue;
+      }
+      if (this.numValidEntries(this.allocator.fetchPage(pageNum)) == 0) {
+        this.allocator.freePage(pageNum);
+      } else {
+        dataPages.add(pageNum);
+      }
+    }
+
+    // Move records from the last pages into the free slots of the first ones.
+    List<Integer> pages = new ArrayList<Integer>(dataPages);
+    byte[] entryBytes = new byte[this.schema.getEntrySize()];
+    int lo = 0;
+    int hi = pages.size() - 1;
+    int loSlot = 0;
+    int hiSlot = this.numEntriesPerPage - 1;
+    Page low = (lo < hi) ? this.allocator.fetchPage(pages.get(lo)) : null;
+    Page high = (lo < hi) ? this.allocator.fetchPage(pages.get(hi)) : null;
+    while (lo < hi) {
+      if (loSlot == this.numEntriesPerPage) {
+        lo++;
+        loSlot = 0;
+        if (lo < hi) {
+          low = this.allocator.fetchPage(pages.get(lo));
+        }
+      } else if (this.isSlotUsed(low, loSlot)) {
+        loSlot++;
+      } else if (hiSlot < 0) {
+        this.allocator.freePage(high);
+        dataPages.remove(high.getPageNum());
+        hi--;
+        hiSlot = this.numEntriesPerPage - 1;
+        if (lo < hi) {
+          high = this.allocator.fetchPage(pages.get(hi));
+        }
+      } else if (!this.isSlotUsed(high, hiSlot)) {
+        hiSlot--;
+      } else {
+        this.moveEntry(high, hiSlot, low, loSlot, entryBytes, moved, original);
+        loSlot++;
+        hiSlot--;
+      }
+    }
+    if (high != null && dataPages.contains(high.getPageNum()) && this.numValidEntries(high) == 0) {
+      // The low pages filled up just as the last records of the high page moved.
+      this.allocator.freePage(high);
+      dataPages.remove(high.getPageNum());
+    }
+
+    // Move the remaining pages, last first, into the lowest free page numbers.
+    byte[] pageBytes = new byte[this.allocator.getPageSize()];
+    while (!dataPages.isEmpty()) {
+      int last = dataPages.last();
+      int target = this.allocator.allocPage();
+      if (target > last) {
+        this.allocator.freePage(target);
+        break;
+      }
+      Page from = this.allocator.fetchPage(last);
+      Page to = this.allocator.fetchPage(target);
+      from.copyTo(pageBytes, 0);
+      to.writeBytes(0, pageBytes.length, pageBytes);
+      for (int i = 0; i < this.numEntriesPerPage; i++) {
+        if (this.isSlotUsed(to, i)) {
+          this.recordMove(new RecordID(last, i), new RecordID(target, i), moved, original);
+        }
+      }
+      this.allocator.freePage(from);
+      dataPages.remove(last);
+      dataPages.add(target);
+    }
+
+    this.freePages.clear();
+    for (int pageNum : dataPages) {
+      if (this.spaceOnPage(this.allocator.fetchPage(pageNum))) {
+        this.freePages.add(pageNum);
+      }
+    }
+    this.allocator.truncate();
+    return moved;
+  }
+
+  /**
+   * Compacts a table of slotted pages in place. See compact.
+   */
+  private Map<RecordID, RecordID> compactSlotted() {
+    this.freePages.clear();
+    PrimitiveIterator.OfInt pageNums = this.allocator.pageNumbers();
+    while (pageNums.hasNext()) {
+      int pageNum = pageNums.nextInt();
+      if (pageNum == 0) {
+        continue;
+      }
+      Page page = this.allocator.fetchPage(pageNum);
+      if (SlottedPage.numRecords(page) == 0) {
+        this.allocator.freePage(pageNum);
+        continue;
+      }
+      SlottedPage.compact(page, this.allocator.getUsablePageSize());
+      if (this.spaceOnPage(page)) {
+        this.freePages.add(pageNum);
+      }
+    }
+    this.allocator.truncate();
+    return new HashMap<RecordID, RecordID>();
+  }
+
+  /**
+   * Moves the record in slot fromSlot of one page to the free slot toSlot of another.
+   */
+  private void moveEntry(Page from, int fromSlot, Page to, int toSlot, byte[] entryBytes,
+                         Map<RecordID, RecordID> moved, Map<RecordID, RecordID> original) {
+    int entrySize = this.schema.getEntrySize();
+    from.copyTo(this.pageHeaderSize + entrySize * fromSlot, entrySize, entryBytes, 0);
+    to.writeBytes(this.pageHeaderSize + entrySize * toSlot, entrySize, entryBytes);
+    this.writeBitToHeader(to, toSlot, (byte) 1);
+    this.writeBitToHeader(from, fromSlot, (byte) 0);
+    this.recordMove(new RecordID(from.getPageNum(), fromSlot), new RecordID(to.getPageNum(), toSlot),
+                    moved, original);
+  }
+
+  /**
+   * Records that the record at from now lives at to. original maps the current RecordID of every
+   * moved record back to the one it had before the compaction, so moved always maps from the
+   * RecordID the caller knows.
+   */
+  private void recordMove(RecordID from, RecordID to,
+                          Map<RecordID, RecordID> moved, Map<RecordID, RecordID> original) {
+    RecordID orig = original.remove(from);
+    if (orig == null) {
+      orig = from;
+    }
+    moved.put(orig, to);
+    original.put(to, orig);
+  }
+
   public int getNumEntriesPerPage() {
     return this.numEntriesPerPage;
   }
 
+  /**
+   * @param page a data page of this table
+   * @return the number of slots of page, so that getEntry(page, i) covers every record of the
+   *         page for i from 0 up to it
+   */
+  public int getNumEntries(Page page) {
+    return this.slotted ? SlottedPage.numSlots(page) : this.numEntriesPerPage;
+  }
+
+  /**
+   * Reads a record of a data page of this table, whatever its layout. Scans over the pages of a
+   * table (see pageIterator) yield each record once by reading every slot with this method: a
+   * record moved off its page by an update is read on the page it moved to.
+   *
+   * @param page a data page of this table
+   * @param entryNum a slot of page, less than getNumEntries(page)
+   * @return the record in the slot, or null if the slot holds none
+   */
+  public Record getEntry(Page page, int entryNum) {
+    if (!this.isEntry(page, entryNum)) {
+      return null;
+    }
+    return this.readEntry(page, entryNum);
+  }
+
+  /**
+   * @return whether this table stores its records in slotted pages
+   */
+  public boolean isSlotted() {
+    return this.slotted;
+  }
+
+  /**
+   * @return the size of the pages of this table's file, in bytes
+   */
+  public int getPageSize() {
+    return this.allocator.getPageSize();
+  }
+
   public int getNumDataPages() {
     return this.allocator.getNumPages() - 1;
   }
@@ -342,20 +976,71 @@ public class Table implements Iterable<Record>, Closeable {
       throw new DatabaseException("Page " + rid.getPageNum() + " is not valid in Table " + this.tableName + ".");
     }
 
-    byte[] header = this.readPageHeader(page);
     int entryNum = rid.getEntryNumber();
 
     if (entryNum >= this.getNumEntriesPerPage()) {
       throw new DatabaseException("Entry Number is out of bounds of Page. Number of Entries per Page: " + this.getNumEntriesPerPage() + " Requested: " + entryNum);
     }
 
-    int byteOffset = entryNum / 8;
-    int bitOffset = 7 - (entryNum % 8);
-    byte mask = (byte) (1 << bitOffset);
+    return this.isRecordID(page, entryNum);
+  }
+
+  /**
+   * Checks whether slot entryNum of the given page is the RecordID of a record: a used slot, or
+   * in a slotted page a slot that does not hold a record moved there from another slot.
+   */
+  private boolean isRecordID(Page page, int entryNum) {
+    if (this.slotted) {
+      return entryNum < SlottedPage.numSlots(page) && SlottedPage.offset(page, entryNum) != 0
+          && SlottedPage.flags(page, entryNum) != SlottedPage.MOVED;
+    }
+    return this.isSlotUsed(page, entryNum);
+  }
 
-    byte value = (byte) (header[byteOffset] & mask);
+  /**
+   * Checks whether slot entryNum of the given page holds the bytes of a record, that is a used
+   * slot other than a stub.
+   */
+  private boolean isEntry(Page page, int entryNum) {
+    if (this.slotted) {
+      return SlottedPage.offset(page, entryNum) != 0 && SlottedPage.flags(page, entryNum) != SlottedPage.STUB;
+    }
+    return this.isSlotUsed(page, entryNum);
+  }
+
+  /**
+   * Decodes the record in slot entryNum of the given page, for which isEntry holds.
+   */
+  private Record readEntry(Page page, int entryNum) {
+    if (this.slotted) {
+      return this.schema.decodeVariable(SlottedPage.read(page, entryNum));
+    }
+    return this.schema.decodeFrom(page, this.pageHeaderSize + (this.schema.getEntrySize() * entryNum));
+  }
 
-    return value != 0;
+  /**
+   * Returns a view of the record in slot entryNum of the given page, for which isEntry holds, that
+   * decodes its columns as they are read. See RecordView.
+   */
+  private Record viewEntry(Page page, int entryNum) {
+    if (this.slotted) {
+      return new RecordView(this.schema, page, SlottedPage.offset(page, entryNum), true);
+    }
+    int offset = this.pageHeaderSize + (this.schema.getEntrySize() * entryNum);
+    return new RecordView(this.schema, page, offset, false);
+  }
+
+  /**
+   * Checks whether slot entryNum of the given page holds a record, reading
+   * the single header byte the slot's bit lives in.
+   *
+   * @param page the page to check
+   * @param entryNum the slot to check
+   * @return true if the bit of the slot is set to 1, otherwise false
+   */
+  private boolean isSlotUsed(Page page, int entryNum) {
+    byte mask = (byte) (1 << (7 - (entryNum % 8)));
+    return (page.getByte(entryNum / 8) & mask) != 0;
   }
 
   /**
@@ -366,9 +1051,18 @@ public class Table implements Iterable<Record>, Closeable {
    * `numEntriesPerPage` is a multiple of 8 (this may waste some space).
    *
    * Should set this.pageHeaderSize and this.numEntriesPerPage.
+   *
+   * A slotted page has a fixed header and as many slots as there is room for records of the
+   * smallest size, which numEntriesPerPage then bounds.
    */
   private void setEntryCounts() {
-    this.pageHeaderSize = ((Page.pageSize * 8) / (1 + 8 * this.schema.getEntrySize())) / 8;
+    if (this.slotted) {
+      int usable = this.allocator.getUsablePageSize() - SlottedPage.HEADER_BYTES;
+      this.pageHeaderSize = SlottedPage.HEADER_BYTES;
+      this.numEntriesPerPage = Math.min(SlottedPage.MAX_SLOTS, usable / (SlottedPage.SLOT_BYTES + RecordID.getSize()));
+      return;
+    }
+    this.pageHeaderSize = ((this.allocator.getUsablePageSize() * 8) / (1 + 8 * this.schema.getEntrySize())) / 8;
     this.numEntriesPerPage = this.pageHeaderSize * 8;
   }
 
@@ -379,10 +1073,11 @@ public class Table implements Iterable<Record>, Closeable {
    * @return true if there exists free space, otherwise false
    */
   private boolean spaceOnPage(Page p) {
-    byte[] header = this.readPageHeader(p);
-
-    for (byte b : header) {
-      if (b != (byte) 0xFF) {
+    if (this.slotted) {
+      return SlottedPage.freeSpace(p, this.allocator.getUsablePageSize()) >= SlottedPage.SLOT_BYTES + RecordID.getSize();
+    }
+    for (int i = 0; i < this.pageHeaderSize; i++) {
+      if (p.getByte(i) != (byte) 0xFF) {
         return true;
       }
     }
@@ -397,15 +1092,19 @@ public class Table implements Iterable<Record>, Closeable {
    * @return number of record entries in p
    */
   private int numValidEntries(Page p) {
-    byte[] header = this.readPageHeader(p);
     int count = 0;
 
-    for (byte b : header) {
-      for (int mask = 0x01; mask != 0x100; mask <<= 1) {
-        if ((b & (byte) mask) != 0) {
+    if (this.slotted) {
+      for (int i = 0; i < SlottedPage.numSlots(p); i++) {
+        if (this.isEntry(p, i)) {
           count++;
         }
       }
+      return count;
+    }
+
+    for (int i = 0; i < this.pageHeaderSize; i++) {
+      count += Integer.bitCount(p.getByte(i) & 0xFF);
     }
 
     return count;
@@ -413,7 +1112,7 @@ public class Table implements Iterable<Record>, Closeable {
 
   /**
    * Utility method to write the header page of the table. The only information written into
-   * the header page is the table's schema.
+   * the header page is the table's schema and the layout of its data pages.
    */
   private void writeHeaderPage() {
     int numBytesWritten = 0;
@@ -422,11 +1121,11 @@ public class Table implements Iterable<Record>, Closeable {
     assert(0 == headerPage.getPageNum());
 
     List<String> fieldNames = this.schema.getFieldNames();
-    headerPage.writeBytes(numBytesWritten, 4, ByteBuffer.allocate(4).putInt(fieldNames.size()).array());
+    headerPage.putInt(numBytesWritten, fieldNames.size());
     numBytesWritten += 4;
 
     for (String fieldName : fieldNames) {
-      headerPage.writeBytes(numBytesWritten, 4, ByteBuffer.allocate(4).putInt(fieldName.length()).array());
+      headerPage.putInt(numBytesWritten, fieldName.length());
       numBytesWritten += 4;
     }
 
@@ -436,14 +1135,16 @@ public class Table implements Iterable<Record>, Closeable {
     }
 
     for (DataBox field : this.schema.getFieldTypes()) {
-      headerPage.writeBytes(numBytesWritten, 4, ByteBuffer.allocate(4).putInt(field.type().ordinal()).array());
+      headerPage.putInt(numBytesWritten, field.type().ordinal());
       numBytesWritten += 4;
 
       if (field.type().equals(DataBox.Types.STRING)) {
-        headerPage.writeBytes(numBytesWritten, 4, ByteBuffer.allocate(4).putInt(field.getSize()).array());
+        headerPage.putInt(numBytesWritten, field.getSize());
         numBytesWritten += 4;
       }
     }
+
+    headerPage.putInt(numBytesWritten, this.slotted ? 1 : 0);
   }
 
   /**
@@ -453,12 +1154,12 @@ public class Table implements Iterable<Record>, Closeable {
     int numBytesRead = 0;
     Page headerPage = this.allocator.fetchPage(0);
 
-    int numFields = ByteBuffer.wrap(headerPage.readBytes(numBytesRead, 4)).getInt();
+    int numFields = headerPage.getInt(numBytesRead);
     numBytesRead += 4;
 
     List<Integer> fieldNameLengths = new ArrayList<Integer>();
     for (int i = 0; i < numFields; i++) {
-      fieldNameLengths.add(ByteBuffer.wrap(headerPage.readBytes(numBytesRead, 4)).getInt());
+      fieldNameLengths.add(headerPage.getInt(numBytesRead));
       numBytesRead += 4;
     }
 
@@ -472,7 +1173,7 @@ public class Table implements Iterable<Record>, Closeable {
 
     List<DataBox> fieldTypes = new ArrayList<DataBox>();
     for (int i = 0; i < numFields; i++) {
-      int ordinal = ByteBuffer.wrap(headerPage.readBytes(numBytesRead, 4)).getInt();
+      int ordinal = headerPage.getInt(numBytesRead);
       DataBox.Types type = DataBox.Types.values()[ordinal];
       numBytesRead += 4;
 
@@ -481,7 +1182,7 @@ public class Table implements Iterable<Record>, Closeable {
           fieldTypes.add(new IntDataBox());
           break;
         case STRING:
-          int len = ByteBuffer.wrap(headerPage.readBytes(numBytesRead, 4)).getInt();
+          int len = headerPage.getInt(numBytesRead);
           numBytesRead += 4;
 
           fieldTypes.add(new StringDataBox(len));
@@ -496,7 +1197,8 @@ public class Table implements Iterable<Record>, Closeable {
     }
 
     this.schema = new Schema(fieldNames, fieldTypes);
-
+    // Tables written before the layout was recorded have zeros here, which is fixed slots.
+    this.slotted = headerPage.getInt(numBytesRead) == 1;
   }
 
   /**
@@ -507,22 +1209,21 @@ public class Table implements Iterable<Record>, Closeable {
    * @param value the value of the bit to write (should either be 0 or 1)
    */
   private void writeBitToHeader(Page page, int entryNum, byte value) {
-    byte[] header = this.readPageHeader(page);
     int byteOffset = entryNum / 8;
     int bitOffset = 7 - (entryNum % 8);
+    byte b = page.getByte(byteOffset);
 
     if (value == 0) {
       byte mask = (byte) ~((1 << bitOffset));
 
-      header[byteOffset] = (byte) (header[byteOffset] & mask);
-      page.writeBytes(0, this.pageHeaderSize, header);
+      b = (byte) (b & mask);
     } else {
       byte mask = (byte) (1 << bitOffset);
 
-      header[byteOffset] = (byte) (header[byteOffset] | mask);
+      b = (byte) (b | mask);
     }
 
-    page.writeBytes(0, this.pageHeaderSize, header);
+    page.putByte(byteOffset, b);
   }
 
   /**
@@ -545,25 +1246,31 @@ public class Table implements Iterable<Record>, Closeable {
 
   public int getNumPages() { return this.allocator.getNumPages(); }
 
+  /**
+   * @return a snapshot of the I/O done on this table's files. See Tablespace#getIOStats.
+   */
+  public IOStats getIOStats() { return this.allocator.getIOStats(); }
+
   /**
    * An implementation of Iterator that provides an iterator interface over all
-   * of the records in this table.
+   * of the records in this table. Records are either decoded as they are yielded
+   * or, for viewIterator, yielded as RecordViews over the pages they are stored on.
    */
   private class TableIterator implements Iterator<Record> {
 
     private Iterator<Page> pageIter;
     private Page currPage = null;
-    private byte[] currHeader;
     private int entryNum;
     private long recordCount;
+    private boolean views;
 
-    public TableIterator() {
+    public TableIterator(boolean views) {
+      this.views = views;
       this.entryNum = 0;
       this.pageIter = Table.this.allocator.iterator();
       assert(this.pageIter.next().getPageNum() == 0);
       if (this.pageIter.hasNext()) {
         this.currPage = this.pageIter.next();
-        currHeader = Table.this.readPageHeader(this.currPage);
       }
     }
 
@@ -584,19 +1291,10 @@ public class Table implements Iterable<Record>, Closeable {
      */
     public Record next() {
       while (this.hasNext()) {
-        while (this.entryNum < Table.this.getNumEntriesPerPage()) {
-          byte b = currHeader[this.entryNum/8];
-          int bitOffset = 7 - (this.entryNum % 8);
-          byte mask = (byte) (1 << bitOffset);
-
-          byte value = (byte) (b & mask);
-          if (value != 0) {
-            int entrySize = Table.this.schema.getEntrySize();
-
-            int offset = Table.this.pageHeaderSize + (entrySize * entryNum);
-            byte[] bytes = this.currPage.readBytes(offset, entrySize);
-
-            Record toRtn = Table.this.schema.decode(bytes);
+        while (this.entryNum < Table.this.getNumEntries(this.currPage)) {
+          if (Table.this.isEntry(this.currPage, this.entryNum)) {
+            Record toRtn = this.views ? Table.this.viewEntry(this.currPage, this.entryNum)
+                                      : Table.this.readEntry(this.currPage, this.entryNum);
             this.recordCount++;
             this.entryNum++;
             return toRtn;
@@ -608,7 +1306,6 @@ public class Table implements Iterable<Record>, Closeable {
         if (this.hasNext()) {
           this.entryNum = 0;
           this.currPage = this.pageIter.next();
-          currHeader = Table.this.readPageHeader(this.currPage);
         }
       }
 
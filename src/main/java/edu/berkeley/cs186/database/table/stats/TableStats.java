@@ -22,19 +22,31 @@ public class TableStats {
   private boolean estimate;
   private int numRecords;
   private int numPages;
+  private int pageSize;
 
   private Schema tableSchema;
   private List<Histogram> histograms;
 
   /**
-   * Creates a new TableStats with a given Schema.
+   * Creates a new TableStats with a given Schema, for a table with pages of the default size.
    *
    * @param tableSchema the schema instance associated with the target table
    */
   public TableStats(Schema tableSchema) {
+    this(tableSchema, Page.pageSize);
+  }
+
+  /**
+   * Creates a new TableStats with a given Schema.
+   *
+   * @param tableSchema the schema instance associated with the target table
+   * @param pageSize the size in bytes of the pages of the target table
+   */
+  public TableStats(Schema tableSchema, int pageSize) {
     this.estimate = false;
     this.numRecords = 0;
     this.numPages = 0;
+    this.pageSize = pageSize;
 
     this.tableSchema = tableSchema;
     this.histograms = new ArrayList<Histogram>();
@@ -68,8 +80,22 @@ public class TableStats {
    * @param numRecords the estimate number of records the target table contains
    */
   public TableStats(Schema tableSchema, List<Histogram> histograms, int numRecords) {
+    this(tableSchema, histograms, numRecords, Page.pageSize);
+  }
+
+  /**
+   * Creates a new TableStats with a schema, a list of histograms,
+   * an estimate number of records and the page size of the target table.
+   *
+   * @param tableSchema the schema instance associated with the target table
+   * @param histograms a list of histograms associated with the fields in tableSchema
+   * @param numRecords the estimate number of records the target table contains
+   * @param pageSize the size in bytes of the pages of the target table
+   */
+  public TableStats(Schema tableSchema, List<Histogram> histograms, int numRecords, int pageSize) {
     this.estimate = true;
     this.numRecords = numRecords;
+    this.pageSize = pageSize;
 
     this.tableSchema = tableSchema;
     this.histograms = histograms;
@@ -84,7 +110,7 @@ public class TableStats {
    * @return the estimate number of pages
    */
   private int calculateNumPages() {
-    int pageHeaderSize = ((Page.pageSize * 8) / (1 + 8 * this.tableSchema.getEntrySize())) / 8;
+    int pageHeaderSize = ((this.pageSize * 8) / (1 + 8 * this.tableSchema.getEntrySize())) / 8;
     int numEntriesPerPage = pageHeaderSize * 8;
     int numPages = (this.numRecords + numEntriesPerPage - 1) / numEntriesPerPage;
 
@@ -99,27 +125,50 @@ public class TableStats {
   public void addRecord(Record record) {
     this.numRecords++;
     this.numPages = this.calculateNumPages();
+    this.addValues(record);
+  }
 
-    int count = 0;
-    for (DataBox value : record.getValues()) {
+  /**
+   * Adds the stats for a batch of new records, recomputing the page count once.
+   *
+   * @param records the new records
+   */
+  public void addRecords(List<Record> records) {
+    for (Record record : records) {
+      this.addValues(record);
+    }
+
+    this.numRecords += records.size();
+    this.numPages = this.calculateNumPages();
+  }
+
+  /**
+   * Adds the values of a record to the histograms of their columns. The histogram of each column
+   * is the one the constructor creates for the column's type.
+   *
+   * @param record the new record
+   */
+  private void addValues(Record record) {
+    List<DataBox> values = record.getValues();
+    for (int i = 0; i < values.size(); i++) {
+      DataBox value = values.get(i);
+      Histogram<?> histogram = this.histograms.get(i);
       switch(value.type()) {
         case INT:
-          this.histograms.get(count).addValue(value.getInt());
+          ((IntHistogram) histogram).addValue(value.getInt());
           break;
         case STRING:
-          this.histograms.get(count).addValue(value.getString());
+          ((StringHistogram) histogram).addValue(value.getString());
           break;
         case BOOL:
-          this.histograms.get(count).addValue(value.getBool());
+          ((BoolHistogram) histogram).addValue(value.getBool());
           break;
         case FLOAT:
-          this.histograms.get(count).addValue(value.getFloat());
+          ((FloatHistogram) histogram).addValue(value.getFloat());
           break;
         default:
           break;
       }
-
-      count++;
     }
   }
 
@@ -169,6 +218,13 @@ public class TableStats {
    */
   public int getNumPages() { return this.numPages; }
 
+  /**
+   * Gets the page size the number of pages is estimated with.
+   *
+   * @return page size in bytes
+   */
+  public int getPageSize() { return this.pageSize; }
+
   /**
    * Gets the estimate reduction factor a predicate
    * and value would result in over a certain column.
@@ -212,7 +268,7 @@ public class TableStats {
     }
 
     int numRecords = (int) (this.numRecords * reductionFactor);
-    return new TableStats(this.tableSchema, copyHistograms, numRecords);
+    return new TableStats(this.tableSchema, copyHistograms, numRecords, this.pageSize);
   }
 
   /**
@@ -291,7 +347,7 @@ public class TableStats {
     }
 
     int outputSize = (int) (inputSize * reductionFactor);
-    return new TableStats(copySchema, copyHistograms, outputSize);
+    return new TableStats(copySchema, copyHistograms, outputSize, this.pageSize);
   }
 
   /**
@@ -0,0 +1,223 @@
+package edu.berkeley.cs186.database;
+
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.FloatDataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TestCsvImporter {
+  private Database db;
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Before
+  public void beforeEach() throws Exception {
+    this.db = new Database(tempFolder.newFolder("testCsvImporter").getAbsolutePath());
+  }
+
+  @After
+  public void afterEach() {
+    this.db.close();
+  }
+
+  @Test
+  public void testImportInChunks() throws DatabaseException, IOException {
+    // Chunks of 100 bytes cut most rows in two, and blank lines and \r\n line ends are mixed in.
+    File csv = tempFolder.newFile("students.csv");
+    PrintWriter out = new PrintWriter(csv);
+    for (int i = 0; i < 3000; i++) {
+      out.print(i + ", student " + i + ",major " + (i % 7) + "," + (i / 4.0f) + (i % 3 == 0 ? "\r\n" : "\n"));
+      if (i % 500 == 0) {
+        out.print("\n");
+      }
+    }
+    out.close();
+    db.createTable(studentSchema(), "Students");
+
+    Database.Transaction t = db.beginTransaction();
+    CsvImporter.Result result = new CsvImporter().setThreads(4).setChunkBytes(100)
+                                                 .importInto(t, "Students", csv.getAbsolutePath());
+    assertEquals(3000, result.getNumRows());
+    assertEquals(csv.length(), result.getNumBytes());
+    assertTrue(result.getRowsPerSecond() > 0);
+    assertEquals(3000, t.getNumRecords("Students"));
+
+    Iterator<Record> records = t.getRecordIterator("Students");
+    for (int i = 0; i < 3000; i++) {
+      List<DataBox> values = records.next().getValues();
+      assertEquals(i, values.get(0).getInt());
+      assertEquals("student " + i, values.get(1).getString().trim());
+      assertEquals("major " + (i % 7), values.get(2).getString().trim());
+      assertEquals(i / 4.0f, values.get(3).getFloat(), 0);
+    }
+    assertFalse(records.hasNext());
+    t.end();
+  }
+
+  @Test
+  public void testImportWithHeaderAndIndex() throws DatabaseException, IOException {
+    File csv = tempFolder.newFile("enrollments.csv");
+    PrintWriter out = new PrintWriter(csv);
+    out.println("sid|cid");
+    for (int i = 0; i < 1000; i++) {
+      out.println((999 - i) + "|" + (i % 20));
+    }
+    out.close();
+
+    CsvImporter importer = new CsvImporter().setDelimiter('|').setHeader(true).setChunkBytes(1000);
+    Schema schema = importer.inferSchema(csv.getAbsolutePath(), null);
+    assertEquals(Arrays.asList("sid", "cid"), schema.getFieldNames());
+    assertEquals(Arrays.<DataBox>asList(new IntDataBox(), new IntDataBox()), schema.getFieldTypes());
+    db.createTableWithIndices(schema, "Enrollments", Arrays.asList("sid"));
+
+    Database.Transaction t = db.beginTransaction();
+    assertEquals(1000, importer.importInto(t, "Enrollments", csv.getAbsolutePath()).getNumRows());
+    Iterator<Record> sorted = t.sortedScan("Enrollments", "sid");
+    for (int i = 0; i < 1000; i++) {
+      List<DataBox> values = sorted.next().getValues();
+      assertEquals(i, values.get(0).getInt());
+      assertEquals((999 - i) % 20, values.get(1).getInt());
+    }
+    assertFalse(sorted.hasNext());
+    t.end();
+  }
+
+  @Test
+  public void testInferSchema() throws DatabaseException, IOException {
+    File csv = tempFolder.newFile("mixed.csv");
+    PrintWriter out = new PrintWriter(csv);
+    out.println("1,1.5,true,a");
+    out.println("2,2,FALSE,longer one");
+    out.println("3,-0.25,false,12");
+    out.close();
+
+    Schema schema = new CsvImporter().inferSchema(csv.getAbsolutePath(), null);
+    assertEquals(Arrays.asList("column0", "column1", "column2", "column3"), schema.getFieldNames());
+    List<DataBox> types = schema.getFieldTypes();
+    assertEquals(DataBox.Types.INT, types.get(0).type());
+    assertEquals(DataBox.Types.FLOAT, types.get(1).type());
+    assertEquals(DataBox.Types.BOOL, types.get(2).type());
+    assertEquals(DataBox.Types.STRING, types.get(3).type());
+    assertEquals("longer one".length(), types.get(3).getSize());
+
+    // A sample of the first row only sees a string of one character in the last column.
+    schema = new CsvImporter().setSampleRows(1).inferSchema(csv.getAbsolutePath(), Arrays.asList("a", "b", "c", "d"));
+    assertEquals(Arrays.asList("a", "b", "c", "d"), schema.getFieldNames());
+    assertEquals(1, schema.getFieldTypes().get(3).getSize());
+  }
+
+  @Test
+  public void testHeaderAfterBlankLines() throws DatabaseException, IOException {
+    // The header is the first line that is not blank, for the import as for inferSchema.
+    File csv = tempFolder.newFile("padded.csv");
+    PrintWriter out = new PrintWriter(csv);
+    out.print("\n  \r\n");
+    out.print("id,name\n");
+    for (int i = 0; i < 100; i++) {
+      out.print(i + ", name " + i + " \n");
+    }
+    out.close();
+
+    CsvImporter importer = new CsvImporter().setHeader(true).setChunkBytes(50);
+    Schema schema = importer.inferSchema(csv.getAbsolutePath(), null);
+    assertEquals(Arrays.asList("id", "name"), schema.getFieldNames());
+    assertEquals(DataBox.Types.INT, schema.getFieldTypes().get(0).type());
+    db.createTable(schema, "Names");
+
+    Database.Transaction t = db.beginTransaction();
+    assertEquals(100, importer.importInto(t, "Names", csv.getAbsolutePath()).getNumRows());
+    Iterator<Record> records = t.getRecordIterator("Names");
+    for (int i = 0; i < 100; i++) {
+      List<DataBox> values = records.next().getValues();
+      assertEquals(i, values.get(0).getInt());
+      assertEquals("name " + i, values.get(1).getString().trim());
+    }
+    assertFalse(records.hasNext());
+    t.end();
+  }
+
+  @Test
+  public void testOnlySpacesAreTrimmed() throws DatabaseException, IOException {
+    // A tab is part of a field, so inferSchema must not type "1\t" as an int the import can't parse.
+    File csv = tempFolder.newFile("tabs.csv");
+    PrintWriter out = new PrintWriter(csv);
+    out.print("1\t, a \n");
+    out.print(" 2 ,b\n");
+    out.close();
+
+    CsvImporter importer = new CsvImporter();
+    Schema schema = importer.inferSchema(csv.getAbsolutePath(), null);
+    assertEquals(DataBox.Types.FLOAT, schema.getFieldTypes().get(0).type());
+    assertEquals(1, schema.getFieldTypes().get(1).getSize());
+    db.createTable(schema, "Tabs");
+
+    Database.Transaction t = db.beginTransaction();
+    assertEquals(2, importer.importInto(t, "Tabs", csv.getAbsolutePath()).getNumRows());
+    Iterator<Record> records = t.getRecordIterator("Tabs");
+    for (int i = 0; i < 2; i++) {
+      List<DataBox> values = records.next().getValues();
+      assertEquals(i + 1, values.get(0).getFloat(), 0);
+      assertEquals(i == 0 ? "a" : "b", values.get(1).getString());
+    }
+    t.end();
+  }
+
+  @Test
+  public void testImportMalformedRow() throws DatabaseException, IOException {
+    File csv = tempFolder.newFile("bad.csv");
+    PrintWriter out = new PrintWriter(csv);
+    for (int i = 0; i < 2000; i++) {
+      out.println(i == 1500 ? i + ",x" : i + "," + i);
+    }
+    out.close();
+    List<DataBox> types = Arrays.<DataBox>asList(new IntDataBox(), new IntDataBox());
+    db.createTable(new Schema(Arrays.asList("a", "b"), types), "Pairs");
+
+    Database.Transaction t = db.beginTransaction();
+    try {
+      new CsvImporter().setThreads(2).setChunkBytes(500).importInto(t, "Pairs", csv.getAbsolutePath());
+      fail();
+    } catch (DatabaseException e) {
+      assertTrue(e.getMessage().contains("\"x\" is not a INT"));
+    }
+    // The rows loaded before the malformed one are taken out again.
+    assertEquals(0, t.getNumRecords("Pairs"));
+    assertEquals(0, t.getStats("Pairs").getNumRecords());
+
+    try {
+      new CsvImporter().setDelimiter('\n').importInto(t, "Pairs", csv.getAbsolutePath());
+      fail();
+    } catch (DatabaseException e) {
+      // expected
+    }
+    t.end();
+  }
+
+  private static Schema studentSchema() {
+    List<DataBox> types = new ArrayList<DataBox>();
+    types.add(new IntDataBox());
+    types.add(new StringDataBox(20));
+    types.add(new StringDataBox(20));
+    types.add(new FloatDataBox());
+    return new Schema(Arrays.asList("sid", "name", "major", "gpa"), types);
+  }
+}
@@ -3,6 +3,15 @@ package edu.berkeley.cs186.database;
 import edu.berkeley.cs186.database.Database;
 import edu.berkeley.cs186.database.TestUtils;
 import edu.berkeley.cs186.database.StudentTest;
+import edu.berkeley.cs186.database.io.BufferPool;
+import edu.berkeley.cs186.database.io.IOStats;
+import edu.berkeley.cs186.database.io.Page;
+import edu.berkeley.cs186.database.io.ReplacementPolicy;
+import edu.berkeley.cs186.database.io.StorageBackend;
+import edu.berkeley.cs186.database.io.StorageConfig;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
 import edu.berkeley.cs186.database.table.*;
 
 import org.junit.After;
@@ -17,9 +26,13 @@ import org.junit.experimental.categories.Category;
 import static org.junit.Assert.*;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.Arrays;
+import java.util.Map;
 
 public class TestDatabase {
   public static final String TestDir = "testDatabase";
@@ -132,4 +145,354 @@ public class TestDatabase {
     assertEquals(input, rec);
     t1.end();
   }
+
+  @Test
+  public void testDatabaseWithOwnBufferPool() throws DatabaseException {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    Record input = TestUtils.createRecordWithAllTypes();
+
+    BufferPool pool = new BufferPool(8, ReplacementPolicy.Type.ARC);
+    Database poolDb = new Database(tempFolder.getRoot().getAbsolutePath() + "/pooled", 5, pool);
+    assertSame(pool, poolDb.getBufferPool());
+
+    String tableName = "testTable1";
+    poolDb.createTable(s, tableName);
+
+    Database.Transaction t1 = poolDb.beginTransaction();
+    List<RecordID> rids = new ArrayList<RecordID>();
+    for (int i = 0; i < 1000; i++) {
+      rids.add(t1.addRecord(tableName, input.getValues()));
+    }
+    for (RecordID rid : rids) {
+      assertEquals(input, t1.getRecord(tableName, rid));
+    }
+    assertTrue(pool.size() <= 8);
+    t1.end();
+
+    poolDb.close();
+    assertEquals(0, pool.size());
+  }
+
+  @Test
+  public void testDatabaseBackgroundWriter() throws DatabaseException {
+    BufferPool pool = new BufferPool(8);
+    String dir = tempFolder.getRoot().getAbsolutePath() + "/written";
+    Database writtenDb = new Database(dir, 5, new StorageConfig().setBufferPool(pool));
+    assertFalse(pool.hasBackgroundWriter());
+    writtenDb.close();
+
+    writtenDb = new Database(dir, 5, new StorageConfig().setBufferPool(pool).setBackgroundWriterInterval(10));
+    assertTrue(pool.hasBackgroundWriter());
+    writtenDb.createTable(TestUtils.createSchemaWithAllTypes(), "testTable1");
+    Database.Transaction t1 = writtenDb.beginTransaction();
+    for (int i = 0; i < 1000; i++) {
+      t1.addRecord("testTable1", TestUtils.createRecordWithAllTypes().getValues());
+    }
+    t1.end();
+    writtenDb.close();
+    assertFalse(pool.hasBackgroundWriter());
+
+    // A writer the database did not start outlives it.
+    pool.startBackgroundWriter(10);
+    writtenDb = new Database(dir, 5, new StorageConfig().setBufferPool(pool).setBackgroundWriterInterval(10));
+    Database.Transaction t2 = writtenDb.beginTransaction();
+    assertEquals(1000, t2.getNumRecords("testTable1"));
+    t2.end();
+    writtenDb.close();
+    assertTrue(pool.hasBackgroundWriter());
+    pool.stopBackgroundWriter();
+  }
+
+  @Test
+  public void testCompactTable() throws DatabaseException {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    Record input = TestUtils.createRecordWithAllTypes();
+    String tableName = "testTable1";
+    db.createTable(s, tableName);
+
+    Database.Transaction t1 = db.beginTransaction();
+    List<RecordID> rids = new ArrayList<RecordID>();
+    for (int i = 0; i < 1000; i++) {
+      rids.add(t1.addRecord(tableName, input.getValues()));
+    }
+    int pagesBefore = t1.getNumDataPages(tableName);
+    for (int i = 0; i < 1000; i++) {
+      if (i % 4 != 0) {
+        t1.deleteRecord(tableName, rids.get(i));
+      }
+    }
+    t1.compactTable(tableName);
+    assertEquals(250, t1.getNumRecords(tableName));
+    assertTrue(t1.getNumDataPages(tableName) < pagesBefore);
+
+    Iterator<Record> records = t1.getRecordIterator(tableName);
+    int count = 0;
+    while (records.hasNext()) {
+      assertEquals(input, records.next());
+      count++;
+    }
+    assertEquals(250, count);
+    t1.end();
+  }
+
+  @Test
+  public void testCompactTableWithIndex() throws DatabaseException {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    Record input = TestUtils.createRecordWithAllTypes();
+    String tableName = "testTable1";
+    List<String> indexColumns = new ArrayList<String>();
+    indexColumns.add("int");
+    db.createTableWithIndices(s, tableName, indexColumns);
+
+    Database.Transaction t1 = db.beginTransaction();
+    for (int i = 0; i < 500; i++) {
+      input.getValues().get(1).setInt(i);
+      t1.addRecord(tableName, input.getValues());
+    }
+    t1.compactTable(tableName);
+    for (int i = 0; i < 500; i += 50) {
+      Iterator<Record> found = t1.lookupKey(tableName, "int", new IntDataBox(i));
+      assertTrue(found.hasNext());
+      assertEquals(i, found.next().getValues().get(1).getInt());
+    }
+    t1.end();
+  }
+
+  @Test
+  public void testBulkLoadWithIndex() throws DatabaseException {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    Record input = TestUtils.createRecordWithAllTypes();
+    String tableName = "testTable1";
+    List<String> indexColumns = new ArrayList<String>();
+    indexColumns.add("int");
+    db.createTableWithIndices(s, tableName, indexColumns);
+
+    List<List<DataBox>> rows = new ArrayList<List<DataBox>>();
+    for (int i = 0; i < 500; i++) {
+      List<DataBox> values = new ArrayList<DataBox>(input.getValues());
+      values.set(1, new IntDataBox(499 - i));
+      rows.add(values);
+    }
+    Database.Transaction t1 = db.beginTransaction();
+    assertEquals(500, t1.bulkLoad(tableName, rows.iterator()));
+    assertEquals(500, t1.getNumRecords(tableName));
+    for (int i = 0; i < 500; i += 50) {
+      Iterator<Record> found = t1.lookupKey(tableName, "int", new IntDataBox(i));
+      assertTrue(found.hasNext());
+      assertEquals(i, found.next().getValues().get(1).getInt());
+      assertFalse(found.hasNext());
+    }
+    Iterator<Record> sorted = t1.sortedScan(tableName, "int");
+    for (int i = 0; i < 500; i++) {
+      assertEquals(i, sorted.next().getValues().get(1).getInt());
+    }
+    assertFalse(sorted.hasNext());
+    t1.end();
+  }
+
+  @Test
+  public void testBulkLoadIndexRuns() throws DatabaseException, IOException {
+    // With 2 pages of memory, the entries of each index are sorted in runs of 2 pages, which are
+    // spilled to temp tables and merged two at a time.
+    File dir = tempFolder.newFolder("runs");
+    Database small = new Database(dir.getAbsolutePath() + "/", 2);
+    String tableName = "testTable1";
+    small.createTableWithIndices(TestUtils.createSchemaWithAllTypes(), tableName, Arrays.asList("int", "string"));
+
+    List<List<DataBox>> rows = new ArrayList<List<DataBox>>();
+    for (int i = 0; i < 5000; i++) {
+      rows.add(TestUtils.createRecordWithAllTypesWithValue((4999 - i) / 2).getValues());
+    }
+    Database.Transaction t1 = small.beginTransaction();
+    assertEquals(5000, t1.bulkLoad(tableName, rows.iterator()));
+    // The runs are deleted as soon as they are merged, or the indices loaded.
+    assertTrue(new File(dir, "temp").isDirectory());
+    assertEquals(0, new File(dir, "temp").list().length);
+
+    Iterator<Record> sorted = t1.sortedScan(tableName, "int");
+    for (int i = 0; i < 5000; i++) {
+      assertEquals(i / 2, sorted.next().getValues().get(1).getInt());
+    }
+    assertFalse(sorted.hasNext());
+    for (int i = 0; i < 2500; i += 100) {
+      Iterator<Record> found = t1.lookupKey(tableName, "string", new StringDataBox(String.format("%05d", i), 5));
+      for (int j = 0; j < 2; j++) {
+        assertEquals(i, found.next().getValues().get(1).getInt());
+      }
+      assertFalse(found.hasNext());
+    }
+    t1.end();
+    assertEquals(0, new File(dir, "temp").list().length);
+    small.close();
+  }
+
+  @Test
+  public void testBulkLoadIndexFailure() throws DatabaseException, IOException {
+    File dir = tempFolder.newFolder("failure");
+    Database small = new Database(dir.getAbsolutePath() + "/", 2);
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    String tableName = "testTable1";
+    small.createTableWithIndices(s, tableName, Arrays.asList("int", "string"));
+
+    List<List<DataBox>> rows = new ArrayList<List<DataBox>>();
+    for (int i = 0; i < 700; i++) {
+      rows.add(TestUtils.createRecordWithAllTypesWithValue(i).getValues());
+    }
+    Database.Transaction t1 = small.beginTransaction();
+    // With 2 pages of memory, the runs of the string index spill after 630 rows (run0), and those
+    // of the int index after 682 (run1). Once every row is added, the last int run is run2 and the
+    // int index is loaded, but the last string run can't be written as run3.
+    t1.createTempTable(s, tableName + ".string.run3");
+    try {
+      t1.bulkLoad(tableName, rows.iterator());
+      fail();
+    } catch (DatabaseException e) {
+      // expected
+    }
+    assertEquals(0, t1.getNumRecords(tableName));
+    assertFalse(t1.sortedScan(tableName, "int").hasNext());
+    assertFalse(t1.sortedScan(tableName, "string").hasNext());
+    assertEquals(1, new File(dir, "temp").list().length);
+
+    assertEquals(700, t1.bulkLoad(tableName, rows.iterator()));
+    Iterator<Record> sorted = t1.sortedScan(tableName, "int");
+    for (int i = 0; i < 700; i++) {
+      assertEquals(i, sorted.next().getValues().get(1).getInt());
+    }
+    assertFalse(sorted.hasNext());
+    t1.end();
+    small.close();
+  }
+
+  @Test
+  public void testDatabasePreadBackend() throws DatabaseException {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    Record input = TestUtils.createRecordWithAllTypes();
+    String dir = tempFolder.getRoot().getAbsolutePath() + "/pread";
+    StorageConfig config = new StorageConfig().setBufferPool(new BufferPool(8))
+        .setBackend(StorageBackend.Type.PREAD);
+    Database preadDb = new Database(dir, 5, config);
+
+    String tableName = "testTable1";
+    preadDb.createTable(s, tableName);
+    Database.Transaction t1 = preadDb.beginTransaction();
+    List<RecordID> rids = new ArrayList<RecordID>();
+    for (int i = 0; i < 1000; i++) {
+      rids.add(t1.addRecord(tableName, input.getValues()));
+    }
+    t1.end();
+    preadDb.close();
+
+    preadDb = new Database(dir, 5, config);
+    t1 = preadDb.beginTransaction();
+    for (RecordID rid : rids) {
+      assertEquals(input, t1.getRecord(tableName, rid));
+    }
+    assertEquals(1000, t1.getNumRecords(tableName));
+    t1.end();
+    preadDb.close();
+  }
+
+  @Test
+  public void testDatabaseIOStats() throws DatabaseException {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    Record input = TestUtils.createRecordWithAllTypes();
+    String tableName = "testTable1";
+    db.createTableWithIndices(s, tableName, Arrays.asList("int"));
+    Database.Transaction t1 = db.beginTransaction();
+    for (int i = 0; i < 100; i++) {
+      t1.addRecord(tableName, input.getValues());
+    }
+
+    Map<String, IOStats> before = db.getIOStats();
+    assertTrue(before.containsKey(tableName));
+    assertTrue(before.containsKey(tableName + ",int"));
+
+    Iterator<Record> records = t1.getRecordIterator(tableName);
+    int count = 0;
+    while (records.hasNext()) {
+      records.next();
+      count++;
+    }
+    assertEquals(100, count);
+    t1.end();
+
+    Map<String, IOStats> after = db.getIOStats();
+    assertTrue(after.get(tableName).minus(before.get(tableName)).getLogicalReads() > 0);
+    // A scan of the table doesn't touch its index.
+    assertEquals(0, after.get(tableName + ",int").minus(before.get(tableName + ",int")).getLogicalReads());
+  }
+
+  @Test
+  public void testDatabaseScrub() throws DatabaseException, IOException {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    Record input = TestUtils.createRecordWithAllTypes();
+    String dir = tempFolder.getRoot().getAbsolutePath() + "/checksums";
+    StorageConfig config = new StorageConfig().setBufferPool(new BufferPool(64))
+        .setBackend(StorageBackend.Type.PREAD).setChecksums(true);
+    Database checkedDb = new Database(dir, 5, config);
+
+    String tableName = "testTable1";
+    checkedDb.createTableWithIndices(s, tableName, Arrays.asList("int"));
+    checkedDb.createTable(s, "testTable2");
+    Database.Transaction t1 = checkedDb.beginTransaction();
+    for (int i = 0; i < 500; i++) {
+      t1.addRecord(tableName, input.getValues());
+      t1.addRecord("testTable2", input.getValues());
+    }
+    t1.end();
+    assertTrue(checkedDb.scrub().isEmpty());
+
+    // Flip a byte of the table's second page (block 3) behind the database's back.
+    RandomAccessFile raf = new RandomAccessFile(new File(dir, tableName + Table.FILENAME_EXTENSION), "rw");
+    long offset = 3L * Page.pageSize + 1000;
+    raf.seek(offset);
+    int b = raf.read();
+    raf.seek(offset);
+    raf.write(b ^ 0xff);
+    raf.close();
+
+    Map<String, List<String>> problems = checkedDb.scrub();
+    assertEquals(1, problems.size());
+    assertEquals(1, problems.get(tableName).size());
+    assertTrue(problems.get(tableName).get(0).startsWith("page 1:"));
+    checkedDb.close();
+  }
+
+  @Test
+  public void testDatabaseCompression() throws DatabaseException {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    Record input = TestUtils.createRecordWithAllTypes();
+    String dir = tempFolder.getRoot().getAbsolutePath() + "/compressed";
+    StorageConfig config = new StorageConfig().setBufferPool(new BufferPool(4)).setPageSize(16384)
+        .setCompression(true);
+    Database compressedDb = new Database(dir, 5, config);
+
+    String tableName = "testTable1";
+    compressedDb.createTableWithIndices(s, tableName, Arrays.asList("int"));
+    Database.Transaction t1 = compressedDb.beginTransaction();
+    List<RecordID> rids = new ArrayList<RecordID>();
+    for (int i = 0; i < 1000; i++) {
+      rids.add(t1.addRecord(tableName, input.getValues()));
+    }
+    t1.end();
+    compressedDb.close();
+
+    compressedDb = new Database(dir, 5, config);
+    t1 = compressedDb.beginTransaction();
+    for (RecordID rid : rids) {
+      assertEquals(input, t1.getRecord(tableName, rid));
+    }
+    assertEquals(1000, t1.getNumRecords(tableName));
+    Iterator<Record> matches = t1.lookupKey(tableName, "int", input.getValues().get(1));
+    int count = 0;
+    while (matches.hasNext()) {
+      assertEquals(input, matches.next());
+      count++;
+    }
+    assertEquals(1000, count);
+    t1.end();
+    assertTrue(compressedDb.scrub().isEmpty());
+    compressedDb.close();
+  }
 }
@@ -14,7 +14,16 @@ import org.junit.rules.Timeout;
 import org.junit.runners.MethodSorters;
 import org.junit.experimental.categories.Category;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 import static org.junit.Assert.*;
 
 public class TestLargeBPlusTree {
@@ -52,4 +61,99 @@ public class TestLargeBPlusTree {
         }
         assertEquals(1, this.bp.getNumNodes());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testBPlusTreeRebuild() {
+        for (int i = 0; i < 2000; i++) {
+            bp.insertKey(new IntDataBox(i), new RecordID(i, 0));
+        }
+        Map<RecordID, RecordID> relocated = new HashMap<RecordID, RecordID>();
+        for (int i = 0; i < 2000; i += 2) {
+            relocated.put(new RecordID(i, 0), new RecordID(i / 2, 1));
+        }
+
+        bp.rebuild(relocated);
+        for (int i = 0; i < 2000; i++) {
+            Iterator<RecordID> rids = bp.lookupKey(new IntDataBox(i));
+            assertTrue(rids.hasNext());
+            RecordID expected = (i % 2 == 0) ? new RecordID(i / 2, 1) : new RecordID(i, 0);
+            assertEquals(expected, rids.next());
+            assertFalse(rids.hasNext());
+        }
+
+        // The rebuilt file replaced the index file and can be reopened.
+        String tempFolderPath = tempFolder.getRoot().getAbsolutePath();
+        BPlusTree reopened = new BPlusTree(testFile, tempFolderPath);
+        assertEquals(new RecordID(3, 0), reopened.lookupKey(new IntDataBox(3)).next());
+        assertFalse(new File(tempFolderPath, testFile + BPlusTree.FILENAME_EXTENSION + ".rebuild").exists());
+
+        bp.insertKey(new IntDataBox(5000), new RecordID(5000, 0));
+        assertTrue(bp.containsKey(new IntDataBox(5000)));
+    }
+
+    @Test
+    public void testBPlusTreeBulkLoad() {
+        // Keys of 500 bytes put only a few entries in a node, so that the tree has several levels
+        // of inner nodes. Leaves hold an even number of entries and every key appears three
+        // times, so runs of equal keys keep straddling leaves; key 00500 has a run of 23, longer
+        // than a leaf.
+        String tempFolderPath = tempFolder.getRoot().getAbsolutePath();
+        BPlusTree tree = new BPlusTree(new StringDataBox(500), "BulkLoadTest", tempFolderPath);
+        List<LeafEntry> entries = new ArrayList<LeafEntry>();
+        List<Set<RecordID>> expected = new ArrayList<Set<RecordID>>();
+        for (int i = 0; i < 1000; i++) {
+            expected.add(new HashSet<RecordID>());
+        }
+        for (int i = 0; i < 3000; i++) {
+            entries.add(new LeafEntry(new StringDataBox(String.format("%05d", i / 3), 500), new RecordID(i, 0)));
+            expected.get(i / 3).add(new RecordID(i, 0));
+        }
+        for (int i = 0; i < 20; i++) {
+            entries.add(new LeafEntry(new StringDataBox("00500", 500), new RecordID(10000 + i, 0)));
+            expected.get(500).add(new RecordID(10000 + i, 0));
+        }
+        Collections.shuffle(entries, new Random(186));
+        tree.bulkLoad(entries);
+
+        // Entries come out grouped by key, in key order.
+        Iterator<RecordID> rids = tree.sortedScan();
+        for (int i = 0; i < 1000; i++) {
+            Set<RecordID> group = new HashSet<RecordID>();
+            for (int j = 0; j < expected.get(i).size(); j++) {
+                group.add(rids.next());
+            }
+            assertEquals(expected.get(i), group);
+        }
+        assertFalse(rids.hasNext());
+        for (int i = 0; i < 1000; i++) {
+            Iterator<RecordID> found = tree.lookupKey(new StringDataBox(String.format("%05d", i), 500));
+            Set<RecordID> matches = new HashSet<RecordID>();
+            while (found.hasNext()) {
+                assertTrue(matches.add(found.next()));
+            }
+            assertEquals(expected.get(i), matches);
+        }
+        // Every page but the header is a node.
+        assertEquals(tree.getNumPages() - 1, tree.getNumNodes());
+
+        // The loaded tree takes inserts, and a second load into it inserts its entries.
+        tree.insertKey(new StringDataBox("00500", 500), new RecordID(5000, 0));
+        List<LeafEntry> more = new ArrayList<LeafEntry>();
+        more.add(new LeafEntry(new StringDataBox("10000", 500), new RecordID(5001, 0)));
+        tree.bulkLoad(more);
+        assertEquals(24, countAll(tree.lookupKey(new StringDataBox("00500", 500))));
+        assertTrue(tree.containsKey(new StringDataBox("10000", 500)));
+
+        BPlusTree reopened = new BPlusTree("BulkLoadTest", tempFolderPath);
+        assertEquals(expected.get(999).size(), countAll(reopened.lookupKey(new StringDataBox("00999", 500))));
+    }
+
+    private static int countAll(Iterator<RecordID> rids) {
+        int count = 0;
+        while (rids.hasNext()) {
+            rids.next();
+            count++;
+        }
+        return count;
+    }
+}
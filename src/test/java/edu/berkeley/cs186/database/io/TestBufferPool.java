@@ -0,0 +1,316 @@
+package edu.berkeley.cs186.database.io;
+
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+* Tests BufferPool.java
+*/
+
+public class TestBufferPool {
+  private final String fName = "TestBufferPool.temp";
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Test
+  public void TestBufferPoolCapacity() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    BufferPool pool = new BufferPool(8, 2);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false, pool);
+
+    for (int i = 0; i < 32; i++) {
+      assertEquals(i, pA.allocPage());
+      pA.fetchPage(i);
+      assertTrue(pool.size() <= 8);
+    }
+
+    pA.close();
+    assertEquals(0, pool.size());
+  }
+
+  @Test
+  public void TestBufferPoolSameInstanceOnHit() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    BufferPool pool = new BufferPool(16);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false, pool);
+
+    pA.allocPage();
+    Page p = pA.fetchPage(0);
+    assertSame(p, pA.fetchPage(0));
+
+    pA.close();
+  }
+
+  @Test
+  public void TestBufferPoolPinnedNotEvicted() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    BufferPool pool = new BufferPool(4, 1);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false, pool);
+
+    for (int i = 0; i < 4; i++) {
+      pA.allocPage();
+    }
+    Page pinned = pA.pinPage(0);
+    assertTrue(pinned.isPinned());
+
+    for (int i = 4; i < 64; i++) {
+      pA.allocPage();
+      pA.fetchPage(i);
+    }
+    assertSame(pinned, pA.fetchPage(0));
+
+    pA.unpinPage(pinned);
+    assertFalse(pinned.isPinned());
+
+    for (int i = 4; i < 64; i++) {
+      pA.fetchPage(i);
+    }
+    assertNotSame(pinned, pA.fetchPage(0));
+
+    pA.close();
+  }
+
+  @Test(expected = PageException.class)
+  public void TestBufferPoolUnpinUnpinned() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false, new BufferPool(4));
+    pA.allocPage();
+    try {
+      pA.unpinPage(pA.fetchPage(0));
+    } finally {
+      pA.close();
+    }
+  }
+
+  @Test
+  public void TestBufferPoolConcurrentReaders() throws Exception {
+    final BufferPool pool = new BufferPool(64);
+    final List<PageAllocator> allocs = new ArrayList<PageAllocator>();
+    for (int i = 0; i < 4; i++) {
+      File tempFile = tempFolder.newFile(fName + i);
+      PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false, pool);
+      for (int j = 0; j < 128; j++) {
+        pA.allocPage();
+        pA.fetchPage(j).writeByte(0, (byte) i);
+      }
+      allocs.add(pA);
+    }
+
+    final AtomicInteger errors = new AtomicInteger(0);
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < 4; i++) {
+      final int id = i;
+      Thread t = new Thread(new Runnable() {
+        public void run() {
+          PageAllocator pA = allocs.get(id);
+          for (int round = 0; round < 20; round++) {
+            for (int j = 0; j < 128; j++) {
+              if (pA.fetchPage(j).readByte(0) != (byte) id) {
+                errors.incrementAndGet();
+              }
+            }
+          }
+        }
+      });
+      threads.add(t);
+      t.start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+
+    assertEquals(0, errors.get());
+    assertTrue(pool.size() <= 64);
+    for (PageAllocator pA : allocs) {
+      pA.close();
+    }
+  }
+
+  @Test
+  public void TestBufferPoolByteCapacity() throws IOException {
+    BufferPool pool = BufferPool.ofCapacity(1 << 20);
+    assertEquals(1 << 20, pool.getCapacityBytes());
+    assertEquals(256, pool.getNumFrames());
+
+    StorageConfig small = new StorageConfig().setBufferPool(pool);
+    StorageConfig large = new StorageConfig().setBufferPool(pool).setPageSize(16384);
+    PageAllocator pA = new PageAllocator(tempFolder.newFile(fName + 0).getAbsolutePath(), true, false, small);
+    PageAllocator pB = new PageAllocator(tempFolder.newFile(fName + 1).getAbsolutePath(), true, false, large);
+
+    for (int i = 0; i < 256; i++) {
+      pA.allocPage();
+      pA.fetchPage(i);
+      pB.allocPage();
+      pB.fetchPage(i);
+      assertTrue(pool.getUsedBytes() <= pool.getCapacityBytes());
+    }
+
+    pA.close();
+    pB.close();
+    assertEquals(0, pool.size());
+    assertEquals(0, pool.getUsedBytes());
+  }
+
+  @Test
+  public void TestBufferPoolBackgroundWriter() throws Exception {
+    File tempFile = tempFolder.newFile(fName);
+    BufferPool pool = new BufferPool(8, 1);
+    pool.startBackgroundWriter(10);
+    assertTrue(pool.hasBackgroundWriter());
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, true, pool);
+
+    List<Page> pages = new ArrayList<Page>();
+    for (int i = 0; i < 32; i++) {
+      pA.allocPage();
+      Page p = pA.fetchPage(i);
+      p.writeInt(0, i);
+      pages.add(p);
+    }
+
+    // Evicted and resident pages alike are cleaned by the writer, not by the threads using them.
+    long deadline = System.currentTimeMillis() + 10000;
+    boolean clean = false;
+    while (!clean && System.currentTimeMillis() < deadline) {
+      clean = pool.getNumPendingWrites() == 0;
+      for (Page p : pages) {
+        clean &= !p.isDirty();
+      }
+      Thread.sleep(10);
+    }
+    assertTrue(clean);
+
+    pool.stopBackgroundWriter();
+    assertFalse(pool.hasBackgroundWriter());
+    pA.close();
+
+    pA = new PageAllocator(tempFile.getAbsolutePath(), false, true, pool);
+    for (int i = 0; i < 32; i++) {
+      assertEquals(i, pA.fetchPage(i).readInt(0));
+    }
+    pA.close();
+  }
+
+  @Test
+  public void TestBufferPoolWriterForcesEachExtentOnce() throws Exception {
+    assertFalse(BufferPool.getDefault().hasBackgroundWriter());
+
+    for (StorageBackend.Type backend : StorageBackend.Type.values()) {
+      File tempFile = tempFolder.newFile(fName + backend);
+      StorageConfig config = new StorageConfig().setBufferPool(new BufferPool(64, 1)).setBackend(backend);
+      PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, true, config);
+      for (int i = 0; i < 32; i++) {
+        pA.allocPage();
+      }
+      pA.close();
+
+      // Reopened, all 32 pages are slices of the same extent, or pages of the same file.
+      BufferPool pool = new BufferPool(64, 1);
+      pA = new PageAllocator(tempFile.getAbsolutePath(), false, true, config.setBufferPool(pool));
+      List<Page> pages = new ArrayList<Page>();
+      for (int i = 0; i < 32; i++) {
+        Page p = pA.fetchPage(i);
+        p.writeInt(0, i);
+        pages.add(p);
+      }
+      IOStats before = pA.getIOStats();
+      assertTrue(pool.startBackgroundWriter(10));
+      assertFalse(pool.startBackgroundWriter(10));
+      long deadline = System.currentTimeMillis() + 10000;
+      boolean clean = false;
+      while (!clean && System.currentTimeMillis() < deadline) {
+        clean = true;
+        for (Page p : pages) {
+          clean &= !p.isDirty();
+        }
+        Thread.sleep(10);
+      }
+      pool.stopBackgroundWriter();
+      assertTrue(clean);
+      IOStats delta = pA.getIOStats().minus(before);
+      assertEquals(32, delta.getWrites());
+      assertTrue(delta.getForces() > 0);
+      assertTrue(delta.getForces() < 4);
+      pA.close();
+    }
+  }
+
+  @Test
+  public void TestBufferPoolCloseFlushesPendingWrites() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    BufferPool pool = new BufferPool(4, 1);
+    // A writer that practically never runs a cleaning round on its own.
+    pool.startBackgroundWriter(3600000);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, true, pool);
+    for (int i = 0; i < 16; i++) {
+      pA.allocPage();
+      pA.fetchPage(i).writeInt(0, i);
+    }
+    pA.close();
+    assertEquals(0, pool.getNumPendingWrites());
+    pool.stopBackgroundWriter();
+  }
+
+  @Test
+  public void TestBufferPoolArenaReusesFrames() throws Exception {
+    BufferPool pool = new BufferPool(16, 1);
+    StorageConfig config = new StorageConfig().setBufferPool(pool).setBackend(StorageBackend.Type.PREAD);
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false, config);
+    // Holding on to the pages keeps their frames from being reused while they are written.
+    List<Page> pages = new ArrayList<Page>();
+    for (int i = 0; i < 300; i++) {
+      Page p = pA.fetchPage(pA.allocPage());
+      p.writeInt(0, i);
+      pages.add(p);
+    }
+    // Pages that are still held keep their frames, so the arena grows past its cap for them.
+    assertTrue(pool.getArenaBytes() >= 300L * Page.pageSize);
+    pA.close();
+    pA = null;
+    pages = null;
+    long reserved = pool.getArenaBytes();
+
+    // Short-lived files, like temporary tables, run on the frames of the collected pages: past
+    // its cap, the arena waits for them instead of growing.
+    for (int round = 0; round < 3; round++) {
+      File temp = tempFolder.newFile(fName + round);
+      PageAllocator tA = new PageAllocator(temp.getAbsolutePath(), true, false, config);
+      for (int i = 0; i < 1000; i++) {
+        tA.fetchPage(tA.allocPage()).writeInt(0, i);
+      }
+      tA.close();
+      assertEquals(reserved, pool.getArenaBytes());
+    }
+    pA = new PageAllocator(tempFile.getAbsolutePath(), false, false, config);
+    for (int i = 0; i < 300; i++) {
+      assertEquals(i, pA.fetchPage(i).readInt(0));
+    }
+    pA.close();
+    assertEquals(reserved, pool.getArenaBytes());
+  }
+
+  @Test
+  public void TestBufferPoolArenaStaysWithinCap() throws Exception {
+    BufferPool pool = new BufferPool(16, 1);
+    StorageConfig config = new StorageConfig().setBufferPool(pool).setBackend(StorageBackend.Type.PREAD);
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false, config);
+    for (int i = 0; i < 2000; i++) {
+      pA.fetchPage(pA.allocPage()).writeInt(0, i);
+    }
+    for (int i = 0; i < 2000; i++) {
+      assertEquals(i, pA.fetchPage(i).readInt(0));
+    }
+    pA.close();
+    // A slab holds 256 frames; the pool's 16 pages and the ones waiting to be collected fit in one.
+    assertEquals(FrameArena.SLAB_SIZE, pool.getArenaBytes());
+  }
+}
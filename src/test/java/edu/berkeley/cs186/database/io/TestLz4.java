@@ -0,0 +1,85 @@
+package edu.berkeley.cs186.database.io;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.util.Arrays;
+import java.util.Random;
+
+public class TestLz4 {
+  private static byte[] roundTrip(byte[] src) {
+    byte[] compressed = new byte[Lz4.maxCompressedLength(src.length)];
+    int length = Lz4.compress(src, src.length, compressed, 0);
+    assertTrue(length <= compressed.length);
+    byte[] out = new byte[src.length];
+    assertEquals(src.length, Lz4.decompress(compressed, 0, length, out, out.length));
+    assertArrayEquals(src, out);
+    return Arrays.copyOf(compressed, length);
+  }
+
+  @Test
+  public void TestLz4PaddedRecords() {
+    // Fixed-width records whose strings are padded with spaces, as in a table page.
+    byte[] page = new byte[4096];
+    Arrays.fill(page, (byte) ' ');
+    for (int i = 0; i < 4096 - 16; i += 40) {
+      page[i] = 1;
+      page[i + 1] = (byte) i;
+      page[i + 5] = 'a';
+      page[i + 6] = (byte) ('a' + i % 26);
+    }
+    byte[] compressed = roundTrip(page);
+    assertTrue(compressed.length < page.length / 4);
+  }
+
+  @Test
+  public void TestLz4EdgeCases() {
+    roundTrip(new byte[0]);
+    roundTrip(new byte[] {7});
+    roundTrip(new byte[12]);
+    roundTrip(new byte[13]);
+    byte[] zeros = new byte[1 << 16];
+    assertTrue(roundTrip(zeros).length < 300);
+
+    Random r = new Random(186);
+    byte[] noise = new byte[4096];
+    r.nextBytes(noise);
+    assertTrue(roundTrip(noise).length <= Lz4.maxCompressedLength(noise.length));
+    for (int n = 0; n < 200; n++) {
+      byte[] mixed = new byte[r.nextInt(2000)];
+      for (int i = 0; i < mixed.length; i++) {
+        mixed[i] = (byte) r.nextInt(3);
+      }
+      roundTrip(mixed);
+    }
+  }
+
+  @Test
+  public void TestLz4MalformedInput() {
+    byte[] page = new byte[4096];
+    Arrays.fill(page, (byte) ' ');
+    byte[] compressed = roundTrip(page);
+    byte[] out = new byte[page.length];
+    // Truncated, too long for the output, and with a match before the start of the output.
+    for (int cut = 1; cut < compressed.length; cut++) {
+      try {
+        int n = Lz4.decompress(compressed, 0, cut, out, out.length);
+        assertTrue(n < page.length);
+      } catch (PageException e) {
+        // expected
+      }
+    }
+    try {
+      Lz4.decompress(compressed, 0, compressed.length, out, page.length - 1);
+      fail();
+    } catch (PageException e) {
+      // expected
+    }
+    byte[] badOffset = new byte[] {0x10, 'x', 5, 0};
+    try {
+      Lz4.decompress(badOffset, 0, badOffset.length, out, out.length);
+      fail();
+    } catch (PageException e) {
+      // expected
+    }
+  }
+}
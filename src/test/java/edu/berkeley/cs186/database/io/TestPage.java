@@ -3,6 +3,7 @@ package edu.berkeley.cs186.database.io;
 import edu.berkeley.cs186.database.StudentTest;
 
 import static org.junit.Assert.*;
+import org.junit.Assume;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
@@ -12,6 +13,8 @@ import java.io.RandomAccessFile;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
 
 /**
 * Tests Page.java
@@ -144,4 +147,165 @@ public class TestPage {
     fc.close();
   }
 
+  @Test
+  public void TestPageDirtyBit() throws IOException, FileNotFoundException {
+    File tempFile = tempFolder.newFile(fName);
+    FileChannel fc = new RandomAccessFile(tempFile, "rw").getChannel();
+    Page p = new Page(fc, 0, 0);
+    assertFalse(p.isDirty());
+    p.readBytes();
+    assertFalse(p.isDirty());
+
+    p.writeByte(0, (byte) 1);
+    assertTrue(p.isDirty());
+    p.flush();
+    assertFalse(p.isDirty());
+
+    p.writeInt(8, 42);
+    assertTrue(p.isDirty());
+    p.flush();
+    assertFalse(p.isDirty());
+    fc.close();
+  }
+
+  @Test
+  public void TestPageAbsoluteAccessors() throws IOException, FileNotFoundException {
+    File tempFile = tempFolder.newFile(fName);
+    FileChannel fc = new RandomAccessFile(tempFile, "rw").getChannel();
+    Page p = new Page(fc, 0, 0);
+
+    p.putInt(0, -7);
+    p.putLong(4, 1L << 40);
+    p.putFloat(12, 2.5f);
+    p.putByte(16, (byte) 9);
+    assertEquals(-7, p.getInt(0));
+    assertEquals(-7, p.readInt(0));
+    assertEquals(1L << 40, p.getLong(4));
+    assertEquals(2.5f, p.getFloat(12), 0.0f);
+    assertEquals((byte) 9, p.getByte(16));
+    assertEquals(ByteBuffer.allocate(4).putInt(-7).array()[3], p.readByte(3));
+
+    byte[] dst = new byte[Page.pageSize + 2];
+    p.copyTo(dst, 2);
+    assertEquals((byte) 9, dst[18]);
+    p.copyTo(16, 1, dst, 0);
+    assertEquals((byte) 9, dst[0]);
+
+    boolean thrown = false;
+    try {
+      p.getLong(Page.pageSize - 4);
+    } catch (PageException e) {
+      thrown = true;
+    }
+    assertTrue(thrown);
+
+    thrown = false;
+    try {
+      p.copyTo(0, 8, new byte[4], 0);
+    } catch (PageException e) {
+      thrown = true;
+    }
+    assertTrue(thrown);
+    fc.close();
+  }
+
+  @Test
+  public void TestPageAccessorsDoNotAllocate() throws IOException, FileNotFoundException {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+    Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+
+    File tempFile = tempFolder.newFile(fName);
+    FileChannel fc = new RandomAccessFile(tempFile, "rw").getChannel();
+    Page p = new Page(fc, 0, 0);
+    byte[] dst = new byte[64];
+    long id = Thread.currentThread().getId();
+
+    int sum = 0;
+    long before = threads.getThreadAllocatedBytes(id);
+    for (int i = 0; i < 100000; i++) {
+      int pos = (i * 4) % (Page.pageSize - 64);
+      p.putInt(pos, i);
+      sum += p.getInt(pos) + p.readInt(pos) + p.getByte(pos);
+      p.copyTo(pos, 64, dst, 0);
+    }
+    long allocated = threads.getThreadAllocatedBytes(id) - before;
+
+    // 100000 iterations of the old readInt alone allocated several megabytes.
+    assertTrue("allocated " + allocated + " bytes", allocated < 64 * 1024);
+    assertTrue(sum != 0);
+    fc.close();
+  }
+
+  @Test
+  public void TestPageConcurrentReads() throws Exception {
+    File tempFile = tempFolder.newFile(fName);
+    FileChannel fc = new RandomAccessFile(tempFile, "rw").getChannel();
+    final Page p = new Page(fc, 0, 0);
+    for (int i = 0; i < Page.pageSize; i++) {
+      p.writeByte(i, (byte) i);
+    }
+
+    final boolean[] failed = new boolean[1];
+    Thread[] readers = new Thread[4];
+    for (int t = 0; t < readers.length; t++) {
+      final int seed = t;
+      readers[t] = new Thread() {
+        public void run() {
+          for (int i = 0; i < 20000 && !failed[0]; i++) {
+            // Mix short copies with ones long enough to take the bulk path.
+            int num = (i % 2 == 0) ? 16 : 1024;
+            int position = ((i * 31 + seed * 977) % (Page.pageSize - num));
+            byte[] b = p.readBytes(position, num);
+            for (int j = 0; j < num; j++) {
+              if (b[j] != (byte) (position + j)) {
+                failed[0] = true;
+                return;
+              }
+            }
+          }
+        }
+      };
+    }
+    for (Thread r : readers) {
+      r.start();
+    }
+    for (Thread r : readers) {
+      r.join();
+    }
+    assertFalse(failed[0]);
+    fc.close();
+  }
+
+  @Test
+  public void TestPageLatches() throws Exception {
+    File tempFile = tempFolder.newFile(fName);
+    FileChannel fc = new RandomAccessFile(tempFile, "rw").getChannel();
+    final Page p = new Page(fc, 0, 0);
+
+    // Shared latches don't exclude each other.
+    p.latchShared();
+    p.latchShared();
+    p.unlatchShared();
+    p.unlatchShared();
+
+    p.latchExclusive();
+    final int[] seen = new int[] {-1};
+    Thread reader = new Thread() {
+      public void run() {
+        p.latchShared();
+        seen[0] = p.getInt(0);
+        p.unlatchShared();
+      }
+    };
+    reader.start();
+    reader.join(100);
+    assertTrue(reader.isAlive());
+    p.putInt(0, 42);
+    p.unlatchExclusive();
+    reader.join();
+    assertEquals(42, seen[0]);
+    fc.close();
+  }
 }
@@ -14,8 +14,17 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.io.File;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
 * Tests PageAllocator.java
@@ -440,5 +449,759 @@ public class TestPageAllocator {
     }
   }
 
+  @Test
+  public void TestPageAllocatorPageSizeRecorded() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    StorageConfig config = new StorageConfig().setBufferPool(new BufferPool(64)).setPageSize(16384);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false, config);
+    assertEquals(16384, pA.getPageSize());
+
+    for (int i = 0; i < 10; i++) {
+      assertEquals(i, pA.allocPage());
+      Page p = pA.fetchPage(i);
+      assertEquals(16384, p.getPageSize());
+      p.writeInt(16380, i);
+    }
+    pA.close();
+
+    FileChannel fc = new RandomAccessFile(tempFile, "r").getChannel();
+    assertEquals(16384 * 12, fc.size());
+    fc.close();
+
+    // Reopening with the default page size keeps the page size recorded in the file.
+    pA = new PageAllocator(tempFile.getAbsolutePath(), false, false);
+    assertEquals(16384, pA.getPageSize());
+    assertEquals(10, pA.getNumPages());
+    for (int i = 0; i < 10; i++) {
+      assertEquals(i, pA.fetchPage(i).readInt(16380));
+    }
+    pA.close();
+
+    // Wiping the file re-creates it with the requested page size.
+    pA = new PageAllocator(tempFile.getAbsolutePath(), true, false);
+    assertEquals(Page.pageSize, pA.getPageSize());
+    assertEquals(0, pA.getNumPages());
+    for (int i = 0; i < 10; i++) {
+      assertEquals(i, pA.allocPage());
+      assertEquals(0, pA.fetchPage(i).readInt(0));
+    }
+    pA.close();
+  }
+
+  @Test(expected = PageException.class)
+  public void TestPageAllocatorInvalidPageSize() {
+    new StorageConfig().setPageSize(5000);
+  }
+
+  @Test
+  public void TestPageAllocatorExtentMapping() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    StorageConfig config = new StorageConfig().setBufferPool(new BufferPool(16)).setExtentSize(65536);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false, config);
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i, pA.allocPage());
+      pA.fetchPage(i).writeInt(0, i);
+    }
+    pA.close();
+
+    FileChannel fc = new RandomAccessFile(tempFile, "r").getChannel();
+    assertEquals(byteEstimate(100), fc.size());
+    fc.close();
+
+    // The file now exists, so pages are served as slices of 64K extents.
+    pA = new PageAllocator(tempFile.getAbsolutePath(), false, false, config);
+    for (int i = 0; i < 100; i++) {
+      Page p = pA.fetchPage(i);
+      assertEquals(i, p.readInt(0));
+      p.writeInt(4, -i);
+    }
+    assertEquals((byteEstimate(100) + 65535) / 65536, pA.getNumMappedExtents());
+    pA.close();
+
+    pA = new PageAllocator(tempFile.getAbsolutePath(), false, false, config);
+    for (int i = 0; i < 100; i++) {
+      assertEquals(-i, pA.fetchPage(i).readInt(4));
+    }
+    pA.close();
+  }
+
+  @Test
+  public void TestPageAllocatorExtentSmallerThanPage() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    StorageConfig config = new StorageConfig().setBufferPool(new BufferPool(16)).setPageSize(16384)
+        .setExtentSize(4096);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false, config);
+    for (int i = 0; i < 8; i++) {
+      assertEquals(i, pA.allocPage());
+      pA.fetchPage(i).writeInt(16380, i);
+    }
+    pA.close();
+
+    pA = new PageAllocator(tempFile.getAbsolutePath(), false, false, config);
+    for (int i = 0; i < 8; i++) {
+      assertEquals(i, pA.fetchPage(i).readInt(16380));
+    }
+    pA.close();
+  }
+
+  @Test
+  public void TestPageAllocatorReusesFreedPages() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false, new BufferPool(16));
+    for (int i = 0; i < 4100; i++) {
+      assertEquals(i, pA.allocPage());
+    }
+    assertTrue(pA.freePage(4098));
+    assertTrue(pA.freePage(10));
+    assertTrue(pA.freePage(3));
+    assertFalse(pA.freePage(3));
+    pA.close();
+
+    // The free-space map is rebuilt from disk, so freed slots are found again after reopening.
+    pA = new PageAllocator(tempFile.getAbsolutePath(), false, false, new BufferPool(16));
+    assertEquals(4097, pA.getNumPages());
+    assertEquals(3, pA.allocPage());
+    assertEquals(10, pA.allocPage());
+    assertEquals(4098, pA.allocPage());
+    assertEquals(4100, pA.allocPage());
+    assertEquals(4101, pA.getNumPages());
+    pA.close();
+  }
+
+  @Test
+  public void TestPageAllocatorConcurrentFetchDuringAlloc() throws Exception {
+    File tempFile = tempFolder.newFile(fName);
+    StorageConfig config = new StorageConfig().setBufferPool(new BufferPool(8, 1)).setGrowthPages(1);
+    final PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false, config);
+    for (int i = 0; i < 100; i++) {
+      pA.fetchPage(pA.allocPage()).writeInt(0, i);
+    }
+
+    // Readers fetch the first pages and the pages allocated so far while allocPage fills several
+    // more header pages, growing the free-space map under them.
+    final AtomicBoolean done = new AtomicBoolean(false);
+    final AtomicInteger allocated = new AtomicInteger(100);
+    final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+    List<Thread> readers = new ArrayList<Thread>();
+    for (int t = 0; t < 4; t++) {
+      final Random random = new Random(t);
+      Thread reader = new Thread() {
+        public void run() {
+          try {
+            while (!done.get()) {
+              int pageNum = random.nextInt(100);
+              assertEquals(pageNum, pA.fetchPage(pageNum).readInt(0));
+              assertEquals(0, pA.pageNumbers().nextInt());
+              pA.fetchPage(random.nextInt(allocated.get()));
+            }
+          } catch (Throwable e) {
+            failures.add(e);
+          }
+        }
+      };
+      reader.start();
+      readers.add(reader);
+    }
+    for (int i = 100; i < 2 * Page.pageSize + 1; i++) {
+      pA.allocPage();
+      allocated.set(i + 1);
+    }
+    done.set(true);
+    for (Thread reader : readers) {
+      reader.join();
+    }
+    assertEquals(Collections.emptyList(), failures);
+    assertEquals(2 * Page.pageSize + 1, pA.getNumPages());
+    pA.close();
+  }
+
+  @Test
+  public void TestPageAllocatorGroupCommit() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, true, new BufferPool(16));
+    for (int i = 0; i < 20; i++) {
+      pA.allocPage();
+    }
+    assertEquals(20, pA.getNumMetadataSyncs());
+    pA.close();
+
+    StorageConfig config = new StorageConfig().setBufferPool(new BufferPool(16))
+        .setMetadataSyncInterval(Long.MAX_VALUE);
+    pA = new PageAllocator(tempFile.getAbsolutePath(), true, true, config);
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i, pA.allocPage());
+    }
+    assertTrue(pA.freePage(50));
+    assertEquals(0, pA.getNumMetadataSyncs());
+
+    pA.sync();
+    assertEquals(1, pA.getNumMetadataSyncs());
+    pA.sync();
+    assertEquals(1, pA.getNumMetadataSyncs());
+
+    pA.allocPage();
+    pA.close();
+    assertEquals(2, pA.getNumMetadataSyncs());
+
+    pA = new PageAllocator(tempFile.getAbsolutePath(), false, true, config);
+    assertEquals(100, pA.getNumPages());
+    pA.close();
+  }
+
+  @Test(expected = PageException.class)
+  public void TestPageAllocatorNegativeSyncInterval() {
+    new StorageConfig().setMetadataSyncInterval(-1);
+  }
+
+  @Test
+  public void TestPageAllocatorIteratorReadAhead() throws IOException {
+    for (StorageBackend.Type backend : StorageBackend.Type.values()) {
+      File tempFile = tempFolder.newFile(fName + backend);
+      StorageConfig config = new StorageConfig().setBufferPool(new BufferPool(1024)).setBackend(backend);
+      PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false, config);
+      for (int i = 0; i < 300; i++) {
+        pA.fetchPage(pA.allocPage()).writeInt(0, i);
+      }
+      for (int i = 0; i < 300; i += 7) {
+        assertTrue(pA.freePage(i));
+      }
+      pA.close();
+
+      pA = new PageAllocator(tempFile.getAbsolutePath(), false, false, config);
+      int expected = 0;
+      int count = 0;
+      for (Page p : pA) {
+        if (expected % 7 == 0) {
+          expected++;
+        }
+        assertEquals(expected, p.getPageNum());
+        assertEquals(expected, p.readInt(0));
+        expected++;
+        count++;
+      }
+      assertEquals(pA.getNumPages(), count);
+      // Everything after the first couple of pages was handed to read-ahead.
+      assertTrue(pA.getNumReadAheadPages() >= count - 8);
+      pA.close();
+
+      config.setReadAheadPages(0);
+      pA = new PageAllocator(tempFile.getAbsolutePath(), false, false, config);
+      count = 0;
+      for (Page p : pA) {
+        count++;
+      }
+      assertEquals(pA.getNumPages(), count);
+      assertEquals(0, pA.getNumReadAheadPages());
+      pA.close();
+    }
+  }
+
+  @Test
+  public void TestPageAllocatorReadAheadSmallPool() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    StorageConfig config = new StorageConfig().setBufferPool(new BufferPool(16, 1));
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false, config);
+    for (int i = 0; i < 200; i++) {
+      pA.fetchPage(pA.allocPage()).writeInt(0, i);
+    }
+    int expected = 0;
+    for (Page p : pA) {
+      assertEquals(expected, p.readInt(0));
+      expected++;
+      assertTrue(pA.getBufferPool().size() <= 16);
+    }
+    assertEquals(200, expected);
+    pA.close();
+  }
+
+  @Test(expected = PageException.class)
+  public void TestPageAllocatorNegativeReadAhead() {
+    new StorageConfig().setReadAheadPages(-1);
+  }
+
+  @Test
+  public void TestPageAllocatorPageNumbers() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false, new BufferPool(16));
+    assertFalse(pA.pageNumbers().hasNext());
+    assertFalse(pA.iterator().hasNext());
+
+    for (int i = 0; i < 5000; i++) {
+      pA.allocPage();
+    }
+    for (int i = 0; i < 5000; i++) {
+      if (i % 1000 != 3) {
+        assertTrue(pA.freePage(i));
+      }
+    }
+
+    PrimitiveIterator.OfInt nums = pA.pageNumbers();
+    Iterator<Page> pages = pA.iterator();
+    for (int i = 3; i < 5000; i += 1000) {
+      assertTrue(nums.hasNext());
+      assertEquals(i, nums.nextInt());
+      assertEquals(i, pages.next().getPageNum());
+    }
+    assertFalse(nums.hasNext());
+    assertFalse(pages.hasNext());
+    pA.close();
+  }
+
+  @Test(expected = NoSuchElementException.class)
+  public void TestPageAllocatorPageNumbersExhausted() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false, new BufferPool(16));
+    pA.allocPage();
+    PrimitiveIterator.OfInt nums = pA.pageNumbers();
+    assertEquals(0, nums.nextInt());
+    pA.close();
+    nums.nextInt();
+  }
+
+  @Test
+  public void TestPageAllocatorTruncate() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, true, new BufferPool(16));
+    for (int i = 0; i < 100; i++) {
+      pA.fetchPage(pA.allocPage()).writeInt(0, i);
+    }
+    for (int i = 50; i < 100; i++) {
+      assertTrue(pA.freePage(i));
+    }
+    assertTrue(pA.freePage(10));
+
+    // Master page, header page 0 and data pages 0 through 49.
+    long expected = 52L * Page.pageSize;
+    assertEquals(tempFile.length() - expected, pA.truncate());
+    assertEquals(expected, tempFile.length());
+    assertEquals(0, pA.truncate());
+
+    assertEquals(49, pA.fetchPage(49).readInt(0));
+    assertEquals(10, pA.allocPage());
+    assertEquals(50, pA.allocPage());
+    pA.fetchPage(50).writeInt(0, 50);
+    pA.close();
+
+    pA = new PageAllocator(tempFile.getAbsolutePath(), false);
+    assertEquals(51, pA.getNumPages());
+    assertEquals(50, pA.fetchPage(50).readInt(0));
+    for (int i = 0; i < 51; i++) {
+      assertTrue(pA.freePage(i));
+    }
+    pA.truncate();
+    assertEquals(Page.pageSize, tempFile.length());
+    pA.close();
+  }
+
+  @Test
+  public void TestPageAllocatorTruncateDuringLoads() throws Exception {
+    for (StorageBackend.Type backend : StorageBackend.Type.values()) {
+      File tempFile = tempFolder.newFile(fName + backend);
+      BufferPool pool = new BufferPool(64, 1);
+      pool.startBackgroundWriter(1);
+      StorageConfig config = new StorageConfig().setBufferPool(pool).setBackend(backend);
+      final PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, true, config);
+      for (int i = 0; i < 100; i++) {
+        pA.fetchPage(pA.allocPage()).writeInt(0, i);
+      }
+
+      // Asynchronous fetches, read-ahead scans and the background writer all keep touching pages
+      // of the file while its tail is repeatedly freed and truncated away.
+      final AtomicBoolean done = new AtomicBoolean(false);
+      final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+      Thread reader = new Thread() {
+        public void run() {
+          Random random = new Random(0);
+          try {
+            while (!done.get()) {
+              int pageNum = random.nextInt(100);
+              assertEquals(pageNum, pA.fetchPageAsync(pageNum).join().readInt(0));
+              try {
+                Iterator<Page> pages = pA.iterator();
+                while (pages.hasNext()) {
+                  pages.next();
+                }
+              } catch (PageException e) {
+                // A page of the tail was freed after the iterator found it.
+              }
+            }
+          } catch (Throwable e) {
+            failures.add(e);
+          }
+        }
+      };
+      reader.start();
+      for (int round = 0; round < 10; round++) {
+        for (int i = 100; i < 200; i++) {
+          pA.fetchPage(pA.allocPage()).writeInt(0, i);
+        }
+        for (int i = 100; i < 200; i++) {
+          assertTrue(pA.freePage(i));
+        }
+        assertTrue(pA.truncate() > 0);
+      }
+      done.set(true);
+      reader.join();
+      pool.stopBackgroundWriter();
+      assertEquals(Collections.emptyList(), failures);
+      assertEquals(102L * Page.pageSize, tempFile.length());
+      pA.close();
+    }
+  }
+
+  @Test
+  public void TestPageAllocatorPreadBackend() throws IOException {
+    for (boolean durable : new boolean[] {true, false}) {
+      File tempFile = tempFolder.newFile(fName + durable);
+      StorageConfig config = new StorageConfig().setBufferPool(new BufferPool(16))
+          .setBackend(StorageBackend.Type.PREAD);
+      PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, durable, config);
+      assertEquals(0, pA.getNumMappedExtents());
+      for (int i = 0; i < 200; i++) {
+        assertEquals(i, pA.allocPage());
+        pA.fetchPage(i).writeInt(0, i);
+      }
+      for (int i = 0; i < 200; i++) {
+        assertEquals(i, pA.fetchPage(i).readInt(0));
+      }
+      pA.close();
+
+      // The file is laid out exactly as with mapped pages.
+      pA = new PageAllocator(tempFile.getAbsolutePath(), false, durable, new BufferPool(16));
+      assertEquals(200, pA.getNumPages());
+      for (int i = 0; i < 200; i++) {
+        assertEquals(i, pA.fetchPage(i).readInt(0));
+      }
+      pA.close();
+    }
+  }
+
+  @Test
+  public void TestPageAllocatorPreadWriteAfterEviction() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    StorageConfig config = new StorageConfig().setBufferPool(new BufferPool(4, 1))
+        .setBackend(StorageBackend.Type.PREAD);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false, config);
+    for (int i = 0; i < 20; i++) {
+      pA.allocPage();
+    }
 
+    Page held = pA.fetchPage(0);
+    for (int i = 1; i < 20; i++) {
+      pA.fetchPage(i);
+    }
+    // Page 0 was evicted, but the held reference is still the one and only copy of it.
+    held.writeInt(0, 42);
+    assertSame(held, pA.fetchPage(0));
+    assertEquals(42, pA.fetchPage(0).readInt(0));
+
+    for (int i = 1; i < 20; i++) {
+      pA.fetchPage(i);
+    }
+    held.writeInt(4, 43);
+    held = null;
+    pA.close();
+
+    pA = new PageAllocator(tempFile.getAbsolutePath(), false, false, config);
+    assertEquals(42, pA.fetchPage(0).readInt(0));
+    assertEquals(43, pA.fetchPage(0).readInt(4));
+    pA.close();
+  }
+
+  @Test
+  public void TestPageAllocatorIOStats() throws IOException {
+    for (StorageBackend.Type backend : StorageBackend.Type.values()) {
+      File tempFile = tempFolder.newFile(fName + backend);
+      File otherFile = tempFolder.newFile(fName + backend + "Other");
+      StorageConfig config = new StorageConfig().setBufferPool(new BufferPool(4, 1))
+          .setBackend(backend);
+      PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, true, config);
+      PageAllocator other = new PageAllocator(otherFile.getAbsolutePath(), true, true, config);
+      for (int i = 0; i < 20; i++) {
+        pA.allocPage();
+      }
+      IOStats otherBefore = other.getIOStats();
+
+      IOStats before = pA.getIOStats();
+      for (int round = 0; round < 2; round++) {
+        for (int i = 0; i < 20; i++) {
+          pA.fetchPage(i).writeInt(0, i);
+        }
+      }
+      IOStats delta = pA.getIOStats().minus(before);
+      assertEquals(40, delta.getLogicalReads());
+      // Four frames can't hold a cycle of twenty pages.
+      assertTrue(delta.getEvictions() > 20);
+      assertTrue(delta.getPhysicalReads() <= delta.getLogicalReads());
+      // Every eviction of a dirty page wrote it back and, the file being durable, forced it.
+      assertTrue(delta.getWrites() > 0);
+      assertEquals(delta.getWrites(), delta.getForces());
+      if (backend == StorageBackend.Type.MMAP) {
+        assertTrue(delta.getPhysicalReads() > 20);
+        assertTrue(pA.getIOStats().getBytesMapped() > 0);
+      } else {
+        // Evicted pages that are still referenced are served again without a read.
+        assertEquals(0, pA.getIOStats().getBytesMapped());
+      }
+
+      // None of it is counted towards another file in the same pool.
+      assertEquals(0, other.getIOStats().minus(otherBefore).getLogicalReads());
+      assertEquals(0, other.getIOStats().minus(otherBefore).getWrites());
+      pA.close();
+      other.close();
+    }
+  }
+
+  /**
+   * Flips a byte of the file at offset.
+   */
+  private static void corrupt(File file, long offset) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.seek(offset);
+      int b = raf.read();
+      raf.seek(offset);
+      raf.write(b ^ 0xff);
+    } finally {
+      raf.close();
+    }
+  }
+
+  @Test
+  public void TestPageAllocatorChecksums() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    StorageConfig config = new StorageConfig().setBufferPool(new BufferPool(16))
+        .setBackend(StorageBackend.Type.PREAD).setChecksums(true);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, true, config);
+    assertTrue(pA.hasChecksums());
+    assertEquals(Page.pageSize - Page.CHECKSUM_BYTES, pA.getUsablePageSize());
+    for (int i = 0; i < 10; i++) {
+      assertEquals(i, pA.allocPage());
+      pA.fetchPage(i).writeInt(0, i);
+    }
+    assertTrue(pA.scrub().isEmpty());
+    pA.close();
+
+    // The format is recorded in the file, whatever the config used to open it says, and the file
+    // is read through the PREAD backend even by a config that asks for MMAP.
+    pA = new PageAllocator(tempFile.getAbsolutePath(), false, true, new BufferPool(16));
+    assertTrue(pA.hasChecksums());
+    for (int i = 0; i < 10; i++) {
+      assertEquals(i, pA.fetchPage(i).readInt(0));
+    }
+    pA.fetchPage(4).writeInt(4, 4);
+    assertEquals(0, pA.getNumMappedExtents());
+    assertTrue(pA.scrub().isEmpty());
+    pA.close();
+
+    // Page 3 is block 5: the master page, the first header page and pages 0 to 2 precede it.
+    corrupt(tempFile, 5L * Page.pageSize + 100);
+    pA = new PageAllocator(tempFile.getAbsolutePath(), false, true, config);
+    assertEquals(2, pA.fetchPage(2).readInt(0));
+    try {
+      pA.fetchPage(3);
+      fail();
+    } catch (PageException e) {
+      // expected
+    }
+    List<String> problems = pA.scrub();
+    assertEquals(1, problems.size());
+    assertTrue(problems.get(0).startsWith("page 3:"));
+    pA.close();
+  }
+
+  @Test
+  public void TestPageAllocatorChecksumsNeedPread() {
+    try {
+      new StorageConfig().setChecksums(true);
+      fail();
+    } catch (PageException e) {
+      // expected
+    }
+    StorageConfig config = new StorageConfig().setBackend(StorageBackend.Type.PREAD).setChecksums(true);
+    try {
+      config.setBackend(StorageBackend.Type.MMAP);
+      fail();
+    } catch (PageException e) {
+      // expected
+    }
+    assertEquals(StorageBackend.Type.PREAD, config.getBackend());
+    assertEquals(StorageBackend.Type.MMAP, config.setChecksums(false).setBackend(StorageBackend.Type.MMAP).getBackend());
+  }
+
+  @Test
+  public void TestPageAllocatorWithoutChecksums() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, true, new BufferPool(16));
+    assertFalse(pA.hasChecksums());
+    assertEquals(Page.pageSize, pA.getUsablePageSize());
+    for (int i = 0; i < 5; i++) {
+      pA.allocPage();
+      pA.fetchPage(i).writeInt(Page.pageSize - 4, i);
+    }
+    assertTrue(pA.scrub().isEmpty());
+    pA.close();
+
+    // A torn metadata update: the master page lost the last allocation of header page 0.
+    RandomAccessFile raf = new RandomAccessFile(tempFile, "rw");
+    raf.writeInt(4);
+    raf.close();
+    pA = new PageAllocator(tempFile.getAbsolutePath(), false, true, new BufferPool(16));
+    List<String> problems = pA.scrub();
+    assertEquals(1, problems.size());
+    assertTrue(problems.get(0).startsWith("header page 0:"));
+    pA.close();
+  }
+
+  @Test
+  public void TestPageAllocatorCompression() throws IOException {
+    for (boolean checksums : new boolean[] {false, true}) {
+      File tempFile = tempFolder.newFile(fName + checksums);
+      int pageSize = 16384;
+      StorageConfig config = new StorageConfig().setBufferPool(new BufferPool(4, 1))
+          .setPageSize(pageSize).setCompression(true).setBackend(StorageBackend.Type.PREAD)
+          .setChecksums(checksums);
+      PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, true, config);
+      assertTrue(pA.hasCompression());
+      assertEquals(0, pA.getNumMappedExtents());
+      int usable = pA.getUsablePageSize();
+      assertEquals(pageSize - PageCompression.HEADER_BYTES - (checksums ? Page.CHECKSUM_BYTES : 0), usable);
+
+      byte[] padding = new byte[usable];
+      Arrays.fill(padding, (byte) ' ');
+      byte[] noise = new byte[usable];
+      new Random(186).nextBytes(noise);
+      for (int i = 0; i < 40; i++) {
+        assertEquals(i, pA.allocPage());
+        Page p = pA.fetchPage(i);
+        // Every tenth page does not compress and is stored as is.
+        p.writeBytes(0, usable, (i % 10 == 9) ? noise : padding);
+        p.writeInt(0, i);
+        p.writeInt(usable - 4, -i);
+      }
+      assertTrue(pA.scrub().isEmpty());
+      pA.close();
+
+      // Only the compressed prefix of a block is written.
+      RandomAccessFile raf = new RandomAccessFile(tempFile, "r");
+      raf.seek(2L * pageSize);
+      int header = raf.readInt();
+      raf.close();
+      assertTrue(header > 0 && header < pageSize / 16);
+
+      // The format is recorded in the file, whatever the config used to open it says.
+      pA = new PageAllocator(tempFile.getAbsolutePath(), false, true, new BufferPool(4, 1));
+      assertTrue(pA.hasCompression());
+      for (int i = 0; i < 40; i++) {
+        Page p = pA.fetchPage(i);
+        assertEquals(i, p.readInt(0));
+        assertEquals(-i, p.readInt(usable - 4));
+        assertEquals((i % 10 == 9) ? noise[usable / 2] : (byte) ' ', p.readByte(usable / 2));
+      }
+      pA.close();
+    }
+  }
+
+  @Test
+  public void TestPageAllocatorFetchPageAsync() throws Exception {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, true, new BufferPool(8, 1));
+    for (int i = 0; i < 50; i++) {
+      pA.allocPage();
+      pA.fetchPage(i).writeInt(0, i);
+    }
+
+    List<CompletableFuture<Page>> futures = new ArrayList<CompletableFuture<Page>>();
+    for (int i = 0; i < 50; i++) {
+      futures.add(pA.fetchPageAsync(i));
+    }
+    for (int i = 0; i < 50; i++) {
+      assertEquals(i, futures.get(i).get().readInt(0));
+    }
+
+    // A page that isn't allocated fails the future, not the call.
+    CompletableFuture<Page> invalid = pA.fetchPageAsync(50);
+    assertTrue(invalid.isCompletedExceptionally());
+    try {
+      invalid.get();
+      fail();
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof PageException);
+    }
+    pA.close();
+  }
+
+  @Test
+  public void TestPageAllocatorFetchPages() throws IOException {
+    for (StorageBackend.Type backend : StorageBackend.Type.values()) {
+      File tempFile = tempFolder.newFile(fName + backend);
+      StorageConfig config = new StorageConfig().setBufferPool(new BufferPool(8, 1)).setBackend(backend);
+      PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, true, config);
+      for (int i = 0; i < 50; i++) {
+        pA.allocPage();
+        pA.fetchPage(i).writeInt(0, i);
+      }
+
+      int[] pageNums = new int[] {49, 3, 3, 20, 0, 49, 17};
+      IOStats before = pA.getIOStats();
+      Page[] pages = pA.fetchPages(pageNums);
+      assertEquals(pageNums.length, pages.length);
+      for (int i = 0; i < pageNums.length; i++) {
+        assertEquals(pageNums[i], pages[i].readInt(0));
+      }
+      assertSame(pages[1], pages[2]);
+      // One fetch per distinct page.
+      assertEquals(5, pA.getIOStats().minus(before).getLogicalReads());
+
+      pA.freePage(20);
+      try {
+        pA.fetchPages(pageNums);
+        fail();
+      } catch (PageException e) {
+        // expected
+      }
+      pA.close();
+    }
+  }
+
+  @Test
+  public void TestPageAllocatorGrowth() throws IOException {
+    for (StorageBackend.Type backend : StorageBackend.Type.values()) {
+      File tempFile = tempFolder.newFile(fName + backend);
+      StorageConfig config = new StorageConfig().setBufferPool(new BufferPool(8, 1)).setBackend(backend)
+                                                .setGrowthPages(64);
+      PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, true, config);
+      pA.allocPage();
+      assertEquals(byteEstimate(64), tempFile.length());
+      for (int i = 1; i < 64; i++) {
+        pA.allocPage();
+      }
+      assertEquals(byteEstimate(64), tempFile.length());
+      assertEquals(1, pA.getNumGrowths());
+      pA.allocPage();
+      assertEquals(byteEstimate(128), tempFile.length());
+
+      // Freed pages are reused without growing the file.
+      pA.freePage(10);
+      assertEquals(10, pA.allocPage());
+      assertEquals(byteEstimate(128), tempFile.length());
+      assertEquals(2, pA.getNumGrowths());
+
+      for (int i = 65; i < 200; i++) {
+        pA.allocPage();
+      }
+      for (int i = 0; i < 200; i++) {
+        pA.fetchPage(i).writeInt(0, i);
+      }
+      pA.close();
+
+      // Pages written before the file grew past them are kept.
+      pA = new PageAllocator(tempFile.getAbsolutePath(), false, true, config);
+      assertEquals(byteEstimate(256), tempFile.length());
+      for (int i = 0; i < 200; i++) {
+        assertEquals(i, pA.fetchPage(i).readInt(0));
+      }
+      pA.close();
+    }
+  }
 }
@@ -0,0 +1,180 @@
+package edu.berkeley.cs186.database.io;
+
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.LongPredicate;
+
+/**
+* Tests the ReplacementPolicy implementations.
+*/
+
+public class TestReplacementPolicy {
+  private final String fName = "TestReplacementPolicy.temp";
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  /**
+   * Simulates a single stripe of the given capacity driven by policy.
+   */
+  private static class Cache {
+    private ReplacementPolicy policy;
+    private Set<Long> resident = new HashSet<Long>();
+    private Set<Long> pinned = new HashSet<Long>();
+    private int capacity;
+    private int misses = 0;
+
+    Cache(ReplacementPolicy.Type type, int capacity) {
+      this.policy = type.create(capacity);
+      this.capacity = capacity;
+    }
+
+    void access(long key) {
+      if (this.resident.contains(key)) {
+        this.policy.recordAccess(key);
+        return;
+      }
+      this.misses++;
+      while (this.resident.size() >= this.capacity) {
+        long victim = this.policy.selectVictim(key, new LongPredicate() {
+          public boolean test(long k) {
+            return !Cache.this.pinned.contains(k);
+          }
+        });
+        if (victim == ReplacementPolicy.NO_VICTIM) {
+          break;
+        }
+        assertTrue(this.resident.remove(victim));
+      }
+      this.resident.add(key);
+      this.policy.recordInsert(key);
+    }
+  }
+
+  @Test
+  public void TestPoliciesRespectCapacity() {
+    for (ReplacementPolicy.Type type : ReplacementPolicy.Type.values()) {
+      Cache c = new Cache(type, 8);
+      for (long i = 0; i < 100; i++) {
+        c.access(i % 13);
+        c.access(i % 5);
+        assertTrue(type.toString(), c.resident.size() <= 8);
+      }
+    }
+  }
+
+  @Test
+  public void TestPoliciesSkipPinned() {
+    for (ReplacementPolicy.Type type : ReplacementPolicy.Type.values()) {
+      Cache c = new Cache(type, 4);
+      c.access(0);
+      c.pinned.add(0L);
+      for (long i = 1; i < 50; i++) {
+        c.access(i);
+        assertTrue(type.toString(), c.resident.contains(0L));
+      }
+    }
+  }
+
+  @Test
+  public void TestPoliciesNoVictimWhenAllPinned() {
+    for (ReplacementPolicy.Type type : ReplacementPolicy.Type.values()) {
+      Cache c = new Cache(type, 2);
+      c.access(0);
+      c.access(1);
+      c.pinned.add(0L);
+      c.pinned.add(1L);
+      c.access(2);
+      assertEquals(type.toString(), 3, c.resident.size());
+    }
+  }
+
+  @Test
+  public void TestLRUEvictsLeastRecentlyUsed() {
+    Cache c = new Cache(ReplacementPolicy.Type.LRU, 3);
+    c.access(0);
+    c.access(1);
+    c.access(2);
+    c.access(0);
+    c.access(3);
+    assertFalse(c.resident.contains(1L));
+    assertTrue(c.resident.contains(0L));
+  }
+
+  @Test
+  public void TestClockSecondChance() {
+    Cache c = new Cache(ReplacementPolicy.Type.CLOCK, 3);
+    c.access(0);
+    c.access(1);
+    c.access(2);
+    c.access(0);
+    c.access(3);
+    assertTrue(c.resident.contains(0L));
+    assertFalse(c.resident.contains(1L));
+  }
+
+  @Test
+  public void TestScanResistance() {
+    ReplacementPolicy.Type[] resistant = {
+      ReplacementPolicy.Type.TWO_QUEUE, ReplacementPolicy.Type.LRU_K, ReplacementPolicy.Type.ARC
+    };
+    for (ReplacementPolicy.Type type : resistant) {
+      Cache c = new Cache(type, 16);
+      // A hot working set that is referenced repeatedly amid some one-off pages...
+      long cold = 100;
+      for (int round = 0; round < 10; round++) {
+        for (long i = 0; i < 8; i++) {
+          c.access(i);
+        }
+        for (int i = 0; i < 6; i++) {
+          c.access(cold++);
+        }
+      }
+      // ...followed by one large scan over pages that are never reused.
+      for (long i = 1000; i < 1200; i++) {
+        c.access(i);
+      }
+      int before = c.misses;
+      for (long i = 0; i < 8; i++) {
+        c.access(i);
+      }
+      assertEquals(type.toString(), before, c.misses);
+    }
+
+    Cache lru = new Cache(ReplacementPolicy.Type.LRU, 16);
+    for (long i = 0; i < 8; i++) {
+      lru.access(i);
+    }
+    for (long i = 1000; i < 1200; i++) {
+      lru.access(i);
+    }
+    assertFalse(lru.resident.contains(0L));
+  }
+
+  @Test
+  public void TestBufferPoolWithEachPolicy() throws IOException {
+    for (ReplacementPolicy.Type type : ReplacementPolicy.Type.values()) {
+      File tempFile = tempFolder.newFile(fName + type);
+      BufferPool pool = new BufferPool(16, 2, type);
+      assertEquals(type, pool.getPolicyType());
+      PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false, pool);
+
+      for (int i = 0; i < 100; i++) {
+        assertEquals(i, pA.allocPage());
+        pA.fetchPage(i).writeInt(0, i);
+      }
+      for (int i = 0; i < 100; i++) {
+        assertEquals(i, pA.fetchPage(i).readInt(0));
+        assertTrue(pool.size() <= 16);
+      }
+      pA.close();
+      assertEquals(0, pool.size());
+    }
+  }
+}
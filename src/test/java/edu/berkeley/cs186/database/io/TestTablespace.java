@@ -0,0 +1,172 @@
+package edu.berkeley.cs186.database.io;
+
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PrimitiveIterator;
+
+/**
+ * Tests Tablespace.java
+ */
+public class TestTablespace {
+  private final String fName = "TestTablespace.temp";
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Test
+  public void TestTablespaceSegments() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    StorageConfig config = new StorageConfig().setBufferPool(new BufferPool(8, 1)).setSegmentPages(10);
+    Tablespace ts = new Tablespace(tempFile.getAbsolutePath(), true, true, config);
+    int range = 1022 * Page.pageSize;
+
+    List<Integer> pageNums = new ArrayList<Integer>();
+    for (int i = 0; i < 25; i++) {
+      int pageNum = ts.allocPage();
+      ts.fetchPage(pageNum).writeInt(0, i);
+      pageNums.add(pageNum);
+    }
+    assertEquals(3, ts.getNumSegments());
+    assertEquals(25, ts.getNumPages());
+    for (int i = 0; i < 25; i++) {
+      assertEquals((i / 10) * range + i % 10, (int) pageNums.get(i));
+    }
+    assertTrue(new File(tempFile.getAbsolutePath() + ".1").exists());
+    assertTrue(new File(tempFile.getAbsolutePath() + ".2").exists());
+    ts.close();
+
+    // Reopened without a segment limit, the pages keep their numbers and new ones fill segment 0.
+    ts = new Tablespace(tempFile.getAbsolutePath(), false, true, new StorageConfig().setBufferPool(new BufferPool(8, 1)));
+    assertEquals(3, ts.getNumSegments());
+    assertEquals(25, ts.getNumPages());
+    PrimitiveIterator.OfInt numbers = ts.pageNumbers();
+    Iterator<Page> pages = ts.iterator();
+    for (int i = 0; i < 25; i++) {
+      assertEquals((int) pageNums.get(i), numbers.nextInt());
+      Page p = pages.next();
+      assertEquals((int) pageNums.get(i), p.getPageNum());
+      assertEquals(i, p.readInt(0));
+    }
+    assertFalse(numbers.hasNext());
+    assertFalse(pages.hasNext());
+    assertEquals(10, ts.allocPage());
+
+    int[] batch = new int[] {pageNums.get(24), pageNums.get(3), pageNums.get(15), pageNums.get(3)};
+    Page[] fetched = ts.fetchPages(batch);
+    assertEquals(24, fetched[0].readInt(0));
+    assertEquals(3, fetched[1].readInt(0));
+    assertEquals(15, fetched[2].readInt(0));
+    assertSame(fetched[1], fetched[3]);
+    assertTrue(ts.scrub().isEmpty());
+    ts.close();
+  }
+
+  @Test
+  public void TestTablespaceFreeAndTruncate() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    StorageConfig config = new StorageConfig().setBufferPool(new BufferPool(8, 1)).setSegmentPages(4);
+    Tablespace ts = new Tablespace(tempFile.getAbsolutePath(), true, true, config);
+
+    List<Integer> pageNums = new ArrayList<Integer>();
+    for (int i = 0; i < 12; i++) {
+      pageNums.add(ts.allocPage());
+    }
+    assertEquals(3, ts.getNumSegments());
+
+    // A page freed in an earlier segment is reused before the later ones.
+    assertTrue(ts.freePage(pageNums.get(2)));
+    assertFalse(ts.freePage(pageNums.get(2)));
+    assertFalse(ts.freePage(-1));
+    assertEquals((int) pageNums.get(2), ts.allocPage());
+
+    for (int i = 4; i < 12; i++) {
+      assertTrue(ts.freePage(pageNums.get(i)));
+    }
+    try {
+      ts.fetchPage(pageNums.get(5));
+      fail();
+    } catch (PageException e) {
+      // expected
+    }
+    assertTrue(ts.truncate() > 0);
+    assertEquals(1, ts.getNumSegments());
+    assertFalse(new File(tempFile.getAbsolutePath() + ".1").exists());
+    assertFalse(new File(tempFile.getAbsolutePath() + ".2").exists());
+    assertEquals(4, ts.getNumPages());
+    ts.close();
+
+    // Wiping deletes the segments after the first.
+    ts = new Tablespace(tempFile.getAbsolutePath(), true, true, config);
+    for (int i = 0; i < 6; i++) {
+      ts.allocPage();
+    }
+    ts.close();
+    assertTrue(new File(tempFile.getAbsolutePath() + ".1").exists());
+    ts = new Tablespace(tempFile.getAbsolutePath(), true, true, config);
+    assertEquals(1, ts.getNumSegments());
+    assertEquals(0, ts.getNumPages());
+    assertFalse(new File(tempFile.getAbsolutePath() + ".1").exists());
+    ts.delete();
+    assertFalse(tempFile.exists());
+  }
+
+  @Test
+  public void TestTablespaceDirectories() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    File dirA = tempFolder.newFolder("a");
+    File dirB = tempFolder.newFolder("b");
+    StorageConfig config = new StorageConfig().setBufferPool(new BufferPool(8, 1)).setSegmentPages(2)
+                                              .setPageSize(8192).setBackend(StorageBackend.Type.PREAD)
+                                              .setChecksums(true)
+                                              .setSegmentDirectories(dirA.getPath(), dirB.getPath());
+    Tablespace ts = new Tablespace(tempFile.getAbsolutePath(), true, true, config);
+    for (int i = 0; i < 8; i++) {
+      ts.fetchPage(ts.allocPage()).writeInt(0, i);
+    }
+    assertEquals(4, ts.getNumSegments());
+    assertTrue(new File(dirA, fName + ".1").exists());
+    assertTrue(new File(dirB, fName + ".2").exists());
+    assertTrue(new File(dirA, fName + ".3").exists());
+    assertFalse(new File(tempFile.getAbsolutePath() + ".1").exists());
+    ts.close();
+
+    // Every segment has the format of the first.
+    ts = new Tablespace(tempFile.getAbsolutePath(), false, true, config.copy().setPageSize(4096));
+    assertEquals(4, ts.getNumSegments());
+    assertEquals(8192, ts.getPageSize());
+    assertTrue(ts.hasChecksums());
+    int i = 0;
+    for (Page p : ts) {
+      assertEquals(8192, p.getPageSize());
+      assertEquals(i++, p.readInt(0));
+    }
+    assertEquals(8, i);
+    assertTrue(ts.scrub().isEmpty());
+    assertTrue(ts.getIOStats().getLogicalReads() >= 8);
+    ts.close();
+  }
+
+  @Test
+  public void TestTablespaceGrowth() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    StorageConfig config = new StorageConfig().setBufferPool(new BufferPool(8, 1));
+    Tablespace ts = new Tablespace(tempFile.getAbsolutePath(), true, true, config);
+    ts.allocPage();
+    // The master page, the first header page and a growth step of data pages.
+    assertEquals((2 + Tablespace.DEFAULT_GROWTH_PAGES) * Page.pageSize, tempFile.length());
+    ts.close();
+
+    File other = tempFolder.newFile(fName + ".other");
+    ts = new Tablespace(other.getAbsolutePath(), true, true, config.copy().setGrowthPages(1));
+    ts.allocPage();
+    assertEquals(3 * Page.pageSize, other.length());
+    ts.close();
+  }
+}
@@ -17,6 +17,7 @@ import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.databox.FloatDataBox;
 import edu.berkeley.cs186.database.databox.IntDataBox;
 import edu.berkeley.cs186.database.databox.StringDataBox;
+import edu.berkeley.cs186.database.io.StorageConfig;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
 import org.junit.rules.TemporaryFolder;
@@ -443,4 +444,31 @@ public class TestJoinOperator {
 
   }
 
+  @Test(timeout=5000)
+  public void testJoinSlottedPages() throws QueryPlanException, DatabaseException, IOException {
+    TestSourceOperator sourceOperator = new TestSourceOperator();
+    File tempDir = tempFolder.newFolder("joinTest");
+    StorageConfig config = new StorageConfig().setSlottedPages(true);
+    Database.Transaction transaction = new Database(tempDir.getAbsolutePath(), 5, config).beginTransaction();
+
+    List<JoinOperator> joinOperators = new ArrayList<JoinOperator>();
+    joinOperators.add(new PNLJOperator(sourceOperator, sourceOperator, "int", "int", transaction));
+    joinOperators.add(new BNLJOperator(sourceOperator, sourceOperator, "int", "int", transaction));
+    joinOperators.add(new SortMergeOperator(sourceOperator, sourceOperator, "int", "int", transaction));
+    Record record = TestUtils.createRecordWithAllTypes();
+    List<DataBox> expectedRecordValues = new ArrayList<DataBox>(record.getValues());
+    expectedRecordValues.addAll(record.getValues());
+    Record expectedRecord = new Record(expectedRecordValues);
+
+    for (JoinOperator joinOperator : joinOperators) {
+      Iterator<Record> outputIterator = joinOperator.iterator();
+      int numRecords = 0;
+      while (outputIterator.hasNext()) {
+        assertEquals(expectedRecord, outputIterator.next());
+        numRecords++;
+      }
+      assertEquals(100*100, numRecords);
+    }
+  }
+
 }
\ No newline at end of file
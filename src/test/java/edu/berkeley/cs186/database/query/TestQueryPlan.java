@@ -22,6 +22,7 @@ import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.databox.FloatDataBox;
 import edu.berkeley.cs186.database.databox.IntDataBox;
 import edu.berkeley.cs186.database.databox.StringDataBox;
+import edu.berkeley.cs186.database.io.IOStats;
 import edu.berkeley.cs186.database.table.MarkerRecord;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
@@ -625,4 +626,31 @@ public class TestQueryPlan {
 
     transaction.end();
   }
+
+  @Test
+  public void testOperatorIOStats() throws DatabaseException, QueryPlanException {
+    Database.Transaction transaction = this.database.beginTransaction();
+    QueryPlan queryPlan = transaction.query(this.defaulTableName);
+    queryPlan.select("int", QueryPlan.PredicateOperator.GREATER_THAN_EQUALS, new IntDataBox(0));
+
+    IOStats tableBefore = this.database.getIOStats().get(this.defaulTableName);
+    Iterator<Record> outputIterator = queryPlan.execute();
+    int count = 0;
+    while (outputIterator.hasNext()) {
+      outputIterator.next();
+      count++;
+    }
+    assertEquals(this.defaultNumRecords, count);
+    transaction.end();
+    IOStats tableDelta = this.database.getIOStats().get(this.defaulTableName).minus(tableBefore);
+
+    // The select reads no pages itself; everything it consumed was read by the scan below it.
+    QueryOperator select = queryPlan.getFinalOperator();
+    QueryOperator scan = select.getSource();
+    assertTrue(select.isSelect());
+    assertTrue(scan.isSequentialScan());
+    assertEquals(0, select.getIOStats().getLogicalReads());
+    assertTrue(scan.getIOStats().getLogicalReads() > 0);
+    assertEquals(tableDelta.getLogicalReads(), scan.getIOStats().getLogicalReads());
+  }
 }
@@ -1,18 +1,30 @@
 package edu.berkeley.cs186.database.table;
 
 import edu.berkeley.cs186.database.TestUtils;
+import edu.berkeley.cs186.database.databox.BoolDataBox;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.FloatDataBox;
 import edu.berkeley.cs186.database.databox.IntDataBox;
 import edu.berkeley.cs186.database.databox.StringDataBox;
+import edu.berkeley.cs186.database.io.Page;
+import edu.berkeley.cs186.database.io.PageAllocator;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.Assert.*;
 
 public class TestSchema {
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
   @Test
   public void testSchemaRetrieve() {
     Schema schema = TestUtils.createSchemaWithAllTypes();
@@ -24,6 +36,57 @@ public class TestSchema {
     assertEquals(input, decoded);
   }
 
+  @Test
+  public void testSchemaPageEncoding() throws IOException {
+    Schema schema = TestUtils.createSchemaWithAllTypes();
+    assertEquals(0, schema.getColumnOffset(0));
+    assertEquals(1, schema.getColumnOffset(1));
+    assertEquals(5, schema.getColumnOffset(2));
+    assertEquals(10, schema.getColumnOffset(3));
+
+    File tempFile = tempFolder.newFile("TestSchema.temp");
+    PageAllocator allocator = new PageAllocator(tempFile.getAbsolutePath(), true);
+    Page page = allocator.fetchPage(allocator.allocPage());
+    Record input = TestUtils.createRecordWithAllTypesWithValue(42);
+    schema.encodeInto(input, page, 100);
+    assertArrayEquals(schema.encode(input), page.readBytes(100, schema.getEntrySize()));
+    assertEquals(input, schema.decodeFrom(page, 100));
+    assertEquals(input, schema.decode(page.readBytes(100, schema.getEntrySize())));
+
+    List<DataBox> values = new ArrayList<DataBox>(input.getValues());
+    values.set(0, new BoolDataBox(false));
+    values.set(3, new FloatDataBox(-0.5f));
+    Record other = new Record(values);
+    schema.encodeInto(other, page, 100);
+    assertEquals(other, schema.decodeFrom(page, 100));
+    allocator.close();
+  }
+
+  @Test
+  public void testSchemaVariableEncoding() {
+    List<String> fieldNames = new ArrayList<String>();
+    List<DataBox> fieldTypes = new ArrayList<DataBox>();
+    fieldNames.add("int");
+    fieldNames.add("name");
+    fieldNames.add("empty");
+    fieldTypes.add(new IntDataBox());
+    fieldTypes.add(new StringDataBox(100));
+    fieldTypes.add(new StringDataBox(70000));
+    Schema schema = new Schema(fieldNames, fieldTypes);
+
+    List<DataBox> values = new ArrayList<DataBox>();
+    values.add(new IntDataBox(7));
+    values.add(new StringDataBox(" ab c", 100));
+    values.add(new StringDataBox("", 70000));
+    Record input = new Record(values);
+
+    // The int, a 2-byte length and 5 bytes of the first string, and a 4-byte length.
+    byte[] encoded = schema.encodeVariable(input);
+    assertEquals(4 + 2 + 5 + 4, encoded.length);
+    assertEquals(input, schema.decodeVariable(encoded));
+    assertEquals(input, schema.decodeVariable(Arrays.copyOf(encoded, encoded.length + 6)));
+  }
+
   @Test
   public void testValidRecord() {
     Schema schema = TestUtils.createSchemaWithAllTypes();
@@ -4,6 +4,7 @@ import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.TestUtils;
 import edu.berkeley.cs186.database.StudentTest;
 import edu.berkeley.cs186.database.databox.*;
+import edu.berkeley.cs186.database.io.StorageConfig;
 
 import org.junit.After;
 import org.junit.Before;
@@ -15,8 +16,14 @@ import org.junit.rules.TemporaryFolder;
 import org.junit.experimental.categories.Category;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.List;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.io.File;
 import java.io.IOException;
 
 import static org.junit.Assert.*;
@@ -391,4 +398,466 @@ public class TestTable {
     assertFalse(iRec.hasNext());
   }
 
+  @Test
+  public void testTableLargePages() throws DatabaseException {
+    String tempFolderPath = tempFolder.getRoot().getAbsolutePath();
+    StorageConfig config = new StorageConfig().setPageSize(16384);
+    Table large = new Table(this.schema, "largetable", tempFolderPath, config);
+    assertEquals(1152, large.getNumEntriesPerPage());
+
+    Record input = TestUtils.createRecordWithAllTypes();
+    for (int i = 0; i < 2000; i++) {
+      large.addRecord(input.getValues());
+    }
+    assertEquals(2, large.getNumDataPages());
+    assertEquals(2, large.getStats().getNumPages());
+    large.close();
+
+    // The page size is read back from the file rather than taken from the config.
+    large = new Table("largetable", tempFolderPath);
+    assertEquals(1152, large.getNumEntriesPerPage());
+    assertEquals(2000, large.getNumRecords());
+    large.close();
+  }
+
+  @Test
+  public void testTableCompact() throws DatabaseException {
+    String tempFolderPath = tempFolder.getRoot().getAbsolutePath();
+    File file = new File(tempFolderPath, TABLENAME + Table.FILENAME_EXTENSION);
+    Record input = TestUtils.createRecordWithAllTypes();
+    int perPage = table.getNumEntriesPerPage();
+
+    List<RecordID> rids = new ArrayList<RecordID>();
+    for (int i = 0; i < 10 * perPage; i++) {
+      input.getValues().get(1).setInt(i);
+      rids.add(table.addRecord(input.getValues()));
+    }
+    long sizeBefore = file.length();
+
+    // Empty the first pages entirely and leave holes in the others.
+    Map<RecordID, Integer> live = new HashMap<RecordID, Integer>();
+    for (int i = 0; i < rids.size(); i++) {
+      if (i < 4 * perPage || i % 3 != 0) {
+        table.deleteRecord(rids.get(i));
+      } else {
+        live.put(rids.get(i), i);
+      }
+    }
+    assertEquals(10, table.getNumDataPages());
+
+    Map<RecordID, RecordID> moved = table.compact();
+    assertEquals(live.size(), table.getNumRecords());
+    assertEquals((live.size() + perPage - 1) / perPage, table.getNumDataPages());
+    assertTrue(file.length() < sizeBefore);
+
+    Set<Integer> seen = new HashSet<Integer>();
+    for (Map.Entry<RecordID, Integer> e : live.entrySet()) {
+      RecordID rid = moved.containsKey(e.getKey()) ? moved.get(e.getKey()) : e.getKey();
+      assertEquals((int) e.getValue(), table.getRecord(rid).getValues().get(1).getInt());
+      seen.add(e.getValue());
+    }
+    assertEquals(live.size(), seen.size());
+
+    // The table keeps working, and reopens, after being compacted.
+    table.addRecord(input.getValues());
+    table.close();
+    this.table = new Table(TABLENAME, tempFolderPath);
+    assertEquals(live.size() + 1, table.getNumRecords());
+    int count = 0;
+    for (Record r : table) {
+      count++;
+    }
+    assertEquals(live.size() + 1, count);
+  }
+
+  @Test
+  public void testTableGetRecords() throws DatabaseException {
+    List<RecordID> rids = new ArrayList<RecordID>();
+    List<Record> records = new ArrayList<Record>();
+    for (int i = 0; i < 1000; i++) {
+      Record r = TestUtils.createRecordWithAllTypesWithValue(i);
+      records.add(r);
+      rids.add(this.table.addRecord(r.getValues()));
+    }
+
+    // Spread over several pages, out of order and with repeats.
+    List<RecordID> batch = new ArrayList<RecordID>();
+    List<Record> expected = new ArrayList<Record>();
+    for (int i = 999; i >= 0; i -= 7) {
+      batch.add(rids.get(i));
+      expected.add(records.get(i));
+      batch.add(rids.get(i / 2));
+      expected.add(records.get(i / 2));
+    }
+    assertEquals(expected, this.table.getRecords(batch));
+
+    this.table.deleteRecord(rids.get(5));
+    batch.add(rids.get(5));
+    try {
+      this.table.getRecords(batch);
+      fail();
+    } catch (DatabaseException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testRecordIteratorBatches() throws DatabaseException {
+    List<RecordID> rids = new ArrayList<RecordID>();
+    for (int i = 0; i < 100; i++) {
+      rids.add(this.table.addRecord(TestUtils.createRecordWithAllTypesWithValue(i).getValues()));
+    }
+    this.table.deleteRecord(rids.get(10));
+
+    // The invalid RecordID only fails the call that reaches it, not the rest of its batch.
+    RecordIterator iter = new RecordIterator(this.table, rids.iterator());
+    for (int i = 0; i < 10; i++) {
+      assertEquals(TestUtils.createRecordWithAllTypesWithValue(i), iter.next());
+    }
+    // A record updated after its batch was started is returned as it is now.
+    Record updated = TestUtils.createRecordWithAllTypesWithValue(1011);
+    this.table.updateRecord(updated.getValues(), rids.get(11));
+    try {
+      iter.next();
+      fail();
+    } catch (NoSuchElementException e) {
+      // expected
+    }
+    assertEquals(updated, iter.next());
+    for (int i = 12; i < 100; i++) {
+      assertEquals(TestUtils.createRecordWithAllTypesWithValue(i), iter.next());
+    }
+    assertFalse(iter.hasNext());
+  }
+
+  @Test
+  public void testTableSegments() throws DatabaseException {
+    String tempFolderPath = tempFolder.getRoot().getAbsolutePath();
+    StorageConfig config = new StorageConfig().setSegmentPages(4);
+    Table segmented = new Table(this.schema, "segmented", tempFolderPath, config);
+    int perPage = segmented.getNumEntriesPerPage();
+
+    List<RecordID> rids = new ArrayList<RecordID>();
+    for (int i = 0; i < 10 * perPage; i++) {
+      rids.add(segmented.addRecord(TestUtils.createRecordWithAllTypesWithValue(i).getValues()));
+    }
+    assertEquals(10, segmented.getNumDataPages());
+    assertTrue(new File(tempFolderPath, "segmented" + Table.FILENAME_EXTENSION + ".2").exists());
+    segmented.close();
+
+    segmented = new Table("segmented", tempFolderPath);
+    assertEquals(10 * perPage, segmented.getNumRecords());
+    for (int i = 0; i < rids.size(); i += 97) {
+      assertEquals(TestUtils.createRecordWithAllTypesWithValue(i), segmented.getRecord(rids.get(i)));
+    }
+    int count = 0;
+    for (Record r : segmented) {
+      assertEquals(TestUtils.createRecordWithAllTypesWithValue(count), r);
+      count++;
+    }
+    assertEquals(10 * perPage, count);
+    segmented.delete();
+    assertFalse(new File(tempFolderPath, "segmented" + Table.FILENAME_EXTENSION).exists());
+    assertFalse(new File(tempFolderPath, "segmented" + Table.FILENAME_EXTENSION + ".1").exists());
+  }
+
+  @Test
+  public void testTableSlottedPages() throws DatabaseException {
+    String tempFolderPath = tempFolder.getRoot().getAbsolutePath();
+    Schema stringSchema = TestUtils.createSchemaOfString(100);
+    StorageConfig config = new StorageConfig().setSlottedPages(true);
+    Table slotted = new Table(stringSchema, "slotted", tempFolderPath, config);
+    assertTrue(slotted.isSlotted());
+
+    // Short strings take a fraction of the 100 bytes of their column, so a page holds many more
+    // records than the 40 of fixed slots.
+    List<RecordID> rids = new ArrayList<RecordID>();
+    for (int i = 0; i < 1000; i++) {
+      rids.add(slotted.addRecord(stringRecord("r" + i)));
+    }
+    assertTrue(slotted.getNumDataPages() <= 1000 / 200);
+    for (int i = 0; i < 1000; i += 37) {
+      assertEquals(new Record(stringRecord("r" + i)), slotted.getRecord(rids.get(i)));
+    }
+
+    for (int i = 0; i < 1000; i += 2) {
+      slotted.deleteRecord(rids.get(i));
+    }
+    try {
+      slotted.getRecord(rids.get(0));
+      fail();
+    } catch (DatabaseException e) {
+      // expected
+    }
+    // Freed slots are reused.
+    RecordID reused = slotted.addRecord(stringRecord("new"));
+    assertEquals(rids.get(0), reused);
+    slotted.close();
+
+    // The layout is recorded in the table, not taken from the config it is opened with.
+    slotted = new Table("slotted", tempFolderPath);
+    assertTrue(slotted.isSlotted());
+    assertEquals(501, slotted.getNumRecords());
+    assertEquals(new Record(stringRecord("new")), slotted.getRecord(reused));
+    int count = 0;
+    for (Record r : slotted) {
+      count++;
+    }
+    assertEquals(501, count);
+    assertEquals(501, slotted.getStats().getNumRecords());
+    slotted.close();
+  }
+
+  @Test
+  public void testTableSlottedUpdate() throws DatabaseException {
+    String tempFolderPath = tempFolder.getRoot().getAbsolutePath();
+    Schema stringSchema = TestUtils.createSchemaOfString(100);
+    StorageConfig config = new StorageConfig().setSlottedPages(true);
+    Table slotted = new Table(stringSchema, "slotted", tempFolderPath, config);
+
+    // Fill the first page with records of 40 bytes.
+    String medium = String.format("%040d", 0);
+    List<RecordID> rids = new ArrayList<RecordID>();
+    RecordID rid = slotted.addRecord(stringRecord(medium));
+    while (rid.getPageNum() == 1) {
+      rids.add(rid);
+      rid = slotted.addRecord(stringRecord(medium));
+    }
+    slotted.deleteRecord(rid);
+
+    // Growing a record of the full page moves it to another page, keeping its RecordID.
+    String full = String.format("%0100d", 1);
+    RecordID first = rids.get(0);
+    assertEquals(new Record(stringRecord(medium)), slotted.updateRecord(stringRecord(full), first));
+    assertEquals(new Record(stringRecord(full)), slotted.getRecord(first));
+    assertTrue(slotted.getNumDataPages() > 1);
+
+    // It is updated where it moved to, and yielded once by scans.
+    String other = String.format("%099d", 2);
+    slotted.updateRecord(stringRecord(other), first);
+    assertEquals(new Record(stringRecord(other)), slotted.getRecord(first));
+    List<RecordID> batch = new ArrayList<RecordID>();
+    batch.add(first);
+    batch.add(rids.get(1));
+    List<Record> records = slotted.getRecords(batch);
+    assertEquals(new Record(stringRecord(other)), records.get(0));
+    assertEquals(new Record(stringRecord(medium)), records.get(1));
+    int count = 0;
+    int found = 0;
+    for (Record r : slotted) {
+      count++;
+      if (r.equals(new Record(stringRecord(other)))) {
+        found++;
+      }
+    }
+    assertEquals(rids.size(), count);
+    assertEquals(1, found);
+
+    // Shrunk back, it returns to its own page.
+    slotted.updateRecord(stringRecord("short"), first);
+    assertEquals(new Record(stringRecord("short")), slotted.getRecord(first));
+    slotted.compact();
+    assertEquals(1, slotted.getNumDataPages());
+
+    // Deleting a moved record frees both of its slots.
+    slotted.updateRecord(stringRecord(full), rids.get(2));
+    slotted.updateRecord(stringRecord(full), rids.get(3));
+    assertEquals(new Record(stringRecord(full)), slotted.deleteRecord(rids.get(2)));
+    assertEquals(rids.size() - 1, slotted.getNumRecords());
+    assertTrue(slotted.compact().isEmpty());
+    assertEquals(2, slotted.getNumDataPages());
+    slotted.close();
+
+    slotted = new Table("slotted", tempFolderPath);
+    assertEquals(rids.size() - 1, slotted.getNumRecords());
+    assertEquals(new Record(stringRecord(full)), slotted.getRecord(rids.get(3)));
+    count = 0;
+    for (Record r : slotted) {
+      count++;
+    }
+    assertEquals(rids.size() - 1, count);
+    slotted.close();
+  }
+
+  @Test
+  public void testTableRecordViews() throws DatabaseException {
+    String tempFolderPath = tempFolder.getRoot().getAbsolutePath();
+    Table slotted = new Table(this.schema, "slotted", tempFolderPath, new StorageConfig().setSlottedPages(true));
+    for (int i = 0; i < 1000; i++) {
+      this.table.addRecord(TestUtils.createRecordWithAllTypesWithValue(i).getValues());
+      slotted.addRecord(TestUtils.createRecordWithAllTypesWithValue(i).getValues());
+    }
+
+    for (Table t : new Table[] {this.table, slotted}) {
+      // Plain iteration decodes every record; views are opt-in.
+      for (Record r : t) {
+        assertFalse(r instanceof RecordView);
+      }
+
+      int i = 0;
+      Iterator<Record> views = t.viewIterator();
+      while (views.hasNext()) {
+        Record r = views.next();
+        Record expected = TestUtils.createRecordWithAllTypesWithValue(i);
+        assertTrue(r instanceof RecordView);
+        // Columns are decoded one at a time, in any order.
+        assertEquals(expected.getValue(3), r.getValue(3));
+        assertEquals(expected.getValue(1), r.getValue(1));
+        assertEquals(expected, r);
+        assertEquals(expected.getValue(2), r.getValue(2));
+        i++;
+      }
+      assertEquals(1000, i);
+    }
+    slotted.close();
+  }
+
+  @Test
+  public void testTableBulkLoad() throws DatabaseException {
+    Record input = TestUtils.createRecordWithAllTypes();
+    int perPage = table.getNumEntriesPerPage();
+    List<List<DataBox>> rows = new ArrayList<List<DataBox>>();
+    for (int i = 0; i < 2 * perPage + 3; i++) {
+      List<DataBox> values = new ArrayList<DataBox>(input.getValues());
+      values.set(1, new IntDataBox(i));
+      rows.add(values);
+    }
+
+    final List<RecordID> rids = new ArrayList<RecordID>();
+    assertEquals(rows.size(), table.bulkLoad(rows.iterator(), new Table.BulkLoadListener() {
+      public void added(RecordID rid, Record record) {
+        rids.add(rid);
+      }
+
+      public void finished() {}
+
+      public void removed(RecordID rid, Record record) {
+        fail();
+      }
+    }));
+    assertEquals(rows.size(), rids.size());
+    for (int i = 0; i < rows.size(); i++) {
+      assertEquals(new RecordID(1 + i / perPage, i % perPage), rids.get(i));
+    }
+    assertEquals(rows.size(), table.getNumRecords());
+    assertEquals(rows.size(), table.getStats().getNumRecords());
+    assertEquals(3, table.getNumDataPages());
+    int i = 0;
+    for (Record r : table) {
+      assertEquals(new Record(rows.get(i++)), r);
+    }
+    assertEquals(rows.size(), i);
+
+    // The last page is not full, and addRecord fills it up.
+    assertEquals(new RecordID(3, 3), table.addRecord(input.getValues()));
+
+    // A row that does not match the schema undoes the whole load.
+    List<List<DataBox>> bad = new ArrayList<List<DataBox>>(rows);
+    bad.add(stringRecord("bad"));
+    try {
+      table.bulkLoad(bad.iterator());
+      fail();
+    } catch (DatabaseException e) {
+      // expected
+    }
+    assertEquals(rows.size() + 1, table.getNumRecords());
+    assertEquals(rows.size() + 1, table.getStats().getNumRecords());
+    assertEquals(3, table.getNumDataPages());
+
+    // So does a listener that throws, and the pages of the load are freed again.
+    try {
+      table.bulkLoad(rows.iterator(), new Table.BulkLoadListener() {
+        public void added(RecordID rid, Record record) throws DatabaseException {
+          if (rid.getPageNum() == 6) {
+            throw new DatabaseException("stop");
+          }
+        }
+
+        public void finished() {
+          fail();
+        }
+
+        public void removed(RecordID rid, Record record) {}
+      });
+      fail();
+    } catch (DatabaseException e) {
+      assertEquals("stop", e.getMessage());
+    }
+    assertEquals(rows.size() + 1, table.getNumRecords());
+    assertEquals(rows.size() + 1, table.getStats().getNumRecords());
+    assertEquals(3, table.getNumDataPages());
+
+    // And so does a listener that fails once every row is added, which is told of every record
+    // taken out again.
+    final Set<RecordID> added = new HashSet<RecordID>();
+    final Set<RecordID> removed = new HashSet<RecordID>();
+    try {
+      table.bulkLoad(rows.iterator(), new Table.BulkLoadListener() {
+        public void added(RecordID rid, Record record) {
+          added.add(rid);
+        }
+
+        public void finished() throws DatabaseException {
+          throw new DatabaseException("stop");
+        }
+
+        public void removed(RecordID rid, Record record) {
+          assertEquals(new Record(rows.get(record.getValues().get(1).getInt())), record);
+          removed.add(rid);
+        }
+      });
+      fail();
+    } catch (DatabaseException e) {
+      assertEquals("stop", e.getMessage());
+    }
+    assertEquals(rows.size(), added.size());
+    assertEquals(added, removed);
+    assertEquals(rows.size() + 1, table.getNumRecords());
+    assertEquals(3, table.getNumDataPages());
+    assertEquals(new RecordID(3, 4), table.addRecord(input.getValues()));
+  }
+
+  @Test
+  public void testTableBulkLoadSlotted() throws DatabaseException {
+    String tempFolderPath = tempFolder.getRoot().getAbsolutePath();
+    Schema stringSchema = TestUtils.createSchemaOfString(100);
+    StorageConfig config = new StorageConfig().setSlottedPages(true);
+    Table slotted = new Table(stringSchema, "slotted", tempFolderPath, config);
+
+    List<List<DataBox>> rows = new ArrayList<List<DataBox>>();
+    for (int i = 0; i < 1000; i++) {
+      rows.add(stringRecord("r" + i));
+    }
+    final List<RecordID> rids = new ArrayList<RecordID>();
+    slotted.bulkLoad(rows.iterator(), new Table.BulkLoadListener() {
+      public void added(RecordID rid, Record record) {
+        rids.add(rid);
+      }
+
+      public void finished() {}
+
+      public void removed(RecordID rid, Record record) {
+        fail();
+      }
+    });
+    assertTrue(slotted.getNumDataPages() <= 1000 / 200);
+    for (int i = 0; i < 1000; i += 37) {
+      assertEquals(new Record(rows.get(i)), slotted.getRecord(rids.get(i)));
+    }
+    slotted.close();
+
+    slotted = new Table("slotted", tempFolderPath);
+    int count = 0;
+    for (Record r : slotted) {
+      assertEquals(new Record(rows.get(count++)), r);
+    }
+    assertEquals(1000, count);
+    slotted.close();
+  }
+
+  private static List<DataBox> stringRecord(String s) {
+    List<DataBox> values = new ArrayList<DataBox>();
+    values.add(new StringDataBox(s, 100));
+    return values;
+  }
 }